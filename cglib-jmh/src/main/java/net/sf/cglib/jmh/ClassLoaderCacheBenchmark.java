@@ -0,0 +1,89 @@
+package net.sf.cglib.jmh;
+
+import net.sf.cglib.reflect.FastClass;
+import net.sf.cglib.samples.SimpleClass;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-ClassLoader cache of generated classes as the number of loaders grows:
+ * {@link #lookup} finds already generated classes from several threads, and {@link #register}
+ * generates a class into each of a batch of fresh loaders.
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx512m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClassLoaderCacheBenchmark {
+    @Param({"1", "64", "1024"})
+    public int loaders;
+
+    private ClassLoader[] registered;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @State(Scope.Thread)
+    public static class FreshLoaders {
+        ClassLoader[] loaders;
+
+        @Setup(Level.Invocation)
+        public void setup(ClassLoaderCacheBenchmark benchmark) {
+            loaders = newLoaders(benchmark.loaders);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        registered = newLoaders(loaders);
+        for (ClassLoader loader : registered) {
+            FastClass.create(loader, SimpleClass.class);
+        }
+    }
+
+    private static ClassLoader[] newLoaders(int count) {
+        ClassLoader[] result = new ClassLoader[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = new ClassLoader(SimpleClass.class.getClassLoader()) { };
+        }
+        return result;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public FastClass lookup(Cursor cursor) {
+        ClassLoader loader = registered[cursor.next++ % registered.length];
+        return FastClass.create(loader, SimpleClass.class);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 20)
+    public void register(FreshLoaders fresh) {
+        for (ClassLoader loader : fresh.loaders) {
+            FastClass.create(loader, SimpleClass.class);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(ClassLoaderCacheBenchmark.class.getSimpleName())
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
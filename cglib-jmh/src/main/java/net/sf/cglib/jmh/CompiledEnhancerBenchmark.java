@@ -0,0 +1,75 @@
+package net.sf.cglib.jmh;
+
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CompiledEnhancer;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.NoOp;
+import net.sf.cglib.samples.SimpleClass;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates proxies of an already generated class. Run with the GC profiler:
+ * <code>gc.alloc.rate.norm</code> of {@link #compiled} should equal the one of
+ * {@link #baseline}, that is the size of the proxy alone.
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx128m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CompiledEnhancerBenchmark {
+    private final Callback[] callbacks = new Callback[]{ NoOp.INSTANCE };
+
+    private Enhancer enhancer;
+    private CompiledEnhancer compiled;
+
+    /**
+     * Has the same fields as the proxy class.
+     */
+    public static class Baseline extends SimpleClass {
+        private boolean bound;
+        private Object callback;
+    }
+
+    @Setup
+    public void setup() {
+        enhancer = new Enhancer();
+        enhancer.setSuperclass(SimpleClass.class);
+        enhancer.setCallbacks(callbacks);
+        compiled = enhancer.compile();
+    }
+
+    @Benchmark
+    public Object enhancer() {
+        return enhancer.create();
+    }
+
+    @Benchmark
+    public Object compiled() {
+        return compiled.newInstance(callbacks);
+    }
+
+    @Benchmark
+    public Object baseline() {
+        return new Baseline();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(CompiledEnhancerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
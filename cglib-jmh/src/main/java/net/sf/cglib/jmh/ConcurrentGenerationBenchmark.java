@@ -0,0 +1,68 @@
+package net.sf.cglib.jmh;
+
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.NoOp;
+import net.sf.cglib.samples.SimpleClass;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates distinct proxy classes into a single ClassLoader from several threads,
+ * so the throughput shows whether generation for one loader is serialized.
+ * Compare the runs with 1 and 8 threads. Note that the JVM itself still serializes
+ * class definition in loaders that are not registered as parallel capable.
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx512m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConcurrentGenerationBenchmark {
+    private final AtomicLong serialVersionUID = new AtomicLong();
+
+    private ClassLoader loader;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        // a fresh loader per iteration keeps the number of classes per loader bounded
+        loader = new ClassLoader(SimpleClass.class.getClassLoader()) { };
+    }
+
+    private Class generate() {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(SimpleClass.class);
+        e.setCallbackType(NoOp.class);
+        e.setSerialVersionUID(serialVersionUID.incrementAndGet());
+        e.setClassLoader(loader);
+        return e.createClass();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Class singleThread() {
+        return generate();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Class eightThreads() {
+        return generate();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(ConcurrentGenerationBenchmark.class.getSimpleName())
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,147 @@
+package net.sf.cglib.jmh;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import net.sf.cglib.reflect.FastClass;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the generated {@link FastClass} with the one backed by method handles:
+ * {@link #invoke} and {@link #invokeInt} measure the steady-state calls, {@link #firstCall}
+ * the creation of a batch of uncached <code>FastClass</code> instances followed by a first call
+ * to each, from a cold start, and {@link #create} the same for one instance once warmed up.
+ * The <code>metaspaceBytes</code> counter of {@link #create} is the growth of the Metaspace per
+ * <code>FastClass</code> created.
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx128m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FastClassImplementationBenchmark {
+    private static final int BATCH = 100;
+
+    public static class Service {
+        public int add(int a, int b) { return a + b; }
+        public long total(long a, long b, long c) { return a + b + c; }
+        public String concat(String a, String b) { return a + b; }
+        public boolean isEmpty(String s) { return s.length() == 0; }
+        public double half(double a) { return a / 2; }
+        public void reset() { }
+        public Object first(Object[] values) { return values[0]; }
+        public int length(String s) { return s.length(); }
+    }
+
+    @Param({"generated", "methodHandles"})
+    public String implementation;
+
+    private Service service;
+    private FastClass fastClass;
+    private int add;
+    private Integer a;
+    private Integer b;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Metaspace {
+        private long created;
+        private long grown;
+        public long metaspaceBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            created = 0;
+            grown = 0;
+        }
+
+        void record(long bytes) {
+            created++;
+            grown += bytes;
+            metaspaceBytes = grown / created;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        service = new Service();
+        fastClass = create(true);
+        add = fastClass.getIndex("add", new Class[]{ Integer.TYPE, Integer.TYPE });
+        a = Integer.valueOf(1);
+        b = Integer.valueOf(2);
+    }
+
+    private FastClass create(boolean useCache) {
+        FastClass.Generator gen = new FastClass.Generator();
+        gen.setType(Service.class);
+        gen.setUseMethodHandles(implementation.equals("methodHandles"));
+        gen.setSpecializedEntryPoints(true);
+        gen.setUseCache(useCache);
+        return gen.create();
+    }
+
+    private static long getMetaspaceUsed() {
+        for (Iterator it = ManagementFactory.getMemoryPoolMXBeans().iterator(); it.hasNext();) {
+            MemoryPoolMXBean pool = (MemoryPoolMXBean)it.next();
+            if (pool.getName().equals("Metaspace")) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return 0;
+    }
+
+    @Benchmark
+    public Object invoke() throws InvocationTargetException {
+        return fastClass.invoke(add, service, new Object[]{ a, b });
+    }
+
+    @Benchmark
+    public int invokeInt() throws InvocationTargetException {
+        return fastClass.invokeInt(add, service, a, b);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public FastClass[] firstCall() throws InvocationTargetException {
+        FastClass[] created = new FastClass[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            created[i] = createAndCall();
+        }
+        return created;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public FastClass create(Metaspace metaspace) throws InvocationTargetException {
+        long before = getMetaspaceUsed();
+        FastClass created = createAndCall();
+        metaspace.record(getMetaspaceUsed() - before);
+        return created;
+    }
+
+    private FastClass createAndCall() throws InvocationTargetException {
+        FastClass created = create(false);
+        created.invokeInt(created.getIndex("add", new Class[]{ Integer.TYPE, Integer.TYPE }), service, a, b);
+        return created;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(FastClassImplementationBenchmark.class.getSimpleName())
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
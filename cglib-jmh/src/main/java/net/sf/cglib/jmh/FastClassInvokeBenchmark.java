@@ -0,0 +1,85 @@
+package net.sf.cglib.jmh;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+import net.sf.cglib.reflect.FastClass;
+import net.sf.cglib.reflect.FastMethod;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Calls a method returning an <code>int</code> through {@link FastClass}, with an array of
+ * arguments and a boxed result, and with the entry points taking the arguments one by one.
+ * Run with <code>-prof gc</code> to compare the allocation rates.
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx128m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FastClassInvokeBenchmark {
+    public static class Service {
+        public int lookup(String key, Object value) {
+            return key.length() + (value == null ? 0 : 1);
+        }
+    }
+
+    private Service service;
+    private FastClass fastClass;
+    private FastMethod fastMethod;
+    private int index;
+    private String key;
+    private Object value;
+
+    @Setup
+    public void setup() {
+        service = new Service();
+        FastClass.Generator gen = new FastClass.Generator();
+        gen.setType(Service.class);
+        gen.setSpecializedEntryPoints(true);
+        fastClass = gen.create();
+        fastMethod = fastClass.getMethod("lookup", new Class[]{ String.class, Object.class });
+        index = fastMethod.getIndex();
+        key = "key";
+        value = new Object();
+    }
+
+    @Benchmark
+    public int direct() {
+        return service.lookup(key, value);
+    }
+
+    @Benchmark
+    public int invokeArray() throws InvocationTargetException {
+        return ((Integer)fastClass.invoke(index, service, new Object[]{ key, value })).intValue();
+    }
+
+    @Benchmark
+    public int invoke2() throws InvocationTargetException {
+        return ((Integer)fastClass.invoke2(index, service, key, value)).intValue();
+    }
+
+    @Benchmark
+    public int invokeInt() throws InvocationTargetException {
+        return fastClass.invokeInt(index, service, key, value);
+    }
+
+    @Benchmark
+    public int fastMethodInvokeInt() throws InvocationTargetException {
+        return fastMethod.invokeInt(service, key, value);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(FastClassInvokeBenchmark.class.getSimpleName())
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
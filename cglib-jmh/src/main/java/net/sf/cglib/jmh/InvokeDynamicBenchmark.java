@@ -0,0 +1,101 @@
+package net.sf.cglib.jmh;
+
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
+import net.sf.cglib.proxy.FixedValue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls a method intercepted by a {@link FixedValue} on three proxies of the same class, each
+ * with a callback of a different class, so that the type profile of the interface call in the
+ * generated method is megamorphic. Compares the interface call with the invokedynamic call
+ * sites of {@link Enhancer#setUseInvokeDynamic}.
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx128m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InvokeDynamicBenchmark {
+    public static class Value {
+        public Object get() {
+            return null;
+        }
+    }
+
+    public static class One implements FixedValue {
+        public Object loadObject() {
+            return "one";
+        }
+    }
+
+    public static class Two implements FixedValue {
+        public Object loadObject() {
+            return "two";
+        }
+    }
+
+    public static class Three implements FixedValue {
+        public Object loadObject() {
+            return "three";
+        }
+    }
+
+    private Value[] interfaceCalls;
+    private Value[] invokeDynamic;
+
+    @Setup
+    public void setup() {
+        interfaceCalls = create(false);
+        invokeDynamic = create(true);
+    }
+
+    private static Value[] create(boolean useInvokeDynamic) {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(Value.class);
+        e.setCallback(new One());
+        e.setUseInvokeDynamic(useInvokeDynamic);
+        Factory one = (Factory) e.create();
+        return new Value[]{
+            (Value) one,
+            (Value) one.newInstance(new Two()),
+            (Value) one.newInstance(new Three()),
+        };
+    }
+
+    private static int call(Value[] values) {
+        int length = 0;
+        for (int i = 0; i < values.length; i++) {
+            length += ((String) values[i].get()).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int interfaceCalls() {
+        return call(interfaceCalls);
+    }
+
+    @Benchmark
+    public int invokeDynamic() {
+        return call(invokeDynamic);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(InvokeDynamicBenchmark.class.getSimpleName())
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
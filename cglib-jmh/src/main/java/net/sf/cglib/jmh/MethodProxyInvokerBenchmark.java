@@ -0,0 +1,91 @@
+package net.sf.cglib.jmh;
+
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls an intercepted getter and setter whose interceptor uses {@link MethodProxy#invokeSuper},
+ * implemented with the {@link net.sf.cglib.reflect.FastClass} of the proxy and with per-method
+ * invokers ({@link Enhancer#setUseMethodInvokers}).
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx128m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MethodProxyInvokerBenchmark {
+    public static class Counter {
+        private int value;
+
+        public int getValue() {
+            return value;
+        }
+
+        public void setValue(int value) {
+            this.value = value;
+        }
+    }
+
+    private static final MethodInterceptor INVOKE_SUPER = new MethodInterceptor() {
+        public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+            return proxy.invokeSuper(obj, args);
+        }
+    };
+
+    private Counter plain;
+    private Counter fastClass;
+    private Counter invokers;
+
+    @Setup
+    public void setup() {
+        plain = new Counter();
+        fastClass = create(false);
+        invokers = create(true);
+    }
+
+    private static Counter create(boolean useMethodInvokers) {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(Counter.class);
+        e.setCallback(INVOKE_SUPER);
+        e.setUseMethodInvokers(useMethodInvokers);
+        return (Counter) e.create();
+    }
+
+    @Benchmark
+    public int direct() {
+        plain.setValue(plain.getValue() + 1);
+        return plain.getValue();
+    }
+
+    @Benchmark
+    public int fastClass() {
+        fastClass.setValue(fastClass.getValue() + 1);
+        return fastClass.getValue();
+    }
+
+    @Benchmark
+    public int invokers() {
+        invokers.setValue(invokers.getValue() + 1);
+        return invokers.getValue();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(MethodProxyInvokerBenchmark.class.getSimpleName())
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,101 @@
+package net.sf.cglib.jmh;
+
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
+import net.sf.cglib.proxy.FixedValue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates proxies with eight callbacks, stored in one field per callback and shared with
+ * {@link Enhancer#setShareCallbacks}. Run with the GC profiler to compare the bytes
+ * allocated per instance (<code>gc.alloc.rate.norm</code>).
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx128m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SharedCallbacksBenchmark {
+    private static final int CALLBACKS = 8;
+
+    public static class Entity {
+        public int m0() { return 0; }
+        public int m1() { return 1; }
+        public int m2() { return 2; }
+        public int m3() { return 3; }
+        public int m4() { return 4; }
+        public int m5() { return 5; }
+        public int m6() { return 6; }
+        public int m7() { return 7; }
+    }
+
+    private Callback[] callbacks;
+    private Factory fields;
+    private Factory shared;
+
+    @Setup
+    public void setup() {
+        callbacks = new Callback[CALLBACKS];
+        for (int i = 0; i < CALLBACKS; i++) {
+            final Integer value = new Integer(i);
+            callbacks[i] = new FixedValue() {
+                public Object loadObject() {
+                    return value;
+                }
+            };
+        }
+        fields = create(false);
+        shared = create(true);
+    }
+
+    private Factory create(boolean shareCallbacks) {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(Entity.class);
+        e.setCallbackFilter(new CallbackFilter() {
+            public int accept(Method method) {
+                String name = method.getName();
+                return (name.length() == 2 && name.charAt(0) == 'm') ? name.charAt(1) - '0' : 0;
+            }
+        });
+        e.setCallbacks(callbacks);
+        e.setShareCallbacks(shareCallbacks);
+        return (Factory) e.create();
+    }
+
+    @Benchmark
+    public Object baseline() {
+        return new Entity();
+    }
+
+    @Benchmark
+    public Object callbackFields() {
+        return fields.newInstance(callbacks);
+    }
+
+    @Benchmark
+    public Object sharedCallbacks() {
+        return shared.newInstance(callbacks);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(SharedCallbacksBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,94 @@
+package net.sf.cglib.jmh;
+
+import java.util.concurrent.TimeUnit;
+import net.sf.cglib.core.Constants;
+import net.sf.cglib.util.StringSwitcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Looks up property names through a {@link StringSwitcher} generated with each switch style.
+ * The keys of <code>cached</code> have their hash code cached, as literals and names read
+ * once do; the ones of <code>fresh</code> are new strings, as read from a request or a file.
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx128m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StringSwitchBenchmark {
+    private static final String[] WORDS = {
+        "name", "id", "createdAt", "updatedAt", "owner", "status", "value", "description",
+    };
+
+    @Param({"4", "16", "64", "256"})
+    public int size;
+
+    @Param({"TRIE", "HASH", "PERFECT_HASH", "AUTO"})
+    public String style;
+
+    private StringSwitcher switcher;
+    private String[] keys;
+    private char[][] chars;
+    private int next;
+
+    @Setup
+    public void setup() {
+        keys = new String[size];
+        chars = new char[size][];
+        int[] ints = new int[size];
+        for (int i = 0; i < size; i++) {
+            String word = WORDS[i % WORDS.length];
+            keys[i] = (i < WORDS.length) ? word : word + (i / WORDS.length);
+            keys[i].hashCode();
+            chars[i] = keys[i].toCharArray();
+            ints[i] = i;
+        }
+        StringSwitcher.Generator gen = new StringSwitcher.Generator();
+        gen.setStrings(keys);
+        gen.setInts(ints);
+        gen.setSwitchStyle(getStyle(style));
+        switcher = gen.create();
+    }
+
+    private static int getStyle(String style) {
+        if (style.equals("TRIE")) {
+            return Constants.SWITCH_STYLE_TRIE;
+        } else if (style.equals("HASH")) {
+            return Constants.SWITCH_STYLE_HASH;
+        } else if (style.equals("PERFECT_HASH")) {
+            return Constants.SWITCH_STYLE_PERFECT_HASH;
+        }
+        return Constants.SWITCH_STYLE_AUTO;
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (index + 1 == size) ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public int cached() {
+        return switcher.intValue(keys[nextIndex()]);
+    }
+
+    @Benchmark
+    public int fresh() {
+        return switcher.intValue(new String(chars[nextIndex()]));
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(StringSwitchBenchmark.class.getSimpleName())
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
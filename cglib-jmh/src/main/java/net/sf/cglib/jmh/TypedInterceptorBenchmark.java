@@ -0,0 +1,89 @@
+package net.sf.cglib.jmh;
+
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+import net.sf.cglib.proxy.TypedInvocation;
+import net.sf.cglib.proxy.TypedMethodInterceptor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls an intercepted getter and setter through a {@link MethodInterceptor} that boxes
+ * the arguments and the return value, and through a {@link TypedMethodInterceptor} that
+ * does not. Run with the GC profiler to compare the allocation per call.
+ */
+@Fork(value = 1, jvmArgsPrepend = "-Xmx128m")
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TypedInterceptorBenchmark {
+    public static class Counter {
+        private long value;
+
+        public long getValue() {
+            return value;
+        }
+
+        public void setValue(long value) {
+            this.value = value;
+        }
+    }
+
+    private Counter plain;
+    private Counter intercepted;
+    private Counter typed;
+
+    @Setup
+    public void setup() {
+        plain = new Counter();
+        intercepted = (Counter) Enhancer.create(Counter.class, new MethodInterceptor() {
+            public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+                return proxy.invokeSuper(obj, args);
+            }
+        });
+        typed = (Counter) Enhancer.create(Counter.class, new TypedMethodInterceptor() {
+            public void intercept(TypedInvocation invocation) throws Throwable {
+                invocation.invokeSuper();
+            }
+        });
+    }
+
+    @Benchmark
+    public long baseline() {
+        plain.setValue(plain.getValue() + 1000);
+        return plain.getValue();
+    }
+
+    @Benchmark
+    public long methodInterceptor() {
+        intercepted.setValue(intercepted.getValue() + 1000);
+        return intercepted.getValue();
+    }
+
+    @Benchmark
+    public long typedMethodInterceptor() {
+        typed.setValue(typed.getValue() + 1000);
+        return typed.getValue();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(TypedInterceptorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .detectJvmArgs()
+                .build();
+
+        new Runner(opt).run();
+    }
+}
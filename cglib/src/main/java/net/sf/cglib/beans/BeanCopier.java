@@ -90,11 +90,35 @@ abstract public class BeanCopier
         	return ReflectUtils.getProtectionDomain(source);
         }
 
+        protected Class getContextClass() {
+            // see setSource/setTarget for the choice of name prefix
+            return Modifier.isPublic(target.getModifiers()) ? source : target;
+        }
+
         public BeanCopier create() {
             Object key = KEY_FACTORY.newInstance(source.getName(), target.getName(), useConverter);
             return (BeanCopier)super.create(key);
         }
 
+        protected Object createForBatch() {
+            return create();
+        }
+
+        protected boolean writeManifestEntry(Map properties) {
+            properties.put("source", source.getName());
+            properties.put("target", target.getName());
+            if (useConverter) {
+                properties.put("useConverter", "true");
+            }
+            return true;
+        }
+
+        protected void readManifestEntry(Map properties, ClassLoader loader) throws ClassNotFoundException {
+            setSource(Class.forName((String)properties.get("source"), false, loader));
+            setTarget(Class.forName((String)properties.get("target"), false, loader));
+            setUseConverter(Boolean.parseBoolean((String)properties.get("useConverter")));
+        }
+
         public void generateClass(ClassVisitor v) {
             Type sourceType = Type.getType(source);
             Type targetType = Type.getType(target);
@@ -75,6 +75,15 @@ public class BeanGenerator extends AbstractClassGenerator
         return ReflectUtils.getProtectionDomain(superclass);
     }
 
+    protected Class getContextClass() {
+        return superclass;
+    }
+
+    protected boolean canDefineHiddenClass() {
+        // generated beans are usually referenced by name
+        return false;
+    }
+
     public Object create() {
         classOnly = false;
         return createHelper();
@@ -116,6 +116,10 @@ abstract public class BeanMap implements Map {
         	return ReflectUtils.getProtectionDomain(beanClass);
         }
 
+        protected Class getContextClass() {
+            return beanClass;
+        }
+
         /**
          * Create a new instance of the <code>BeanMap</code>. An existing
          * generated class will be reused if possible.
@@ -97,13 +97,25 @@ class BeanMapEmitter extends ClassEmitter {
         e.end_method();
     }
         
-    private void generateGet(Class type, final Map getters) {
-        final CodeEmitter e = begin_method(Constants.ACC_PUBLIC, BEAN_MAP_GET, null);
+    private void generateGet(final Class type, final Map getters) {
+        EmitUtils.string_switch_method(this, Constants.ACC_PUBLIC, BEAN_MAP_GET, null, getNames(getters),
+                                       new StringSwitchMethodCallback() {
+            public void loadKey(CodeEmitter e) {
+                e.load_arg(1);
+                e.checkcast(Constants.TYPE_STRING);
+            }
+            public void processSwitch(CodeEmitter e, String[] names) {
+                generateGetSwitch(e, type, getters, names);
+            }
+        });
+    }
+
+    private static void generateGetSwitch(final CodeEmitter e, Class type, final Map getters, String[] names) {
         e.load_arg(0);
         e.checkcast(Type.getType(type));
         e.load_arg(1);
         e.checkcast(Constants.TYPE_STRING);
-        EmitUtils.string_switch(e, getNames(getters), Constants.SWITCH_STYLE_HASH, new ObjectSwitchCallback() {
+        EmitUtils.string_switch(e, names, Constants.SWITCH_STYLE_AUTO, new ObjectSwitchCallback() {
             public void processCase(Object key, Label end) {
                 PropertyDescriptor pd = (PropertyDescriptor)getters.get(key);
                 MethodInfo method = ReflectUtils.getMethodInfo(pd.getReadMethod());
@@ -116,16 +128,27 @@ class BeanMapEmitter extends ClassEmitter {
                 e.return_value();
             }
         });
-        e.end_method();
     }
 
-    private void generatePut(Class type, final Map setters) {
-        final CodeEmitter e = begin_method(Constants.ACC_PUBLIC, BEAN_MAP_PUT, null);
+    private void generatePut(final Class type, final Map setters) {
+        EmitUtils.string_switch_method(this, Constants.ACC_PUBLIC, BEAN_MAP_PUT, null, getNames(setters),
+                                       new StringSwitchMethodCallback() {
+            public void loadKey(CodeEmitter e) {
+                e.load_arg(1);
+                e.checkcast(Constants.TYPE_STRING);
+            }
+            public void processSwitch(CodeEmitter e, String[] names) {
+                generatePutSwitch(e, type, setters, names);
+            }
+        });
+    }
+
+    private static void generatePutSwitch(final CodeEmitter e, Class type, final Map setters, String[] names) {
         e.load_arg(0);
         e.checkcast(Type.getType(type));
         e.load_arg(1);
         e.checkcast(Constants.TYPE_STRING);
-        EmitUtils.string_switch(e, getNames(setters), Constants.SWITCH_STYLE_HASH, new ObjectSwitchCallback() {
+        EmitUtils.string_switch(e, names, Constants.SWITCH_STYLE_AUTO, new ObjectSwitchCallback() {
             public void processCase(Object key, Label end) {
                 PropertyDescriptor pd = (PropertyDescriptor)setters.get(key);
                 if (pd.getReadMethod() == null) {
@@ -149,7 +172,6 @@ class BeanMapEmitter extends ClassEmitter {
         });
         e.aconst_null();
         e.return_value();
-        e.end_method();
     }
             
     private void generateKeySet(String[] allNames) {
@@ -174,9 +196,20 @@ class BeanMapEmitter extends ClassEmitter {
     }
 
     private void generateGetPropertyType(final Map allProps, String[] allNames) {
-        final CodeEmitter e = begin_method(Constants.ACC_PUBLIC, GET_PROPERTY_TYPE, null);
+        EmitUtils.string_switch_method(this, Constants.ACC_PUBLIC, GET_PROPERTY_TYPE, null, allNames,
+                                       new StringSwitchMethodCallback() {
+            public void loadKey(CodeEmitter e) {
+                e.load_arg(0);
+            }
+            public void processSwitch(CodeEmitter e, String[] names) {
+                generateGetPropertyTypeSwitch(e, allProps, names);
+            }
+        });
+    }
+
+    private static void generateGetPropertyTypeSwitch(final CodeEmitter e, final Map allProps, String[] names) {
         e.load_arg(0);
-        EmitUtils.string_switch(e, allNames, Constants.SWITCH_STYLE_HASH, new ObjectSwitchCallback() {
+        EmitUtils.string_switch(e, names, Constants.SWITCH_STYLE_AUTO, new ObjectSwitchCallback() {
             public void processCase(Object key, Label end) {
                 PropertyDescriptor pd = (PropertyDescriptor)allProps.get(key);
                 EmitUtils.load_class(e, Type.getType(pd.getPropertyType()));
@@ -187,6 +220,5 @@ class BeanMapEmitter extends ClassEmitter {
                 e.return_value();
             }
         });
-        e.end_method();
     }
 }
@@ -106,6 +106,10 @@ abstract public class BulkBean
         	return ReflectUtils.getProtectionDomain(target);
         }
 
+        protected Class getContextClass() {
+            return target;
+        }
+
         public BulkBean create() {
             setNamePrefix(target.getName());
             String targetClassName = target.getName();
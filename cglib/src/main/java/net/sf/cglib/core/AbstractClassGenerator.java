@@ -15,16 +15,19 @@
  */
 package net.sf.cglib.core;
 
+import net.sf.cglib.core.internal.ConcurrentWeakIdentityMap;
+import net.sf.cglib.core.internal.FlightRecorderListener;
 import net.sf.cglib.core.internal.Function;
 import net.sf.cglib.core.internal.LoadingCache;
 import org.objectweb.asm.ClassReader;
 
 import java.lang.ref.WeakReference;
 import java.security.ProtectionDomain;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.HashSet;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Abstract class for all code-generating CGLIB utilities.
@@ -37,11 +40,43 @@ implements ClassGenerator
 {
     private static final ThreadLocal CURRENT = new ThreadLocal();
 
-    private static volatile Map<ClassLoader, ClassLoaderData> CACHE = new WeakHashMap<ClassLoader, ClassLoaderData>();
+    private static final ConcurrentWeakIdentityMap<ClassLoader, ClassLoaderData> CACHE =
+        new ConcurrentWeakIdentityMap<ClassLoader, ClassLoaderData>();
+
+    /**
+     * Locks guarding the definition of a class, striped by class name so that
+     * distinct classes can be defined concurrently, even within one loader.
+     */
+    private static final Object[] DEFINE_LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < DEFINE_LOCKS.length; i++) {
+            DEFINE_LOCKS[i] = new Object();
+        }
+    }
 
     private static final boolean DEFAULT_USE_CACHE =
         Boolean.parseBoolean(System.getProperty("cglib.useCache", "true"));
 
+    /**
+     * Maximum number of hidden classes cached per <code>ClassLoader</code>, or 0 for no limit.
+     * Other classes are never evicted: they stay defined in their loader, so generating
+     * them again would only define a duplicate.
+     */
+    private static final int CACHE_MAXIMUM_SIZE = Integer.getInteger("cglib.cacheMaximumSize", 0).intValue();
+
+    private static final ConcurrentMap<String, CacheStats> STATS = new ConcurrentHashMap<String, CacheStats>();
+
+    private static final List<GenerationListener> LISTENERS = new CopyOnWriteArrayList<GenerationListener>();
+
+    /**
+     * Records the steps of the generation while Flight Recorder runs, or null if the runtime does not have it.
+     */
+    private static final FlightRecorderListener FLIGHT_RECORDER = createFlightRecorderListener();
+
+    private static volatile GenerationManifest recordingManifest =
+        GenerationManifest.recordToFile(System.getProperty("cglib.recordManifest"));
+
     private GeneratorStrategy strategy = DefaultGeneratorStrategy.INSTANCE;
     private NamingPolicy namingPolicy = DefaultNamingPolicy.INSTANCE;
     private Source source;
@@ -51,9 +86,12 @@ implements ClassGenerator
     private boolean useCache = DEFAULT_USE_CACHE;
     private String className;
     private boolean attemptLoad;
+    private boolean hiddenClass;
+    private boolean cacheHit;
+    private boolean definedHiddenClass;
 
     protected static class ClassLoaderData {
-        private final Set<String> reservedClassNames = new HashSet<String>();
+        private final ConcurrentMap<String, Boolean> reservedClassNames = new ConcurrentHashMap<String, Boolean>();
 
         /**
          * {@link AbstractClassGenerator} here holds "cache key" (e.g. {@link net.sf.cglib.proxy.Enhancer}
@@ -66,16 +104,16 @@ implements ClassGenerator
         private final LoadingCache<AbstractClassGenerator, Object, Object> generatedClasses;
 
         /**
-         * Note: ClassLoaderData object is stored as a value of {@code WeakHashMap<ClassLoader, ...>} thus
-         * this classLoader reference should be weak otherwise it would make classLoader strongly reachable
+         * Note: ClassLoaderData object is stored as a value of {@code ConcurrentWeakIdentityMap<ClassLoader, ...>}
+         * thus this classLoader reference should be weak otherwise it would make classLoader strongly reachable
          * and alive forever.
-         * Reference queue is not required since the cleanup is handled by {@link WeakHashMap}.
+         * Reference queue is not required since the cleanup is handled by {@link ConcurrentWeakIdentityMap}.
          */
         private final WeakReference<ClassLoader> classLoader;
 
         private final Predicate uniqueNamePredicate = new Predicate() {
             public boolean evaluate(Object name) {
-                return reservedClassNames.contains(name);
+                return reservedClassNames.containsKey(name);
             }
         };
 
@@ -94,10 +132,27 @@ implements ClassGenerator
                     new Function<AbstractClassGenerator, Object>() {
                         public Object apply(AbstractClassGenerator gen) {
                             Class klass = gen.generate(ClassLoaderData.this);
+                            gen.recordManifestEntry();
                             return gen.wrapCachedClass(klass);
                         }
                     };
-            generatedClasses = new LoadingCache<AbstractClassGenerator, Object, Object>(GET_KEY, load);
+            generatedClasses = new LoadingCache<AbstractClassGenerator, Object, Object>(GET_KEY, load, CACHE_MAXIMUM_SIZE) {
+                protected CacheStats statsFor(AbstractClassGenerator gen) {
+                    return gen.source.stats;
+                }
+
+                protected void onHit(AbstractClassGenerator gen) {
+                    gen.cacheHit = true;
+                }
+
+                protected void onMiss(AbstractClassGenerator gen) {
+                    gen.cacheHit = false;
+                }
+
+                protected boolean isEvictable(AbstractClassGenerator gen, Object value) {
+                    return gen.definedHiddenClass;
+                }
+            };
         }
 
         public ClassLoader getClassLoader() {
@@ -105,7 +160,15 @@ implements ClassGenerator
         }
 
         public void reserveName(String name) {
-            reservedClassNames.add(name);
+            reservedClassNames.put(name, Boolean.TRUE);
+        }
+
+        /**
+         * Reserves the name unless another generator already did.
+         * @return true if the name was reserved by this call
+         */
+        public boolean tryReserveName(String name) {
+            return reservedClassNames.putIfAbsent(name, Boolean.TRUE) == null;
         }
 
         public Predicate getUniqueNamePredicate() {
@@ -114,10 +177,25 @@ implements ClassGenerator
 
         public Object get(AbstractClassGenerator gen, boolean useCache) {
             if (!useCache) {
-              return gen.generate(ClassLoaderData.this);
+              Class klass = gen.generate(ClassLoaderData.this);
+              gen.recordManifestEntry();
+              return klass;
             } else {
-              Object cachedValue = generatedClasses.get(gen);
-              return gen.unwrapCachedValue(cachedValue);
+              for (;;) {
+                  boolean observed = isObserved();
+                  long start = observed ? System.nanoTime() : 0;
+                  Object cachedValue = generatedClasses.get(gen);
+                  Object value = gen.unwrapCachedValue(cachedValue);
+                  if (observed) {
+                      String className = (value instanceof Class) ? ((Class) value).getName() : (gen.cacheHit ? null : gen.getClassName());
+                      gen.fireEvent(gen.cacheHit ? GenerationEvent.CACHE_HIT : GenerationEvent.CACHE_MISS, className, -1, start);
+                  }
+                  if (value != null) {
+                      return value;
+                  }
+                  // hidden classes are unloaded independently of their loader
+                  generatedClasses.remove(gen, cachedValue);
+              }
             }
         }
     }
@@ -132,11 +210,147 @@ implements ClassGenerator
 
     protected static class Source {
         String name;
+        final CacheStats stats;
         public Source(String name) {
             this.name = name;
+            this.stats = getCacheStats(name);
+        }
+    }
+
+    /**
+     * Returns the counters of the cached classes made by a type of generator, summed over
+     * all the <code>ClassLoader</code>s. The cache can be bounded with the
+     * <code>cglib.cacheMaximumSize</code> system property, which limits the number of hidden
+     * classes (see {@link #setHiddenClass}) cached per <code>ClassLoader</code>; the least
+     * recently used ones are evicted first. Other classes cannot be unloaded without their
+     * <code>ClassLoader</code> and are never evicted.
+     * @param generatorType the generator, such as <code>Enhancer.class</code> or <code>FastClass.class</code>
+     */
+    public static CacheStats getCacheStats(Class generatorType) {
+        return getCacheStats(generatorType.getName());
+    }
+
+    private static CacheStats getCacheStats(String sourceName) {
+        CacheStats stats = STATS.get(sourceName);
+        if (stats == null) {
+            stats = new CacheStats();
+            CacheStats prev = STATS.putIfAbsent(sourceName, stats);
+            if (prev != null) {
+                stats = prev;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Registers a listener to be told of the steps of the generation of classes by all the
+     * generators: the cache lookups, the reservation of the name, the generation and
+     * definition of the class, and its initialization. Listeners are only called, and the
+     * steps only timed, while at least one is registered.
+     * <p>
+     * Independently of the listeners, the steps are recorded as <code>net.sf.cglib.ClassGeneration</code>
+     * events while Java Flight Recorder runs.
+     * </p>
+     */
+    public static void addGenerationListener(GenerationListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * @see #addGenerationListener
+     */
+    public static void removeGenerationListener(GenerationListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    private static FlightRecorderListener createFlightRecorderListener() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return new FlightRecorderListener();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    private static boolean isObserved() {
+        return !LISTENERS.isEmpty() || (FLIGHT_RECORDER != null && FLIGHT_RECORDER.isRecording());
+    }
+
+    /**
+     * Tells the listeners that a step of the generation of this class is over.
+     * @param byteSize the size of the class, or -1 if it is not known yet
+     * @param startTime the start of the step, as given by <code>System.nanoTime()</code>
+     */
+    void fireEvent(int type, String className, int byteSize, long startTime) {
+        if (!isObserved()) {
+            return;
+        }
+        GenerationEvent event = new GenerationEvent(type, source.name, className, getClassLoader(),
+                                                    byteSize, startTime, System.nanoTime() - startTime);
+        for (GenerationListener listener : LISTENERS) {
+            listener.onEvent(event);
+        }
+        if (FLIGHT_RECORDER != null && FLIGHT_RECORDER.isRecording()) {
+            FLIGHT_RECORDER.onEvent(event);
+        }
+    }
+
+    /**
+     * Records the configuration of the classes generated from now on in the given manifest,
+     * or stops recording if it is null. Initially set to a manifest written on exit to the file
+     * named by the <code>cglib.recordManifest</code> system property, if any.
+     * @see GenerationManifest
+     */
+    public static void setRecordingManifest(GenerationManifest manifest) {
+        recordingManifest = manifest;
+    }
+
+    /**
+     * @see #setRecordingManifest
+     */
+    public static GenerationManifest getRecordingManifest() {
+        return recordingManifest;
+    }
+
+    private void recordManifestEntry() {
+        GenerationManifest manifest = recordingManifest;
+        if (manifest != null) {
+            manifest.record(this);
         }
     }
 
+    /**
+     * Adds the configuration of this generator to the given properties, so that a
+     * {@link GenerationManifest} can generate the same class in a later run. Classes are
+     * given by name; the names and values must not be empty nor contain spaces.
+     * <p>
+     * Default implementation returns <code>false</code>.
+     * </p>
+     *
+     * @return whether the configuration can be recorded
+     */
+    protected boolean writeManifestEntry(Map properties) {
+        return false;
+    }
+
+    /**
+     * Configures this generator from the properties added by {@link #writeManifestEntry},
+     * so that {@link #createForBatch} generates the recorded class.
+     * <p>
+     * Default implementation throws <code>UnsupportedOperationException</code>.
+     * </p>
+     *
+     * @param loader the loader to load the classes named in the properties with
+     */
+    protected void readManifestEntry(Map properties, ClassLoader loader) throws ClassNotFoundException {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot be read from a manifest");
+    }
+
     protected AbstractClassGenerator(Source source) {
         this.source = source;
     }
@@ -153,6 +367,13 @@ implements ClassGenerator
         this.className = className;
     }
 
+    /**
+     * Returns the cache key of the class being generated, as passed to {@link #create(Object)}.
+     */
+    Object getKey() {
+        return key;
+    }
+
     private String generateClassName(Predicate nameTestPredicate) {
         return namingPolicy.getClassName(namePrefix, source.name, key, nameTestPredicate);
     }
@@ -162,7 +383,7 @@ implements ClassGenerator
      * Concrete subclasses of <code>AbstractClassGenerator</code> (such as <code>Enhancer</code>)
      * will try to choose an appropriate default if this is unset.
      * <p>
-     * Classes are cached per-<code>ClassLoader</code> using a <code>WeakHashMap</code>, to allow
+     * Classes are cached per-<code>ClassLoader</code> using a weak-keyed map, to allow
      * the generated classes to be removed when the associated loader is garbage collected.
      * @param classLoader the loader to generate the new class with, or null to use the default
      */
@@ -215,6 +436,24 @@ implements ClassGenerator
     public boolean getAttemptLoad() {
         return attemptLoad;
     }
+
+    /**
+     * If set, and the runtime supports it (Java 15+), the class is defined as a hidden class
+     * next to {@link #getContextClass the context class}. Hidden classes cannot be found by
+     * name, but unlike regular classes they can be unloaded one by one instead of only
+     * together with their <code>ClassLoader</code>. If the class cannot be defined as a
+     * hidden class it is defined as usual. Default is <code>false</code>.
+     */
+    public void setHiddenClass(boolean hiddenClass) {
+        this.hiddenClass = hiddenClass;
+    }
+
+    /**
+     * @see #setHiddenClass
+     */
+    public boolean getHiddenClass() {
+        return hiddenClass;
+    }
     
     /**
      * Set the strategy to use to create the bytecode from this generator.
@@ -273,21 +512,52 @@ implements ClassGenerator
     	return null;
     }
 
+    /**
+     * Returns a class in the same package and <code>ClassLoader</code> as the generated class,
+     * which lets the class be defined through <code>MethodHandles.Lookup</code> on Java 9+.
+     * <p>
+     * Default implementation returns <code>null</code>, in which case the class is defined
+     * through <code>ClassLoader.defineClass</code>.
+     * </p>
+     *
+     * @return the context class, or <code>null</code> if there is none
+     */
+    protected Class getContextClass() {
+        return null;
+    }
+
+    /**
+     * Returns whether the class may be defined as a hidden class. Generators which emit
+     * classes that are referenced by name should return <code>false</code>.
+     * @see #setHiddenClass
+     */
+    protected boolean canDefineHiddenClass() {
+        return true;
+    }
+
+    /**
+     * Generates the class configured in this generator, or finds it in the cache, as the
+     * public <code>create</code> method of the subclass does. Called by {@link BatchGenerator}.
+     * <p>
+     * Default implementation throws <code>UnsupportedOperationException</code>.
+     * </p>
+     *
+     * @return the result of the <code>create</code> method
+     */
+    protected Object createForBatch() {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support batch generation");
+    }
+
     protected Object create(Object key) {
         try {
             ClassLoader loader = getClassLoader();
-            Map<ClassLoader, ClassLoaderData> cache = CACHE;
-            ClassLoaderData data = cache.get(loader);
+            ClassLoaderData data = CACHE.get(loader);
             if (data == null) {
-                synchronized (AbstractClassGenerator.class) {
-                    cache = CACHE;
-                    data = cache.get(loader);
-                    if (data == null) {
-                        Map<ClassLoader, ClassLoaderData> newCache = new WeakHashMap<ClassLoader, ClassLoaderData>(cache);
-                        data = new ClassLoaderData(loader);
-                        newCache.put(loader, data);
-                        CACHE = newCache;
-                    }
+                // a racing thread may register the same loader; only one data instance wins
+                data = new ClassLoaderData(loader);
+                ClassLoaderData prev = CACHE.putIfAbsent(loader, data);
+                if (prev != null) {
+                    data = prev;
                 }
             }
             this.key = key;
@@ -309,6 +579,7 @@ implements ClassGenerator
         Class gen;
         Object save = CURRENT.get();
         CURRENT.set(this);
+        definedHiddenClass = false;
         try {
             ClassLoader classLoader = data.getClassLoader();
             if (classLoader == null) {
@@ -316,10 +587,31 @@ implements ClassGenerator
                         getClassName() + ". It seems that the loader has been expired from a weak reference somehow. " +
                         "Please file an issue at cglib's issue tracker.");
             }
-            synchronized (classLoader) {
-              String name = generateClassName(data.getUniqueNamePredicate());              
-              data.reserveName(name);
-              this.setClassName(name);
+            long start = System.nanoTime();
+            String name = generateClassName(data.getUniqueNamePredicate());
+            boolean reserved;
+            while (!(reserved = data.tryReserveName(name))) {
+                // a concurrent generator may take the same name, in which case the
+                // predicate rejects it on the next attempt; a naming policy which
+                // ignores the predicate returns the same name again
+                String next = generateClassName(data.getUniqueNamePredicate());
+                if (next.equals(name)) {
+                    break;
+                }
+                name = next;
+            }
+            this.setClassName(name);
+            fireEvent(GenerationEvent.RESERVE_NAME, name, -1, start);
+            if (!reserved) {
+                if (attemptLoad) {
+                    try {
+                        return classLoader.loadClass(name);
+                    } catch (ClassNotFoundException e) {
+                        // still being defined by another generator
+                    }
+                }
+                throw new IllegalStateException("Class name " + name + " is already in use in " + classLoader +
+                        "; the NamingPolicy " + namingPolicy + " has to return a name accepted by the predicate");
             }
             if (attemptLoad) {
                 try {
@@ -331,14 +623,26 @@ implements ClassGenerator
             }
             byte[] b = strategy.generate(this);
             String className = ClassNameReader.getClassName(new ClassReader(b));
-            ProtectionDomain protectionDomain = getProtectionDomain();
-            synchronized (classLoader) { // just in case
-                if (protectionDomain == null) {
-                    gen = ReflectUtils.defineClass(className, b, classLoader);
-                } else {
-                    gen = ReflectUtils.defineClass(className, b, classLoader, protectionDomain);
+            Class contextClass = getContextClass();
+            if (hiddenClass && canDefineHiddenClass()) {
+                start = System.nanoTime();
+                gen = ReflectUtils.defineHiddenClass(className, b, classLoader, contextClass);
+                if (gen != null) {
+                    fireEvent(GenerationEvent.DEFINE_CLASS, className, b.length, start);
+                    definedHiddenClass = true;
+                    return gen;
                 }
             }
+            ProtectionDomain protectionDomain = getProtectionDomain();
+            start = System.nanoTime();
+            synchronized (getDefineLock(className)) {
+                gen = ReflectUtils.defineClass(className, b, classLoader, protectionDomain, contextClass, false);
+            }
+            fireEvent(GenerationEvent.DEFINE_CLASS, className, b.length, start);
+            start = System.nanoTime();
+            // Force static initializers to run.
+            Class.forName(className, true, classLoader);
+            fireEvent(GenerationEvent.INITIALIZE_CLASS, className, b.length, start);
             return gen;
         } catch (RuntimeException e) {
             throw e;
@@ -351,6 +655,12 @@ implements ClassGenerator
         }
     }
 
+    private static Object getDefineLock(String className) {
+        int h = className.hashCode();
+        h ^= (h >>> 16);
+        return DEFINE_LOCKS[h & (DEFINE_LOCKS.length - 1)];
+    }
+
     abstract protected Object firstInstance(Class type) throws Exception;
     abstract protected Object nextInstance(Object instance) throws Exception;
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates the classes of many generators in parallel on an <code>ExecutorService</code>,
+ * for instance to generate at startup the proxies an application is known to need.
+ * <p>
+ * Each generator runs in a task of its own, as if its <code>create</code> method were called:
+ * names are reserved and classes cached exactly as with serial calls, and generators with
+ * the same configuration share one class. A class that needs another generated class, such
+ * as the key factory of an <code>Enhancer</code>, finds it in the cache or waits for the task
+ * generating it, so that each class is defined after the classes it refers to. As the tasks
+ * run in no particular order, the names made unique with a counter by the naming policy may
+ * be numbered differently than with serial calls.
+ * </p>
+ * <p>
+ * Supported by {@link net.sf.cglib.proxy.Enhancer}, {@link net.sf.cglib.reflect.FastClass.Generator}
+ * and {@link net.sf.cglib.beans.BeanCopier.Generator}; other generators can override
+ * {@link AbstractClassGenerator#createForBatch}. A generator must not be used by another
+ * thread until its task is done.
+ * </p>
+ */
+public class BatchGenerator {
+    private final ExecutorService executor;
+
+    /**
+     * Creates a batch generator which runs each batch on a thread pool of its own, with
+     * one thread per processor, shut down once the batch is done.
+     */
+    public BatchGenerator() {
+        this.executor = null;
+    }
+
+    /**
+     * @param executor the executor running the generators; a generator may wait for a class
+     * generated by another one, but only once that one runs
+     */
+    public BatchGenerator(ExecutorService executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Starts generating the classes of the given generators, and returns at once.
+     * @return the futures of the results of the <code>create</code> methods, in the order of the generators
+     */
+    public List<Future<Object>> submit(List<? extends AbstractClassGenerator> generators) {
+        List<Task> tasks = submitTasks(generators);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(tasks.size());
+        for (Task task : tasks) {
+            futures.add(task.future);
+        }
+        return futures;
+    }
+
+    /**
+     * Generates the classes of the given generators, and waits until all of them are done.
+     * A generator that fails does not stop the others; its exception is in the report.
+     */
+    public Report generate(List<? extends AbstractClassGenerator> generators) {
+        long start = System.nanoTime();
+        List<Task> tasks = submitTasks(generators);
+        List<Result> results = new ArrayList<Result>(tasks.size());
+        for (Task task : tasks) {
+            Object value = null;
+            Throwable error = null;
+            try {
+                value = task.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while generating classes", e);
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            }
+            results.add(new Result(task.generator, value, error, task.duration));
+        }
+        return new Report(results, System.nanoTime() - start);
+    }
+
+    private List<Task> submitTasks(List<? extends AbstractClassGenerator> generators) {
+        Map<AbstractClassGenerator, Boolean> seen = new IdentityHashMap<AbstractClassGenerator, Boolean>();
+        for (AbstractClassGenerator generator : generators) {
+            if (generator == null) {
+                throw new NullPointerException("generator");
+            }
+            if (seen.put(generator, Boolean.TRUE) != null) {
+                throw new IllegalArgumentException("Generator appears more than once: " + generator);
+            }
+        }
+        ExecutorService executor = this.executor;
+        if (executor == null) {
+            int threads = Math.min(generators.size(), Runtime.getRuntime().availableProcessors());
+            executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        }
+        List<Task> tasks = new ArrayList<Task>(generators.size());
+        try {
+            for (AbstractClassGenerator generator : generators) {
+                Task task = new Task(generator);
+                task.future = executor.submit(task);
+                tasks.add(task);
+            }
+        } finally {
+            if (this.executor == null) {
+                // the threads end once the submitted tasks are done
+                executor.shutdown();
+            }
+        }
+        return tasks;
+    }
+
+    private static class Task implements Callable<Object> {
+        final AbstractClassGenerator generator;
+        Future<Object> future;
+        // written by the worker, read after the future completes
+        volatile long duration;
+
+        Task(AbstractClassGenerator generator) {
+            this.generator = generator;
+        }
+
+        public Object call() {
+            long start = System.nanoTime();
+            try {
+                return generator.createForBatch();
+            } finally {
+                duration = System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * The outcome of a generator of the batch.
+     */
+    public static class Result {
+        private final AbstractClassGenerator generator;
+        private final Object value;
+        private final Throwable error;
+        private final long duration;
+
+        Result(AbstractClassGenerator generator, Object value, Throwable error, long duration) {
+            this.generator = generator;
+            this.value = value;
+            this.error = error;
+            this.duration = duration;
+        }
+
+        public AbstractClassGenerator getGenerator() {
+            return generator;
+        }
+
+        /**
+         * Returns the result of the <code>create</code> method of the generator, or null if it failed.
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the exception thrown by the generator, or null if it succeeded.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Returns the time taken by the generator in nanoseconds, including the time spent
+         * waiting for classes generated by other tasks.
+         */
+        public long getDuration() {
+            return duration;
+        }
+    }
+
+    /**
+     * The outcomes of all the generators of a batch, in the order of the generators.
+     */
+    public static class Report {
+        private final List<Result> results;
+        private final long elapsedTime;
+
+        Report(List<Result> results, long elapsedTime) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedTime = elapsedTime;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        /**
+         * Returns the results of the generators which failed.
+         */
+        public List<Result> getFailures() {
+            List<Result> failures = new ArrayList<Result>();
+            for (Result result : results) {
+                if (result.getError() != null) {
+                    failures.add(result);
+                }
+            }
+            return failures;
+        }
+
+        /**
+         * Returns the time taken by the whole batch in nanoseconds.
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        public String toString() {
+            return results.size() + " classes generated in " + (elapsedTime / 1000000) + " ms, " +
+                getFailures().size() + " failed";
+        }
+    }
+}
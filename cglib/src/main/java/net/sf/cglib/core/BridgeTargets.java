@@ -0,0 +1,126 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.cglib.core.internal.ClassCache;
+import net.sf.cglib.core.internal.Function;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * The methods called by the bridge methods of a class, read from its class file.
+ * The class file is read once per class, and the result kept as long as the class
+ * is loaded, so that generating many classes over the same hierarchy does not read
+ * it again.
+ */
+public final class BridgeTargets {
+    private static final BridgeTargets EMPTY = new BridgeTargets(Collections.EMPTY_MAP, Collections.EMPTY_MAP);
+
+    private static final ClassCache<BridgeTargets> CACHE = new ClassCache<BridgeTargets>(new Function<Class, BridgeTargets>() {
+        public BridgeTargets apply(Class type) {
+            return read(type);
+        }
+    });
+
+    private final Map/*<Signature, Signature>*/ superTargets;
+    private final Map/*<Signature, Signature>*/ targets;
+
+    private BridgeTargets(Map superTargets, Map targets) {
+        this.superTargets = superTargets;
+        this.targets = targets;
+    }
+
+    /**
+     * Returns the bridge targets of the methods declared by the given class. A class whose
+     * class file cannot be found has none.
+     */
+    public static BridgeTargets get(Class type) {
+        return CACHE.get(type);
+    }
+
+    /**
+     * Returns the method called with <code>invokespecial</code> by the given bridge method,
+     * or null if it calls none.
+     */
+    public Signature getSuperTarget(Signature bridge) {
+        return (Signature)superTargets.get(bridge);
+    }
+
+    /**
+     * Returns the method called by the given bridge method with <code>invokespecial</code>,
+     * or with <code>invokeinterface</code> on an interface, whichever comes first, or null
+     * if it calls none.
+     */
+    public Signature getTarget(Signature bridge) {
+        return (Signature)targets.get(bridge);
+    }
+
+    private static BridgeTargets read(Class type) {
+        try {
+            InputStream is = ClassMetadata.getClassFile(type);
+            if (is == null) {
+                return EMPTY;
+            }
+            try {
+                BridgeFinder finder = new BridgeFinder();
+                new ClassReader(is).accept(finder, ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+                if (finder.targets.isEmpty() && finder.superTargets.isEmpty()) {
+                    return EMPTY;
+                }
+                return new BridgeTargets(finder.superTargets, finder.targets);
+            } finally {
+                is.close();
+            }
+        } catch (IOException ignored) {
+            return EMPTY;
+        }
+    }
+
+    private static class BridgeFinder extends ClassVisitor {
+        final Map superTargets = new HashMap();
+        final Map targets = new HashMap();
+
+        BridgeFinder() {
+            super(Constants.ASM_API);
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc,
+                                         String signature, String[] exceptions) {
+            if ((access & Opcodes.ACC_BRIDGE) == 0) {
+                return null;
+            }
+            final Signature bridge = new Signature(name, desc);
+            return new MethodVisitor(Constants.ASM_API) {
+                public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                    if (opcode == Opcodes.INVOKESPECIAL && !superTargets.containsKey(bridge)) {
+                        superTargets.put(bridge, new Signature(name, desc));
+                    }
+                    if ((opcode == Opcodes.INVOKESPECIAL || (itf && opcode == Opcodes.INVOKEINTERFACE))
+                            && !targets.containsKey(bridge)) {
+                        targets.put(bridge, new Signature(name, desc));
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a cache of generated classes.
+ * A request that finds a completed entry is a hit; a request that has to load the entry,
+ * or to wait for another thread loading it, is a miss.
+ * @see AbstractClassGenerator#getCacheStats(Class)
+ */
+public class CacheStats {
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong loadExceptionCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    public void recordLoad(long nanos, boolean success) {
+        if (success) {
+            loadCount.incrementAndGet();
+        } else {
+            loadExceptionCount.incrementAndGet();
+        }
+        totalLoadTime.addAndGet(nanos);
+    }
+
+    public void recordEviction() {
+        evictionCount.incrementAndGet();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of entries that were loaded successfully.
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    public long getLoadExceptionCount() {
+        return loadExceptionCount.get();
+    }
+
+    /**
+     * Returns the time spent loading entries, in nanoseconds, including failed loads.
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public String toString() {
+        return "CacheStats{hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", loads=" + getLoadCount() +
+                ", loadExceptions=" + getLoadExceptionCount() +
+                ", totalLoadTime=" + getTotalLoadTime() +
+                ", evictions=" + getEvictionCount() + "}";
+    }
+}
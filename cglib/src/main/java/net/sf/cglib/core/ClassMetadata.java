@@ -0,0 +1,219 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.sf.cglib.core.internal.ClassCache;
+import net.sf.cglib.core.internal.Function;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * The methods and constructors of a class as {@link MethodInfo} objects, read from its
+ * class file without the code. Unlike <code>getDeclaredMethods</code>, this does not
+ * create <code>Method</code> objects nor load the classes of the parameters. Classes
+ * whose class file cannot be found, such as generated classes, are described through
+ * reflection instead. The result is kept as long as the class is loaded; see
+ * {@link ClassCache} for classes outside cglib's own loader.
+ * <p>
+ * The class file is assumed to declare the same members as the loaded class, which does
+ * not hold if an agent adds members to the class when it is loaded.
+ */
+public final class ClassMetadata {
+    private static final ClassCache<ClassMetadata> CACHE = new ClassCache<ClassMetadata>(new Function<Class, ClassMetadata>() {
+        public ClassMetadata apply(Class type) {
+            ClassMetadata metadata = read(type);
+            return (metadata != null) ? metadata : reflect(type);
+        }
+    });
+
+    private final ClassInfo classInfo;
+    private final List methods;
+    private final List constructors;
+    private final MethodInfo[] allMethods;
+
+    private ClassMetadata(Class type, ClassInfo classInfo, List methods, List constructors) {
+        this.classInfo = classInfo;
+        this.methods = methods;
+        this.constructors = constructors;
+
+        List all = new ArrayList(methods);
+        Class superclass = type.getSuperclass();
+        if (superclass != null) {
+            addAllMethods(superclass, all);
+        }
+        Class[] interfaces = type.getInterfaces();
+        for (int i = 0; i < interfaces.length; i++) {
+            addAllMethods(interfaces[i], all);
+        }
+        allMethods = (MethodInfo[])all.toArray(new MethodInfo[all.size()]);
+    }
+
+    public static ClassMetadata get(Class type) {
+        return CACHE.get(type);
+    }
+
+    /**
+     * Adds the methods declared by the given class, then the ones of its superclass chain
+     * and of its interfaces, recursively, in the order of {@link ReflectUtils#addAllMethods}.
+     * As there, the final, static and <code>finalize</code> methods of <code>Object</code>
+     * are left out.
+     */
+    public static List addAllMethods(Class type, List list) {
+        list.addAll(Arrays.asList(get(type).allMethods));
+        return list;
+    }
+
+    public ClassInfo getClassInfo() {
+        return classInfo;
+    }
+
+    /**
+     * Returns the methods declared by the class, without the constructors and the static initializer.
+     */
+    public List getDeclaredMethods() {
+        return methods;
+    }
+
+    public List getDeclaredConstructors() {
+        return constructors;
+    }
+
+    /**
+     * Returns the class file of the given class, or null if it cannot be found.
+     */
+    static InputStream getClassFile(Class type) {
+        ClassLoader cl = type.getClassLoader();
+        if (cl == null) {
+            cl = ClassMetadata.class.getClassLoader();
+        }
+        if (cl == null) {
+            cl = Thread.currentThread().getContextClassLoader();
+        }
+        if (cl == null) {
+            return null;
+        }
+        return cl.getResourceAsStream(type.getName().replace('.', '/') + ".class");
+    }
+
+    private static ClassMetadata read(final Class type) {
+        try {
+            InputStream is = getClassFile(type);
+            if (is == null) {
+                return null;
+            }
+            final ClassInfo classInfo = ReflectUtils.getClassInfo(type);
+            final List methods = new ArrayList();
+            final List constructors = new ArrayList();
+            try {
+                new ClassReader(is).accept(new ClassVisitor(Constants.ASM_API) {
+                    public MethodVisitor visitMethod(int access, String name, String desc,
+                                                     String signature, String[] exceptions) {
+                        if (name.equals(Constants.STATIC_NAME)) {
+                            return null;
+                        }
+                        if (type == Object.class && isHiddenObjectMethod(access, name)) {
+                            return null;
+                        }
+                        MethodInfo method = new ScannedMethodInfo(classInfo, access, new Signature(name, desc),
+                                                                  getTypes(exceptions));
+                        (name.equals(Constants.CONSTRUCTOR_NAME) ? constructors : methods).add(method);
+                        return null;
+                    }
+                }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            } finally {
+                is.close();
+            }
+            return new ClassMetadata(type, classInfo, methods, constructors);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // not a class file ASM can read
+            return null;
+        }
+    }
+
+    private static ClassMetadata reflect(Class type) {
+        List methods = new ArrayList();
+        Method[] declared = type.getDeclaredMethods();
+        for (int i = 0; i < declared.length; i++) {
+            if (type != Object.class || !isHiddenObjectMethod(declared[i].getModifiers(), declared[i].getName())) {
+                methods.add(ReflectUtils.getMethodInfo(declared[i]));
+            }
+        }
+        List constructors = new ArrayList();
+        Constructor[] declaredConstructors = type.getDeclaredConstructors();
+        for (int i = 0; i < declaredConstructors.length; i++) {
+            constructors.add(ReflectUtils.getMethodInfo(declaredConstructors[i]));
+        }
+        return new ClassMetadata(type, ReflectUtils.getClassInfo(type), methods, constructors);
+    }
+
+    private static boolean isHiddenObjectMethod(int access, String name) {
+        return name.equals("finalize") || (access & (Opcodes.ACC_FINAL | Opcodes.ACC_STATIC)) != 0;
+    }
+
+    private static Type[] getTypes(String[] internalNames) {
+        if (internalNames == null) {
+            return new Type[0];
+        }
+        Type[] types = new Type[internalNames.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = Type.getObjectType(internalNames[i]);
+        }
+        return types;
+    }
+
+    private static class ScannedMethodInfo extends MethodInfo {
+        private final ClassInfo classInfo;
+        private final int modifiers;
+        private final Signature sig;
+        private final Type[] exceptionTypes;
+
+        ScannedMethodInfo(ClassInfo classInfo, int access, Signature sig, Type[] exceptionTypes) {
+            this.classInfo = classInfo;
+            // keep the flags reflection reports, not the ASM pseudo-flags
+            this.modifiers = access & 0xFFFF;
+            this.sig = sig;
+            this.exceptionTypes = exceptionTypes;
+        }
+
+        public ClassInfo getClassInfo() {
+            return classInfo;
+        }
+
+        public int getModifiers() {
+            return modifiers;
+        }
+
+        public Signature getSignature() {
+            return sig;
+        }
+
+        public Type[] getExceptionTypes() {
+            return exceptionTypes;
+        }
+    }
+}
@@ -508,6 +508,10 @@ public class CodeEmitter extends LocalVariablesSorter {
         emit_invoke(Constants.INVOKEINTERFACE, owner, sig, true);
     }
 
+    public void invoke_dynamic(Signature sig, Handle bootstrap) {
+        mv.visitInvokeDynamicInsn(sig.getName(), sig.getDescriptor(), bootstrap, new Object[0]);
+    }
+
     public void invoke_virtual(Type owner, Signature sig) {
         emit_invoke(Constants.INVOKEVIRTUAL, owner, sig, false);
     }
@@ -529,6 +533,13 @@ public class CodeEmitter extends LocalVariablesSorter {
         invoke_static(ce.getClassType(), sig);
     }
 
+    /**
+     * Calls a private method of this class.
+     */
+    public void invoke_special_this(Signature sig) {
+        emit_invoke(Constants.INVOKESPECIAL, ce.getClassType(), sig, false);
+    }
+
     public void invoke_constructor(Type type, Signature sig) {
         emit_invoke(Constants.INVOKESPECIAL, type, sig, false);
     }
@@ -69,4 +69,13 @@ public interface Constants extends org.objectweb.asm.Opcodes {
     public static final int SWITCH_STYLE_TRIE = 0;
     public static final int SWITCH_STYLE_HASH = 1;
     public static final int SWITCH_STYLE_HASHONLY = 2;
+    /**
+     * A perfect hash of the length and some characters of the strings, followed by a
+     * single <code>equals</code>; falls back to {@link #SWITCH_STYLE_HASH} if none is found.
+     */
+    public static final int SWITCH_STYLE_PERFECT_HASH = 3;
+    /**
+     * {@link #SWITCH_STYLE_PERFECT_HASH} or {@link #SWITCH_STYLE_HASH}, whichever is expected to be faster.
+     */
+    public static final int SWITCH_STYLE_AUTO = 4;
 }
@@ -26,10 +26,21 @@ import java.lang.reflect.Constructor;
 public class DebuggingClassWriter extends ClassVisitor {
     
     public static final String DEBUG_LOCATION_PROPERTY = "cglib.debugLocation";
+
+    /**
+     * Flag to emit stack map frames and compute the maximum stack size and number of locals
+     * while the class is visited, instead of letting the <code>ClassWriter</code> compute
+     * them. {@link #toByteArray} fails with an unchecked exception if the code needs frames
+     * that cannot be found in a single pass, in which case the class has to be written
+     * with <code>ClassWriter.COMPUTE_FRAMES</code>.
+     */
+    public static final int EMIT_FRAMES = 0x100;
     
     private static String debugLocation;
     private static Constructor traceCtor;
     
+    private final ClassWriter writer;
+    private final FrameEmitter frames;
     private String className;
     private String superName;
     
@@ -46,7 +57,17 @@ public class DebuggingClassWriter extends ClassVisitor {
     }
     
     public DebuggingClassWriter(int flags) {
-	super(Constants.ASM_API, new ClassWriter(flags));
+        this(new ClassWriter(flags & ~EMIT_FRAMES), flags);
+    }
+
+    private DebuggingClassWriter(ClassWriter writer, int flags) {
+        this(writer, ((flags & EMIT_FRAMES) != 0) ? new FrameEmitter(writer) : null);
+    }
+
+    private DebuggingClassWriter(ClassWriter writer, FrameEmitter frames) {
+        super(Constants.ASM_API, (frames != null) ? frames : (ClassVisitor) writer);
+        this.writer = writer;
+        this.frames = frames;
     }
 
     public void visit(int version,
@@ -68,14 +89,33 @@ public class DebuggingClassWriter extends ClassVisitor {
         return superName;
     }
     
+    /**
+     * Returns the reason some methods could not be given frames with {@link #EMIT_FRAMES},
+     * or null.
+     */
+    FrameEmitter.UnsupportedCodeException getUnsupportedCode() {
+        return (frames != null) ? frames.getUnsupportedCode() : null;
+    }
+
+    /**
+     * Returns the class as written, even if some methods are missing frames and maximums;
+     * to be copied into a writer which computes them.
+     */
+    byte[] toByteArrayWithoutFrames() {
+        return writer.toByteArray();
+    }
+
     public byte[] toByteArray() {
+      if (getUnsupportedCode() != null) {
+          throw getUnsupportedCode();
+      }
         
       return (byte[]) java.security.AccessController.doPrivileged(
         new java.security.PrivilegedAction() {
             public Object run() {
                 
                 
-                byte[] b = ((ClassWriter) DebuggingClassWriter.super.cv).toByteArray();
+                byte[] b = writer.toByteArray();
                 if (debugLocation != null) {
                     String dirs = className.replace('.', File.separatorChar);
                     try {
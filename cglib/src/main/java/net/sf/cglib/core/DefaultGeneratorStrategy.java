@@ -15,19 +15,57 @@
  */
 package net.sf.cglib.core;
 
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
 public class DefaultGeneratorStrategy implements GeneratorStrategy {
     public static final DefaultGeneratorStrategy INSTANCE = new DefaultGeneratorStrategy();
-    
+
+    /**
+     * Test mode that generates every class a second time with <code>ClassWriter.COMPUTE_FRAMES</code>,
+     * and fails if its frames differ from the ones emitted by cglib.
+     */
+    private static final boolean VERIFY_FRAMES = Boolean.getBoolean("cglib.verifyFrames");
+
     public byte[] generate(ClassGenerator cg) throws Exception {
         DebuggingClassWriter cw = getClassVisitor();
+        long start = System.nanoTime();
         transform(cg).generateClass(cw);
-        return transform(cw.toByteArray());
+        if (cw.getUnsupportedCode() != null) {
+            // the frames need a common super class, leave them to ASM; the class is
+            // complete apart from frames, so it is copied rather than generated again
+            DebuggingClassWriter computed = new DebuggingClassWriter(ClassWriter.COMPUTE_FRAMES);
+            new ClassReader(cw.toByteArrayWithoutFrames()).accept(computed, ClassReader.SKIP_FRAMES);
+            return transform(toByteArray(cg, computed, start));
+        }
+        byte[] b = toByteArray(cg, cw, start);
+        if (VERIFY_FRAMES) {
+            DebuggingClassWriter computed = new DebuggingClassWriter(ClassWriter.COMPUTE_FRAMES);
+            new ClassReader(b).accept(computed, ClassReader.SKIP_FRAMES);
+            String difference = FrameEmitter.compareFrames(computed.toByteArray(), b);
+            if (difference != null) {
+                throw new IllegalStateException("Frames of " + cw.getClassName() + " differ from ASM: " + difference);
+            }
+        }
+        return transform(b);
+    }
+
+    private static byte[] toByteArray(ClassGenerator cg, DebuggingClassWriter cw, long start) {
+        fireEvent(cg, GenerationEvent.GENERATE_CLASS, cw.getClassName(), -1, start);
+        start = System.nanoTime();
+        byte[] b = cw.toByteArray();
+        fireEvent(cg, GenerationEvent.TO_BYTE_ARRAY, cw.getClassName(), b.length, start);
+        return b;
+    }
+
+    private static void fireEvent(ClassGenerator cg, int type, String className, int byteSize, long start) {
+        if (cg instanceof AbstractClassGenerator) {
+            ((AbstractClassGenerator) cg).fireEvent(type, className, byteSize, start);
+        }
     }
 
     protected DebuggingClassWriter getClassVisitor() throws Exception {
-      return new DebuggingClassWriter(ClassWriter.COMPUTE_FRAMES);
+      return new DebuggingClassWriter(DebuggingClassWriter.EMIT_FRAMES);
     }
 
     protected final ClassWriter getClassWriter() {
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link GeneratorStrategy} which stores the generated bytes in a local
+ * directory, so that a later JVM can define the same class without running
+ * {@link ClassGenerator#generateClass} again.
+ * <p>
+ * Entries are looked up by a digest of the generator type, the name of the
+ * class being generated and a description of the generator key. Only keys
+ * made of strings, primitives, classes, ASM types, enums, arrays and
+ * {@link KeyFactory} keys of those can be described unambiguously; objects
+ * are accepted only if they have no instance fields at all. Classes with
+ * any other key (for example a {@link net.sf.cglib.proxy.CallbackFilter}
+ * with state) are generated as usual and never stored.
+ * <p>
+ * Each entry records a digest of the cglib jar (or class directory) it was
+ * written by, and of the class files of the generator, of every superclass
+ * and interface of the generated class and of the classes named by the key;
+ * an entry is only used if all of them still match, otherwise the class is
+ * generated again and the entry is replaced.
+ * <p>
+ * Several JVMs may share the same directory: entries are written to a
+ * temporary file and renamed into place, and incomplete or corrupt entries
+ * are treated as a miss.
+ * @see AbstractClassGenerator#setStrategy
+ */
+public class DiskCachingGeneratorStrategy implements GeneratorStrategy {
+    private static final int MAGIC = 0xCA5EC1A5;
+    private static final int FORMAT_VERSION = 2;
+    private static final String SUFFIX = ".class.cache";
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    private final File directory;
+    private final GeneratorStrategy delegate;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DiskCachingGeneratorStrategy(File directory) {
+        this(directory, DefaultGeneratorStrategy.INSTANCE);
+    }
+
+    /**
+     * @param directory the directory to store generated classes in; created if missing
+     * @param delegate the strategy used to generate classes which are not in the cache
+     */
+    public DiskCachingGeneratorStrategy(File directory, GeneratorStrategy delegate) {
+        if (directory == null || delegate == null) {
+            throw new IllegalArgumentException("directory and delegate are required");
+        }
+        this.directory = directory;
+        this.delegate = delegate;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the number of classes which were defined from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of classes which had to be generated, either because
+     * there was no entry, the entry was stale or the key cannot be stored.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public byte[] generate(ClassGenerator cg) throws Exception {
+        if (!(cg instanceof AbstractClassGenerator)) {
+            return delegate.generate(cg);
+        }
+        AbstractClassGenerator gen = (AbstractClassGenerator)cg;
+        StringBuffer key = new StringBuffer();
+        Set keyDependencies = new LinkedHashSet();
+        String cglibDigest = CglibDigest.VALUE;
+        if (cglibDigest == null || !describe(gen.getKey(), key, keyDependencies)) {
+            misses.incrementAndGet();
+            return delegate.generate(cg);
+        }
+        ClassLoader loader = gen.getClassLoader();
+        String className = gen.getClassName();
+        File file = new File(directory, getEntryName(gen, className, key.toString()));
+
+        byte[] b = read(file, cglibDigest, className, gen.getClass().getClassLoader(), loader);
+        if (b != null) {
+            hits.incrementAndGet();
+            return b;
+        }
+        misses.incrementAndGet();
+        b = delegate.generate(cg);
+        write(file, cglibDigest, gen.getClass(), b, keyDependencies, loader);
+        return b;
+    }
+
+    private static String getEntryName(AbstractClassGenerator gen, String className, String key) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        update(md, gen.getClass().getName());
+        update(md, String.valueOf(Constants.ASM_API));
+        update(md, className);
+        update(md, key);
+        return toHex(md.digest()) + SUFFIX;
+    }
+
+    /**
+     * Appends an unambiguous description of a key to the buffer, and the
+     * names of the classes it refers to to the dependencies.
+     * @return false if the key has no stable description
+     */
+    private static boolean describe(Object o, StringBuffer sb, Set dependencies) {
+        if (o == null) {
+            sb.append('N');
+        } else if (o instanceof String) {
+            append(sb, 'S', (String)o);
+        } else if (o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte ||
+                   o instanceof Character || o instanceof Boolean || o instanceof Float || o instanceof Double) {
+            append(sb, 'P', o.getClass().getName() + ':' + o);
+        } else if (o instanceof Class) {
+            Class c = (Class)o;
+            append(sb, 'C', c.getName());
+            addDependency(dependencies, Type.getType(c));
+        } else if (o instanceof Type) {
+            Type t = (Type)o;
+            append(sb, 'T', t.getDescriptor());
+            addDependency(dependencies, t);
+        } else if (o instanceof Enum) {
+            Enum e = (Enum)o;
+            append(sb, 'E', e.getDeclaringClass().getName() + '.' + e.name());
+        } else if (o.getClass().isArray()) {
+            int length = Array.getLength(o);
+            append(sb, 'A', o.getClass().getComponentType().getName() + '[' + length + ']');
+            for (int i = 0; i < length; i++) {
+                if (!describe(Array.get(o, i), sb, dependencies)) {
+                    return false;
+                }
+            }
+        } else if (o instanceof WeakCacheKey) {
+            sb.append('W');
+            return describe(((WeakCacheKey)o).get(), sb, dependencies);
+        } else if (o instanceof KeyFactory) {
+            // generated keys have one field per argument, see KeyFactory.Generator
+            List values = new ArrayList();
+            try {
+                for (;;) {
+                    Field field = o.getClass().getDeclaredField("FIELD_" + values.size());
+                    field.setAccessible(true);
+                    values.add(field.get(o));
+                }
+            } catch (NoSuchFieldException e) {
+                // no more arguments
+            } catch (Exception e) {
+                return false;
+            }
+            append(sb, 'K', String.valueOf(values.size()));
+            for (int i = 0; i < values.size(); i++) {
+                if (!describe(values.get(i), sb, dependencies)) {
+                    return false;
+                }
+            }
+        } else if (isStateless(o.getClass())) {
+            append(sb, 'O', o.getClass().getName());
+            dependencies.add(o.getClass().getName());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static void append(StringBuffer sb, char tag, String s) {
+        sb.append(tag).append(s.length()).append(':').append(s);
+    }
+
+    private static void addDependency(Set dependencies, Type type) {
+        while (type.getSort() == Type.ARRAY) {
+            type = type.getElementType();
+        }
+        if (type.getSort() == Type.OBJECT) {
+            dependencies.add(type.getClassName());
+        }
+    }
+
+    private static boolean isStateless(Class c) {
+        for (; c != null; c = c.getSuperclass()) {
+            Field[] fields = c.getDeclaredFields();
+            for (int i = 0; i < fields.length; i++) {
+                if (!Modifier.isStatic(fields[i].getModifiers())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void update(MessageDigest md, String s) {
+        try {
+            md.update(s.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new CodeGenerationException(e);
+        }
+        md.update((byte)0);
+    }
+
+    private byte[] read(File file, String cglibDigest, String className, ClassLoader generatorLoader, ClassLoader loader) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !cglibDigest.equals(in.readUTF())) {
+                    return null;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String dependency = in.readUTF();
+                    String digest = in.readUTF();
+                    // the first dependency is always the generator itself
+                    if (!digest.equals(getClassDigest(dependency, (i == 0) ? generatorLoader : loader))) {
+                        return null;
+                    }
+                }
+                byte[] b = new byte[in.readInt()];
+                in.readFully(b);
+                byte[] checksum = new byte[in.readInt()];
+                in.readFully(checksum);
+                if (!Arrays.equals(checksum, digest(b))) {
+                    return null;
+                }
+                if (!className.equals(ClassNameReader.getClassName(new ClassReader(b)))) {
+                    return null;
+                }
+                return b;
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            // truncated or corrupt entry, e.g. written by an older version
+            return null;
+        }
+    }
+
+    private void write(File file, String cglibDigest, Class generator, byte[] b, Set keyDependencies, ClassLoader loader) {
+        File tmp = null;
+        try {
+            String[] info = ClassNameReader.getClassInfo(new ClassReader(b));
+            Set names = new LinkedHashSet();
+            names.add(generator.getName());
+            for (int i = 1; i < info.length; i++) {
+                addSupertypes(names, Class.forName(info[i], false, loader));
+            }
+            names.addAll(keyDependencies);
+            String[] dependencies = (String[])names.toArray(new String[names.size()]);
+            String[] digests = new String[dependencies.length];
+            for (int i = 0; i < dependencies.length; i++) {
+                digests[i] = getClassDigest(dependencies[i], (i == 0) ? generator.getClassLoader() : loader);
+                if (digests[i] == null) {
+                    // cannot validate the entry later on, e.g. superclass is generated too
+                    return;
+                }
+            }
+
+            directory.mkdirs();
+            tmp = File.createTempFile("cglib", ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(cglibDigest);
+                out.writeInt(dependencies.length);
+                for (int i = 0; i < dependencies.length; i++) {
+                    out.writeUTF(dependencies[i]);
+                    out.writeUTF(digests[i]);
+                }
+                out.writeInt(b.length);
+                out.write(b);
+                byte[] checksum = digest(b);
+                out.writeInt(checksum.length);
+                out.write(checksum);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // another JVM may hold the target open; its content is equivalent
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (Exception e) {
+            // the cache is best-effort, the class is defined either way
+        } finally {
+            if (tmp != null && tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void addSupertypes(Set names, Class c) {
+        if (c != null && names.add(c.getName())) {
+            addSupertypes(names, c.getSuperclass());
+            Class[] interfaces = c.getInterfaces();
+            for (int i = 0; i < interfaces.length; i++) {
+                addSupertypes(names, interfaces[i]);
+            }
+        }
+    }
+
+    private static String getClassDigest(String className, ClassLoader loader) throws IOException, NoSuchAlgorithmException {
+        String resource = className.replace('.', '/') + ".class";
+        InputStream in = (loader != null) ?
+            loader.getResourceAsStream(resource) :
+            ClassLoader.getSystemResourceAsStream(resource);
+        if (in == null) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                md.update(buf, 0, len);
+            }
+            return toHex(md.digest());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Digest of the jar or directory cglib is loaded from, or null if it
+     * cannot be read; computed once.
+     */
+    private static class CglibDigest {
+        static final String VALUE = compute();
+
+        private static String compute() {
+            try {
+                CodeSource source = DiskCachingGeneratorStrategy.class.getProtectionDomain().getCodeSource();
+                URL location = (source != null) ? source.getLocation() : null;
+                if (location == null || !"file".equals(location.getProtocol())) {
+                    return null;
+                }
+                File file = new File(location.toURI());
+                MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+                if (file.isDirectory()) {
+                    updateDirectory(md, file, "");
+                } else {
+                    updateFile(md, file);
+                }
+                return toHex(md.digest());
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private static void updateDirectory(MessageDigest md, File dir, String path) throws IOException {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                throw new IOException("Cannot list " + dir);
+            }
+            Arrays.sort(files);
+            for (int i = 0; i < files.length; i++) {
+                String name = path + files[i].getName();
+                if (files[i].isDirectory()) {
+                    updateDirectory(md, files[i], name + '/');
+                } else if (name.endsWith(".class")) {
+                    update(md, name);
+                    updateFile(md, files[i]);
+                }
+            }
+        }
+
+        private static void updateFile(MessageDigest md, File file) throws IOException {
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buf = new byte[4096];
+                int len;
+                while ((len = in.read(buf)) > 0) {
+                    md.update(buf, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static byte[] digest(byte[] b) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(b);
+    }
+
+    private static String toHex(byte[] b) {
+        StringBuffer sb = new StringBuffer(b.length * 2);
+        for (int i = 0; i < b.length; i++) {
+            sb.append(Character.forDigit((b[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    public int hashCode() {
+        return directory.hashCode() ^ delegate.hashCode();
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof DiskCachingGeneratorStrategy)) {
+            return false;
+        }
+        DiskCachingGeneratorStrategy other = (DiskCachingGeneratorStrategy)o;
+        return directory.equals(other.directory) && delegate.equals(other.delegate);
+    }
+}
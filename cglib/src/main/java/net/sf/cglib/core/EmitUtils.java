@@ -20,7 +20,9 @@ import java.math.BigInteger;
 import java.util.*;
 
 import net.sf.cglib.core.internal.CustomizerRegistry;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 
 public class EmitUtils {
@@ -67,6 +69,12 @@ public class EmitUtils {
       TypeUtils.parseSignature("void setLength(int)");
     private static final Signature GET_DECLARED_METHOD =
       TypeUtils.parseSignature("java.lang.reflect.Method getDeclaredMethod(String, Class[])");
+
+    /**
+     * The largest code, in bytes, of the methods generated by {@link #switch_method}. HotSpot
+     * does not compile methods with more than 8000 bytes of code.
+     */
+    private static final int MAX_METHOD_SIZE = Integer.getInteger("cglib.maxMethodSize", 8000).intValue();
      
     
 
@@ -174,6 +182,10 @@ public class EmitUtils {
             case Constants.SWITCH_STYLE_HASHONLY:
                 string_switch_hash(e, strings, callback, true);
                 break;
+            case Constants.SWITCH_STYLE_PERFECT_HASH:
+            case Constants.SWITCH_STYLE_AUTO:
+                string_switch_perfect_hash(e, strings, callback, switchStyle == Constants.SWITCH_STYLE_AUTO);
+                break;
             default:
                 throw new IllegalArgumentException("unknown switch style " + switchStyle);
             }
@@ -186,6 +198,19 @@ public class EmitUtils {
         }
     }
 
+    private static void string_switch_perfect_hash(CodeEmitter e,
+                                                   String[] strings,
+                                                   ObjectSwitchCallback callback,
+                                                   boolean auto) throws Exception {
+        Set unique = new LinkedHashSet(Arrays.asList(strings));
+        PerfectHash hash = PerfectHash.find((String[])unique.toArray(new String[unique.size()]));
+        if (hash == null || (auto && !hash.isFasterThanHashCode())) {
+            string_switch_hash(e, strings, callback, false);
+        } else {
+            hash.emit(e, callback);
+        }
+    }
+
     private static void string_switch_trie(final CodeEmitter e,
                                            String[] strings,
                                            final ObjectSwitchCallback callback) throws Exception {
@@ -305,6 +330,232 @@ public class EmitUtils {
         e.mark(end);
     }
 
+    /**
+     * Generates a method switching on its int argument <code>keyArg</code>, with the body
+     * generated by the callback. If the code would be larger than the
+     * <code>cglib.maxMethodSize</code> system property, 8000 bytes by default, the keys are
+     * split among private methods with the same parameters, and the method only calls the
+     * one handling the key. The keys must be sorted ascending.
+     */
+    public static void switch_method(ClassEmitter ce, int access, Signature sig, Type[] exceptions,
+                                     final int keyArg, final int[] keys, final SwitchMethodCallback callback) {
+        split_method(ce, access, sig, exceptions, keys, new SwitchBody() {
+            public void loadKey(CodeEmitter e) {
+                e.load_arg(keyArg);
+            }
+            public void generate(CodeEmitter e, int from, int to) throws Exception {
+                int[] range = new int[to - from];
+                System.arraycopy(keys, from, range, 0, range.length);
+                callback.processSwitch(e, range);
+            }
+        });
+    }
+
+    /**
+     * Generates a method switching on a string computed from its arguments, as
+     * {@link #switch_method}. The strings are split by hash code.
+     */
+    public static void string_switch_method(ClassEmitter ce, int access, Signature sig, Type[] exceptions,
+                                            final String[] strings, final StringSwitchMethodCallback callback) {
+        final String[] sorted = (String[])strings.clone();
+        Arrays.sort(sorted, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                int h1 = o1.hashCode();
+                int h2 = o2.hashCode();
+                return (h1 < h2) ? -1 : ((h1 == h2) ? 0 : 1);
+            }
+        });
+        int[] hashCodes = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            hashCodes[i] = sorted[i].hashCode();
+        }
+        split_method(ce, access, sig, exceptions, hashCodes, new SwitchBody() {
+            public void loadKey(CodeEmitter e) {
+                callback.loadKey(e);
+                e.invoke_virtual(Constants.TYPE_OBJECT, HASH_CODE);
+            }
+            public void generate(CodeEmitter e, int from, int to) throws Exception {
+                if (from == 0 && to == sorted.length) {
+                    // not split, keep the order of the caller
+                    callback.processSwitch(e, strings);
+                } else {
+                    String[] range = new String[to - from];
+                    System.arraycopy(sorted, from, range, 0, range.length);
+                    callback.processSwitch(e, range);
+                }
+            }
+        });
+    }
+
+    private interface SwitchBody {
+        void loadKey(CodeEmitter e);
+        void generate(CodeEmitter e, int from, int to) throws Exception;
+    }
+
+    private static void split_method(ClassEmitter ce, int access, Signature sig, Type[] exceptions,
+                                     int[] keys, SwitchBody body) {
+        try {
+            List parts = new ArrayList();
+            split(ce, access, sig, exceptions, keys, body, 0, keys.length, parts);
+            if (parts.size() == 1) {
+                CodeEmitter e = ce.begin_method(access, sig, exceptions);
+                body.generate(e, 0, keys.length);
+                e.end_method();
+                return;
+            }
+            boolean isStatic = TypeUtils.isStatic(access);
+            int partAccess = Constants.ACC_PRIVATE | Constants.ACC_FINAL | (access & Constants.ACC_STATIC);
+            Signature[] sigs = new Signature[parts.size()];
+            int[] max = new int[parts.size()];
+            for (int i = 0; i < sigs.length; i++) {
+                int[] part = (int[])parts.get(i);
+                sigs[i] = new Signature("CGLIB$" + sig.getName() + "$" + i, sig.getDescriptor());
+                max[i] = keys[part[1] - 1];
+                CodeEmitter e = ce.begin_method(partAccess, sigs[i], exceptions);
+                body.generate(e, part[0], part[1]);
+                e.end_method();
+            }
+            CodeEmitter e = ce.begin_method(access, sig, exceptions);
+            Local key = e.make_local(Type.INT_TYPE);
+            body.loadKey(e);
+            e.store_local(key);
+            dispatch(e, isStatic, key, sigs, max, 0, sigs.length - 1);
+            e.end_method();
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Error ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new CodeGenerationException(ex);
+        }
+    }
+
+    /**
+     * Adds to <code>parts</code> the ranges of keys to generate in a method each, halving
+     * the range until its code is small enough. Equal keys are kept in the same range.
+     */
+    private static void split(ClassEmitter ce, int access, Signature sig, Type[] exceptions,
+                              int[] keys, SwitchBody body, int from, int to, List parts) throws Exception {
+        if (to - from > 1 && measure(ce, access, sig, exceptions, body, from, to) > MAX_METHOD_SIZE) {
+            int mid = (from + to) / 2;
+            while (mid < to && keys[mid - 1] == keys[mid]) {
+                mid++;
+            }
+            if (mid == to) {
+                mid = (from + to) / 2;
+                while (mid > from && keys[mid - 1] == keys[mid]) {
+                    mid--;
+                }
+            }
+            if (mid > from) {
+                split(ce, access, sig, exceptions, keys, body, from, mid, parts);
+                split(ce, access, sig, exceptions, keys, body, mid, to, parts);
+                return;
+            }
+        }
+        parts.add(new int[]{ from, to });
+    }
+
+    private static int measure(ClassEmitter ce, int access, Signature sig, Type[] exceptions,
+                               SwitchBody body, int from, int to) throws Exception {
+        CodeSizeVisitor size = new CodeSizeVisitor();
+        CodeEmitter e = new CodeEmitter(ce, size, access, sig, exceptions);
+        body.generate(e, from, to);
+        e.end_method();
+        return size.size;
+    }
+
+    private static void dispatch(CodeEmitter e, boolean isStatic, Local key, Signature[] sigs, int[] max, int lo, int hi) {
+        if (lo == hi) {
+            if (isStatic) {
+                e.load_args();
+                e.invoke_static_this(sigs[lo]);
+            } else {
+                e.load_this();
+                e.load_args();
+                e.invoke_special_this(sigs[lo]);
+            }
+            e.return_value();
+            return;
+        }
+        int mid = (lo + hi) / 2;
+        Label higher = e.make_label();
+        e.load_local(key);
+        e.push(max[mid]);
+        e.if_icmp(CodeEmitter.GT, higher);
+        dispatch(e, isStatic, key, sigs, max, lo, mid);
+        e.mark(higher);
+        dispatch(e, isStatic, key, sigs, max, mid + 1, hi);
+    }
+
+    /**
+     * Counts the bytes of code of a method, taking the longest form of the instructions
+     * whose length depends on the constant pool or on the offsets.
+     */
+    private static class CodeSizeVisitor extends MethodVisitor {
+        int size;
+
+        CodeSizeVisitor() {
+            super(Constants.ASM_API);
+        }
+
+        public void visitInsn(int opcode) {
+            size += 1;
+        }
+
+        public void visitIntInsn(int opcode, int operand) {
+            size += (opcode == Constants.SIPUSH) ? 3 : 2;
+        }
+
+        public void visitVarInsn(int opcode, int var) {
+            if (var < 4 && opcode != Constants.RET) {
+                size += 1;
+            } else {
+                size += (var < 256) ? 2 : 4;
+            }
+        }
+
+        public void visitTypeInsn(int opcode, String type) {
+            size += 3;
+        }
+
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            size += 3;
+        }
+
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            size += (opcode == Constants.INVOKEINTERFACE) ? 5 : 3;
+        }
+
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            size += 5;
+        }
+
+        public void visitJumpInsn(int opcode, Label label) {
+            size += 3;
+        }
+
+        public void visitLdcInsn(Object value) {
+            size += 3;
+        }
+
+        public void visitIincInsn(int var, int increment) {
+            size += (var > 255 || increment > 127 || increment < -128) ? 6 : 3;
+        }
+
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            size += 16 + 4 * labels.length;
+        }
+
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            size += 12 + 8 * keys.length;
+        }
+
+        public void visitMultiANewArrayInsn(String desc, int dims) {
+            size += 4;
+        }
+    }
+
     public static void load_class_this(CodeEmitter e) {
         load_class_helper(e, e.getClassEmitter().getClassType());
     }
@@ -648,6 +899,8 @@ public class EmitUtils {
                 e.invoke_virtual(Constants.TYPE_STRING_BUFFER, APPEND_CHAR);
                 break;
             }
+            // primitives are never null, the null check below would be unreachable
+            return;
         } else if (TypeUtils.isArray(type)) {
             e.dup();
             e.ifnull(skip);
@@ -922,23 +1175,22 @@ public class EmitUtils {
         if (set.contains(Constants.TYPE_THROWABLE))
             return;
 
-        boolean needThrow = exceptions != null;
+        // every rethrowing handler gets its own athrow, so that a handler never merges
+        // exceptions of different types, which would need their common super class
         if (!set.contains(Constants.TYPE_RUNTIME_EXCEPTION)) {
             e.catch_exception(handler, Constants.TYPE_RUNTIME_EXCEPTION);
-            needThrow = true;
+            e.athrow();
         }
         if (!set.contains(Constants.TYPE_ERROR)) {
             e.catch_exception(handler, Constants.TYPE_ERROR);
-            needThrow = true;
+            e.athrow();
         }
         if (exceptions != null) {
             for (int i = 0; i < exceptions.length; i++) {
                 e.catch_exception(handler, exceptions[i]);
+                e.athrow();
             }
         }
-        if (needThrow) {
-            e.athrow();
-        }
         // e -> eo -> oeo -> ooe -> o
         e.catch_exception(handler, Constants.TYPE_THROWABLE);
         e.new_instance(wrapper);
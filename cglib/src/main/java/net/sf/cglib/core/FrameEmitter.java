@@ -0,0 +1,1360 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+/**
+ * Adds stack map frames to the methods of a class in a single forward pass over their
+ * instructions, and computes their maximum stack size and number of locals, so that the
+ * class can be written without <code>ClassWriter.COMPUTE_FRAMES</code>. Unlike ASM, it
+ * never builds a control flow graph and never loads classes to find a common super class.
+ * <p>
+ * The code cglib generates only ever merges values of the same type, or a value with
+ * <code>null</code>. Code that would need a common super class, that jumps backwards to a
+ * label which was reached by falling through, that contains unreachable instructions,
+ * subroutines or frames of its own is rejected with an {@link UnsupportedCodeException};
+ * the class then has to be written with <code>ClassWriter.COMPUTE_FRAMES</code>. The rest
+ * of the class is still written, without frames, so that it can be copied from the result
+ * instead of being generated again, see {@link #getUnsupportedCode}.
+ * @see DebuggingClassWriter#EMIT_FRAMES
+ */
+class FrameEmitter extends ClassVisitor {
+    private String className;
+    private boolean emitFrames;
+    private UnsupportedCodeException unsupportedCode;
+
+    FrameEmitter(ClassVisitor cv) {
+        super(Constants.ASM_API, cv);
+    }
+
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        className = name;
+        emitFrames = (version & 0xFFFF) >= Constants.V1_6;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        if (mv == null || unsupportedCode != null) {
+            return mv;
+        }
+        return new FallbackMethodVisitor(new MethodFrameEmitter(mv, className, access, name, desc, emitFrames), mv);
+    }
+
+    /**
+     * Returns the reason the first method without frames could not be given any, or null if
+     * all the methods have frames.
+     */
+    UnsupportedCodeException getUnsupportedCode() {
+        return unsupportedCode;
+    }
+
+    /**
+     * Compares the frames of two versions of a class, for instance one written with frames
+     * from this emitter and one written with <code>ClassWriter.COMPUTE_FRAMES</code>.
+     * @return a description of the first difference, or null if the frames are the same
+     */
+    static String compareFrames(byte[] expected, byte[] actual) {
+        List<String> a = readFrames(expected);
+        List<String> b = readFrames(actual);
+        for (int i = 0; i < Math.max(a.size(), b.size()); i++) {
+            String x = i < a.size() ? a.get(i) : null;
+            String y = i < b.size() ? b.get(i) : null;
+            if (x == null || !x.equals(y)) {
+                return "expected " + x + " but was " + y;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> readFrames(byte[] b) {
+        final List<String> frames = new ArrayList<String>();
+        new ClassReader(b).accept(new ClassVisitor(Constants.ASM_API) {
+            public MethodVisitor visitMethod(int access, final String name, final String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(Constants.ASM_API) {
+                    // labels read by a ClassReader have no offset, so positions are counted in instructions
+                    private final Map<Label, Integer> positions = new HashMap<Label, Integer>();
+                    private int position;
+
+                    public void visitLabel(Label label) {
+                        positions.put(label, position);
+                    }
+
+                    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+                        frames.add(name + desc + " at instruction " + position +
+                                   ": locals " + frameToString(nLocal, local) +
+                                   ", stack " + frameToString(nStack, stack));
+                    }
+
+                    private String frameToString(int n, Object[] values) {
+                        StringBuffer sb = new StringBuffer("[");
+                        for (int i = 0; i < n; i++) {
+                            if (i > 0) {
+                                sb.append(", ");
+                            }
+                            if (values[i] instanceof Label) {
+                                sb.append("uninitialized ").append(positions.get(values[i]));
+                            } else {
+                                sb.append(values[i]);
+                            }
+                        }
+                        return sb.append("]").toString();
+                    }
+
+                    public void visitInsn(int opcode) { position++; }
+                    public void visitIntInsn(int opcode, int operand) { position++; }
+                    public void visitVarInsn(int opcode, int var) { position++; }
+                    public void visitTypeInsn(int opcode, String type) { position++; }
+                    public void visitFieldInsn(int opcode, String owner, String name, String desc) { position++; }
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) { position++; }
+                    public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) { position++; }
+                    public void visitJumpInsn(int opcode, Label label) { position++; }
+                    public void visitLdcInsn(Object value) { position++; }
+                    public void visitIincInsn(int var, int increment) { position++; }
+                    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) { position++; }
+                    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) { position++; }
+                    public void visitMultiANewArrayInsn(String desc, int dims) { position++; }
+                };
+            }
+        }, ClassReader.EXPAND_FRAMES);
+        return frames;
+    }
+
+    /**
+     * Thrown when a method cannot be given frames in a single pass.
+     */
+    static class UnsupportedCodeException extends RuntimeException {
+        UnsupportedCodeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Passes the code of a method through its {@link MethodFrameEmitter} until that fails,
+     * and from then on straight to the writer, dropping frames.
+     */
+    private class FallbackMethodVisitor extends MethodVisitor {
+        private final MethodFrameEmitter emitter;
+        private final MethodVisitor writer;
+
+        FallbackMethodVisitor(MethodFrameEmitter emitter, MethodVisitor writer) {
+            super(Constants.ASM_API, emitter);
+            this.emitter = emitter;
+            this.writer = writer;
+        }
+
+        /**
+         * @return whether the event which failed still has to be passed to the writer
+         */
+        private boolean fallBack(UnsupportedCodeException e) {
+            if (unsupportedCode == null) {
+                unsupportedCode = e;
+            }
+            mv = writer;
+            // instructions reach the writer as soon as their frame is known
+            return !emitter.inInsn;
+        }
+
+        public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+            if (mv != writer) {
+                try {
+                    super.visitFrame(type, nLocal, local, nStack, stack);
+                } catch (UnsupportedCodeException e) {
+                    fallBack(e);
+                }
+            }
+        }
+
+        public void visitLabel(Label label) {
+            try {
+                super.visitLabel(label);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitLabel(label);
+                }
+            }
+        }
+
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+            try {
+                super.visitTryCatchBlock(start, end, handler, type);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitTryCatchBlock(start, end, handler, type);
+                }
+            }
+        }
+
+        public void visitInsn(int opcode) {
+            try {
+                super.visitInsn(opcode);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitInsn(opcode);
+                }
+            }
+        }
+
+        public void visitIntInsn(int opcode, int operand) {
+            try {
+                super.visitIntInsn(opcode, operand);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitIntInsn(opcode, operand);
+                }
+            }
+        }
+
+        public void visitVarInsn(int opcode, int var) {
+            try {
+                super.visitVarInsn(opcode, var);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitVarInsn(opcode, var);
+                }
+            }
+        }
+
+        public void visitTypeInsn(int opcode, String type) {
+            try {
+                super.visitTypeInsn(opcode, type);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitTypeInsn(opcode, type);
+                }
+            }
+        }
+
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            try {
+                super.visitFieldInsn(opcode, owner, name, desc);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitFieldInsn(opcode, owner, name, desc);
+                }
+            }
+        }
+
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            try {
+                super.visitMethodInsn(opcode, owner, name, desc, itf);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitMethodInsn(opcode, owner, name, desc, itf);
+                }
+            }
+        }
+
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            try {
+                super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+                }
+            }
+        }
+
+        public void visitJumpInsn(int opcode, Label label) {
+            try {
+                super.visitJumpInsn(opcode, label);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitJumpInsn(opcode, label);
+                }
+            }
+        }
+
+        public void visitLdcInsn(Object value) {
+            try {
+                super.visitLdcInsn(value);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitLdcInsn(value);
+                }
+            }
+        }
+
+        public void visitIincInsn(int var, int increment) {
+            try {
+                super.visitIincInsn(var, increment);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitIincInsn(var, increment);
+                }
+            }
+        }
+
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            try {
+                super.visitTableSwitchInsn(min, max, dflt, labels);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitTableSwitchInsn(min, max, dflt, labels);
+                }
+            }
+        }
+
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            try {
+                super.visitLookupSwitchInsn(dflt, keys, labels);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitLookupSwitchInsn(dflt, keys, labels);
+                }
+            }
+        }
+
+        public void visitMultiANewArrayInsn(String desc, int dims) {
+            try {
+                super.visitMultiANewArrayInsn(desc, dims);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitMultiANewArrayInsn(desc, dims);
+                }
+            }
+        }
+
+        public void visitMaxs(int maxStack, int maxLocals) {
+            try {
+                super.visitMaxs(maxStack, maxLocals);
+            } catch (UnsupportedCodeException e) {
+                if (fallBack(e)) {
+                    writer.visitMaxs(maxStack, maxLocals);
+                }
+            }
+        }
+    }
+
+    private static final Object TOP = Constants.TOP;
+    private static final Object INTEGER = Constants.INTEGER;
+    private static final Object FLOAT = Constants.FLOAT;
+    private static final Object LONG = Constants.LONG;
+    private static final Object DOUBLE = Constants.DOUBLE;
+    private static final Object NULL = Constants.NULL;
+    private static final Object UNINITIALIZED_THIS = Constants.UNINITIALIZED_THIS;
+
+    private static final Object[] EMPTY = {};
+
+    /**
+     * What is known about a label: the state of the jumps to it before it is visited,
+     * and the frame emitted for it afterwards.
+     */
+    private static class LabelInfo {
+        Object[] locals;
+        Object[] stack;
+        boolean visited;
+        int history = -1;
+        boolean handler;
+        Object[] frameLocals;
+        Object[] frameStack;
+        boolean guessed;
+    }
+
+    private static class Handler {
+        final Label start;
+        final Label end;
+        final Label handler;
+        final String type;
+
+        Handler(Label start, Label end, Label handler, String type) {
+            this.start = start;
+            this.end = end;
+            this.handler = handler;
+            this.type = type == null ? "java/lang/Throwable" : type;
+        }
+    }
+
+    private static class MethodFrameEmitter extends MethodVisitor {
+        private final String className;
+        private final String methodName;
+        private final boolean emitFrames;
+
+        private final List<Object> locals = new ArrayList<Object>();
+        private final List<Object> stack = new ArrayList<Object>();
+        private boolean reachable = true;
+        /** Set from the moment an instruction is passed on to the writer until its end. */
+        boolean inInsn;
+        private int maxStack;
+        private int maxLocals;
+
+        private final Map<Label, LabelInfo> labels = new HashMap<Label, LabelInfo>();
+        private final List<Label> pending = new ArrayList<Label>();
+        private final List<Handler> handlers = new ArrayList<Handler>();
+        private final Map<Label, String> uninitializedTypes = new HashMap<Label, String>();
+
+        /** Locals before every instruction that changed them, to merge into exception handlers. */
+        private final List<Object[]> history = new ArrayList<Object[]>();
+        private boolean localsChanged;
+
+        /** State after the last unconditional branch, assumed for a label that no jump has reached yet. */
+        private Object[] guessLocals;
+        private Object[] guessStack;
+        private final List<LabelInfo> guessed = new ArrayList<LabelInfo>();
+
+        MethodFrameEmitter(MethodVisitor mv, String className, int access, String name, String desc, boolean emitFrames) {
+            super(Constants.ASM_API, mv);
+            this.className = className;
+            this.methodName = name;
+            this.emitFrames = emitFrames;
+            if (!TypeUtils.isStatic(access)) {
+                locals.add(Constants.CONSTRUCTOR_NAME.equals(name) ? UNINITIALIZED_THIS : (Object) className);
+            }
+            Type[] args = Type.getArgumentTypes(desc);
+            for (int i = 0; i < args.length; i++) {
+                addType(locals, args[i]);
+            }
+            maxLocals = locals.size();
+            history.add(locals.toArray());
+        }
+
+        private UnsupportedCodeException unsupported(String message) {
+            return new UnsupportedCodeException(message + " in " + className + "." + methodName);
+        }
+
+        // ------------- state
+
+        private static void addType(List<Object> list, Type type) {
+            switch (type.getSort()) {
+            case Type.VOID:
+                break;
+            case Type.BOOLEAN:
+            case Type.BYTE:
+            case Type.CHAR:
+            case Type.SHORT:
+            case Type.INT:
+                list.add(INTEGER);
+                break;
+            case Type.FLOAT:
+                list.add(FLOAT);
+                break;
+            case Type.LONG:
+                list.add(LONG);
+                list.add(TOP);
+                break;
+            case Type.DOUBLE:
+                list.add(DOUBLE);
+                list.add(TOP);
+                break;
+            case Type.ARRAY:
+                list.add(type.getDescriptor());
+                break;
+            default:
+                list.add(type.getInternalName());
+            }
+        }
+
+        private void push(Object value) {
+            stack.add(value);
+            if (value == LONG || value == DOUBLE) {
+                stack.add(TOP);
+            }
+            if (stack.size() > maxStack) {
+                maxStack = stack.size();
+            }
+        }
+
+        /**
+         * Pushes a single slot, which may be the second half of a long or double.
+         */
+        private void pushSlot(Object value) {
+            stack.add(value);
+            if (stack.size() > maxStack) {
+                maxStack = stack.size();
+            }
+        }
+
+        private void pushType(Type type) {
+            addType(stack, type);
+            if (stack.size() > maxStack) {
+                maxStack = stack.size();
+            }
+        }
+
+        private void pushDescriptor(String desc) {
+            pushType(Type.getType(desc));
+        }
+
+        private Object pop() {
+            if (stack.isEmpty()) {
+                throw unsupported("Stack underflow");
+            }
+            return stack.remove(stack.size() - 1);
+        }
+
+        private void pop(int slots) {
+            for (int i = 0; i < slots; i++) {
+                pop();
+            }
+        }
+
+        private void popDescriptor(String desc) {
+            pop(Type.getType(desc).getSize());
+        }
+
+        private Object getLocal(int index) {
+            Object value = index < locals.size() ? locals.get(index) : TOP;
+            if (value == TOP) {
+                throw unsupported("Read of unset local " + index);
+            }
+            return value;
+        }
+
+        private void setLocal(int index, Object value) {
+            while (locals.size() <= index) {
+                locals.add(TOP);
+            }
+            if (index > 0) {
+                Object previous = locals.get(index - 1);
+                if (previous == LONG || previous == DOUBLE) {
+                    locals.set(index - 1, TOP);
+                }
+            }
+            locals.set(index, value);
+            localsChanged = true;
+        }
+
+        private void storeLocal(int index, Object value) {
+            setLocal(index, value);
+            if (value == LONG || value == DOUBLE) {
+                setLocal(index + 1, TOP);
+            }
+            maxLocals = Math.max(maxLocals, locals.size());
+        }
+
+        private void useLocal(int index, int size) {
+            maxLocals = Math.max(maxLocals, index + size);
+        }
+
+        private static boolean isReference(Object value) {
+            return value instanceof String || value == NULL;
+        }
+
+        /**
+         * Merges two values that reach the same instruction. Values of different types are only
+         * merged into TOP in the locals, where the code cannot read them afterwards.
+         */
+        private Object merge(Object a, Object b, boolean local) {
+            if (a.equals(b)) {
+                return a;
+            }
+            if (a == NULL && b instanceof String) {
+                return b;
+            }
+            if (b == NULL && a instanceof String) {
+                return a;
+            }
+            if (local && !(isReference(a) && isReference(b))) {
+                return TOP;
+            }
+            throw unsupported("Cannot merge " + a + " with " + b);
+        }
+
+        private Object[] mergeLocals(Object[] a, Object[] b) {
+            if (a == null) {
+                return b;
+            }
+            Object[] result = new Object[Math.max(a.length, b.length)];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = merge(i < a.length ? a[i] : TOP, i < b.length ? b[i] : TOP, true);
+            }
+            return result;
+        }
+
+        private Object[] mergeStack(Object[] a, Object[] b) {
+            if (a == null) {
+                return b;
+            }
+            if (a.length != b.length) {
+                throw unsupported("Inconsistent stack height");
+            }
+            Object[] result = new Object[a.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = merge(a[i], b[i], false);
+            }
+            return result;
+        }
+
+        private static boolean isAssignable(Object from, Object to) {
+            return to == TOP || from.equals(to) || (from == NULL && to instanceof String);
+        }
+
+        private void checkAssignable(Object[] frameLocals, Object[] frameStack) {
+            for (int i = 0; i < frameLocals.length; i++) {
+                Object value = i < locals.size() ? locals.get(i) : TOP;
+                if (!isAssignable(value, frameLocals[i])) {
+                    throw unsupported("Local " + i + " does not match the frame of a backward jump");
+                }
+            }
+            if (stack.size() != frameStack.length) {
+                throw unsupported("Stack does not match the frame of a backward jump");
+            }
+            for (int i = 0; i < frameStack.length; i++) {
+                if (!isAssignable(stack.get(i), frameStack[i])) {
+                    throw unsupported("Stack does not match the frame of a backward jump");
+                }
+            }
+        }
+
+        private LabelInfo info(Label label) {
+            LabelInfo info = labels.get(label);
+            if (info == null) {
+                labels.put(label, info = new LabelInfo());
+            }
+            return info;
+        }
+
+        private void jump(Label label) {
+            LabelInfo info = info(label);
+            if (info.visited) {
+                if (info.frameLocals == null) {
+                    throw unsupported("Backward jump to a label without a frame");
+                }
+                checkAssignable(info.frameLocals, info.frameStack);
+                info.guessed = false;
+            } else {
+                info.locals = mergeLocals(info.locals, locals.toArray());
+                info.stack = mergeStack(info.stack, stack.toArray());
+            }
+        }
+
+        private void endBlock(boolean keepStack) {
+            guessLocals = locals.toArray();
+            guessStack = keepStack ? stack.toArray() : EMPTY;
+            reachable = false;
+        }
+
+        private void setState(Object[] newLocals, Object[] newStack) {
+            locals.clear();
+            for (int i = 0; i < newLocals.length; i++) {
+                locals.add(newLocals[i]);
+            }
+            stack.clear();
+            for (int i = 0; i < newStack.length; i++) {
+                stack.add(newStack[i]);
+            }
+            localsChanged = true;
+        }
+
+        private Object[] handlerLocals(Label label) {
+            Object[] result = null;
+            for (int i = 0; i < handlers.size(); i++) {
+                Handler h = handlers.get(i);
+                if (h.handler != label) {
+                    continue;
+                }
+                int start = rangeIndex(h.start);
+                int end = rangeIndex(h.end);
+                if (start < 0 || end < 0) {
+                    throw unsupported("Exception handler before the end of its range");
+                }
+                for (int j = start; j < end; j++) {
+                    result = mergeLocals(result, history.get(j));
+                }
+            }
+            return result == null ? EMPTY : result;
+        }
+
+        /**
+         * Returns the index in {@link #history} of the locals at a label, or -1 if the label has not been visited.
+         */
+        private int rangeIndex(Label label) {
+            if (pending.contains(label)) {
+                return history.size();
+            }
+            return labels.get(label).history;
+        }
+
+        private Object[] handlerStack(Label label) {
+            String type = null;
+            for (int i = 0; i < handlers.size(); i++) {
+                Handler h = handlers.get(i);
+                if (h.handler == label) {
+                    if (type != null && !type.equals(h.type)) {
+                        throw unsupported("Exception handler for several types");
+                    }
+                    type = h.type;
+                }
+            }
+            return new Object[]{ type };
+        }
+
+        /**
+         * Establishes the state at the labels visited since the last instruction and emits their frame.
+         */
+        private void beginInsn() {
+            if (pending.isEmpty()) {
+                if (!reachable) {
+                    throw unsupported("Unreachable code");
+                }
+                inInsn = true;
+                return;
+            }
+            Object[] newLocals = reachable ? locals.toArray() : null;
+            Object[] newStack = reachable ? stack.toArray() : null;
+            boolean needsFrame = !reachable;
+            for (int i = 0; i < pending.size(); i++) {
+                Label label = pending.get(i);
+                LabelInfo info = labels.get(label);
+                if (info.handler) {
+                    newLocals = mergeLocals(newLocals, handlerLocals(label));
+                    newStack = mergeStack(newStack, handlerStack(label));
+                    needsFrame = true;
+                }
+                if (info.locals != null) {
+                    newLocals = mergeLocals(newLocals, info.locals);
+                    newStack = mergeStack(newStack, info.stack);
+                    needsFrame = true;
+                }
+            }
+            boolean guess = false;
+            if (newLocals == null) {
+                if (guessLocals == null) {
+                    throw unsupported("Unreachable code");
+                }
+                newLocals = guessLocals;
+                newStack = guessStack;
+                guess = true;
+            }
+            setState(newLocals, newStack);
+            reachable = true;
+            if (needsFrame && emitFrames) {
+                emitFrame(newLocals, newStack);
+            }
+            history.add(locals.toArray());
+            localsChanged = false;
+            for (int i = 0; i < pending.size(); i++) {
+                LabelInfo info = labels.get(pending.get(i));
+                info.history = history.size() - 1;
+                if (needsFrame) {
+                    info.frameLocals = newLocals;
+                    info.frameStack = newStack;
+                    if (guess) {
+                        info.guessed = true;
+                        guessed.add(info);
+                    }
+                }
+            }
+            pending.clear();
+            inInsn = true;
+        }
+
+        private void endInsn() {
+            inInsn = false;
+            if (localsChanged) {
+                history.add(locals.toArray());
+                localsChanged = false;
+            }
+        }
+
+        private void emitFrame(Object[] frameLocals, Object[] frameStack) {
+            List<Object> l = toFrame(frameLocals);
+            while (!l.isEmpty() && l.get(l.size() - 1) == TOP) {
+                l.remove(l.size() - 1);
+            }
+            List<Object> s = toFrame(frameStack);
+            mv.visitFrame(Constants.F_NEW, l.size(), l.toArray(), s.size(), s.toArray());
+        }
+
+        private static List<Object> toFrame(Object[] values) {
+            List<Object> result = new ArrayList<Object>(values.length);
+            for (int i = 0; i < values.length; i++) {
+                result.add(values[i]);
+                if (values[i] == LONG || values[i] == DOUBLE) {
+                    i++;
+                }
+            }
+            return result;
+        }
+
+        private void initialize(Object value) {
+            Object type;
+            if (value == UNINITIALIZED_THIS) {
+                type = className;
+            } else if (value instanceof Label) {
+                type = uninitializedTypes.get(value);
+            } else {
+                return;
+            }
+            for (int i = 0; i < locals.size(); i++) {
+                if (locals.get(i) == value) {
+                    locals.set(i, type);
+                    localsChanged = true;
+                }
+            }
+            for (int i = 0; i < stack.size(); i++) {
+                if (stack.get(i) == value) {
+                    stack.set(i, type);
+                }
+            }
+        }
+
+        // ------------- visitor
+
+        public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+            throw unsupported("Existing frames");
+        }
+
+        public void visitLabel(Label label) {
+            LabelInfo info = info(label);
+            if (info.visited) {
+                throw unsupported("Label visited twice");
+            }
+            info.visited = true;
+            pending.add(label);
+            super.visitLabel(label);
+        }
+
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+            LabelInfo info = info(handler);
+            if (info.visited && !pending.contains(handler)) {
+                throw unsupported("Exception handler declared after its code");
+            }
+            info.handler = true;
+            info(start);
+            info(end);
+            handlers.add(new Handler(start, end, handler, type));
+            super.visitTryCatchBlock(start, end, handler, type);
+        }
+
+        public void visitInsn(int opcode) {
+            beginInsn();
+            super.visitInsn(opcode);
+            Object v1, v2, v3, v4;
+            switch (opcode) {
+            case Constants.NOP:
+            case Constants.INEG:
+            case Constants.LNEG:
+            case Constants.FNEG:
+            case Constants.DNEG:
+            case Constants.I2B:
+            case Constants.I2C:
+            case Constants.I2S:
+                break;
+            case Constants.ACONST_NULL:
+                push(NULL);
+                break;
+            case Constants.ICONST_M1:
+            case Constants.ICONST_0:
+            case Constants.ICONST_1:
+            case Constants.ICONST_2:
+            case Constants.ICONST_3:
+            case Constants.ICONST_4:
+            case Constants.ICONST_5:
+                push(INTEGER);
+                break;
+            case Constants.LCONST_0:
+            case Constants.LCONST_1:
+                push(LONG);
+                break;
+            case Constants.FCONST_0:
+            case Constants.FCONST_1:
+            case Constants.FCONST_2:
+                push(FLOAT);
+                break;
+            case Constants.DCONST_0:
+            case Constants.DCONST_1:
+                push(DOUBLE);
+                break;
+            case Constants.IALOAD:
+            case Constants.BALOAD:
+            case Constants.CALOAD:
+            case Constants.SALOAD:
+                pop(2);
+                push(INTEGER);
+                break;
+            case Constants.LALOAD:
+            case Constants.D2L:
+                pop(2);
+                push(LONG);
+                break;
+            case Constants.FALOAD:
+                pop(2);
+                push(FLOAT);
+                break;
+            case Constants.DALOAD:
+            case Constants.L2D:
+                pop(2);
+                push(DOUBLE);
+                break;
+            case Constants.AALOAD:
+                pop();
+                v1 = pop();
+                if (v1 instanceof String && ((String) v1).startsWith("[")) {
+                    pushDescriptor(((String) v1).substring(1));
+                } else if (v1 == NULL) {
+                    push(NULL);
+                } else {
+                    throw unsupported("AALOAD on " + v1);
+                }
+                break;
+            case Constants.IASTORE:
+            case Constants.BASTORE:
+            case Constants.CASTORE:
+            case Constants.SASTORE:
+            case Constants.FASTORE:
+            case Constants.AASTORE:
+                pop(3);
+                break;
+            case Constants.LASTORE:
+            case Constants.DASTORE:
+                pop(4);
+                break;
+            case Constants.POP:
+            case Constants.MONITORENTER:
+            case Constants.MONITOREXIT:
+                pop();
+                break;
+            case Constants.POP2:
+                pop(2);
+                break;
+            case Constants.DUP:
+                v1 = pop();
+                pushSlot(v1);
+                pushSlot(v1);
+                break;
+            case Constants.DUP_X1:
+                v1 = pop();
+                v2 = pop();
+                pushSlot(v1);
+                pushSlot(v2);
+                pushSlot(v1);
+                break;
+            case Constants.DUP_X2:
+                v1 = pop();
+                v2 = pop();
+                v3 = pop();
+                pushSlot(v1);
+                pushSlot(v3);
+                pushSlot(v2);
+                pushSlot(v1);
+                break;
+            case Constants.DUP2:
+                v1 = pop();
+                v2 = pop();
+                pushSlot(v2);
+                pushSlot(v1);
+                pushSlot(v2);
+                pushSlot(v1);
+                break;
+            case Constants.DUP2_X1:
+                v1 = pop();
+                v2 = pop();
+                v3 = pop();
+                pushSlot(v2);
+                pushSlot(v1);
+                pushSlot(v3);
+                pushSlot(v2);
+                pushSlot(v1);
+                break;
+            case Constants.DUP2_X2:
+                v1 = pop();
+                v2 = pop();
+                v3 = pop();
+                v4 = pop();
+                pushSlot(v2);
+                pushSlot(v1);
+                pushSlot(v4);
+                pushSlot(v3);
+                pushSlot(v2);
+                pushSlot(v1);
+                break;
+            case Constants.SWAP:
+                v1 = pop();
+                v2 = pop();
+                pushSlot(v1);
+                pushSlot(v2);
+                break;
+            case Constants.IADD:
+            case Constants.ISUB:
+            case Constants.IMUL:
+            case Constants.IDIV:
+            case Constants.IREM:
+            case Constants.IAND:
+            case Constants.IOR:
+            case Constants.IXOR:
+            case Constants.ISHL:
+            case Constants.ISHR:
+            case Constants.IUSHR:
+            case Constants.L2I:
+            case Constants.D2I:
+            case Constants.FCMPL:
+            case Constants.FCMPG:
+                pop(2);
+                push(INTEGER);
+                break;
+            case Constants.LADD:
+            case Constants.LSUB:
+            case Constants.LMUL:
+            case Constants.LDIV:
+            case Constants.LREM:
+            case Constants.LAND:
+            case Constants.LOR:
+            case Constants.LXOR:
+                pop(4);
+                push(LONG);
+                break;
+            case Constants.FADD:
+            case Constants.FSUB:
+            case Constants.FMUL:
+            case Constants.FDIV:
+            case Constants.FREM:
+            case Constants.L2F:
+            case Constants.D2F:
+                pop(2);
+                push(FLOAT);
+                break;
+            case Constants.DADD:
+            case Constants.DSUB:
+            case Constants.DMUL:
+            case Constants.DDIV:
+            case Constants.DREM:
+                pop(4);
+                push(DOUBLE);
+                break;
+            case Constants.LSHL:
+            case Constants.LSHR:
+            case Constants.LUSHR:
+                pop(3);
+                push(LONG);
+                break;
+            case Constants.I2L:
+            case Constants.F2L:
+                pop();
+                push(LONG);
+                break;
+            case Constants.I2F:
+                pop();
+                push(FLOAT);
+                break;
+            case Constants.I2D:
+            case Constants.F2D:
+                pop();
+                push(DOUBLE);
+                break;
+            case Constants.F2I:
+            case Constants.ARRAYLENGTH:
+                pop();
+                push(INTEGER);
+                break;
+            case Constants.LCMP:
+            case Constants.DCMPL:
+            case Constants.DCMPG:
+                pop(4);
+                push(INTEGER);
+                break;
+            case Constants.IRETURN:
+            case Constants.FRETURN:
+            case Constants.ARETURN:
+            case Constants.ATHROW:
+                pop();
+                endBlock(false);
+                break;
+            case Constants.LRETURN:
+            case Constants.DRETURN:
+                pop(2);
+                endBlock(false);
+                break;
+            case Constants.RETURN:
+                endBlock(false);
+                break;
+            default:
+                throw unsupported("Opcode " + opcode);
+            }
+            endInsn();
+        }
+
+        public void visitIntInsn(int opcode, int operand) {
+            beginInsn();
+            super.visitIntInsn(opcode, operand);
+            switch (opcode) {
+            case Constants.BIPUSH:
+            case Constants.SIPUSH:
+                push(INTEGER);
+                break;
+            case Constants.NEWARRAY:
+                pop();
+                switch (operand) {
+                case Constants.T_BOOLEAN: push("[Z"); break;
+                case Constants.T_CHAR: push("[C"); break;
+                case Constants.T_FLOAT: push("[F"); break;
+                case Constants.T_DOUBLE: push("[D"); break;
+                case Constants.T_BYTE: push("[B"); break;
+                case Constants.T_SHORT: push("[S"); break;
+                case Constants.T_INT: push("[I"); break;
+                case Constants.T_LONG: push("[J"); break;
+                default: throw unsupported("NEWARRAY " + operand);
+                }
+                break;
+            default:
+                throw unsupported("Opcode " + opcode);
+            }
+            endInsn();
+        }
+
+        public void visitVarInsn(int opcode, int var) {
+            beginInsn();
+            super.visitVarInsn(opcode, var);
+            switch (opcode) {
+            case Constants.ILOAD:
+                useLocal(var, 1);
+                push(INTEGER);
+                break;
+            case Constants.FLOAD:
+                useLocal(var, 1);
+                push(FLOAT);
+                break;
+            case Constants.LLOAD:
+                useLocal(var, 2);
+                push(LONG);
+                break;
+            case Constants.DLOAD:
+                useLocal(var, 2);
+                push(DOUBLE);
+                break;
+            case Constants.ALOAD:
+                useLocal(var, 1);
+                push(getLocal(var));
+                break;
+            case Constants.ISTORE:
+                pop();
+                storeLocal(var, INTEGER);
+                break;
+            case Constants.FSTORE:
+                pop();
+                storeLocal(var, FLOAT);
+                break;
+            case Constants.LSTORE:
+                pop(2);
+                storeLocal(var, LONG);
+                break;
+            case Constants.DSTORE:
+                pop(2);
+                storeLocal(var, DOUBLE);
+                break;
+            case Constants.ASTORE:
+                storeLocal(var, pop());
+                break;
+            default:
+                throw unsupported("Opcode " + opcode);
+            }
+            endInsn();
+        }
+
+        public void visitTypeInsn(int opcode, String type) {
+            beginInsn();
+            if (opcode == Constants.NEW) {
+                // the uninitialized value is identified by the offset of the NEW instruction
+                Label label = new Label();
+                super.visitLabel(label);
+                uninitializedTypes.put(label, type);
+                super.visitTypeInsn(opcode, type);
+                push(label);
+                endInsn();
+                return;
+            }
+            super.visitTypeInsn(opcode, type);
+            switch (opcode) {
+            case Constants.ANEWARRAY:
+                pop();
+                push(type.startsWith("[") ? "[" + type : "[L" + type + ";");
+                break;
+            case Constants.CHECKCAST:
+                pop();
+                push(type);
+                break;
+            case Constants.INSTANCEOF:
+                pop();
+                push(INTEGER);
+                break;
+            default:
+                throw unsupported("Opcode " + opcode);
+            }
+            endInsn();
+        }
+
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            beginInsn();
+            super.visitFieldInsn(opcode, owner, name, desc);
+            switch (opcode) {
+            case Constants.GETSTATIC:
+                pushDescriptor(desc);
+                break;
+            case Constants.PUTSTATIC:
+                popDescriptor(desc);
+                break;
+            case Constants.GETFIELD:
+                pop();
+                pushDescriptor(desc);
+                break;
+            default:
+                popDescriptor(desc);
+                pop();
+            }
+            endInsn();
+        }
+
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            beginInsn();
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+            Type[] args = Type.getArgumentTypes(desc);
+            for (int i = args.length - 1; i >= 0; i--) {
+                pop(args[i].getSize());
+            }
+            if (opcode != Constants.INVOKESTATIC) {
+                Object receiver = pop();
+                if (opcode == Constants.INVOKESPECIAL && Constants.CONSTRUCTOR_NAME.equals(name)) {
+                    initialize(receiver);
+                }
+            }
+            pushType(Type.getReturnType(desc));
+            endInsn();
+        }
+
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            beginInsn();
+            super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+            Type[] args = Type.getArgumentTypes(desc);
+            for (int i = args.length - 1; i >= 0; i--) {
+                pop(args[i].getSize());
+            }
+            pushType(Type.getReturnType(desc));
+            endInsn();
+        }
+
+        public void visitJumpInsn(int opcode, Label label) {
+            beginInsn();
+            super.visitJumpInsn(opcode, label);
+            switch (opcode) {
+            case Constants.IFEQ:
+            case Constants.IFNE:
+            case Constants.IFLT:
+            case Constants.IFGE:
+            case Constants.IFGT:
+            case Constants.IFLE:
+            case Constants.IFNULL:
+            case Constants.IFNONNULL:
+                pop();
+                jump(label);
+                break;
+            case Constants.IF_ICMPEQ:
+            case Constants.IF_ICMPNE:
+            case Constants.IF_ICMPLT:
+            case Constants.IF_ICMPGE:
+            case Constants.IF_ICMPGT:
+            case Constants.IF_ICMPLE:
+            case Constants.IF_ACMPEQ:
+            case Constants.IF_ACMPNE:
+                pop(2);
+                jump(label);
+                break;
+            case Constants.GOTO:
+                jump(label);
+                endBlock(true);
+                break;
+            default:
+                throw unsupported("Opcode " + opcode);
+            }
+            endInsn();
+        }
+
+        public void visitLdcInsn(Object value) {
+            beginInsn();
+            super.visitLdcInsn(value);
+            if (value instanceof Integer) {
+                push(INTEGER);
+            } else if (value instanceof Float) {
+                push(FLOAT);
+            } else if (value instanceof Long) {
+                push(LONG);
+            } else if (value instanceof Double) {
+                push(DOUBLE);
+            } else if (value instanceof String) {
+                push("java/lang/String");
+            } else if (value instanceof Type) {
+                int sort = ((Type) value).getSort();
+                push(sort == Type.METHOD ? "java/lang/invoke/MethodType" : "java/lang/Class");
+            } else if (value instanceof Handle) {
+                push("java/lang/invoke/MethodHandle");
+            } else if (value instanceof ConstantDynamic) {
+                pushDescriptor(((ConstantDynamic) value).getDescriptor());
+            } else {
+                throw unsupported("Constant " + value);
+            }
+            endInsn();
+        }
+
+        public void visitIincInsn(int var, int increment) {
+            beginInsn();
+            super.visitIincInsn(var, increment);
+            useLocal(var, 1);
+            endInsn();
+        }
+
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            beginInsn();
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+            pop();
+            switchTo(dflt, labels);
+            endInsn();
+        }
+
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            beginInsn();
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+            pop();
+            switchTo(dflt, labels);
+            endInsn();
+        }
+
+        private void switchTo(Label dflt, Label[] labels) {
+            jump(dflt);
+            for (int i = 0; i < labels.length; i++) {
+                jump(labels[i]);
+            }
+            endBlock(true);
+        }
+
+        public void visitMultiANewArrayInsn(String desc, int dims) {
+            beginInsn();
+            super.visitMultiANewArrayInsn(desc, dims);
+            pop(dims);
+            push(desc);
+            endInsn();
+        }
+
+        public void visitMaxs(int maxStack, int maxLocals) {
+            pending.clear();
+            for (int i = 0; i < guessed.size(); i++) {
+                if (guessed.get(i).guessed) {
+                    throw unsupported("Unreachable code");
+                }
+            }
+            super.visitMaxs(this.maxStack, Math.max(this.maxLocals, maxLocals));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+/**
+ * A timed step of the generation of a class, passed to the {@link GenerationListener}s.
+ * @see AbstractClassGenerator#addGenerationListener
+ */
+public final class GenerationEvent {
+    /**
+     * The generated class was found in the cache. The duration is the one of the lookup.
+     */
+    public static final int CACHE_HIT = 0;
+
+    /**
+     * The class was not found in the cache, and was generated by this thread or by another
+     * one it waited for. The duration includes the generation.
+     */
+    public static final int CACHE_MISS = 1;
+
+    /**
+     * A name was chosen by the naming policy and reserved for the class.
+     */
+    public static final int RESERVE_NAME = 2;
+
+    /**
+     * The class was emitted by {@link ClassGenerator#generateClass}. Only reported by
+     * {@link DefaultGeneratorStrategy} and its subclasses.
+     */
+    public static final int GENERATE_CLASS = 3;
+
+    /**
+     * The bytecode of the class was written by ASM. Only reported by
+     * {@link DefaultGeneratorStrategy} and its subclasses.
+     */
+    public static final int TO_BYTE_ARRAY = 4;
+
+    /**
+     * The class was defined in its <code>ClassLoader</code>. Hidden classes are
+     * initialized when they are defined, and only report this step.
+     */
+    public static final int DEFINE_CLASS = 5;
+
+    /**
+     * The static initializer of the class was run.
+     */
+    public static final int INITIALIZE_CLASS = 6;
+
+    private static final String[] NAMES = {
+        "CACHE_HIT", "CACHE_MISS", "RESERVE_NAME", "GENERATE_CLASS", "TO_BYTE_ARRAY",
+        "DEFINE_CLASS", "INITIALIZE_CLASS",
+    };
+
+    private final int type;
+    private final String generatorType;
+    private final String className;
+    private final ClassLoader classLoader;
+    private final int byteSize;
+    private final long startTime;
+    private final long duration;
+
+    GenerationEvent(int type, String generatorType, String className, ClassLoader classLoader,
+                    int byteSize, long startTime, long duration) {
+        this.type = type;
+        this.generatorType = generatorType;
+        this.className = className;
+        this.classLoader = classLoader;
+        this.byteSize = byteSize;
+        this.startTime = startTime;
+        this.duration = duration;
+    }
+
+    /**
+     * Returns the step, one of the constants of this class.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns the name of the step, such as <code>"DEFINE_CLASS"</code>.
+     */
+    public String getTypeName() {
+        return NAMES[type];
+    }
+
+    /**
+     * Returns the name of the generator, such as <code>net.sf.cglib.proxy.Enhancer</code>.
+     */
+    public String getGeneratorType() {
+        return generatorType;
+    }
+
+    /**
+     * Returns the name of the class, or null if it is not known yet, as for the cache lookups
+     * of classes generated with some additional state.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Returns the size of the bytecode of the class, or -1 if it is not known yet.
+     */
+    public int getByteSize() {
+        return byteSize;
+    }
+
+    /**
+     * Returns the start of the step, as given by <code>System.nanoTime()</code>.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the duration of the step in nanoseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public String toString() {
+        return getTypeName() + " " + className + " (" + generatorType + ", " + byteSize + " bytes, " + duration + " ns)";
+    }
+}
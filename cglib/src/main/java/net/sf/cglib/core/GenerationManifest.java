@@ -0,0 +1,233 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * The configurations of the classes generated during a run, which can be generated again
+ * ahead of time in a later run, before they are first needed.
+ * <p>
+ * While a manifest is {@link AbstractClassGenerator#setRecordingManifest recording}, or
+ * when the <code>cglib.recordManifest</code> system property names a file to write it to on
+ * exit, each generator that supports it adds a line to the manifest: the type of the
+ * generator, the class of the <code>ClassLoader</code>, and the configuration of the
+ * generator, with classes and callback filters given by name. Identical lines are only
+ * kept once. On the next start, {@link #replay} generates the classes in the background.
+ * </p>
+ * <p>
+ * Supported by {@link net.sf.cglib.proxy.Enhancer}, {@link net.sf.cglib.reflect.FastClass.Generator}
+ * and {@link net.sf.cglib.beans.BeanCopier.Generator}; other generators can override
+ * {@link AbstractClassGenerator#writeManifestEntry} and {@link AbstractClassGenerator#readManifestEntry}.
+ * </p>
+ */
+public class GenerationManifest {
+    private static final String HEADER = "# cglib generation manifest";
+    private static final String LOADER = "loader";
+    private static final String HIDDEN_CLASS = "hiddenClass";
+
+    private final Set<String> entries = new LinkedHashSet<String>();
+
+    /**
+     * Returns the lines of the manifest, in the order they were recorded.
+     */
+    public synchronized List<String> getEntries() {
+        return new ArrayList<String>(entries);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    void record(AbstractClassGenerator gen) {
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        if (!gen.writeManifestEntry(properties)) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(gen.getClass().getName());
+        append(sb, LOADER, gen.getClassLoader().getClass().getName());
+        if (gen.getHiddenClass()) {
+            append(sb, HIDDEN_CLASS, "true");
+        }
+        for (Iterator<Map.Entry<String, String>> it = properties.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, String> property = it.next();
+            if (!append(sb, property.getKey(), property.getValue())) {
+                // would not read back
+                return;
+            }
+        }
+        String entry = sb.toString();
+        synchronized (this) {
+            entries.add(entry);
+        }
+    }
+
+    private static boolean append(StringBuilder sb, String name, String value) {
+        if (name.length() == 0 || value.length() == 0 || (name + value).indexOf(' ') >= 0 || name.indexOf('=') >= 0) {
+            return false;
+        }
+        sb.append(' ').append(name).append('=').append(value);
+        return true;
+    }
+
+    public synchronized void write(Writer out) throws IOException {
+        out.write(HEADER);
+        out.write('\n');
+        for (Iterator<String> it = entries.iterator(); it.hasNext();) {
+            out.write(it.next());
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    public static GenerationManifest read(Reader in) throws IOException {
+        GenerationManifest manifest = new GenerationManifest();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() > 0 && !line.startsWith("#")) {
+                manifest.entries.add(line);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Generates in the background, with a default {@link BatchGenerator}, the classes of
+     * the entries recorded with a loader of the same class as the given one.
+     * @see #replay(ClassLoader, BatchGenerator)
+     */
+    public List<Future<Object>> replay(ClassLoader loader) {
+        return replay(loader, new BatchGenerator());
+    }
+
+    /**
+     * Generates in the background the classes of the entries recorded with a loader of the
+     * same class as the given one, in the given loader. Entries whose classes cannot be
+     * loaded any more are skipped. Once the classes are generated, the generators of the
+     * application find them in the cache.
+     * @return the futures of the classes, as returned by {@link BatchGenerator#submit}
+     */
+    public List<Future<Object>> replay(ClassLoader loader, BatchGenerator batch) {
+        String loaderName = loader.getClass().getName();
+        List<AbstractClassGenerator> generators = new ArrayList<AbstractClassGenerator>();
+        for (Iterator<String> it = getEntries().iterator(); it.hasNext();) {
+            Map<String, String> properties = parse(it.next());
+            String generatorName = properties.remove("");
+            if (!loaderName.equals(properties.remove(LOADER))) {
+                continue;
+            }
+            try {
+                Class generatorType = Class.forName(generatorName, true, GenerationManifest.class.getClassLoader());
+                AbstractClassGenerator gen = (AbstractClassGenerator)ReflectUtils.newInstance(generatorType);
+                gen.setClassLoader(loader);
+                gen.setHiddenClass(Boolean.parseBoolean(properties.remove(HIDDEN_CLASS)));
+                gen.readManifestEntry(properties, loader);
+                generators.add(gen);
+            } catch (ClassNotFoundException e) {
+                // the classes changed since the manifest was recorded
+            } catch (LinkageError e) {
+                // likewise
+            }
+        }
+        return batch.submit(generators);
+    }
+
+    private static Map<String, String> parse(String entry) {
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        String[] fields = entry.split(" +");
+        properties.put("", fields[0]);
+        for (int i = 1; i < fields.length; i++) {
+            int eq = fields[i].indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Malformed manifest entry: " + entry);
+            }
+            properties.put(fields[i].substring(0, eq), fields[i].substring(eq + 1));
+        }
+        return properties;
+    }
+
+    /**
+     * Returns the names of the given classes separated by commas, as read by {@link #loadClasses}.
+     */
+    public static String joinNames(Class[] classes) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < classes.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(classes[i].getName());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Loads the classes named by {@link #joinNames}, or returns null if <code>names</code> is null.
+     */
+    public static Class[] loadClasses(String names, ClassLoader loader) throws ClassNotFoundException {
+        if (names == null) {
+            return null;
+        }
+        String[] split = names.split(",");
+        Class[] classes = new Class[split.length];
+        for (int i = 0; i < split.length; i++) {
+            classes[i] = Class.forName(split[i], false, loader);
+        }
+        return classes;
+    }
+
+    /**
+     * Returns a manifest that is written to the given file when the JVM exits, or null if
+     * <code>path</code> is null.
+     */
+    static GenerationManifest recordToFile(String path) {
+        if (path == null) {
+            return null;
+        }
+        final GenerationManifest manifest = new GenerationManifest();
+        final File file = new File(path);
+        Runtime.getRuntime().addShutdownHook(new Thread("cglib manifest writer") {
+            public void run() {
+                try {
+                    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                    try {
+                        manifest.write(out);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    // nothing to report to at exit
+                }
+            }
+        });
+        return manifest;
+    }
+}
@@ -196,6 +196,10 @@ abstract public class KeyFactory {
         	return ReflectUtils.getProtectionDomain(keyInterface);
         }
 
+        protected Class getContextClass() {
+            return keyInterface;
+        }
+
         /**
          * @deprecated Use {@link #addCustomizer(KeyFactoryCustomizer)} instead.
          */
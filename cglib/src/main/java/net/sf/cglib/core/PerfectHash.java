@@ -0,0 +1,284 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.util.*;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+
+/**
+ * A perfect hash of a set of strings, computed from their length and the characters at a
+ * few positions, for {@link Constants#SWITCH_STYLE_PERFECT_HASH}. A position is counted
+ * from the start of the string, or from its end if negative, with <code>-1</code> the last
+ * character, as names often differ by a suffix. The positions are chosen so that no two
+ * strings have the same length and characters at all of them; the hashes of the strings
+ * are then spread without collision over a table for a <code>tableswitch</code>, or left
+ * as they are for a <code>lookupswitch</code> if no multiplier was found to do so.
+ */
+final class PerfectHash {
+    /**
+     * The most positions read, beyond which the hash costs more than <code>hashCode</code>.
+     */
+    static final int MAX_POSITIONS = 8;
+    /**
+     * The most positions read by a hash chosen by {@link Constants#SWITCH_STYLE_AUTO}.
+     */
+    static final int AUTO_MAX_POSITIONS = 3;
+
+    private static final Signature STRING_LENGTH =
+      TypeUtils.parseSignature("int length()");
+    private static final Signature STRING_CHAR_AT =
+      TypeUtils.parseSignature("char charAt(int)");
+    private static final Signature EQUALS =
+      TypeUtils.parseSignature("boolean equals(Object)");
+    // the hash of the characters cannot collide for up to three positions of ASCII characters
+    private static final int FACTOR = 257;
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+    private static final int MULTIPLIER_TRIES = 64;
+
+    private final int[] positions;
+    private final int minLength;
+    private final int multiplier;
+    private final int shift;
+    private final Map keys;
+
+    private PerfectHash(String[] strings, int[] positions, int minLength) {
+        this.positions = positions;
+        this.minLength = minLength;
+        int[] hashes = new int[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            hashes[i] = hashOf(strings[i]);
+        }
+        int multiplier = 0;
+        int shift = 0;
+        // a table of up to eight times the number of strings
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(strings.length - 1));
+        for (int b = bits; b <= bits + 2 && multiplier == 0; b++) {
+            for (int m = 0; m < MULTIPLIER_TRIES && multiplier == 0; m++) {
+                int candidate = GOLDEN_RATIO * (2 * m + 1);
+                if (isCollisionFree(hashes, candidate, 32 - b)) {
+                    multiplier = candidate;
+                    shift = 32 - b;
+                }
+            }
+        }
+        this.multiplier = multiplier;
+        this.shift = shift;
+        keys = new HashMap();
+        for (int i = 0; i < strings.length; i++) {
+            keys.put(Integer.valueOf(spread(hashes[i])), strings[i]);
+        }
+    }
+
+    private static boolean isCollisionFree(int[] hashes, int multiplier, int shift) {
+        BitSet used = new BitSet();
+        for (int i = 0; i < hashes.length; i++) {
+            int slot = (hashes[i] * multiplier) >>> shift;
+            if (used.get(slot)) {
+                return false;
+            }
+            used.set(slot);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the perfect hash of the given distinct strings, or null if none reads at
+     * most {@link #MAX_POSITIONS} characters.
+     */
+    static PerfectHash find(String[] strings) {
+        if (strings.length == 0) {
+            return null;
+        }
+        int minLength = Integer.MAX_VALUE;
+        int maxLength = 0;
+        for (int i = 0; i < strings.length; i++) {
+            minLength = Math.min(minLength, strings[i].length());
+            maxLength = Math.max(maxLength, strings[i].length());
+        }
+        List positions = new ArrayList();
+        int distinct = countDistinct(strings, positions);
+        while (distinct < strings.length) {
+            if (positions.size() == MAX_POSITIONS) {
+                return null;
+            }
+            Integer best = null;
+            for (int i = 0; i < 2 * maxLength; i++) {
+                // the positions from the start, then the ones from the end
+                Integer position = Integer.valueOf((i < maxLength) ? i : maxLength - 1 - i);
+                if (positions.contains(position)) {
+                    continue;
+                }
+                positions.add(position);
+                int count = countDistinct(strings, positions);
+                positions.remove(positions.size() - 1);
+                if (count > distinct) {
+                    distinct = count;
+                    best = position;
+                }
+            }
+            if (best == null) {
+                // equal strings
+                return null;
+            }
+            positions.add(best);
+        }
+        int[] array = new int[positions.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ((Integer)positions.get(i)).intValue();
+        }
+        Arrays.sort(array);
+        PerfectHash hash = new PerfectHash(strings, array, minLength);
+        return (hash.keys.size() == strings.length) ? hash : null;
+    }
+
+    private static int countDistinct(String[] strings, List positions) {
+        Set tuples = new HashSet();
+        char[] tuple = new char[positions.size() + 1];
+        for (int i = 0; i < strings.length; i++) {
+            String s = strings[i];
+            tuple[0] = (char)s.length();
+            for (int j = 0; j < positions.size(); j++) {
+                tuple[j + 1] = charAt(s, ((Integer)positions.get(j)).intValue());
+            }
+            tuples.add(new String(tuple));
+        }
+        return tuples.size();
+    }
+
+    int getPositionCount() {
+        return positions.length;
+    }
+
+    /**
+     * Returns whether this hash is expected to be faster than the <code>hashCode</code> of
+     * {@link Constants#SWITCH_STYLE_HASH}, which reads every character of strings whose hash
+     * code is not cached yet.
+     */
+    boolean isFasterThanHashCode() {
+        return positions.length <= AUTO_MAX_POSITIONS;
+    }
+
+    /**
+     * Returns the character of the string at the given position, or zero if it is too short.
+     */
+    private static char charAt(String s, int position) {
+        int index = (position < 0) ? s.length() + position : position;
+        return (index >= 0 && index < s.length()) ? s.charAt(index) : 0;
+    }
+
+    /**
+     * Returns the hash of the given string, as computed by the code of {@link #emit}.
+     */
+    int hashOf(String s) {
+        int hash = s.length();
+        for (int i = 0; i < positions.length; i++) {
+            hash = FACTOR * hash + charAt(s, positions[i]);
+        }
+        return hash;
+    }
+
+    private static void loadCharAt(CodeEmitter e, Local string, Local length, int position) {
+        e.load_local(string);
+        if (position < 0) {
+            e.load_local(length);
+            e.push(-position);
+            e.math(CodeEmitter.SUB, Type.INT_TYPE);
+        } else {
+            e.push(position);
+        }
+        e.invoke_virtual(Constants.TYPE_STRING, STRING_CHAR_AT);
+    }
+
+    private int spread(int hash) {
+        return (multiplier == 0) ? hash : (hash * multiplier) >>> shift;
+    }
+
+    /**
+     * Generates the switch on the string on top of the stack. Each case compares the string
+     * with the only key with that hash.
+     */
+    void emit(final CodeEmitter e, final ObjectSwitchCallback callback) throws Exception {
+        final Label def = e.make_label();
+        final Label end = e.make_label();
+        final Label popDef = e.make_label();
+        Local string = e.make_local(Constants.TYPE_STRING);
+        Local length = e.make_local(Type.INT_TYPE);
+        e.dup();
+        e.store_local(string);
+        e.load_local(string);
+        e.invoke_virtual(Constants.TYPE_STRING, STRING_LENGTH);
+        e.store_local(length);
+        if (minLength > 0) {
+            // no key is shorter, and the characters before can be read unchecked
+            e.load_local(length);
+            e.push(minLength);
+            e.if_icmp(CodeEmitter.LT, popDef);
+        }
+        e.load_local(length);
+        for (int i = 0; i < positions.length; i++) {
+            int p = positions[i];
+            e.push(FACTOR);
+            e.math(CodeEmitter.MUL, Type.INT_TYPE);
+            // the length the string needs to have a character at the position
+            int needed = (p < 0) ? -p : p + 1;
+            if (needed <= minLength) {
+                loadCharAt(e, string, length, p);
+            } else {
+                Label inside = e.make_label();
+                Label next = e.make_label();
+                e.load_local(length);
+                e.push(needed - 1);
+                e.if_icmp(CodeEmitter.GT, inside);
+                e.push(0);
+                e.goTo(next);
+                e.mark(inside);
+                loadCharAt(e, string, length, p);
+                e.mark(next);
+            }
+            e.math(CodeEmitter.ADD, Type.INT_TYPE);
+        }
+        if (multiplier != 0) {
+            e.push(multiplier);
+            e.math(CodeEmitter.MUL, Type.INT_TYPE);
+            e.push(shift);
+            e.math(CodeEmitter.USHR, Type.INT_TYPE);
+        }
+        int[] switchKeys = new int[keys.size()];
+        int i = 0;
+        for (Iterator it = keys.keySet().iterator(); it.hasNext();) {
+            switchKeys[i++] = ((Integer)it.next()).intValue();
+        }
+        Arrays.sort(switchKeys);
+        e.process_switch(switchKeys, new ProcessSwitchCallback() {
+            public void processCase(int key, Label ignore_end) throws Exception {
+                String string = (String)keys.get(Integer.valueOf(key));
+                e.push(string);
+                e.invoke_virtual(Constants.TYPE_OBJECT, EQUALS);
+                e.if_jump(CodeEmitter.EQ, def);
+                callback.processCase(string, end);
+            }
+            public void processDefault() {
+                e.goTo(popDef);
+            }
+        }, multiplier != 0);
+        e.mark(popDef);
+        e.pop();
+        e.mark(def);
+        callback.processDefault();
+        e.mark(end);
+    }
+}
@@ -22,6 +22,8 @@ import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.security.ProtectionDomain;
 import java.util.*;
+import net.sf.cglib.core.internal.ClassCache;
+import net.sf.cglib.core.internal.Function;
 import org.objectweb.asm.Attribute;
 import org.objectweb.asm.Type;
 
@@ -38,6 +40,8 @@ public class ReflectUtils {
     private static final ProtectionDomain PROTECTION_DOMAIN;
     private static final Object UNSAFE;
     private static final Throwable THROWABLE;
+    private static final Method PRIVATE_LOOKUP_IN, LOOKUP_DEFINE_CLASS, LOOKUP_DEFINE_HIDDEN_CLASS, LOOKUP_CLASS;
+    private static final Object LOOKUP, HIDDEN_CLASS_OPTIONS;
 
     private static final List<Method> OBJECT_METHODS = new ArrayList<Method>();
     
@@ -113,6 +117,44 @@ public class ReflectUtils {
         UNSAFE = unsafe;
         THROWABLE = throwable;
     }
+
+    static {
+        // Java 9+ Lookup.defineClass and Java 15+ Lookup.defineHiddenClass, looked up
+        // reflectively so that cglib still runs on older runtimes
+        Method privateLookupIn, lookupDefineClass, lookupDefineHiddenClass, lookupClass;
+        Object lookup, hiddenClassOptions;
+        try {
+            Class lookupType = Class.forName("java.lang.invoke.MethodHandles$Lookup");
+            Class methodHandles = Class.forName("java.lang.invoke.MethodHandles");
+            privateLookupIn = methodHandles.getMethod("privateLookupIn", new Class[]{ Class.class, lookupType });
+            lookupDefineClass = lookupType.getMethod("defineClass", new Class[]{ byte[].class });
+            lookupClass = lookupType.getMethod("lookupClass", new Class[0]);
+            lookup = methodHandles.getMethod("lookup", new Class[0]).invoke(null, new Object[0]);
+        } catch (Throwable t) {
+            privateLookupIn = null;
+            lookupDefineClass = null;
+            lookupClass = null;
+            lookup = null;
+        }
+        try {
+            Class lookupType = Class.forName("java.lang.invoke.MethodHandles$Lookup");
+            Class classOption = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            hiddenClassOptions = Array.newInstance(classOption, 0);
+            lookupDefineHiddenClass = lookupType.getMethod("defineHiddenClass",
+                                                           new Class[]{ byte[].class,
+                                                                        Boolean.TYPE,
+                                                                        hiddenClassOptions.getClass() });
+        } catch (Throwable t) {
+            hiddenClassOptions = null;
+            lookupDefineHiddenClass = null;
+        }
+        PRIVATE_LOOKUP_IN = privateLookupIn;
+        LOOKUP_DEFINE_CLASS = lookupDefineClass;
+        LOOKUP_DEFINE_HIDDEN_CLASS = (lookup != null) ? lookupDefineHiddenClass : null;
+        LOOKUP_CLASS = lookupClass;
+        LOOKUP = lookup;
+        HIDDEN_CLASS_OPTIONS = hiddenClassOptions;
+    }
         
     private static final String[] CGLIB_PACKAGES = {
         "java.lang",
@@ -407,23 +449,38 @@ public class ReflectUtils {
             
     }
         
-    public static List addAllMethods(final Class type, final List list) {
-            
-            
-        if (type == Object.class) {
-            list.addAll(OBJECT_METHODS);
-        } else
-            list.addAll(java.util.Arrays.asList(type.getDeclaredMethods()));
-
-        Class superclass = type.getSuperclass();
-        if (superclass != null) {
-            addAllMethods(superclass, list);
-        }
-        Class[] interfaces = type.getInterfaces();
-        for (int i = 0; i < interfaces.length; i++) {
-            addAllMethods(interfaces[i], list);
+    /**
+     * The methods returned by {@link #addAllMethods} for each class, kept as long as the
+     * class is loaded, so that the methods of classes shared by many hierarchies are only
+     * looked up once.
+     */
+    private static final ClassCache<Method[]> ALL_METHODS = new ClassCache<Method[]>(new Function<Class, Method[]>() {
+        public Method[] apply(Class type) {
+            List list = new ArrayList();
+            if (type == Object.class) {
+                list.addAll(OBJECT_METHODS);
+            } else {
+                list.addAll(java.util.Arrays.asList(type.getDeclaredMethods()));
+            }
+            Class superclass = type.getSuperclass();
+            if (superclass != null) {
+                addAllMethods(superclass, list);
+            }
+            Class[] interfaces = type.getInterfaces();
+            for (int i = 0; i < interfaces.length; i++) {
+                addAllMethods(interfaces[i], list);
+            }
+            return (Method[])list.toArray(new Method[list.size()]);
         }
-            
+    });
+
+    /**
+     * Adds the methods declared by the given class, then the ones of its superclass
+     * chain and of its interfaces, recursively. The <code>Method</code> objects are
+     * shared by all callers and must not be modified.
+     */
+    public static List addAllMethods(final Class type, final List list) {
+        list.addAll(java.util.Arrays.asList(ALL_METHODS.get(type)));
         return list;
     }
         
@@ -453,6 +510,10 @@ public class ReflectUtils {
     }
 
     public static Class defineClass(String className, byte[] b, ClassLoader loader, ProtectionDomain protectionDomain) throws Exception {
+        return defineClassInLoader(className, b, loader, protectionDomain, true);
+    }
+
+    private static Class defineClassInLoader(String className, byte[] b, ClassLoader loader, ProtectionDomain protectionDomain, boolean initialize) throws Exception {
         Class c;
         if (DEFINE_CLASS != null) {
             Object[] args = new Object[]{className, b, 0, b.length, protectionDomain };
@@ -463,10 +524,101 @@ public class ReflectUtils {
         } else {
             throw new CodeGenerationException(THROWABLE);
         }
-        // Force static initializers to run.
-        Class.forName(className, true, loader);
+        if (initialize) {
+            // Force static initializers to run.
+            Class.forName(className, true, loader);
+        }
+        return c;
+    }
+
+    /**
+     * Defines the class in the given loader. If <code>contextClass</code> is in the same
+     * package and loader as the new class and the runtime supports it (Java 9+),
+     * <code>MethodHandles.Lookup.defineClass</code> is used; otherwise the class is defined
+     * through <code>ClassLoader.defineClass</code> or <code>Unsafe.defineClass</code>.
+     * @param protectionDomain the protection domain, or null to use the default
+     * @param contextClass a class in the same package as the new class, or null
+     */
+    public static Class defineClass(String className, byte[] b, ClassLoader loader, ProtectionDomain protectionDomain, Class contextClass) throws Exception {
+        return defineClass(className, b, loader, protectionDomain, contextClass, true);
+    }
+
+    /**
+     * Defines the class as {@link #defineClass(String, byte[], ClassLoader, ProtectionDomain, Class)}
+     * does, but only runs its static initializer if <code>initialize</code> is set. The class can
+     * be initialized later with <code>Class.forName(className, true, loader)</code>.
+     */
+    public static Class defineClass(String className, byte[] b, ClassLoader loader, ProtectionDomain protectionDomain, Class contextClass, boolean initialize) throws Exception {
+        Object lookup = privateLookupIn(className, loader, protectionDomain, contextClass);
+        if (lookup == null) {
+            return defineClassInLoader(className, b, loader, (protectionDomain == null) ? PROTECTION_DOMAIN : protectionDomain, initialize);
+        }
+        Class c;
+        try {
+            c = (Class)LOOKUP_DEFINE_CLASS.invoke(lookup, new Object[]{ b });
+        } catch (InvocationTargetException e) {
+            throw new CodeGenerationException(e.getTargetException());
+        }
+        if (initialize) {
+            // Force static initializers to run.
+            Class.forName(className, true, loader);
+        }
         return c;
     }
+
+    /**
+     * Returns whether {@link #defineHiddenClass} can be used in this runtime (Java 15+).
+     */
+    public static boolean isHiddenClassSupported() {
+        return LOOKUP_DEFINE_HIDDEN_CLASS != null;
+    }
+
+    /**
+     * Defines a hidden class, which cannot be found by name and may be unloaded as soon
+     * as it is unreachable, independently of its loader. The class is initialized.
+     * @param contextClass a class in the same package and loader as the new class
+     * @return the new class, or null if hidden classes are not supported for this context class
+     */
+    public static Class defineHiddenClass(String className, byte[] b, ClassLoader loader, Class contextClass) throws Exception {
+        if (LOOKUP_DEFINE_HIDDEN_CLASS == null) {
+            return null;
+        }
+        Object lookup = privateLookupIn(className, loader, null, contextClass);
+        if (lookup == null) {
+            return null;
+        }
+        try {
+            Object hidden = LOOKUP_DEFINE_HIDDEN_CLASS.invoke(lookup, new Object[]{ b, Boolean.TRUE, HIDDEN_CLASS_OPTIONS });
+            return (Class)LOOKUP_CLASS.invoke(hidden, new Object[0]);
+        } catch (InvocationTargetException e) {
+            if (e.getTargetException() instanceof IllegalAccessException) {
+                // lookup does not have full privilege access, e.g. context class in another module
+                return null;
+            }
+            throw new CodeGenerationException(e.getTargetException());
+        }
+    }
+
+    private static Object privateLookupIn(String className, ClassLoader loader, ProtectionDomain protectionDomain, Class contextClass) {
+        if (PRIVATE_LOOKUP_IN == null || contextClass == null || contextClass.getClassLoader() != loader
+                || !getPackageName(className).equals(getPackageName(contextClass.getName()))) {
+            return null;
+        }
+        if (protectionDomain != null && protectionDomain != getProtectionDomain(contextClass)) {
+            return null;
+        }
+        try {
+            return PRIVATE_LOOKUP_IN.invoke(null, new Object[]{ contextClass, LOOKUP });
+        } catch (Exception e) {
+            // package is not open to cglib, fall back on the classic way
+            return null;
+        }
+    }
+
+    private static String getPackageName(String className) {
+        int dot = className.lastIndexOf('.');
+        return (dot < 0) ? "" : className.substring(0, dot);
+    }
         
     public static int findPackageProtected(Class[] classes) {
         for (int i = 0; i < classes.length; i++) {
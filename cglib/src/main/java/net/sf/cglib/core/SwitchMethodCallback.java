@@ -0,0 +1,30 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+/**
+ * Generates the body of a method switching on an int key, for some of the keys.
+ * @see EmitUtils#switch_method
+ */
+public interface SwitchMethodCallback {
+    /**
+     * Generates the whole body of the method, handling the given keys as cases and
+     * any other key as the default. Called once for each method the keys are split
+     * into, and possibly more to measure the code, so it must not depend on the
+     * code generated before.
+     */
+    void processSwitch(CodeEmitter e, int[] keys) throws Exception;
+}
@@ -31,9 +31,21 @@ public class VisibilityPredicate implements Predicate {
         pkg = TypeUtils.getPackageName(Type.getType(source));
     }
 
+    /**
+     * @param arg a <code>Member</code>, or a {@link MethodInfo}
+     */
     public boolean evaluate(Object arg) {
-        Member member = (Member)arg;
-		int mod = member.getModifiers();
+        int mod;
+        Type declaringType;
+        if (arg instanceof MethodInfo) {
+            MethodInfo method = (MethodInfo)arg;
+            mod = method.getModifiers();
+            declaringType = method.getClassInfo().getType();
+        } else {
+            Member member = (Member)arg;
+            mod = member.getModifiers();
+            declaringType = Type.getType(member.getDeclaringClass());
+        }
         if (Modifier.isPrivate(mod)) {
             return false;
         } else if (Modifier.isPublic(mod)) {
@@ -45,7 +57,7 @@ public class VisibilityPredicate implements Predicate {
             // protected/package private if the member is in the same package as the source class 
             // and we are generating into the same classloader.
             return samePackageOk 
-                && pkg.equals(TypeUtils.getPackageName(Type.getType(member.getDeclaringClass())));
+                && pkg.equals(TypeUtils.getPackageName(declaringType));
         }
     }
 }
@@ -0,0 +1,87 @@
+package net.sf.cglib.core.internal;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+
+/**
+ * Values computed once per class and kept as long as the class is loaded.
+ * <p>
+ * Where <code>java.lang.ClassValue</code> exists (Java 7+), the value of a class loaded
+ * by cglib's own loader or one of its descendants is stored with the class and goes away
+ * with it. Stored with any other class, such as a class of the JDK, a value of a class of
+ * cglib would keep cglib's loader alive as long as that class. Those values, and all of
+ * them on older runtimes, are kept in a map with weak keys, and softly, so that a value
+ * which refers to its class does not keep it loaded either.
+ */
+public class ClassCache<V> {
+    private static final ClassLoader CGLIB_LOADER = ClassCache.class.getClassLoader();
+    private static final Constructor CLASS_VALUE_FUNCTION = findClassValueFunction();
+
+    private final Function<Class, V> compute;
+    private final Function<Class, V> classValue;
+    private final ConcurrentWeakIdentityMap<Class, SoftReference<V>> others =
+      new ConcurrentWeakIdentityMap<Class, SoftReference<V>>();
+
+    /**
+     * @param compute computes the value of a class; may be called more than once for the
+     * same class if the value is not stored with the class
+     */
+    public ClassCache(Function<Class, V> compute) {
+        this.compute = compute;
+        this.classValue = newClassValueFunction(compute);
+    }
+
+    public V get(Class type) {
+        if (classValue != null && seesCglib(type)) {
+            return classValue.apply(type);
+        }
+        SoftReference<V> ref = others.get(type);
+        V value = (ref != null) ? ref.get() : null;
+        if (value == null) {
+            value = compute.apply(type);
+            others.put(type, new SoftReference<V>(value));
+        }
+        return value;
+    }
+
+    private static boolean seesCglib(Class type) {
+        if (CGLIB_LOADER == null) {
+            return true;
+        }
+        try {
+            for (ClassLoader loader = type.getClassLoader(); loader != null; loader = loader.getParent()) {
+                if (loader == CGLIB_LOADER) {
+                    return true;
+                }
+            }
+        } catch (SecurityException e) {
+            // cannot tell
+        }
+        return false;
+    }
+
+    private static Constructor findClassValueFunction() {
+        try {
+            Class.forName("java.lang.ClassValue");
+            // by name, so that no class which is always loaded refers to it
+            String name = ClassCache.class.getName();
+            name = name.substring(0, name.lastIndexOf('.') + 1) + "ClassValueFunction";
+            Constructor c = Class.forName(name, true, CGLIB_LOADER).getDeclaredConstructor(new Class[]{ Function.class });
+            c.setAccessible(true);
+            return c;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private static <V> Function<Class, V> newClassValueFunction(Function<Class, V> compute) {
+        if (CLASS_VALUE_FUNCTION == null) {
+            return null;
+        }
+        try {
+            return (Function<Class, V>)CLASS_VALUE_FUNCTION.newInstance(new Object[]{ compute });
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
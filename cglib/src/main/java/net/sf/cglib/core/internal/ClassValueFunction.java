@@ -0,0 +1,21 @@
+package net.sf.cglib.core.internal;
+
+/**
+ * The <code>ClassValue</code> of a {@link ClassCache}, in a class of its own so that cglib
+ * still runs where <code>ClassValue</code> does not exist.
+ */
+class ClassValueFunction<V> implements Function<Class, V> {
+    private final ClassValue<V> values;
+
+    ClassValueFunction(final Function<Class, V> compute) {
+        values = new ClassValue<V>() {
+            protected V computeValue(Class<?> type) {
+                return compute.apply(type);
+            }
+        };
+    }
+
+    public V apply(Class type) {
+        return values.get(type);
+    }
+}
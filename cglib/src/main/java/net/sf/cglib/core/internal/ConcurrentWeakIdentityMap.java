@@ -0,0 +1,102 @@
+package net.sf.cglib.core.internal;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent map with weak keys compared by identity.
+ * Lookups do not lock, and registering a key only contends with concurrent registrations
+ * that hash to the same segment. Entries of collected keys are expunged through a
+ * {@link ReferenceQueue} whenever a new key is registered.
+ * <p>Values must not strongly reference their key, otherwise the key would never be collected.</p>
+ */
+public class ConcurrentWeakIdentityMap<K, V> {
+    private final ConcurrentMap<Object, V> map = new ConcurrentHashMap<Object, V>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+    public V get(K key) {
+        return map.get(new LookupKey<K>(key));
+    }
+
+    /**
+     * Associates the value with the key unless a value is already present.
+     * @return the previous value, or null if the value was added
+     */
+    public V putIfAbsent(K key, V value) {
+        expungeStaleEntries();
+        return map.putIfAbsent(new WeakKey<K>(key, queue), value);
+    }
+
+    /**
+     * Associates the value with the key, replacing any previous value.
+     */
+    public void put(K key, V value) {
+        expungeStaleEntries();
+        map.put(new WeakKey<K>(key, queue), value);
+    }
+
+    public int size() {
+        expungeStaleEntries();
+        return map.size();
+    }
+
+    private void expungeStaleEntries() {
+        Reference<? extends K> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    private static final class WeakKey<K> extends WeakReference<K> {
+        private final int hash;
+
+        WeakKey(K key, ReferenceQueue<K> queue) {
+            super(key, queue);
+            this.hash = System.identityHashCode(key);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj instanceof LookupKey) {
+                return ((LookupKey)obj).key == get();
+            }
+            if (obj instanceof WeakKey) {
+                Object key = get();
+                return key != null && key == ((WeakKey)obj).get();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Short-lived strong key used for lookups, so that {@link #get} does not have to
+     * create a {@link WeakReference}.
+     */
+    private static final class LookupKey<K> {
+        private final K key;
+
+        LookupKey(K key) {
+            this.key = key;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+
+        public boolean equals(Object obj) {
+            if (obj instanceof WeakKey) {
+                return key == ((WeakKey)obj).get();
+            }
+            return obj instanceof LookupKey && key == ((LookupKey)obj).key;
+        }
+    }
+}
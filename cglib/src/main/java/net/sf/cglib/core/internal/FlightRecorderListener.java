@@ -0,0 +1,76 @@
+package net.sf.cglib.core.internal;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import net.sf.cglib.core.GenerationEvent;
+import net.sf.cglib.core.GenerationListener;
+
+/**
+ * Records the {@link GenerationEvent}s as Flight Recorder events named
+ * <code>net.sf.cglib.ClassGeneration</code>. Only loaded when the runtime has Flight Recorder.
+ */
+public class FlightRecorderListener implements GenerationListener {
+    /**
+     * Returns whether Flight Recorder has been started. Creating the first event otherwise
+     * starts the machinery of Flight Recorder, which takes hundreds of milliseconds.
+     */
+    public boolean isRecording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    public void onEvent(GenerationEvent event) {
+        ClassGeneration recorded = new ClassGeneration();
+        if (!recorded.isEnabled()) {
+            return;
+        }
+        recorded.step = event.getTypeName();
+        recorded.generator = event.getGeneratorType();
+        recorded.className = event.getClassName();
+        recorded.classLoader = describe(event.getClassLoader());
+        recorded.byteSize = event.getByteSize();
+        recorded.stepDuration = event.getDuration();
+        recorded.commit();
+    }
+
+    private static String describe(ClassLoader loader) {
+        if (loader == null) {
+            return null;
+        }
+        return loader.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(loader));
+    }
+
+    @Name("net.sf.cglib.ClassGeneration")
+    @Label("Class Generation")
+    @Category("cglib")
+    @Description("A step of the generation of a class by cglib")
+    @StackTrace(false)
+    static class ClassGeneration extends Event {
+        @Label("Step")
+        String step;
+
+        @Label("Generator")
+        String generator;
+
+        @Label("Class Name")
+        String className;
+
+        @Label("Class Loader")
+        String classLoader;
+
+        @Label("Byte Size")
+        @DataAmount
+        int byteSize;
+
+        // timed by cglib, the event itself is only committed when the step is over
+        @Label("Step Duration")
+        @Timespan
+        long stepDuration;
+    }
+}
@@ -1,12 +1,29 @@
 package net.sf.cglib.core.internal;
 
+import net.sf.cglib.core.CacheStats;
+
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LoadingCache<K, KK, V> {
     protected final ConcurrentMap<KK, Object> map;
     protected final Function<K, V> loader;
     protected final Function<K, KK> keyMapper;
 
+    private final int maximumSize;
+    private final CacheStats stats;
+
+    /**
+     * Keys of completed entries in the order the clock hand visits them. Only used when the cache is bounded.
+     */
+    private final Queue<KK> clock;
+
+    /**
+     * Number of keys in {@link #clock}, which is what the maximum size applies to.
+     */
+    private final AtomicInteger evictableCount = new AtomicInteger();
+
     public static final Function IDENTITY = new Function() {
         public Object apply(Object key) {
             return key;
@@ -14,9 +31,24 @@ public class LoadingCache<K, KK, V> {
     };
 
     public LoadingCache(Function<K, KK> keyMapper, Function<K, V> loader) {
+        this(keyMapper, loader, 0);
+    }
+
+    /**
+     * @param maximumSize the number of evictable entries above which they are evicted,
+     *                    or 0 for an unbounded cache
+     * @see #isEvictable
+     */
+    public LoadingCache(Function<K, KK> keyMapper, Function<K, V> loader, int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize < 0");
+        }
         this.keyMapper = keyMapper;
         this.loader = loader;
+        this.maximumSize = maximumSize;
         this.map = new ConcurrentHashMap<KK, Object>();
+        this.stats = new CacheStats();
+        this.clock = maximumSize > 0 ? new ConcurrentLinkedQueue<KK>() : null;
     }
 
     @SuppressWarnings("unchecked")
@@ -24,16 +56,78 @@ public class LoadingCache<K, KK, V> {
         return IDENTITY;
     }
 
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the counters to record a request for the given key in.
+     * By default all the requests are recorded in {@link #getStats()}.
+     */
+    protected CacheStats statsFor(K key) {
+        return stats;
+    }
+
+    /**
+     * Called when a request for the given key finds a completed entry.
+     */
+    protected void onHit(K key) {
+    }
+
+    /**
+     * Called when a request for the given key has to load the entry, or to wait for
+     * another thread loading it.
+     */
+    protected void onMiss(K key) {
+    }
+
+    /**
+     * Called once the value for the given key is loaded into a bounded cache. Entries which
+     * are not evictable stay in the cache until they are removed, and do not count towards
+     * the maximum size. By default all the entries are evictable.
+     */
+    protected boolean isEvictable(K key, V value) {
+        return true;
+    }
+
     public V get(K key) {
         final KK cacheKey = keyMapper.apply(key);
         Object v = map.get(cacheKey);
         if (v != null && !(v instanceof FutureTask)) {
-            return (V) v;
+            statsFor(key).recordHit();
+            onHit(key);
+            return valueOf(v);
         }
 
         return createEntry(key, cacheKey, v);
     }
 
+    /**
+     * Removes the entry for the given key if it is still mapped to the given value,
+     * so that the next {@link #get} loads it again.
+     * @param key original key that was used to load the instance
+     * @param value the value to remove
+     */
+    public void remove(K key, V value) {
+        KK cacheKey = keyMapper.apply(key);
+        if (clock == null) {
+            map.remove(cacheKey, value);
+            return;
+        }
+        Object v = map.get(cacheKey);
+        if (v instanceof Entry) {
+            if (((Entry) v).value == value && map.remove(cacheKey, v) && clock.remove(cacheKey)) {
+                evictableCount.decrementAndGet();
+            }
+        } else {
+            map.remove(cacheKey, value);
+        }
+    }
+
     /**
      * Loads entry to the cache.
      * If entry is missing, put {@link FutureTask} first so other competing thread might wait for the result.
@@ -45,6 +139,8 @@ public class LoadingCache<K, KK, V> {
     protected V createEntry(final K key, KK cacheKey, Object v) {
         FutureTask<V> task;
         boolean creator = false;
+        long loadTime = 0;
+        CacheStats stats = statsFor(key);
         if (v != null) {
             // Another thread is already loading an instance
             task = (FutureTask<V>) v;
@@ -58,13 +154,19 @@ public class LoadingCache<K, KK, V> {
             if (prevTask == null) {
                 // creator does the load
                 creator = true;
+                long start = System.nanoTime();
                 task.run();
+                loadTime = System.nanoTime() - start;
             } else if (prevTask instanceof FutureTask) {
                 task = (FutureTask<V>) prevTask;
             } else {
-                return (V) prevTask;
+                stats.recordHit();
+                onHit(key);
+                return valueOf(prevTask);
             }
         }
+        stats.recordMiss();
+        onMiss(key);
 
         V result;
         try {
@@ -72,6 +174,9 @@ public class LoadingCache<K, KK, V> {
         } catch (InterruptedException e) {
             throw new IllegalStateException("Interrupted while loading cache item", e);
         } catch (ExecutionException e) {
+            if (creator) {
+                stats.recordLoad(loadTime, false);
+            }
             Throwable cause = e.getCause();
             if (cause instanceof RuntimeException) {
                 throw ((RuntimeException) cause);
@@ -79,8 +184,76 @@ public class LoadingCache<K, KK, V> {
             throw new IllegalStateException("Unable to load cache item", cause);
         }
         if (creator) {
-            map.put(cacheKey, result);
+            stats.recordLoad(loadTime, true);
+            if (clock == null || !isEvictable(key, result)) {
+                map.put(cacheKey, result);
+            } else {
+                map.put(cacheKey, new Entry(result, stats));
+                clock.add(cacheKey);
+                evictableCount.incrementAndGet();
+                evictIfNeeded();
+            }
         }
         return result;
     }
+
+    private V valueOf(Object v) {
+        if (v instanceof Entry) {
+            Entry entry = (Entry) v;
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return (V) entry.value;
+        }
+        return (V) v;
+    }
+
+    /**
+     * Evicts completed entries while the cache is over its maximum size, using the CLOCK
+     * (second chance) approximation of LRU: an entry that has been read since the clock hand
+     * last passed it survives one more round. Reads never lock.
+     */
+    private void evictIfNeeded() {
+        if (evictableCount.get() <= maximumSize) {
+            return;
+        }
+        synchronized (clock) {
+            while (evictableCount.get() > maximumSize) {
+                KK cacheKey = clock.poll();
+                if (cacheKey == null) {
+                    return;
+                }
+                Object v = map.get(cacheKey);
+                if (!(v instanceof Entry)) {
+                    // removed since it was added
+                    evictableCount.decrementAndGet();
+                    continue;
+                }
+                Entry entry = (Entry) v;
+                if (entry.referenced) {
+                    entry.referenced = false;
+                    clock.add(cacheKey);
+                } else {
+                    evictableCount.decrementAndGet();
+                    if (map.remove(cacheKey, entry)) {
+                        entry.stats.recordEviction();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Completed entry of a bounded cache.
+     */
+    private static final class Entry {
+        final Object value;
+        final CacheStats stats;
+        volatile boolean referenced;
+
+        Entry(Object value, CacheStats stats) {
+            this.value = value;
+            this.stats = stats;
+        }
+    }
 }
@@ -16,22 +16,17 @@
 
 package net.sf.cglib.proxy;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import net.sf.cglib.core.Constants;
+import net.sf.cglib.core.BridgeTargets;
 import net.sf.cglib.core.Signature;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
 
 /**
  * Uses bytecode reflection to figure out the targets of all bridge methods that use invokespecial
- * and invokeinterface, so that we can later rewrite them to use invokevirtual.
+ * and invokeinterface, so that we can later rewrite them to use invokevirtual. The class files
+ * are read through {@link BridgeTargets}, once per class.
  *
  * <p>For interface bridges, using invokesuper will fail since the method being bridged to is in a
  * superinterface, not a superclass. Starting in Java 8, javac emits default bridge methods in
@@ -42,11 +37,9 @@ import org.objectweb.asm.Opcodes;
 class BridgeMethodResolver {
 
     private final Map/* <Class, Set<Signature> */declToBridge;
-    private final ClassLoader classLoader;
 
-    public BridgeMethodResolver(Map declToBridge, ClassLoader classLoader) {
+    public BridgeMethodResolver(Map declToBridge) {
         this.declToBridge = declToBridge;
-        this.classLoader = classLoader;
     }
 
     /**
@@ -57,70 +50,21 @@ class BridgeMethodResolver {
         Map resolved = new HashMap();
         for (Iterator entryIter = declToBridge.entrySet().iterator(); entryIter.hasNext(); ) {
             Map.Entry entry = (Map.Entry) entryIter.next();
-            Class owner = (Class) entry.getKey();
-            Set bridges = (Set) entry.getValue();
-            try {
-                InputStream is = classLoader.getResourceAsStream(owner.getName().replace('.', '/') + ".class");
-                if (is == null) {
-                    return resolved;
+            BridgeTargets targets = BridgeTargets.get((Class) entry.getKey());
+            for (Iterator it = ((Set) entry.getValue()).iterator(); it.hasNext(); ) {
+                Signature bridge = (Signature) it.next();
+                Signature target = targets.getTarget(bridge);
+                // If the target signature is the same as the bridge,
+                // we shouldn't change our bridge becaues invokespecial
+                // is the only way to make progress (otherwise we'll
+                // get infinite recursion).  This would typically
+                // only happen when a bridge method is created to widen
+                // the visibility of a superclass' method.
+                if (target != null && !target.equals(bridge)) {
+                    resolved.put(bridge, target);
                 }
-                try {
-                    new ClassReader(is)
-                            .accept(new BridgedFinder(bridges, resolved),
-                                    ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
-                } finally {
-                    is.close();
-                }
-            } catch (IOException ignored) {}
-        }
-        return resolved;
-    }
-
-    private static class BridgedFinder extends ClassVisitor {
-        private Map/*<Signature, Signature>*/ resolved;
-        private Set/*<Signature>*/ eligibleMethods;
-        
-        private Signature currentMethod = null;
-
-        BridgedFinder(Set eligibleMethods, Map resolved) {
-            super(Constants.ASM_API);
-            this.resolved = resolved;
-            this.eligibleMethods = eligibleMethods;
-        }
-
-        public void visit(int version, int access, String name,
-                String signature, String superName, String[] interfaces) {
-        }
-
-        public MethodVisitor visitMethod(int access, String name, String desc,
-                String signature, String[] exceptions) {
-            Signature sig = new Signature(name, desc);
-            if (eligibleMethods.remove(sig)) {
-                currentMethod = sig;
-                return new MethodVisitor(Constants.ASM_API) {
-                    public void visitMethodInsn(
-                            int opcode, String owner, String name, String desc, boolean itf) {
-                        if ((opcode == Opcodes.INVOKESPECIAL
-                                        || (itf && opcode == Opcodes.INVOKEINTERFACE))
-                                && currentMethod != null) {
-                            Signature target = new Signature(name, desc);
-                            // If the target signature is the same as the current,
-                            // we shouldn't change our bridge becaues invokespecial
-                            // is the only way to make progress (otherwise we'll
-                            // get infinite recursion).  This would typically
-                            // only happen when a bridge method is created to widen
-                            // the visibility of a superclass' method.
-                            if (!target.equals(currentMethod)) {
-                                resolved.put(currentMethod, target);
-                            }
-                            currentMethod = null;
-                        }
-                    }
-                };
-            } else {
-                return null;
             }
         }
+        return resolved;
     }
-
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.proxy;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+import net.sf.cglib.core.CodeGenerationException;
+
+/**
+ * Internal class, only public to bootstrap the <code>invokedynamic</code> instructions
+ * generated when {@link Enhancer#setUseInvokeDynamic} is enabled. Each instruction calls
+ * a method of a callback, which is its first argument.
+ * <p>
+ * The call site is linked to a chain of up to {@link #MAX_CALLBACKS} tests of the identity of
+ * the callback, each followed by a call bound to that callback. The JIT sees the callback as a
+ * constant and can inline its method, whatever the other call sites or proxies do. A new
+ * callback, for instance one set by {@link Factory#setCallback}, relinks the call site; past
+ * the limit the call site is linked to a plain interface call.
+ * <p>
+ * The call site, and so the generated class, keeps the callbacks it is linked to reachable
+ * until it falls back to the interface call, even after the proxies using them are gone.
+ */
+public class CallbackCallSite extends MutableCallSite {
+    private static final int MAX_CALLBACKS = 4;
+
+    private static final MethodHandle RELINK;
+    private static final MethodHandle SAME;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            RELINK = lookup.findVirtual(CallbackCallSite.class, "relink",
+                                        MethodType.methodType(Object.class, Object[].class));
+            SAME = lookup.findStatic(CallbackCallSite.class, "same",
+                                     MethodType.methodType(Boolean.TYPE, Object.class, Object.class));
+        } catch (NoSuchMethodException e) {
+            throw new CodeGenerationException(e);
+        } catch (IllegalAccessException e) {
+            throw new CodeGenerationException(e);
+        }
+    }
+
+    private final MethodHandle generic;
+    private final Object[] callbacks = new Object[MAX_CALLBACKS];
+    private int count;
+
+    /**
+     * The bootstrap method of the generated <code>invokedynamic</code> instructions.
+     * @param lookup unused, the callback methods are public
+     * @param name the name of the callback method
+     * @param type the type of the callback method, with the callback as first parameter
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type)
+        throws NoSuchMethodException, IllegalAccessException {
+        return new CallbackCallSite(name, type);
+    }
+
+    private CallbackCallSite(String name, MethodType type) throws NoSuchMethodException, IllegalAccessException {
+        super(type);
+        generic = MethodHandles.publicLookup().findVirtual(type.parameterType(0), name, type.dropParameterTypes(0, 1));
+        setTarget(RELINK.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type));
+    }
+
+    private static boolean same(Object a, Object b) {
+        return a == b;
+    }
+
+    private Object relink(Object[] args) throws Throwable {
+        Object callback = args[0];
+        if (callback != null) {
+            synchronized (this) {
+                link(callback);
+            }
+        }
+        return generic.invokeWithArguments(args);
+    }
+
+    private void link(Object callback) {
+        for (int i = 0; i < count; i++) {
+            if (callbacks[i] == callback) {
+                // linked by another thread
+                return;
+            }
+        }
+        if (count == MAX_CALLBACKS) {
+            // drops the guards, and with them the last references to the callbacks
+            setTarget(generic);
+            Arrays.fill(callbacks, null);
+            return;
+        }
+        callbacks[count++] = callback;
+        MethodType type = type();
+        Class callbackType = type.parameterType(0);
+        MethodHandle test = SAME.bindTo(callback).asType(MethodType.methodType(Boolean.TYPE, callbackType));
+        MethodHandle bound = MethodHandles.dropArguments(generic.bindTo(callback), 0, new Class[]{ callbackType });
+        setTarget(MethodHandles.guardWithTest(test, bound, getTarget()));
+    }
+}
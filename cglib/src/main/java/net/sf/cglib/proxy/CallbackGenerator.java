@@ -17,6 +17,7 @@ package net.sf.cglib.proxy;
 
 import java.util.List;
 import net.sf.cglib.core.*;
+import org.objectweb.asm.Type;
 
 interface CallbackGenerator
 {
@@ -30,7 +31,9 @@ interface CallbackGenerator
         int getOriginalModifiers(MethodInfo method);
         int getIndex(MethodInfo method);
         void emitCallback(CodeEmitter ce, int index);
+        void emitInvokeCallback(CodeEmitter e, Type type, Signature sig);
         Signature getImplSignature(MethodInfo method);
         void emitLoadArgsAndInvoke(CodeEmitter e, MethodInfo method);
+        boolean isLazyMethodResolution();
     }
 }
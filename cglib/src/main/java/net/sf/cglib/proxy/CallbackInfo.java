@@ -65,6 +65,7 @@ class CallbackInfo
         new CallbackInfo(Dispatcher.class, DispatcherGenerator.INSTANCE),
         new CallbackInfo(FixedValue.class, FixedValueGenerator.INSTANCE),
         new CallbackInfo(ProxyRefDispatcher.class, DispatcherGenerator.PROXY_REF_INSTANCE),
+        new CallbackInfo(TypedMethodInterceptor.class, TypedMethodInterceptorGenerator.INSTANCE),
     };
 
     private CallbackInfo(Class cls, CallbackGenerator generator) {
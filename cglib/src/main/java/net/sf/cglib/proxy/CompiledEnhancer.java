@@ -0,0 +1,61 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.proxy;
+
+/**
+ * Creates instances of one generated proxy class without going through the
+ * {@link Enhancer}: no cache key is built, no cache is searched and no reflection
+ * is used. Each call runs the generated {@link Factory} methods of the class, so
+ * apart from the proxy itself nothing is allocated.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ * @see Enhancer#compile()
+ */
+public final class CompiledEnhancer {
+    private final Factory factory;
+
+    CompiledEnhancer(Factory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the generated proxy class.
+     */
+    public Class getProxyClass() {
+        return factory.getClass();
+    }
+
+    /**
+     * Creates a new proxy using the no-arg constructor of the superclass.
+     * @param callbacks the callbacks of the new proxy, in the order of the callback types
+     * @return a new proxy
+     */
+    public Object newInstance(Callback[] callbacks) {
+        return factory.newInstance(callbacks);
+    }
+
+    /**
+     * Creates a new proxy using the constructor of the superclass matching the
+     * given signature.
+     * @param types the constructor argument types
+     * @param args the constructor arguments
+     * @param callbacks the callbacks of the new proxy, in the order of the callback types
+     * @return a new proxy
+     */
+    public Object newInstance(Class[] types, Object[] args, Callback[] callbacks) {
+        return factory.newInstance(types, args, callbacks);
+    }
+}
@@ -22,9 +22,15 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.ProtectionDomain;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import net.sf.cglib.core.*;
+import net.sf.cglib.core.internal.ClassCache;
+import net.sf.cglib.core.internal.ConcurrentWeakIdentityMap;
+import net.sf.cglib.core.internal.Function;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.Label;
 
@@ -73,6 +79,8 @@ public class Enhancer extends AbstractClassGenerator
       (EnhancerKey)KeyFactory.create(EnhancerKey.class, KeyFactory.HASH_ASM_TYPE, null);
 
     private static final String BOUND_FIELD = "CGLIB$BOUND";
+    private static final String SHARED_CALLBACKS_FIELD = "CGLIB$CALLBACKS";
+    private static final String NO_CALLBACKS_FIELD = "CGLIB$NO_CALLBACKS";
     private static final String FACTORY_DATA_FIELD = "CGLIB$FACTORY_DATA";
     private static final String THREAD_CALLBACKS_FIELD = "CGLIB$THREAD_CALLBACKS";
     private static final String STATIC_CALLBACKS_FIELD = "CGLIB$STATIC_CALLBACKS";
@@ -132,8 +140,28 @@ public class Enhancer extends AbstractClassGenerator
       TypeUtils.parseSignature("Object get()");
     private static final Signature THREAD_LOCAL_SET =
       TypeUtils.parseSignature("void set(Object)");
+    private static final Signature CLONE =
+      TypeUtils.parseSignature("Object clone()");
     private static final Signature BIND_CALLBACKS =
       TypeUtils.parseSignature("void CGLIB$BIND_CALLBACKS(Object)");
+    private static final Handle CALLBACK_BOOTSTRAP =
+      new Handle(Constants.H_INVOKESTATIC,
+                 "net/sf/cglib/proxy/CallbackCallSite",
+                 "bootstrap",
+                 "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;",
+                 false);
+    private static final boolean INVOKE_DYNAMIC_SUPPORTED = isInvokeDynamicSupported();
+
+    /**
+     * The results of each {@link PureCallbackFilter}, kept with the class declaring the
+     * methods, and only as long as the filter is reachable.
+     */
+    private static final ClassCache<ConcurrentWeakIdentityMap<CallbackFilter, Map>> FILTER_RESULTS =
+      new ClassCache<ConcurrentWeakIdentityMap<CallbackFilter, Map>>(new Function<Class, ConcurrentWeakIdentityMap<CallbackFilter, Map>>() {
+          public ConcurrentWeakIdentityMap<CallbackFilter, Map> apply(Class type) {
+              return new ConcurrentWeakIdentityMap<CallbackFilter, Map>();
+          }
+      });
 
     private EnhancerFactoryData currentData;
     private Object currentKey;
@@ -146,6 +174,11 @@ public class Enhancer extends AbstractClassGenerator
                                   Type[] callbackTypes,
                                   boolean useFactory,
                                   boolean interceptDuringConstruction,
+                                  boolean injectCallbacks,
+                                  boolean useMethodInvokers,
+                                  boolean lazyMethodResolution,
+                                  boolean useInvokeDynamic,
+                                  boolean shareCallbacks,
                                   Long serialVersionUID);
     }
 
@@ -161,6 +194,13 @@ public class Enhancer extends AbstractClassGenerator
     private boolean useFactory = true;
     private Long serialVersionUID;
     private boolean interceptDuringConstruction = true;
+    private boolean injectCallbacks;
+    private boolean useMethodInvokers;
+    private boolean lazyMethodResolution;
+    private boolean useInvokeDynamic;
+    private boolean shareCallbacks;
+    private boolean initializeMethodProxies;
+    private Executor methodProxyExecutor;
 
     /**
      * Create a new <code>Enhancer</code>. A new <code>Enhancer</code>
@@ -265,6 +305,102 @@ public class Enhancer extends AbstractClassGenerator
         this.interceptDuringConstruction = interceptDuringConstruction;
     }
 
+    /**
+     * Set whether the generated class receives its callbacks as a constructor argument.
+     * For each constructor of the superclass an additional constructor is generated
+     * that takes the callbacks as a trailing <code>Callback[]</code> parameter and assigns
+     * them before calling the superclass constructor. New instances, including the ones
+     * created by the {@link Factory} methods, are then created without the thread-local
+     * handshake of {@link #registerCallbacks} and without reflective calls to the
+     * generated class. The default value is false.
+     * @param injectCallbacks whether to generate constructors taking the callbacks
+     */
+    public void setInjectCallbacks(boolean injectCallbacks) {
+        this.injectCallbacks = injectCallbacks;
+    }
+
+    /**
+     * Set whether the {@link MethodProxy} objects passed to a {@link MethodInterceptor}
+     * implement {@link MethodProxy#invokeSuper} with a small class generated for each
+     * method, which calls the original method directly, instead of with the
+     * {@link net.sf.cglib.reflect.FastClass} shared by all the methods of the class.
+     * The JIT can inline the former into the interceptor, at the cost of one more
+     * generated class per intercepted method that is invoked. The default value is false.
+     * @param useMethodInvokers whether to generate an invoker for each method
+     */
+    public void setUseMethodInvokers(boolean useMethodInvokers) {
+        this.useMethodInvokers = useMethodInvokers;
+    }
+
+    boolean getUseMethodInvokers() {
+        return useMethodInvokers;
+    }
+
+    /**
+     * Set whether the <code>Method</code> and {@link MethodProxy} objects passed to a
+     * {@link MethodInterceptor} are looked up the first time each method is intercepted,
+     * instead of all at once when the generated class is initialized. The initialization
+     * of a class with many methods, of which few are called, is then much faster, at the cost
+     * of a check on each call. The default value is false.
+     * @param lazyMethodResolution whether to look up the methods on first use
+     */
+    public void setLazyMethodResolution(boolean lazyMethodResolution) {
+        this.lazyMethodResolution = lazyMethodResolution;
+    }
+
+    /**
+     * Set whether the generated methods call their callback through an <code>invokedynamic</code>
+     * instruction linked by {@link CallbackCallSite}, rather than through its interface. Each
+     * call site is then bound to the few callback instances it actually sees, so the JIT can
+     * inline the callback even when the type profile of a shared interface call would be
+     * polluted by other proxies. Ignored if the runtime does not support
+     * <code>java.lang.invoke</code>. The default value is false.
+     * @param useInvokeDynamic whether to call the callbacks through invokedynamic
+     */
+    public void setUseInvokeDynamic(boolean useInvokeDynamic) {
+        this.useInvokeDynamic = useInvokeDynamic && INVOKE_DYNAMIC_SUPPORTED;
+    }
+
+    /**
+     * Set whether each instance of the generated class holds its callbacks as a single
+     * reference to the <code>Callback[]</code> it was created with, rather than as one field
+     * per callback. Instances created with the same array, or with the callbacks registered
+     * by {@link #registerStaticCallbacks}, then share it and carry one reference instead of
+     * one per callback and a flag. The array is treated as immutable and must not be modified
+     * once used: {@link Factory#getCallbacks} returns a copy, and {@link Factory#setCallback}
+     * replaces the array of the instance with a modified copy. Each call to a callback reads one
+     * more array element. The default value is false.
+     * @param shareCallbacks whether the instances share the array of their callbacks
+     */
+    public void setShareCallbacks(boolean shareCallbacks) {
+        this.shareCallbacks = shareCallbacks;
+    }
+
+    /**
+     * Set whether the {@link MethodProxy} objects of the generated class are initialized
+     * right after the class is generated, as by {@link MethodProxy#initialize(Class)}, rather
+     * than by the first call to {@link MethodProxy#invoke} or {@link MethodProxy#invokeSuper}
+     * of each method. This moves the generation of the supporting classes out of the first
+     * intercepted calls. Classes that were already generated and cached are not affected.
+     * The default value is false.
+     * @param initializeMethodProxies whether to initialize the method proxies eagerly
+     * @see #setMethodProxyExecutor
+     */
+    public void setInitializeMethodProxies(boolean initializeMethodProxies) {
+        this.initializeMethodProxies = initializeMethodProxies;
+    }
+
+    /**
+     * Set the executor used to initialize the {@link MethodProxy} objects when
+     * {@link #setInitializeMethodProxies} is enabled. By default they are initialized by the
+     * thread generating the class; with an executor the class is returned right away, and a
+     * method called before the initialization completes waits for it.
+     * @param methodProxyExecutor the executor, or null to initialize on the calling thread
+     */
+    public void setMethodProxyExecutor(Executor methodProxyExecutor) {
+        this.methodProxyExecutor = methodProxyExecutor;
+    }
+
     /**
      * Set the single type of {@link Callback} to use.
      * This may be used instead of {@link #setCallback} when calling
@@ -337,6 +473,146 @@ public class Enhancer extends AbstractClassGenerator
         return (Class)createHelper();
     }
 
+    /**
+     * Generates the class, as {@link #createClass} does. If callbacks are set, generates
+     * the class {@link #create} would use them with, without creating an instance.
+     */
+    protected Object createForBatch() {
+        if (callbacks == null) {
+            return createClass();
+        }
+        Callback[] savedCallbacks = callbacks;
+        Type[] savedCallbackTypes = callbackTypes;
+        boolean savedValidateCallbackTypes = validateCallbackTypes;
+        if (callbackTypes == null || validateCallbackTypes) {
+            // as preValidate derives them for create
+            callbackTypes = CallbackInfo.determineTypes(callbacks, false);
+        }
+        callbacks = null;
+        validateCallbackTypes = false;
+        try {
+            return createClass();
+        } finally {
+            callbacks = savedCallbacks;
+            callbackTypes = savedCallbackTypes;
+            validateCallbackTypes = savedValidateCallbackTypes;
+        }
+    }
+
+    /**
+     * Records the superclass, interfaces, callback types and options by name. A callback
+     * filter is recorded by the name of its class, and only if that class has a constructor
+     * without parameters and implements <code>equals</code>: otherwise the filter created
+     * again from the manifest would never match the one of the application.
+     */
+    protected boolean writeManifestEntry(Map properties) {
+        if (filter != ALL_ZERO && !isReplayable(filter.getClass())) {
+            return false;
+        }
+        if (superclass != null) {
+            properties.put("superclass", superclass.getName());
+        }
+        if (interfaces != null && interfaces.length > 0) {
+            properties.put("interfaces", GenerationManifest.joinNames(interfaces));
+        }
+        if (filter != ALL_ZERO) {
+            properties.put("callbackFilter", filter.getClass().getName());
+        }
+        StringBuilder types = new StringBuilder();
+        for (int i = 0; i < callbackTypes.length; i++) {
+            types.append((i > 0) ? "," : "").append(callbackTypes[i].getClassName());
+        }
+        properties.put("callbackTypes", types.toString());
+        if (!useFactory) {
+            properties.put("useFactory", "false");
+        }
+        if (!interceptDuringConstruction) {
+            properties.put("interceptDuringConstruction", "false");
+        }
+        if (injectCallbacks) {
+            properties.put("injectCallbacks", "true");
+        }
+        if (useMethodInvokers) {
+            properties.put("useMethodInvokers", "true");
+        }
+        if (lazyMethodResolution) {
+            properties.put("lazyMethodResolution", "true");
+        }
+        if (useInvokeDynamic) {
+            properties.put("useInvokeDynamic", "true");
+        }
+        if (shareCallbacks) {
+            properties.put("shareCallbacks", "true");
+        }
+        if (serialVersionUID != null) {
+            properties.put("serialVersionUID", serialVersionUID.toString());
+        }
+        return true;
+    }
+
+    private static boolean isReplayable(Class filterType) {
+        try {
+            filterType.getDeclaredConstructor(Constants.EMPTY_CLASS_ARRAY);
+            return filterType.getMethod("equals", new Class[]{ Object.class }).getDeclaringClass() != Object.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    protected void readManifestEntry(Map properties, ClassLoader loader) throws ClassNotFoundException {
+        String superclassName = (String)properties.get("superclass");
+        if (superclassName != null) {
+            setSuperclass(Class.forName(superclassName, false, loader));
+        }
+        setInterfaces(GenerationManifest.loadClasses((String)properties.get("interfaces"), loader));
+        String filterName = (String)properties.get("callbackFilter");
+        if (filterName != null) {
+            setCallbackFilter((CallbackFilter)ReflectUtils.newInstance(Class.forName(filterName, true, loader)));
+        }
+        setCallbackTypes(GenerationManifest.loadClasses((String)properties.get("callbackTypes"), loader));
+        setUseFactory(!"false".equals(properties.get("useFactory")));
+        setInterceptDuringConstruction(!"false".equals(properties.get("interceptDuringConstruction")));
+        setInjectCallbacks(Boolean.parseBoolean((String)properties.get("injectCallbacks")));
+        setUseMethodInvokers(Boolean.parseBoolean((String)properties.get("useMethodInvokers")));
+        setLazyMethodResolution(Boolean.parseBoolean((String)properties.get("lazyMethodResolution")));
+        setUseInvokeDynamic(Boolean.parseBoolean((String)properties.get("useInvokeDynamic")));
+        setShareCallbacks(Boolean.parseBoolean((String)properties.get("shareCallbacks")));
+        String serialVersionUID = (String)properties.get("serialVersionUID");
+        if (serialVersionUID != null) {
+            setSerialVersionUID(Long.valueOf(serialVersionUID));
+        }
+    }
+
+    /**
+     * Generate a new class if necessary and return a handle that creates instances
+     * of it directly, which is the fastest way to create many proxies of the same class.
+     * One instance is created right away, using the no-arg constructor and the callbacks
+     * (if any) that have been set; it is kept by the handle.
+     * @throws IllegalStateException if the class would not implement {@link Factory}
+     * @see #setUseFactory
+     */
+    public CompiledEnhancer compile() {
+        if (!useFactory) {
+            throw new IllegalStateException("compile requires the generated class to implement Factory");
+        }
+        return new CompiledEnhancer((Factory)create());
+    }
+
+    /**
+     * Generate a new class if necessary and return a handle that creates instances
+     * of it directly. The instance created right away uses the constructor of the
+     * superclass matching the <code>argumentTypes</code> parameter, with the given arguments.
+     * @param argumentTypes constructor signature
+     * @param arguments compatible wrapped arguments to pass to constructor
+     * @see #compile()
+     */
+    public CompiledEnhancer compile(Class[] argumentTypes, Object[] arguments) {
+        if (!useFactory) {
+            throw new IllegalStateException("compile requires the generated class to implement Factory");
+        }
+        return new CompiledEnhancer((Factory)create(argumentTypes, arguments));
+    }
+
     /**
      * Insert a static serialVersionUID field into the generated class.
      * @param sUID the field value, or null to avoid generating field.
@@ -358,6 +634,35 @@ public class Enhancer extends AbstractClassGenerator
         }
     }
 
+    private static int accept(CallbackFilter filter, Method method) {
+        if (method == null || !(filter instanceof PureCallbackFilter)) {
+            return filter.accept(method);
+        }
+        ConcurrentWeakIdentityMap<CallbackFilter, Map> results = FILTER_RESULTS.get(method.getDeclaringClass());
+        Map indexes = results.get(filter);
+        if (indexes == null) {
+            Map existing = results.putIfAbsent(filter, indexes = new ConcurrentHashMap());
+            if (existing != null) {
+                indexes = existing;
+            }
+        }
+        Integer index = (Integer)indexes.get(method);
+        if (index == null) {
+            index = Integer.valueOf(filter.accept(method));
+            indexes.put(method, index);
+        }
+        return index.intValue();
+    }
+
+    private static boolean isInvokeDynamicSupported() {
+        try {
+            Class.forName("java.lang.invoke.MutableCallSite");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
     private void validate() {
         if (classOnly ^ (callbacks == null)) {
             if (classOnly) {
@@ -407,9 +712,15 @@ public class Enhancer extends AbstractClassGenerator
         private final Method setThreadCallbacks;
         private final Class[] primaryConstructorArgTypes;
         private final Constructor primaryConstructor;
+        private final boolean injectCallbacks;
 
         public EnhancerFactoryData(Class generatedClass, Class[] primaryConstructorArgTypes, boolean classOnly) {
+            this(generatedClass, primaryConstructorArgTypes, classOnly, false);
+        }
+
+        EnhancerFactoryData(Class generatedClass, Class[] primaryConstructorArgTypes, boolean classOnly, boolean injectCallbacks) {
             this.generatedClass = generatedClass;
+            this.injectCallbacks = injectCallbacks;
             try {
                 setThreadCallbacks = getCallbacksSetter(generatedClass, SET_THREAD_CALLBACKS_NAME);
                 if (classOnly) {
@@ -417,7 +728,8 @@ public class Enhancer extends AbstractClassGenerator
                     this.primaryConstructor = null;
                 } else {
                     this.primaryConstructorArgTypes = primaryConstructorArgTypes;
-                    this.primaryConstructor = ReflectUtils.getConstructor(generatedClass, primaryConstructorArgTypes);
+                    this.primaryConstructor = ReflectUtils.getConstructor(generatedClass,
+                            injectCallbacks ? addCallbacksType(primaryConstructorArgTypes) : primaryConstructorArgTypes);
                 }
             } catch (NoSuchMethodException e) {
                 throw new CodeGenerationException(e);
@@ -438,6 +750,14 @@ public class Enhancer extends AbstractClassGenerator
          * @return newly created proxy
          */
         public Object newInstance(Class[] argumentTypes, Object[] arguments, Callback[] callbacks) {
+            if (injectCallbacks) {
+                Object[] args = addCallbacks(arguments, callbacks);
+                if (primaryConstructorArgTypes == argumentTypes ||
+                        Arrays.equals(primaryConstructorArgTypes, argumentTypes)) {
+                    return ReflectUtils.newInstance(primaryConstructor, args);
+                }
+                return ReflectUtils.newInstance(generatedClass, addCallbacksType(argumentTypes), args);
+            }
             setThreadCallbacks(callbacks);
             try {
                 // Explicit reference equality is added here just in case Arrays.equals does not have one
@@ -475,6 +795,11 @@ public class Enhancer extends AbstractClassGenerator
                 callbackTypes,
                 useFactory,
                 interceptDuringConstruction,
+                injectCallbacks,
+                useMethodInvokers,
+                lazyMethodResolution,
+                useInvokeDynamic,
+                shareCallbacks,
                 serialVersionUID);
         this.currentKey = key;
         Object result = super.create(key);
@@ -489,7 +814,19 @@ public class Enhancer extends AbstractClassGenerator
         } else if (interfaces != null) {
             setNamePrefix(interfaces[ReflectUtils.findPackageProtected(interfaces)].getName());
         }
-        return super.generate(data);
+        final Class gen = super.generate(data);
+        if (initializeMethodProxies) {
+            if (methodProxyExecutor != null) {
+                methodProxyExecutor.execute(new Runnable() {
+                    public void run() {
+                        MethodProxy.initialize(gen);
+                    }
+                });
+            } else {
+                MethodProxy.initialize(gen);
+            }
+        }
+        return gen;
     }
 
     protected ClassLoader getDefaultClassLoader() {
@@ -512,6 +849,24 @@ public class Enhancer extends AbstractClassGenerator
         }
     }
 
+    protected Class getContextClass() {
+        if (superclass != null) {
+            return superclass;
+        } else if (interfaces != null) {
+            return interfaces[ReflectUtils.findPackageProtected(interfaces)];
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Classes using a {@link MethodInterceptor} look themselves up by name to create
+     * their {@link MethodProxy} instances, so they cannot be hidden.
+     */
+    protected boolean canDefineHiddenClass() {
+        return !Arrays.asList(CallbackInfo.getGenerators(callbackTypes)).contains(MethodInterceptorGenerator.INSTANCE);
+    }
+
     private Signature rename(Signature sig, int index) {
         return new Signature("CGLIB$" + sig.getName() + "$" + index,
                              sig.getDescriptor());
@@ -591,13 +946,18 @@ public class Enhancer extends AbstractClassGenerator
 
         ClassEmitter e = new ClassEmitter(v);
         if (currentData == null) {
+        Type[] types = TypeUtils.getTypes(interfaces);
+        if (useFactory) {
+            types = TypeUtils.add(types, FACTORY);
+        }
+        if (Arrays.asList(CallbackInfo.getGenerators(callbackTypes)).contains(TypedMethodInterceptorGenerator.INSTANCE)) {
+            types = TypeUtils.add(types, TypedMethodInterceptorGenerator.TARGET);
+        }
         e.begin_class(Constants.V1_8,
                       Constants.ACC_PUBLIC,
                       getClassName(),
                       Type.getType(sc),
-                      (useFactory ?
-                       TypeUtils.add(TypeUtils.getTypes(interfaces), FACTORY) :
-                       TypeUtils.getTypes(interfaces)),
+                      types,
                       Constants.SOURCE_FILE);
         } else {
             e.begin_class(Constants.V1_8,
@@ -609,7 +969,9 @@ public class Enhancer extends AbstractClassGenerator
         }
         List constructorInfo = CollectionUtils.transform(constructors, MethodInfoTransformer.getInstance());
 
-        e.declare_field(Constants.ACC_PRIVATE, BOUND_FIELD, Type.BOOLEAN_TYPE, null);
+        if (!shareCallbacks) {
+            e.declare_field(Constants.ACC_PRIVATE, BOUND_FIELD, Type.BOOLEAN_TYPE, null);
+        }
         e.declare_field(Constants.ACC_PUBLIC | Constants.ACC_STATIC, FACTORY_DATA_FIELD, OBJECT_TYPE, null);
         if (!interceptDuringConstruction) {
             e.declare_field(Constants.ACC_PRIVATE, CONSTRUCTED_FIELD, Type.BOOLEAN_TYPE, null);
@@ -620,8 +982,13 @@ public class Enhancer extends AbstractClassGenerator
             e.declare_field(Constants.PRIVATE_FINAL_STATIC, Constants.SUID_FIELD_NAME, Type.LONG_TYPE, serialVersionUID);
         }
 
-        for (int i = 0; i < callbackTypes.length; i++) {
-            e.declare_field(Constants.ACC_PRIVATE, getCallbackField(i), callbackTypes[i], null);
+        if (shareCallbacks) {
+            e.declare_field(Constants.ACC_PRIVATE, SHARED_CALLBACKS_FIELD, CALLBACK_ARRAY, null);
+            e.declare_field(Constants.PRIVATE_FINAL_STATIC, NO_CALLBACKS_FIELD, CALLBACK_ARRAY, null);
+        } else {
+            for (int i = 0; i < callbackTypes.length; i++) {
+                e.declare_field(Constants.ACC_PRIVATE, getCallbackField(i), callbackTypes[i], null);
+            }
         }
         // This is declared private to avoid "public field" pollution
         e.declare_field(Constants.ACC_PRIVATE | Constants.ACC_STATIC, CALLBACK_FILTER_FIELD, OBJECT_TYPE, null);
@@ -706,7 +1073,7 @@ public class Enhancer extends AbstractClassGenerator
         if (argumentTypes == null) {
             argumentTypes = Constants.EMPTY_CLASS_ARRAY;
         }
-        EnhancerFactoryData factoryData = new EnhancerFactoryData(klass, argumentTypes, classOnly);
+        EnhancerFactoryData factoryData = new EnhancerFactoryData(klass, argumentTypes, classOnly, injectCallbacks);
         Field factoryDataField = null;
         try {
             // The subsequent dance is performed just once for each class,
@@ -819,6 +1186,10 @@ public class Enhancer extends AbstractClassGenerator
      * @return newly created instance
      */
     private Object createUsingReflection(Class type) {
+        if (injectCallbacks) {
+            Class[] types = (argumentTypes != null) ? argumentTypes : Constants.EMPTY_CLASS_ARRAY;
+            return ReflectUtils.newInstance(type, addCallbacksType(types), addCallbacks(arguments, callbacks));
+        }
         setThreadCallbacks(type, callbacks);
         try{
         
@@ -837,6 +1208,23 @@ public class Enhancer extends AbstractClassGenerator
         }
     }
 
+    private static Class[] addCallbacksType(Class[] argumentTypes) {
+        Class[] types = new Class[argumentTypes.length + 1];
+        System.arraycopy(argumentTypes, 0, types, 0, argumentTypes.length);
+        types[argumentTypes.length] = Callback[].class;
+        return types;
+    }
+
+    private static Object[] addCallbacks(Object[] arguments, Callback[] callbacks) {
+        if (arguments == null) {
+            return new Object[]{ callbacks };
+        }
+        Object[] args = new Object[arguments.length + 1];
+        System.arraycopy(arguments, 0, args, 0, arguments.length);
+        args[arguments.length] = callbacks;
+        return args;
+    }
+
     /**
      * Helper method to create an intercepted object.
      * For finer control over the generated instance, use a new instance of <code>Enhancer</code>
@@ -927,10 +1315,73 @@ public class Enhancer extends AbstractClassGenerator
             e.return_value();
             e.end_method();
         }
+        if (injectCallbacks && currentData == null) {
+            emitInjectingConstructors(ce, constructors);
+        }
         if (!classOnly && !seenNull && arguments == null)
             throw new IllegalArgumentException("Superclass has no null constructors but no arguments were given");
     }
 
+    private void emitInjectingConstructors(ClassEmitter ce, List constructors) {
+        Set signatures = new HashSet();
+        for (Iterator it = constructors.iterator(); it.hasNext();) {
+            signatures.add(((MethodInfo)it.next()).getSignature());
+        }
+        for (Iterator it = constructors.iterator(); it.hasNext();) {
+            MethodInfo constructor = (MethodInfo)it.next();
+            Signature sig = constructor.getSignature();
+            Signature injecting = getInjectingSignature(sig);
+            if (signatures.contains(injecting)) {
+                throw new IllegalArgumentException("Constructor " + injecting + " of " + superclass +
+                                                   " conflicts with the constructor injecting the callbacks");
+            }
+            CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC, injecting, constructor.getExceptionTypes());
+            int callbacksArg = sig.getArgumentTypes().length;
+
+            // assign the callbacks before the superclass constructor may call the proxied methods
+            Label bound = e.make_label();
+            e.load_arg(callbacksArg);
+            e.ifnull(bound);
+            if (shareCallbacks) {
+                e.load_this();
+                e.load_arg(callbacksArg);
+                emitCheckCallbacks(e);
+                e.putfield(SHARED_CALLBACKS_FIELD);
+            } else {
+                e.load_this();
+                e.push(1);
+                e.putfield(BOUND_FIELD);
+                for (int i = 0; i < callbackTypes.length; i++) {
+                    e.load_this();
+                    e.load_arg(callbacksArg);
+                    e.aaload(i);
+                    e.checkcast(callbackTypes[i]);
+                    e.putfield(getCallbackField(i));
+                }
+            }
+            e.mark(bound);
+
+            e.load_this();
+            e.dup();
+            e.load_args(0, callbacksArg);
+            e.super_invoke_constructor(sig);
+            // no-op if bound above, otherwise falls back to the registered callbacks
+            e.invoke_static_this(BIND_CALLBACKS);
+            if (!interceptDuringConstruction) {
+                e.load_this();
+                e.push(1);
+                e.putfield(CONSTRUCTED_FIELD);
+            }
+            e.return_value();
+            e.end_method();
+        }
+    }
+
+    private static Signature getInjectingSignature(Signature sig) {
+        return new Signature(Constants.CONSTRUCTOR_NAME, Type.VOID_TYPE,
+                             TypeUtils.add(sig.getArgumentTypes(), CALLBACK_ARRAY));
+    }
+
     private int[] getCallbackKeys() {
         int[] keys = new int[callbackTypes.length];
         for (int i = 0; i < callbackTypes.length; i++) {
@@ -944,11 +1395,18 @@ public class Enhancer extends AbstractClassGenerator
         e.load_this();
         e.invoke_static_this(BIND_CALLBACKS);
         e.load_this();
+        if (shareCallbacks) {
+            e.getfield(SHARED_CALLBACKS_FIELD);
+        }
         e.load_arg(0);
         e.process_switch(keys, new ProcessSwitchCallback() {
             public void processCase(int key, Label end) {
-                e.getfield(getCallbackField(key));
-                e.goTo(end);
+                if (shareCallbacks) {
+                    e.aaload(key);
+                } else {
+                    e.getfield(getCallbackField(key));
+                }
+                e.return_value();
             }
             public void processDefault() {
                 e.pop(); // stack height
@@ -964,10 +1422,27 @@ public class Enhancer extends AbstractClassGenerator
         e.load_arg(0);
         e.process_switch(keys, new ProcessSwitchCallback() {
             public void processCase(int key, Label end) {
-                e.load_this();
-                e.load_arg(1);
-                e.checkcast(callbackTypes[key]);
-                e.putfield(getCallbackField(key));
+                if (shareCallbacks) {
+                    // copy on write, other instances may share the array
+                    e.load_this();
+                    e.invoke_static_this(BIND_CALLBACKS);
+                    e.load_this();
+                    e.load_this();
+                    e.getfield(SHARED_CALLBACKS_FIELD);
+                    e.invoke_virtual(CALLBACK_ARRAY, CLONE);
+                    e.checkcast(CALLBACK_ARRAY);
+                    e.dup();
+                    e.push(key);
+                    e.load_arg(1);
+                    e.checkcast(callbackTypes[key]);
+                    e.aastore();
+                    e.putfield(SHARED_CALLBACKS_FIELD);
+                } else {
+                    e.load_this();
+                    e.load_arg(1);
+                    e.checkcast(callbackTypes[key]);
+                    e.putfield(getCallbackField(key));
+                }
                 e.goTo(end);
             }
             public void processDefault() {
@@ -982,11 +1457,16 @@ public class Enhancer extends AbstractClassGenerator
         CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC, SET_CALLBACKS, null);
         e.load_this();
         e.load_arg(0);
-        for (int i = 0; i < callbackTypes.length; i++) {
-            e.dup2();
-            e.aaload(i);
-            e.checkcast(callbackTypes[i]);
-            e.putfield(getCallbackField(i));
+        if (shareCallbacks) {
+            emitCheckCallbacks(e);
+            e.putfield(SHARED_CALLBACKS_FIELD);
+        } else {
+            for (int i = 0; i < callbackTypes.length; i++) {
+                e.dup2();
+                e.aaload(i);
+                e.checkcast(callbackTypes[i]);
+                e.putfield(getCallbackField(i));
+            }
         }
         e.return_value();
         e.end_method();
@@ -996,6 +1476,15 @@ public class Enhancer extends AbstractClassGenerator
         CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC, GET_CALLBACKS, null);
         e.load_this();
         e.invoke_static_this(BIND_CALLBACKS);
+        if (shareCallbacks) {
+            e.load_this();
+            e.getfield(SHARED_CALLBACKS_FIELD);
+            e.invoke_virtual(CALLBACK_ARRAY, CLONE);
+            e.checkcast(CALLBACK_ARRAY);
+            e.return_value();
+            e.end_method();
+            return;
+        }
         e.load_this();
         e.push(callbackTypes.length);
         e.newarray(CALLBACK);
@@ -1013,6 +1502,15 @@ public class Enhancer extends AbstractClassGenerator
     private void emitNewInstanceCallbacks(ClassEmitter ce) {
         CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC, NEW_INSTANCE, null);
         Type thisType = getThisType(e);
+        if (injectCallbacks) {
+            e.new_instance(thisType);
+            e.dup();
+            e.load_arg(0);
+            e.invoke_constructor(thisType, getInjectingSignature(CSTRUCT_NULL));
+            e.return_value();
+            e.end_method();
+            return;
+        }
         e.load_arg(0);
         e.invoke_static(thisType, SET_THREAD_CALLBACKS);
         emitCommonNewInstance(e);
@@ -1044,6 +1542,11 @@ public class Enhancer extends AbstractClassGenerator
             // TODO: make sure Callback is null
             break;
         case 1:
+            if (injectCallbacks) {
+                Type thisType = getThisType(e);
+                e.new_instance(thisType);
+                e.dup();
+            }
             // for now just make a new array; TODO: optimize
             e.push(1);
             e.newarray(CALLBACK);
@@ -1051,10 +1554,18 @@ public class Enhancer extends AbstractClassGenerator
             e.push(0);
             e.load_arg(0);
             e.aastore();
+            if (injectCallbacks) {
+                e.invoke_constructor(getThisType(e), getInjectingSignature(CSTRUCT_NULL));
+                e.return_value();
+                e.end_method();
+                return;
+            }
             e.invoke_static(getThisType(e), SET_THREAD_CALLBACKS);
             break;
         default:
             e.throw_exception(ILLEGAL_STATE_EXCEPTION, "More than one callback object required");
+            e.end_method();
+            return;
         }
         emitCommonNewInstance(e);
     }
@@ -1062,8 +1573,10 @@ public class Enhancer extends AbstractClassGenerator
     private void emitNewInstanceMultiarg(ClassEmitter ce, List constructors) {
         final CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC, MULTIARG_NEW_INSTANCE, null);
         final Type thisType = getThisType(e);
-        e.load_arg(2);
-        e.invoke_static(thisType, SET_THREAD_CALLBACKS);
+        if (!injectCallbacks) {
+            e.load_arg(2);
+            e.invoke_static(thisType, SET_THREAD_CALLBACKS, false);
+        }
         e.new_instance(thisType);
         e.dup();
         e.load_arg(0);
@@ -1077,15 +1590,22 @@ public class Enhancer extends AbstractClassGenerator
                     e.aaload();
                     e.unbox(types[i]);
                 }
-                e.invoke_constructor(thisType, constructor.getSignature());
+                if (injectCallbacks) {
+                    e.load_arg(2);
+                    e.invoke_constructor(thisType, getInjectingSignature(constructor.getSignature()));
+                } else {
+                    e.invoke_constructor(thisType, constructor.getSignature());
+                }
                 e.goTo(end);
             }
             public void processDefault() {
                 e.throw_exception(ILLEGAL_ARGUMENT_EXCEPTION, "Constructor not found");
             }
         });
-        e.aconst_null();
-        e.invoke_static(thisType, SET_THREAD_CALLBACKS);
+        if (!injectCallbacks) {
+            e.aconst_null();
+            e.invoke_static(thisType, SET_THREAD_CALLBACKS, false);
+        }
         e.return_value();
         e.end_method();
     }
@@ -1105,7 +1625,7 @@ public class Enhancer extends AbstractClassGenerator
         while (it1.hasNext()) {
             MethodInfo method = (MethodInfo)it1.next();
             Method actualMethod = (it2 != null) ? (Method)it2.next() : null;
-            int index = filter.accept(actualMethod);
+            int index = accept(filter, actualMethod);
             if (index >= callbackTypes.length) {
                 throw new IllegalArgumentException("Callback filter returned an index that is too large: " + index);
             }
@@ -1129,7 +1649,7 @@ public class Enhancer extends AbstractClassGenerator
             }
         }
         
-        final Map bridgeToTarget = new BridgeMethodResolver(declToBridge, getClassLoader()).resolveAll();
+        final Map bridgeToTarget = new BridgeMethodResolver(declToBridge).resolveAll();
 
         Set seenGen = new HashSet();
         CodeEmitter se = ce.getStaticHook();
@@ -1137,6 +1657,11 @@ public class Enhancer extends AbstractClassGenerator
         se.dup();
         se.invoke_constructor(THREAD_LOCAL, CSTRUCT_NULL);
         se.putfield(THREAD_CALLBACKS_FIELD);
+        if (shareCallbacks) {
+            se.push(callbackTypes.length);
+            se.newarray(CALLBACK);
+            se.putfield(NO_CALLBACKS_FIELD);
+        }
 
         final Object[] state = new Object[1];
         CallbackGenerator.Context context = new CallbackGenerator.Context() {
@@ -1152,9 +1677,21 @@ public class Enhancer extends AbstractClassGenerator
             public void emitCallback(CodeEmitter e, int index) {
                 emitCurrentCallback(e, index);
             }
+            public void emitInvokeCallback(CodeEmitter e, Type type, Signature sig) {
+                if (useInvokeDynamic) {
+                    Type[] argumentTypes = TypeUtils.add(new Type[]{ type }, sig.getArgumentTypes());
+                    e.invoke_dynamic(new Signature(sig.getName(), sig.getReturnType(), argumentTypes),
+                                     CALLBACK_BOOTSTRAP);
+                } else {
+                    e.invoke_interface(type, sig);
+                }
+            }
             public Signature getImplSignature(MethodInfo method) {
                 return rename(method.getSignature(), ((Integer)positions.get(method)).intValue());
             }
+            public boolean isLazyMethodResolution() {
+                return lazyMethodResolution;
+            }
             public void emitLoadArgsAndInvoke(CodeEmitter e, MethodInfo method) {
                 // If this is a bridge and we know the target was called from invokespecial,
                 // then we need to invoke_virtual w/ the bridge target instead of doing
@@ -1226,8 +1763,6 @@ public class Enhancer extends AbstractClassGenerator
                 }
             }
         }
-        se.return_value();
-        se.end_method();
     }
 
     private void emitSetThreadCallbacks(ClassEmitter ce) {
@@ -1252,6 +1787,22 @@ public class Enhancer extends AbstractClassGenerator
     }
     
     private void emitCurrentCallback(CodeEmitter e, int index) {
+        if (shareCallbacks) {
+            Label bound = e.make_label();
+            e.load_this();
+            e.getfield(SHARED_CALLBACKS_FIELD);
+            e.dup();
+            e.ifnonnull(bound);
+            e.pop(); // stack height
+            e.load_this();
+            e.invoke_static_this(BIND_CALLBACKS);
+            e.load_this();
+            e.getfield(SHARED_CALLBACKS_FIELD);
+            e.mark(bound);
+            e.aaload(index);
+            e.checkcast(callbackTypes[index]);
+            return;
+        }
         e.load_this();
         e.getfield(getCallbackField(index));
         e.dup();
@@ -1276,14 +1827,21 @@ public class Enhancer extends AbstractClassGenerator
 
         Label end = e.make_label();
         e.load_local(me);
-        e.getfield(BOUND_FIELD);
-        e.if_jump(e.NE, end);
-        e.load_local(me);
-        e.push(1);
-        e.putfield(BOUND_FIELD);
+        if (shareCallbacks) {
+            e.getfield(SHARED_CALLBACKS_FIELD);
+            e.ifnonnull(end);
+        } else {
+            e.getfield(BOUND_FIELD);
+            e.if_jump(e.NE, end);
+            e.load_local(me);
+            e.push(1);
+            e.putfield(BOUND_FIELD);
+        }
 
         e.getfield(THREAD_CALLBACKS_FIELD);
         e.invoke_virtual(THREAD_LOCAL, THREAD_LOCAL_GET);
+        // cast before the branch, so both paths reach found_callback with a Callback[]
+        e.checkcast(CALLBACK_ARRAY);
         e.dup();
         Label found_callback = e.make_label();
         e.ifnonnull(found_callback);
@@ -1293,12 +1851,24 @@ public class Enhancer extends AbstractClassGenerator
         e.dup();
         e.ifnonnull(found_callback);
         e.pop();
-        e.goTo(end);
+        if (shareCallbacks) {
+            // bound to no callbacks, as if the fields had been left null
+            e.getfield(NO_CALLBACKS_FIELD);
+        } else {
+            e.goTo(end);
+        }
 
         e.mark(found_callback);
-        e.checkcast(CALLBACK_ARRAY);
         e.load_local(me);
         e.swap();
+        if (shareCallbacks) {
+            emitCheckCallbacks(e);
+            e.putfield(SHARED_CALLBACKS_FIELD);
+            e.mark(end);
+            e.return_value();
+            e.end_method();
+            return;
+        }
         for (int i = callbackTypes.length - 1; i >= 0; i--) {
             if (i != 0) {
                 e.dup2();
@@ -1313,6 +1883,19 @@ public class Enhancer extends AbstractClassGenerator
         e.end_method();
     }
 
+    /**
+     * Checks the types of the callbacks in the array on top of the stack, which is left
+     * there, so that an invalid array fails when it is assigned rather than when used.
+     */
+    private void emitCheckCallbacks(CodeEmitter e) {
+        for (int i = 0; i < callbackTypes.length; i++) {
+            e.dup();
+            e.aaload(i);
+            e.checkcast(callbackTypes[i]);
+            e.pop();
+        }
+    }
+
     private static String getCallbackField(int index) {
         return "CGLIB$CALLBACK_" + index;
     }
@@ -31,7 +31,7 @@ class FixedValueGenerator implements CallbackGenerator {
             MethodInfo method = (MethodInfo)it.next();
             CodeEmitter e = context.beginMethod(ce, method);
             context.emitCallback(e, context.getIndex(method));
-            e.invoke_interface(FIXED_VALUE, LOAD_OBJECT);
+            context.emitInvokeCallback(e, FIXED_VALUE, LOAD_OBJECT);
             e.unbox_or_zero(e.getReturnType());
             e.return_value();
             e.end_method();
@@ -89,7 +89,12 @@ public class InterfaceMaker extends AbstractClassGenerator
     protected ClassLoader getDefaultClassLoader() {
         return null;
     }
-    
+
+    protected boolean canDefineHiddenClass() {
+        // the interface is only useful if other classes can refer to it
+        return false;
+    }
+
     protected Object firstInstance(Class type) {
         return type;
     }
@@ -45,7 +45,7 @@ implements CallbackGenerator
             e.load_this();
             e.getfield(impl.getName());
             e.create_arg_array();
-            e.invoke_interface(INVOCATION_HANDLER, INVOKE);
+            context.emitInvokeCallback(e, INVOCATION_HANDLER, INVOKE);
             e.unbox(method.getSignature().getReturnType());
             e.return_value();
             handler.end();
@@ -53,10 +53,10 @@ class LazyLoaderGenerator implements CallbackGenerator {
             int index = ((Integer)it.next()).intValue();
 
             String delegate = "CGLIB$LAZY_LOADER_" + index;
-            ce.declare_field(Constants.ACC_PRIVATE, delegate, Constants.TYPE_OBJECT, null);
+            ce.declare_field(Constants.ACC_PRIVATE | Constants.ACC_VOLATILE, delegate, Constants.TYPE_OBJECT, null);
 
+            // steady state: a single volatile read
             CodeEmitter e = ce.begin_method(Constants.ACC_PRIVATE |
-                                            Constants.ACC_SYNCHRONIZED |
                                             Constants.ACC_FINAL,
                                             loadMethod(index),
                                             null);
@@ -67,6 +67,24 @@ class LazyLoaderGenerator implements CallbackGenerator {
             e.ifnonnull(end);
             e.pop();
             e.load_this();
+            e.invoke_virtual_this(initMethod(index));
+            e.mark(end);
+            e.return_value();
+            e.end_method();
+
+            // first call: checks again under the lock, so that loadObject is called once
+            e = ce.begin_method(Constants.ACC_PRIVATE |
+                                Constants.ACC_SYNCHRONIZED |
+                                Constants.ACC_FINAL,
+                                initMethod(index),
+                                null);
+            e.load_this();
+            e.getfield(delegate);
+            e.dup();
+            end = e.make_label();
+            e.ifnonnull(end);
+            e.pop();
+            e.load_this();
             context.emitCallback(e, index);
             e.invoke_interface(LAZY_LOADER, LOAD_OBJECT);
             e.dup_x1();
@@ -74,7 +92,6 @@ class LazyLoaderGenerator implements CallbackGenerator {
             e.mark(end);
             e.return_value();
             e.end_method();
-            
         }
     }
 
@@ -84,5 +101,11 @@ class LazyLoaderGenerator implements CallbackGenerator {
                              Constants.TYPES_EMPTY);
     }
 
+    private Signature initMethod(int index) {
+        return new Signature("CGLIB$INIT_PRIVATE_" + index,
+                             Constants.TYPE_OBJECT,
+                             Constants.TYPES_EMPTY);
+    }
+
     public void generateStatic(CodeEmitter e, Context context, List methods) { }
 }
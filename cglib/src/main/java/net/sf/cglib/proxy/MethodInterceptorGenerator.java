@@ -28,6 +28,8 @@ implements CallbackGenerator
 
     static final String EMPTY_ARGS_NAME = "CGLIB$emptyArgs";
     static final String FIND_PROXY_NAME = "CGLIB$findMethodProxy";
+    static final String RESOLVE_NAME = "CGLIB$resolveMethod";
+    static final String SETTINGS_NAME = "CGLIB$PROXY_SETTINGS";
     static final Class[] FIND_PROXY_TYPES = { Signature.class };
 
     private static final Type ABSTRACT_METHOD_ERROR =
@@ -54,6 +56,19 @@ implements CallbackGenerator
           Constants.TYPE_STRING,
           Constants.TYPE_STRING
       });
+    private static final Signature MAKE_LAZY_PROXY =
+      new Signature("create", METHOD_PROXY, new Type[]{
+          Constants.TYPE_CLASS,
+          Constants.TYPE_CLASS,
+          Constants.TYPE_STRING,
+          Constants.TYPE_STRING,
+          Constants.TYPE_STRING,
+          Constants.TYPE_OBJECT
+      });
+    private static final Signature GET_CREATE_SETTINGS =
+      TypeUtils.parseSignature("Object getCreateSettings()");
+    private static final Signature RESOLVE =
+      new Signature(RESOLVE_NAME, Type.VOID_TYPE, new Type[]{ Type.INT_TYPE });
     private static final Signature INTERCEPT =
       new Signature("intercept", Constants.TYPE_OBJECT, new Type[]{
           Constants.TYPE_OBJECT,
@@ -81,9 +96,14 @@ implements CallbackGenerator
     }
 
     public void generate(ClassEmitter ce, Context context, List methods) {
+        boolean lazy = context.isLazyMethodResolution();
+        if (lazy) {
+            ce.declare_field(Constants.PRIVATE_FINAL_STATIC, SETTINGS_NAME, Constants.TYPE_OBJECT, null);
+        }
         Map sigMap = new HashMap();
-        for (Iterator it = methods.iterator(); it.hasNext();) {
-            MethodInfo method = (MethodInfo)it.next();
+        Map indexMap = new HashMap();
+        for (int index = 0; index < methods.size(); index++) {
+            MethodInfo method = (MethodInfo)methods.get(index);
             Signature sig = method.getSignature();
             Signature impl = context.getImplSignature(method);
 
@@ -91,8 +111,16 @@ implements CallbackGenerator
             String methodProxyField = getMethodProxyField(impl);
 
             sigMap.put(sig.toString(), methodProxyField);
-            ce.declare_field(Constants.PRIVATE_FINAL_STATIC, methodField, METHOD, null);
-            ce.declare_field(Constants.PRIVATE_FINAL_STATIC, methodProxyField, METHOD_PROXY, null);
+            indexMap.put(sig.toString(), new Integer(index));
+            if (lazy) {
+                // the proxy field is written last and read first
+                ce.declare_field(Constants.ACC_PRIVATE | Constants.ACC_STATIC, methodField, METHOD, null);
+                ce.declare_field(Constants.ACC_PRIVATE | Constants.ACC_STATIC | Constants.ACC_VOLATILE,
+                                 methodProxyField, METHOD_PROXY, null);
+            } else {
+                ce.declare_field(Constants.PRIVATE_FINAL_STATIC, methodField, METHOD, null);
+                ce.declare_field(Constants.PRIVATE_FINAL_STATIC, methodProxyField, METHOD_PROXY, null);
+            }
             ce.declare_field(Constants.PRIVATE_FINAL_STATIC, EMPTY_ARGS_NAME, Constants.TYPE_OBJECT_ARRAY, null);
             CodeEmitter e;
 
@@ -111,6 +139,9 @@ implements CallbackGenerator
             e.dup();
             e.ifnull(nullInterceptor);
 
+            if (lazy) {
+                emitResolve(e, methodProxyField, index);
+            }
             e.load_this();
             e.getfield(methodField);
             
@@ -121,7 +152,7 @@ implements CallbackGenerator
             }
             
             e.getfield(methodProxyField);
-            e.invoke_interface(METHOD_INTERCEPTOR, INTERCEPT);
+            context.emitInvokeCallback(e, METHOD_INTERCEPTOR, INTERCEPT);
             e.unbox_or_zero(sig.getReturnType());
             e.return_value();
 
@@ -130,7 +161,72 @@ implements CallbackGenerator
             e.return_value();
             e.end_method();
         }
-        generateFindProxy(ce, sigMap);
+        if (lazy) {
+            generateResolve(ce, context, methods);
+        }
+        generateFindProxy(ce, sigMap, lazy ? indexMap : null);
+    }
+
+    private static void emitResolve(CodeEmitter e, String methodProxyField, int index) {
+        Label resolved = e.make_label();
+        e.getfield(methodProxyField);
+        e.ifnonnull(resolved);
+        e.push(index);
+        e.invoke_static_this(RESOLVE);
+        e.mark(resolved);
+    }
+
+    /**
+     * Generates the method that looks up the <code>Method</code> and <code>MethodProxy</code>
+     * of the method with the given index when lazy method resolution is enabled. Concurrent
+     * calls may both look them up, which is harmless: they are equivalent, and the
+     * <code>MethodProxy</code> field is volatile and written after the <code>Method</code> one.
+     */
+    private void generateResolve(ClassEmitter ce, final Context context, final List methods) {
+        final CodeEmitter e = ce.begin_method(Constants.ACC_PRIVATE | Constants.ACC_STATIC, RESOLVE, null);
+        int[] keys = new int[methods.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+        e.load_arg(0);
+        e.process_switch(keys, new ProcessSwitchCallback() {
+            public void processCase(int key, Label end) {
+                MethodInfo method = (MethodInfo)methods.get(key);
+                Signature sig = method.getSignature();
+                Signature impl = context.getImplSignature(method);
+                Type declaringType = method.getClassInfo().getType();
+                e.push(2);
+                e.newarray(Constants.TYPE_STRING);
+                e.dup();
+                e.push(0);
+                e.push(sig.getName());
+                e.aastore();
+                e.dup();
+                e.push(1);
+                e.push(sig.getDescriptor());
+                e.aastore();
+                EmitUtils.load_class(e, declaringType);
+                e.invoke_virtual(Constants.TYPE_CLASS, GET_DECLARED_METHODS);
+                e.invoke_static(REFLECT_UTILS, FIND_METHODS, false);
+                e.push(0);
+                e.array_load(METHOD);
+                e.putfield(getMethodField(impl));
+
+                EmitUtils.load_class(e, declaringType);
+                EmitUtils.load_class_this(e);
+                e.push(sig.getDescriptor());
+                e.push(sig.getName());
+                e.push(impl.getName());
+                e.getfield(SETTINGS_NAME);
+                e.invoke_static(METHOD_PROXY, MAKE_LAZY_PROXY, false);
+                e.putfield(getMethodProxyField(impl));
+                e.return_value();
+            }
+            public void processDefault() {
+                e.return_value();
+            }
+        });
+        e.end_method();
     }
 
     private static void superHelper(CodeEmitter e, MethodInfo method, Context context)
@@ -161,6 +257,13 @@ implements CallbackGenerator
         e.newarray();
         e.putfield(EMPTY_ARGS_NAME);
 
+        if (context.isLazyMethodResolution()) {
+            // the methods are looked up by CGLIB$resolveMethod
+            e.invoke_static(METHOD_PROXY, GET_CREATE_SETTINGS, false);
+            e.putfield(SETTINGS_NAME);
+            return;
+        }
+
         Local thisclass = e.make_local();
         Local declaringclass = e.make_local();
         EmitUtils.load_class_this(e);
@@ -213,7 +316,7 @@ implements CallbackGenerator
         }
     }
 
-    public void generateFindProxy(ClassEmitter ce, final Map sigMap) {
+    public void generateFindProxy(ClassEmitter ce, final Map sigMap, final Map indexMap) {
         final CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC | Constants.ACC_STATIC,
                                               FIND_PROXY,
                                               null);
@@ -221,7 +324,11 @@ implements CallbackGenerator
         e.invoke_virtual(Constants.TYPE_OBJECT, TO_STRING);
         ObjectSwitchCallback callback = new ObjectSwitchCallback() {
             public void processCase(Object key, Label end) {
-                e.getfield((String)sigMap.get(key));
+                String methodProxyField = (String)sigMap.get(key);
+                if (indexMap != null) {
+                    emitResolve(e, methodProxyField, ((Integer)indexMap.get(key)).intValue());
+                }
+                e.getfield(methodProxyField);
                 e.return_value();
             }
             public void processDefault() {
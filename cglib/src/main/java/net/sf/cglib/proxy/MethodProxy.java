@@ -15,15 +15,34 @@
  */
 package net.sf.cglib.proxy;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import net.sf.cglib.core.AbstractClassGenerator;
+import net.sf.cglib.core.ClassEmitter;
+import net.sf.cglib.core.CodeEmitter;
 import net.sf.cglib.core.CodeGenerationException;
+import net.sf.cglib.core.Constants;
+import net.sf.cglib.core.EmitUtils;
 import net.sf.cglib.core.GeneratorStrategy;
+import net.sf.cglib.core.KeyFactory;
 import net.sf.cglib.core.NamingPolicy;
+import net.sf.cglib.core.ReflectUtils;
 import net.sf.cglib.core.Signature;
+import net.sf.cglib.core.TypeUtils;
 import net.sf.cglib.reflect.FastClass;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Type;
 
 /**
  * Classes generated by {@link Enhancer} pass this object to the
@@ -36,9 +55,11 @@ public class MethodProxy {
     private Signature sig1;
     private Signature sig2;
     private CreateInfo createInfo;
+    private boolean useInvokers;
     
     private final Object initLock = new Object();
     private volatile FastClassInfo fastClassInfo;
+    private volatile Invoker superInvoker;
     
     /**
      * For internal use by {@link Enhancer} only; see the {@link net.sf.cglib.reflect.FastMethod} class
@@ -49,6 +70,28 @@ public class MethodProxy {
         proxy.sig1 = new Signature(name1, desc);
         proxy.sig2 = new Signature(name2, desc);
         proxy.createInfo = new CreateInfo(c1, c2);
+        proxy.useInvokers = proxy.createInfo.useInvokers;
+        return proxy;
+    }
+
+    /**
+     * For internal use by {@link Enhancer} only. Captures the settings of the class being
+     * generated, for the <code>MethodProxy</code> objects created after its generation.
+     */
+    public static Object getCreateSettings() {
+        return new CreateInfo(null, null);
+    }
+
+    /**
+     * For internal use by {@link Enhancer} only. Like {@link #create(Class, Class, String, String, String)},
+     * with the settings returned by {@link #getCreateSettings} during the generation of the class.
+     */
+    public static MethodProxy create(Class c1, Class c2, String desc, String name1, String name2, Object settings) {
+        MethodProxy proxy = new MethodProxy();
+        proxy.sig1 = new Signature(name1, desc);
+        proxy.sig2 = new Signature(name2, desc);
+        proxy.createInfo = new CreateInfo(c1, c2, (CreateInfo)settings);
+        proxy.useInvokers = proxy.createInfo.useInvokers;
         return proxy;
     }
 
@@ -76,12 +119,37 @@ public class MethodProxy {
                     fci.i1 = fci.f1.getIndex(sig1);
                     fci.i2 = fci.f2.getIndex(sig2);
                     fastClassInfo = fci;
-                    createInfo = null;
+                    if (!useInvokers || superInvoker != null) {
+                        createInfo = null;
+                    }
                 }
             }
         }
     }
 
+    private Invoker getSuperInvoker() {
+        Invoker invoker = superInvoker;
+        if (invoker == null) {
+            synchronized (initLock) {
+                invoker = superInvoker;
+                if (invoker == null) {
+                    CreateInfo ci = createInfo;
+                    InvokerGenerator g = new InvokerGenerator();
+                    g.setType(ci.c2);
+                    g.setSignature(sig2);
+                    g.setNamingPolicy(ci.namingPolicy);
+                    g.setStrategy(ci.strategy);
+                    g.setAttemptLoad(ci.attemptLoad);
+                    invoker = superInvoker = g.create();
+                    if (fastClassInfo != null) {
+                        createInfo = null;
+                    }
+                }
+            }
+        }
+        return invoker;
+    }
+
     private static class FastClassInfo
     {
         FastClass f1;
@@ -97,6 +165,7 @@ public class MethodProxy {
         NamingPolicy namingPolicy;
         GeneratorStrategy strategy;
         boolean attemptLoad;
+        boolean useInvokers;
         
         public CreateInfo(Class c1, Class c2)
         {
@@ -107,8 +176,21 @@ public class MethodProxy {
                 namingPolicy = fromEnhancer.getNamingPolicy();
                 strategy = fromEnhancer.getStrategy();
                 attemptLoad = fromEnhancer.getAttemptLoad();
+                if (fromEnhancer instanceof Enhancer) {
+                    useInvokers = ((Enhancer)fromEnhancer).getUseMethodInvokers();
+                }
             }
         }
+
+        public CreateInfo(Class c1, Class c2, CreateInfo settings)
+        {
+            this.c1 = c1;
+            this.c2 = c2;
+            namingPolicy = settings.namingPolicy;
+            strategy = settings.strategy;
+            attemptLoad = settings.attemptLoad;
+            useInvokers = settings.useInvokers;
+        }
     }
 
     private static FastClass helper(CreateInfo ci, Class type) {
@@ -153,6 +235,11 @@ public class MethodProxy {
         return fastClassInfo.i2;
     }
 
+    // For testing
+    boolean isInitialized() {
+        return fastClassInfo != null && (!useInvokers || superInvoker != null);
+    }
+
     // For testing
     FastClass getFastClass() {
       init();
@@ -187,6 +274,115 @@ public class MethodProxy {
         }
     }
 
+    /**
+     * Generates the classes used by {@link #invoke} and {@link #invokeSuper} for every
+     * <code>MethodProxy</code> of a class generated by {@link Enhancer}, which otherwise
+     * happens on the first call of each method. The methods of a class generated with
+     * {@link Enhancer#setLazyMethodResolution lazy method resolution} are looked up first.
+     * Does nothing for a class that does not use a {@link MethodInterceptor}.
+     * @param type the class generated by Enhancer
+     * @see Enhancer#setInitializeMethodProxies
+     */
+    public static void initialize(Class type) {
+        for (Iterator it = getMethodProxies(type).iterator(); it.hasNext();) {
+            ((MethodProxy)it.next()).initialize();
+        }
+    }
+
+    /**
+     * Initializes every <code>MethodProxy</code> of the given classes, as by {@link #initialize(Class)},
+     * in parallel on the given executor, and waits for the initialization to complete.
+     * @param types the classes generated by Enhancer
+     * @param executor the executor running the initialization
+     * @throws InterruptedException if interrupted while waiting
+     * @throws CodeGenerationException if a checked exception prevented the generation of a class
+     */
+    public static void initialize(Class[] types, ExecutorService executor) throws InterruptedException {
+        List tasks = new ArrayList();
+        for (int i = 0; i < types.length; i++) {
+            for (Iterator it = getMethodProxies(types[i]).iterator(); it.hasNext();) {
+                final MethodProxy proxy = (MethodProxy)it.next();
+                tasks.add(new Callable() {
+                    public Object call() {
+                        proxy.initialize();
+                        return null;
+                    }
+                });
+            }
+        }
+        for (Iterator it = executor.invokeAll(tasks).iterator(); it.hasNext();) {
+            try {
+                ((Future)it.next()).get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                } else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new CodeGenerationException(cause);
+            }
+        }
+    }
+
+    private static List getMethodProxies(Class type) {
+        resolveMethods(type);
+        List proxies = new ArrayList();
+        Field[] fields = type.getDeclaredFields();
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fields[i];
+                if (field.getType() == MethodProxy.class && Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    Object proxy = field.get(null);
+                    if (proxy != null) {
+                        proxies.add(proxy);
+                    }
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new CodeGenerationException(e);
+        }
+        return proxies;
+    }
+
+    /**
+     * Sets all the <code>MethodProxy</code> fields of a class generated with lazy method
+     * resolution, which are otherwise set on the first call of each method.
+     */
+    private static void resolveMethods(Class type) {
+        Method resolve;
+        try {
+            resolve = type.getDeclaredMethod(MethodInterceptorGenerator.RESOLVE_NAME, new Class[]{ Integer.TYPE });
+        } catch (NoSuchMethodException e) {
+            return;
+        }
+        int count = 0;
+        Field[] fields = type.getDeclaredFields();
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getType() == MethodProxy.class && Modifier.isStatic(fields[i].getModifiers())) {
+                count++;
+            }
+        }
+        try {
+            resolve.setAccessible(true);
+            for (int i = 0; i < count; i++) {
+                resolve.invoke(null, new Object[]{ new Integer(i) });
+            }
+        } catch (IllegalAccessException e) {
+            throw new CodeGenerationException(e);
+        } catch (InvocationTargetException e) {
+            throw new CodeGenerationException(e.getTargetException());
+        }
+    }
+
+    private void initialize() {
+        init();
+        if (useInvokers) {
+            getSuperInvoker();
+        }
+    }
+
     /**
      * Invoke the original method, on a different object of the same type.
      * @param obj the compatible object; recursion will result if you use the object passed as the first
@@ -222,6 +418,9 @@ public class MethodProxy {
      * without wrapping in an <code>InvocationTargetException</code>
      */
     public Object invokeSuper(Object obj, Object[] args) throws Throwable {
+        if (useInvokers) {
+            return getSuperInvoker().invoke(obj, args);
+        }
         try {
             init();
             FastClassInfo fci = fastClassInfo;
@@ -230,4 +429,95 @@ public class MethodProxy {
             throw e.getTargetException();
         }
     }
+
+    /**
+     * Internal class, only public to be extended by the classes generated when
+     * {@link Enhancer#setUseMethodInvokers} is enabled. Each subclass calls a
+     * single method directly.
+     */
+    abstract public static class Invoker {
+        abstract public Object invoke(Object obj, Object[] args) throws Throwable;
+    }
+
+    interface InvokerKey {
+        Object newInstance(String type, String name, String desc);
+    }
+
+    private static class InvokerGenerator extends AbstractClassGenerator {
+        private static final Source SOURCE = new Source(Invoker.class.getName());
+        private static final InvokerKey KEY_FACTORY =
+          (InvokerKey)KeyFactory.create(InvokerKey.class);
+        private static final Type INVOKER =
+          TypeUtils.parseType("net.sf.cglib.proxy.MethodProxy$Invoker");
+        private static final Signature INVOKE =
+          TypeUtils.parseSignature("Object invoke(Object, Object[])");
+
+        private Class type;
+        private Signature sig;
+
+        public InvokerGenerator() {
+            super(SOURCE);
+        }
+
+        public void setType(Class type) {
+            this.type = type;
+        }
+
+        public void setSignature(Signature sig) {
+            this.sig = sig;
+        }
+
+        protected ClassLoader getDefaultClassLoader() {
+            return type.getClassLoader();
+        }
+
+        protected ProtectionDomain getProtectionDomain() {
+            return ReflectUtils.getProtectionDomain(type);
+        }
+
+        protected Class getContextClass() {
+            return type;
+        }
+
+        public Invoker create() {
+            setNamePrefix(type.getName());
+            return (Invoker)super.create(KEY_FACTORY.newInstance(type.getName(), sig.getName(), sig.getDescriptor()));
+        }
+
+        protected Object firstInstance(Class type) {
+            return ReflectUtils.newInstance(type);
+        }
+
+        protected Object nextInstance(Object instance) {
+            return instance;
+        }
+
+        public void generateClass(ClassVisitor v) {
+            // the access methods are package-private, so the invoker must be
+            // defined in the same package by the same ClassLoader
+            Type owner = Type.getType(type);
+            ClassEmitter ce = new ClassEmitter(v);
+            ce.begin_class(Constants.V1_8,
+                           Constants.ACC_PUBLIC | Constants.ACC_FINAL,
+                           getClassName(),
+                           INVOKER,
+                           null,
+                           Constants.SOURCE_FILE);
+            EmitUtils.null_constructor(ce);
+            CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC, INVOKE, null);
+            e.load_arg(0);
+            e.checkcast(owner);
+            Type[] types = sig.getArgumentTypes();
+            for (int i = 0; i < types.length; i++) {
+                e.load_arg(1);
+                e.aaload(i);
+                e.unbox(types[i]);
+            }
+            e.invoke_virtual(owner, sig);
+            e.box(sig.getReturnType());
+            e.return_value();
+            e.end_method();
+            ce.end_class();
+        }
+    }
 }
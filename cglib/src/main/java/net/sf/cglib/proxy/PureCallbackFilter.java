@@ -0,0 +1,26 @@
+/*
+ * Copyright 2003,2004 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.proxy;
+
+/**
+ * A {@link CallbackFilter} whose result only depends on the method it is passed.
+ * The {@link Enhancer} remembers the result for each method, as long as both the filter
+ * and the class declaring the method are reachable, and does not call the filter again
+ * for the same method when it generates another class with the same filter instance,
+ * such as a class implementing other interfaces or using other callback types.
+ */
+public interface PureCallbackFilter extends CallbackFilter {
+}
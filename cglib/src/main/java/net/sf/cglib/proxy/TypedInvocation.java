@@ -0,0 +1,235 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.proxy;
+
+import java.lang.reflect.Method;
+
+/**
+ * The arguments and the return value of a call intercepted by a {@link TypedMethodInterceptor}.
+ * Each argument is read and written with the accessor matching its declared type:
+ * <code>boolean</code>, <code>long</code>, <code>float</code> and <code>double</code> have their own
+ * accessors, <code>byte</code>, <code>char</code>, <code>short</code> and <code>int</code> share
+ * {@link #getInt} and {@link #setInt}, and references use {@link #getObject} and {@link #setObject}.
+ * The return value follows the same rules.
+ * <p>
+ * The first four arguments are stored in fields and further arguments in arrays. The
+ * fields are passed by value to the generated class, so that for most methods the JIT
+ * can prove that the invocation does not escape and eliminate it.
+ */
+public final class TypedInvocation {
+    private static final int INLINE_ARGUMENTS = 4;
+
+    private final Object proxy;
+    private final Method method;
+    private final int index;
+    private final boolean primitiveReturn;
+
+    private long p0, p1, p2, p3;
+    private Object a0, a1, a2, a3;
+    private long[] primitives;
+    private Object[] objects;
+
+    private long primitiveResult;
+    private Object objectResult;
+
+    /**
+     * Internal constructor, only public to be called by generated classes.
+     * @param proxy the enhanced object
+     * @param method the intercepted method
+     * @param index identifies the method in the generated class
+     * @param argumentCount the number of arguments of the method
+     * @param primitiveReturn whether the method returns a primitive type or void
+     */
+    public TypedInvocation(Object proxy, Method method, int index, int argumentCount, boolean primitiveReturn) {
+        this.proxy = proxy;
+        this.method = method;
+        this.index = index;
+        this.primitiveReturn = primitiveReturn;
+        if (argumentCount > INLINE_ARGUMENTS) {
+            primitives = new long[argumentCount - INLINE_ARGUMENTS];
+            objects = new Object[argumentCount - INLINE_ARGUMENTS];
+        }
+    }
+
+    /**
+     * Returns "this", the enhanced object.
+     */
+    public Object getProxy() {
+        return proxy;
+    }
+
+    /**
+     * Returns the intercepted method.
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Invokes the original (super) method with the current arguments, and records its
+     * return value as the one of this invocation. May be called as many times as needed.
+     * @throws Throwable the exception thrown by the original method
+     */
+    public void invokeSuper() throws Throwable {
+        if (primitiveReturn) {
+            primitiveResult = ((Target)proxy).CGLIB$invokeSuperPrimitive(index, p0, p1, p2, p3, a0, a1, a2, a3, primitives, objects);
+        } else {
+            objectResult = ((Target)proxy).CGLIB$invokeSuperObject(index, p0, p1, p2, p3, a0, a1, a2, a3, primitives, objects);
+        }
+    }
+
+    public boolean getBoolean(int arg) {
+        return getPrimitive(arg) != 0;
+    }
+
+    public int getInt(int arg) {
+        return (int)getPrimitive(arg);
+    }
+
+    public long getLong(int arg) {
+        return getPrimitive(arg);
+    }
+
+    public float getFloat(int arg) {
+        return Float.intBitsToFloat((int)getPrimitive(arg));
+    }
+
+    public double getDouble(int arg) {
+        return Double.longBitsToDouble(getPrimitive(arg));
+    }
+
+    public Object getObject(int arg) {
+        switch (arg) {
+        case 0: return a0;
+        case 1: return a1;
+        case 2: return a2;
+        case 3: return a3;
+        default: return objects[arg - INLINE_ARGUMENTS];
+        }
+    }
+
+    public void setBoolean(int arg, boolean value) {
+        setPrimitive(arg, value ? 1 : 0);
+    }
+
+    public void setInt(int arg, int value) {
+        setPrimitive(arg, value);
+    }
+
+    public void setLong(int arg, long value) {
+        setPrimitive(arg, value);
+    }
+
+    public void setFloat(int arg, float value) {
+        setPrimitive(arg, Float.floatToRawIntBits(value));
+    }
+
+    public void setDouble(int arg, double value) {
+        setPrimitive(arg, Double.doubleToRawLongBits(value));
+    }
+
+    public void setObject(int arg, Object value) {
+        switch (arg) {
+        case 0: a0 = value; break;
+        case 1: a1 = value; break;
+        case 2: a2 = value; break;
+        case 3: a3 = value; break;
+        default: objects[arg - INLINE_ARGUMENTS] = value;
+        }
+    }
+
+    public boolean getReturnBoolean() {
+        return primitiveResult != 0;
+    }
+
+    public int getReturnInt() {
+        return (int)primitiveResult;
+    }
+
+    public long getReturnLong() {
+        return primitiveResult;
+    }
+
+    public float getReturnFloat() {
+        return Float.intBitsToFloat((int)primitiveResult);
+    }
+
+    public double getReturnDouble() {
+        return Double.longBitsToDouble(primitiveResult);
+    }
+
+    public Object getReturnObject() {
+        return objectResult;
+    }
+
+    public void setReturnBoolean(boolean value) {
+        primitiveResult = value ? 1 : 0;
+    }
+
+    public void setReturnInt(int value) {
+        primitiveResult = value;
+    }
+
+    public void setReturnLong(long value) {
+        primitiveResult = value;
+    }
+
+    public void setReturnFloat(float value) {
+        primitiveResult = Float.floatToRawIntBits(value);
+    }
+
+    public void setReturnDouble(double value) {
+        primitiveResult = Double.doubleToRawLongBits(value);
+    }
+
+    public void setReturnObject(Object value) {
+        objectResult = value;
+    }
+
+    private long getPrimitive(int arg) {
+        switch (arg) {
+        case 0: return p0;
+        case 1: return p1;
+        case 2: return p2;
+        case 3: return p3;
+        default: return primitives[arg - INLINE_ARGUMENTS];
+        }
+    }
+
+    private void setPrimitive(int arg, long value) {
+        switch (arg) {
+        case 0: p0 = value; break;
+        case 1: p1 = value; break;
+        case 2: p2 = value; break;
+        case 3: p3 = value; break;
+        default: primitives[arg - INLINE_ARGUMENTS] = value;
+        }
+    }
+
+    /**
+     * Internal interface implemented by the generated classes, only public due to ClassLoader issues.
+     * The arguments are passed as the fields and arrays of the invocation rather than the invocation
+     * itself, and the primitive return values are encoded like the primitive arguments.
+     */
+    public interface Target {
+        long CGLIB$invokeSuperPrimitive(int index, long p0, long p1, long p2, long p3,
+                                        Object a0, Object a1, Object a2, Object a3,
+                                        long[] primitives, Object[] objects) throws Throwable;
+        Object CGLIB$invokeSuperObject(int index, long p0, long p1, long p2, long p3,
+                                       Object a0, Object a1, Object a2, Object a3,
+                                       long[] primitives, Object[] objects) throws Throwable;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.proxy;
+
+/**
+ * {@link Enhancer} callback which provides for "around advice" like
+ * {@link MethodInterceptor}, but without boxing. The arguments and the return value
+ * are read and written through the typed accessors of a {@link TypedInvocation},
+ * and the original method is invoked with {@link TypedInvocation#invokeSuper}, so
+ * primitive values are never wrapped and no argument array is allocated.
+ * The invocation object itself does not escape the proxied method unless the
+ * interceptor stores it, which allows the JIT to eliminate it.
+ */
+public interface TypedMethodInterceptor
+extends Callback
+{
+    /**
+     * All generated proxied methods call this method instead of the original method.
+     * The return value of the proxied method is the one recorded by
+     * {@link TypedInvocation#invokeSuper} or set with one of the <code>setReturn</code>
+     * methods of the invocation; zero or null if neither was called.
+     * @param invocation the arguments and return value of the call; only valid until this method returns
+     * @throws Throwable any exception may be thrown; if so, super method will not be invoked
+     */
+    public void intercept(TypedInvocation invocation) throws Throwable;
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.proxy;
+
+import java.util.*;
+import net.sf.cglib.core.*;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+
+class TypedMethodInterceptorGenerator
+implements CallbackGenerator
+{
+    public static final TypedMethodInterceptorGenerator INSTANCE = new TypedMethodInterceptorGenerator();
+
+    static final Type TARGET =
+      TypeUtils.parseType("net.sf.cglib.proxy.TypedInvocation$Target");
+
+    private static final Type ABSTRACT_METHOD_ERROR =
+      TypeUtils.parseType("AbstractMethodError");
+    private static final Type ILLEGAL_ARGUMENT_EXCEPTION =
+      TypeUtils.parseType("IllegalArgumentException");
+    private static final Type METHOD =
+      TypeUtils.parseType("java.lang.reflect.Method");
+    private static final Type TYPED_INVOCATION =
+      TypeUtils.parseType("net.sf.cglib.proxy.TypedInvocation");
+    private static final Type TYPED_METHOD_INTERCEPTOR =
+      TypeUtils.parseType("net.sf.cglib.proxy.TypedMethodInterceptor");
+    private static final Signature CSTRUCT_INVOCATION =
+      TypeUtils.parseConstructor("Object, java.lang.reflect.Method, int, int, boolean");
+    private static final Signature INTERCEPT =
+      new Signature("intercept", Type.VOID_TYPE, new Type[]{ TYPED_INVOCATION });
+    private static final int INLINE_ARGUMENTS = 4;
+    private static final Type[] INVOKE_SUPER_ARGUMENTS = {
+        Type.INT_TYPE,
+        Type.LONG_TYPE, Type.LONG_TYPE, Type.LONG_TYPE, Type.LONG_TYPE,
+        Constants.TYPE_OBJECT, Constants.TYPE_OBJECT, Constants.TYPE_OBJECT, Constants.TYPE_OBJECT,
+        Type.getType(long[].class), Constants.TYPE_OBJECT_ARRAY,
+    };
+    private static final Signature INVOKE_SUPER_PRIMITIVE =
+      new Signature("CGLIB$invokeSuperPrimitive", Type.LONG_TYPE, INVOKE_SUPER_ARGUMENTS);
+    private static final Signature INVOKE_SUPER_OBJECT =
+      new Signature("CGLIB$invokeSuperObject", Constants.TYPE_OBJECT, INVOKE_SUPER_ARGUMENTS);
+    private static final Signature FLOAT_TO_RAW_INT_BITS =
+      TypeUtils.parseSignature("int floatToRawIntBits(float)");
+    private static final Signature DOUBLE_TO_RAW_LONG_BITS =
+      TypeUtils.parseSignature("long doubleToRawLongBits(double)");
+    private static final Signature INT_BITS_TO_FLOAT =
+      TypeUtils.parseSignature("float intBitsToFloat(int)");
+    private static final Signature LONG_BITS_TO_DOUBLE =
+      TypeUtils.parseSignature("double longBitsToDouble(long)");
+    private static final Type FLOAT =
+      TypeUtils.parseType("Float");
+    private static final Type DOUBLE =
+      TypeUtils.parseType("Double");
+
+    private String getMethodField(Signature impl) {
+        return impl.getName() + "$Method";
+    }
+
+    public void generate(ClassEmitter ce, Context context, List methods) {
+        for (int index = 0; index < methods.size(); index++) {
+            MethodInfo method = (MethodInfo)methods.get(index);
+            Signature sig = method.getSignature();
+            Signature impl = context.getImplSignature(method);
+            String methodField = getMethodField(impl);
+            ce.declare_field(Constants.PRIVATE_FINAL_STATIC, methodField, METHOD, null);
+
+            // access method
+            CodeEmitter e = ce.begin_method(Constants.ACC_FINAL,
+                                            impl,
+                                            method.getExceptionTypes());
+            superHelper(e, method, context);
+            e.return_value();
+            e.end_method();
+
+            // around method
+            e = context.beginMethod(ce, method);
+            Label nullInterceptor = e.make_label();
+            context.emitCallback(e, context.getIndex(method));
+            e.dup();
+            e.ifnull(nullInterceptor);
+
+            Type[] args = sig.getArgumentTypes();
+            Type returnType = sig.getReturnType();
+            Local invocation = e.make_local(TYPED_INVOCATION);
+            e.new_instance(TYPED_INVOCATION);
+            e.dup();
+            e.load_this();
+            e.getfield(methodField);
+            e.push(index);
+            e.push(args.length);
+            e.push(TypeUtils.isPrimitive(returnType) || returnType == Type.VOID_TYPE);
+            e.invoke_constructor(TYPED_INVOCATION, CSTRUCT_INVOCATION);
+            e.store_local(invocation);
+            for (int i = 0; i < args.length; i++) {
+                e.load_local(invocation);
+                e.push(i);
+                e.load_arg(i);
+                e.invoke_virtual(TYPED_INVOCATION, setter(args[i]));
+            }
+            e.load_local(invocation);
+            context.emitInvokeCallback(e, TYPED_METHOD_INTERCEPTOR, INTERCEPT);
+            if (returnType != Type.VOID_TYPE) {
+                e.load_local(invocation);
+                e.invoke_virtual(TYPED_INVOCATION, returnGetter(returnType));
+                fromStorage(e, returnType);
+            }
+            e.return_value();
+
+            e.mark(nullInterceptor);
+            superHelper(e, method, context);
+            e.return_value();
+            e.end_method();
+        }
+        generateInvokeSuper(ce, context, methods, true);
+        generateInvokeSuper(ce, context, methods, false);
+    }
+
+    /**
+     * Generates the method of {@link TypedInvocation.Target} that calls the access method
+     * with the given index, for the methods returning a primitive type or void, or for the
+     * methods returning a reference. The arguments are passed by value rather than read
+     * through the getters of the invocation: calls in the cases that never run are not
+     * inlined by the JIT, and would keep it from eliminating the invocation.
+     */
+    private void generateInvokeSuper(ClassEmitter ce, final Context context, final List methods, final boolean primitive) {
+        Signature sig = primitive ? INVOKE_SUPER_PRIMITIVE : INVOKE_SUPER_OBJECT;
+        final CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC | Constants.ACC_FINAL, sig, null);
+        List keys = new ArrayList();
+        for (int index = 0; index < methods.size(); index++) {
+            Type returnType = ((MethodInfo)methods.get(index)).getSignature().getReturnType();
+            if (primitive == (TypeUtils.isPrimitive(returnType) || returnType == Type.VOID_TYPE)) {
+                keys.add(new Integer(index));
+            }
+        }
+        int[] keyArray = new int[keys.size()];
+        for (int i = 0; i < keyArray.length; i++) {
+            keyArray[i] = ((Integer)keys.get(i)).intValue();
+        }
+        e.load_arg(0);
+        e.process_switch(keyArray, new ProcessSwitchCallback() {
+            public void processCase(int key, Label end) {
+                MethodInfo method = (MethodInfo)methods.get(key);
+                Signature sig = method.getSignature();
+                Type[] args = sig.getArgumentTypes();
+                Type returnType = sig.getReturnType();
+                e.load_this();
+                for (int i = 0; i < args.length; i++) {
+                    loadArgument(e, args[i], i);
+                }
+                e.invoke_virtual_this(context.getImplSignature(method));
+                if (returnType == Type.VOID_TYPE) {
+                    e.push(0L);
+                } else if (primitive) {
+                    toLong(e, returnType);
+                }
+                e.return_value();
+            }
+            public void processDefault() {
+                e.throw_exception(ILLEGAL_ARGUMENT_EXCEPTION, "Unknown method index");
+            }
+        });
+        e.end_method();
+    }
+
+    /**
+     * Returns the type used to store values of the given type in a {@link TypedInvocation}.
+     */
+    private static Type storageType(Type type) {
+        switch (type.getSort()) {
+        case Type.BYTE:
+        case Type.CHAR:
+        case Type.SHORT:
+            return Type.INT_TYPE;
+        case Type.BOOLEAN:
+        case Type.INT:
+        case Type.LONG:
+        case Type.FLOAT:
+        case Type.DOUBLE:
+            return type;
+        default:
+            return Constants.TYPE_OBJECT;
+        }
+    }
+
+    private static Signature setter(Type type) {
+        Type storage = storageType(type);
+        return new Signature("set" + suffix(storage), Type.VOID_TYPE, new Type[]{ Type.INT_TYPE, storage });
+    }
+
+    private static Signature returnGetter(Type type) {
+        Type storage = storageType(type);
+        return new Signature("getReturn" + suffix(storage), storage, new Type[0]);
+    }
+
+    private static String suffix(Type storage) {
+        switch (storage.getSort()) {
+        case Type.BOOLEAN: return "Boolean";
+        case Type.INT: return "Int";
+        case Type.LONG: return "Long";
+        case Type.FLOAT: return "Float";
+        case Type.DOUBLE: return "Double";
+        default: return "Object";
+        }
+    }
+
+    private static void fromStorage(CodeEmitter e, Type type) {
+        switch (type.getSort()) {
+        case Type.BYTE:
+        case Type.CHAR:
+        case Type.SHORT:
+            e.cast_numeric(Type.INT_TYPE, type);
+            break;
+        case Type.OBJECT:
+        case Type.ARRAY:
+            e.checkcast(type);
+            break;
+        default:
+        }
+    }
+
+    /**
+     * Loads an argument of the given type from the parameters of {@link TypedInvocation.Target}.
+     */
+    private static void loadArgument(CodeEmitter e, Type type, int arg) {
+        boolean primitive = TypeUtils.isPrimitive(type);
+        if (arg < INLINE_ARGUMENTS) {
+            e.load_arg((primitive ? 1 : 1 + INLINE_ARGUMENTS) + arg);
+        } else {
+            e.load_arg(primitive ? 1 + 2 * INLINE_ARGUMENTS : 2 + 2 * INLINE_ARGUMENTS);
+            e.push(arg - INLINE_ARGUMENTS);
+            e.array_load(primitive ? Type.LONG_TYPE : Constants.TYPE_OBJECT);
+        }
+        if (!primitive) {
+            e.checkcast(type);
+            return;
+        }
+        switch (type.getSort()) {
+        case Type.LONG:
+            break;
+        case Type.DOUBLE:
+            e.invoke_static(DOUBLE, LONG_BITS_TO_DOUBLE, false);
+            break;
+        case Type.FLOAT:
+            e.cast_numeric(Type.LONG_TYPE, Type.INT_TYPE);
+            e.invoke_static(FLOAT, INT_BITS_TO_FLOAT, false);
+            break;
+        default:
+            e.cast_numeric(Type.LONG_TYPE, Type.INT_TYPE);
+            fromStorage(e, type);
+        }
+    }
+
+    /**
+     * Encodes a primitive value as the long returned by {@link TypedInvocation.Target#CGLIB$invokeSuperPrimitive}.
+     */
+    private static void toLong(CodeEmitter e, Type type) {
+        switch (type.getSort()) {
+        case Type.LONG:
+            break;
+        case Type.FLOAT:
+            e.invoke_static(FLOAT, FLOAT_TO_RAW_INT_BITS, false);
+            e.cast_numeric(Type.INT_TYPE, Type.LONG_TYPE);
+            break;
+        case Type.DOUBLE:
+            e.invoke_static(DOUBLE, DOUBLE_TO_RAW_LONG_BITS, false);
+            break;
+        default:
+            e.cast_numeric(Type.INT_TYPE, Type.LONG_TYPE);
+        }
+    }
+
+    private static void superHelper(CodeEmitter e, MethodInfo method, Context context)
+    {
+        if (TypeUtils.isAbstract(method.getModifiers())) {
+            e.throw_exception(ABSTRACT_METHOD_ERROR, method.toString() + " is abstract" );
+        } else {
+            e.load_this();
+            context.emitLoadArgsAndInvoke(e, method);
+        }
+    }
+
+    public void generateStatic(CodeEmitter e, Context context, List methods) {
+        for (Iterator it = methods.iterator(); it.hasNext();) {
+            MethodInfo method = (MethodInfo)it.next();
+            EmitUtils.load_method(e, method);
+            e.putfield(getMethodField(context.getImplSignature(method)));
+        }
+    }
+}
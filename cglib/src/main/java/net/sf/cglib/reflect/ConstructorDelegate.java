@@ -77,6 +77,10 @@ abstract public class ConstructorDelegate {
         	return ReflectUtils.getProtectionDomain(targetClass);
         }
 
+        protected Class getContextClass() {
+            return targetClass;
+        }
+
         public void generateClass(ClassVisitor v) {
             setNamePrefix(targetClass.getName());
 
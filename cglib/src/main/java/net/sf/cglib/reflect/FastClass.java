@@ -20,11 +20,14 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.ProtectionDomain;
+import java.util.Map;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Type;
 
 abstract public class FastClass
 {
+    private static final Object[] NO_ARGS = {};
+
     private Class type;
 
     protected FastClass() {
@@ -50,8 +53,11 @@ abstract public class FastClass
     public static class Generator extends AbstractClassGenerator
     {
         private static final Source SOURCE = new Source(FastClass.class.getName());
+        private static final boolean USE_METHOD_HANDLES = Boolean.getBoolean("cglib.fastClassMethodHandles");
         private Class type;
-        
+        private boolean useMethodHandles = USE_METHOD_HANDLES;
+        private boolean specializedEntryPoints;
+
         public Generator() {
             super(SOURCE);
         }
@@ -60,9 +66,54 @@ abstract public class FastClass
             this.type = type;
         }
         
+        /**
+         * Whether to call the members of the class through a table of method handles, instead
+         * of generating a <code>FastClass</code> subclass for it. Such a <code>FastClass</code>
+         * takes less Metaspace and is faster to create, and has the same indexes. Defaults to
+         * the <code>cglib.fastClassMethodHandles</code> system property, false if not set.
+         */
+        public void setUseMethodHandles(boolean useMethodHandles) {
+            this.useMethodHandles = useMethodHandles;
+        }
+
+        /**
+         * Whether the generated class implements <code>invoke0</code>..<code>invoke3</code>,
+         * <code>newInstance0</code>..<code>newInstance3</code> and the variants of
+         * <code>invoke</code> returning primitives, which take the arguments one by one. They
+         * add some thirty methods to the class; without them, these calls go through
+         * {@link FastClass#invoke(int, Object, Object[])}. Defaults to false.
+         */
+        public void setSpecializedEntryPoints(boolean specializedEntryPoints) {
+            this.specializedEntryPoints = specializedEntryPoints;
+        }
+
         public FastClass create() {
+            if (useMethodHandles) {
+                return MethodHandleFastClass.create(type, getClassLoader(), getUseCache());
+            }
             setNamePrefix(type.getName());
-            return (FastClass)super.create(type.getName());
+            String key = type.getName();
+            if (specializedEntryPoints) {
+                key += "#specialized";
+            }
+            return (FastClass)super.create(key);
+        }
+
+        protected Object createForBatch() {
+            return create();
+        }
+
+        protected boolean writeManifestEntry(Map properties) {
+            properties.put("type", type.getName());
+            if (specializedEntryPoints) {
+                properties.put("specialized", "true");
+            }
+            return true;
+        }
+
+        protected void readManifestEntry(Map properties, ClassLoader loader) throws ClassNotFoundException {
+            setType(Class.forName((String)properties.get("type"), false, loader));
+            setSpecializedEntryPoints("true".equals(properties.get("specialized")));
         }
 
         protected ClassLoader getDefaultClassLoader() {
@@ -73,8 +124,12 @@ abstract public class FastClass
         	return ReflectUtils.getProtectionDomain(type);
         }
 
+        protected Class getContextClass() {
+            return type;
+        }
+
         public void generateClass(ClassVisitor v) throws Exception {
-            new FastClassEmitter(v, getClassName(), type);
+            new FastClassEmitter(v, getClassName(), type, specializedEntryPoints);
         }
 
         protected Object firstInstance(Class type) {
@@ -187,6 +242,208 @@ abstract public class FastClass
      */
     abstract public Object newInstance(int index, Object[] args) throws InvocationTargetException;
 
+    /**
+     * Invoke the method with the specified index, which takes no argument. Generated classes
+     * implement the methods taking up to three arguments, as well as their variants returning
+     * primitives, without allocating an array for the arguments nor boxing the result, when
+     * generated with {@link Generator#setSpecializedEntryPoints}; other methods are invoked
+     * through {@link #invoke(int, Object, Object[])}.
+     * @see #invoke(int, Object, Object[])
+     * @param index the method index
+     * @param obj the object the underlying method is invoked from
+     * @throws java.lang.reflect.InvocationTargetException if the underlying method throws an exception
+     */
+    public Object invoke0(int index, Object obj) throws InvocationTargetException {
+        return invoke(index, obj, NO_ARGS);
+    }
+
+    /**
+     * Invoke the method with the specified index, which takes one argument.
+     * @see #invoke0
+     */
+    public Object invoke1(int index, Object obj, Object arg0) throws InvocationTargetException {
+        return invoke(index, obj, new Object[]{ arg0 });
+    }
+
+    /**
+     * Invoke the method with the specified index, which takes two arguments.
+     * @see #invoke0
+     */
+    public Object invoke2(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return invoke(index, obj, new Object[]{ arg0, arg1 });
+    }
+
+    /**
+     * Invoke the method with the specified index, which takes three arguments.
+     * @see #invoke0
+     */
+    public Object invoke3(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return invoke(index, obj, new Object[]{ arg0, arg1, arg2 });
+    }
+
+    /**
+     * Invoke the method with the specified index, which returns an <code>int</code>,
+     * <code>short</code>, <code>char</code> or <code>byte</code>, without boxing the result.
+     * @see #invoke0
+     * @throws IllegalArgumentException if the method returns another type
+     */
+    public int invokeInt(int index, Object obj) throws InvocationTargetException {
+        return toInt(invoke0(index, obj));
+    }
+
+    public int invokeInt(int index, Object obj, Object arg0) throws InvocationTargetException {
+        return toInt(invoke1(index, obj, arg0));
+    }
+
+    public int invokeInt(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return toInt(invoke2(index, obj, arg0, arg1));
+    }
+
+    public int invokeInt(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return toInt(invoke3(index, obj, arg0, arg1, arg2));
+    }
+
+    /**
+     * Invoke the method with the specified index, which returns a <code>long</code> or a type
+     * accepted by {@link #invokeInt(int, Object)}, without boxing the result.
+     * @see #invoke0
+     * @throws IllegalArgumentException if the method returns another type
+     */
+    public long invokeLong(int index, Object obj) throws InvocationTargetException {
+        return toLong(invoke0(index, obj));
+    }
+
+    public long invokeLong(int index, Object obj, Object arg0) throws InvocationTargetException {
+        return toLong(invoke1(index, obj, arg0));
+    }
+
+    public long invokeLong(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return toLong(invoke2(index, obj, arg0, arg1));
+    }
+
+    public long invokeLong(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return toLong(invoke3(index, obj, arg0, arg1, arg2));
+    }
+
+    /**
+     * Invoke the method with the specified index, which returns a <code>double</code>,
+     * a <code>float</code> or a type accepted by {@link #invokeLong(int, Object)}, without
+     * boxing the result.
+     * @see #invoke0
+     * @throws IllegalArgumentException if the method returns another type
+     */
+    public double invokeDouble(int index, Object obj) throws InvocationTargetException {
+        return toDouble(invoke0(index, obj));
+    }
+
+    public double invokeDouble(int index, Object obj, Object arg0) throws InvocationTargetException {
+        return toDouble(invoke1(index, obj, arg0));
+    }
+
+    public double invokeDouble(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return toDouble(invoke2(index, obj, arg0, arg1));
+    }
+
+    public double invokeDouble(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return toDouble(invoke3(index, obj, arg0, arg1, arg2));
+    }
+
+    /**
+     * Invoke the method with the specified index, which returns a <code>boolean</code>,
+     * without boxing the result.
+     * @see #invoke0
+     * @throws IllegalArgumentException if the method returns another type
+     */
+    public boolean invokeBoolean(int index, Object obj) throws InvocationTargetException {
+        return toBoolean(invoke0(index, obj));
+    }
+
+    public boolean invokeBoolean(int index, Object obj, Object arg0) throws InvocationTargetException {
+        return toBoolean(invoke1(index, obj, arg0));
+    }
+
+    public boolean invokeBoolean(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return toBoolean(invoke2(index, obj, arg0, arg1));
+    }
+
+    public boolean invokeBoolean(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return toBoolean(invoke3(index, obj, arg0, arg1, arg2));
+    }
+
+    /**
+     * Invoke the method with the specified index and ignore its result. Calls to
+     * <code>void</code> methods are generated; other methods are invoked through
+     * {@link #invoke0}.
+     */
+    public void invokeVoid(int index, Object obj) throws InvocationTargetException {
+        invoke0(index, obj);
+    }
+
+    public void invokeVoid(int index, Object obj, Object arg0) throws InvocationTargetException {
+        invoke1(index, obj, arg0);
+    }
+
+    public void invokeVoid(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        invoke2(index, obj, arg0, arg1);
+    }
+
+    public void invokeVoid(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        invoke3(index, obj, arg0, arg1, arg2);
+    }
+
+    /**
+     * Create a new instance using the specified constructor index, of a constructor
+     * which takes no argument.
+     * @see #newInstance(int, Object[])
+     * @see #invoke0
+     */
+    public Object newInstance0(int index) throws InvocationTargetException {
+        return newInstance(index, NO_ARGS);
+    }
+
+    public Object newInstance1(int index, Object arg0) throws InvocationTargetException {
+        return newInstance(index, new Object[]{ arg0 });
+    }
+
+    public Object newInstance2(int index, Object arg0, Object arg1) throws InvocationTargetException {
+        return newInstance(index, new Object[]{ arg0, arg1 });
+    }
+
+    public Object newInstance3(int index, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return newInstance(index, new Object[]{ arg0, arg1, arg2 });
+    }
+
+    private static int toInt(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number)value).intValue();
+        }
+        if (value instanceof Character) {
+            return ((Character)value).charValue();
+        }
+        throw new IllegalArgumentException("Not an int: " + value);
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Long) {
+            return ((Long)value).longValue();
+        }
+        return toInt(value);
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            return ((Number)value).doubleValue();
+        }
+        return toLong(value);
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return ((Boolean)value).booleanValue();
+        }
+        throw new IllegalArgumentException("Not a boolean: " + value);
+    }
+
     abstract public int getIndex(Signature sig);
 
     /**
@@ -204,4 +461,17 @@ abstract public class FastClass
         sb.append(')');
         return sb.toString();
     }
+
+    /**
+     * Returns the hash of a method used by the generated <code>getIndex(String, Class[])</code>
+     * of large classes to find its slot: the hash code of the name combined with the hash codes
+     * of the names of the parameter types, which can be computed when the class is generated.
+     */
+    protected static int hashSignature(String name, Class[] parameterTypes) {
+        int hash = name.hashCode();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            hash = 31 * hash + parameterTypes[i].getName().hashCode();
+        }
+        return hash;
+    }
 }
@@ -15,7 +15,6 @@
  */
 package net.sf.cglib.reflect;
 
-import java.lang.reflect.*;
 import java.util.*;
 import net.sf.cglib.core.*;
 import org.objectweb.asm.ClassVisitor;
@@ -39,8 +38,14 @@ class FastClassEmitter extends ClassEmitter {
       TypeUtils.parseSignature("Object newInstance(int, Object[])");
     private static final Signature GET_MAX_INDEX =
       TypeUtils.parseSignature("int getMaxIndex()");
-    private static final Signature GET_SIGNATURE_WITHOUT_RETURN_TYPE =
-      TypeUtils.parseSignature("String getSignatureWithoutReturnType(String, Class[])");
+    private static final Signature HASH_SIGNATURE =
+      TypeUtils.parseSignature("int hashSignature(String, Class[])");
+    private static final Signature GET_INDEX_IN_SLOT =
+      TypeUtils.parseSignature("int CGLIB$getIndexInSlot(int, String, Class[])");
+    private static final Signature GET_NAME =
+      TypeUtils.parseSignature("String getName()");
+    private static final Signature EQUALS =
+      TypeUtils.parseSignature("boolean equals(Object)");
     private static final Type FAST_CLASS =
       TypeUtils.parseType("net.sf.cglib.reflect.FastClass");
     private static final Type ILLEGAL_ARGUMENT_EXCEPTION =
@@ -48,11 +53,31 @@ class FastClassEmitter extends ClassEmitter {
     private static final Type INVOCATION_TARGET_EXCEPTION =
       TypeUtils.parseType("java.lang.reflect.InvocationTargetException");
     private static final Type[] INVOCATION_TARGET_EXCEPTION_ARRAY = { INVOCATION_TARGET_EXCEPTION };
+
+    /**
+     * The number of arguments up to which methods and constructors have entry points
+     * taking the arguments one by one.
+     */
+    private static final int MAX_SPECIALIZED_ARITY = 3;
+    private static final String[] PRIMITIVE_INVOKE_NAMES = {
+        "invokeInt", "invokeLong", "invokeDouble", "invokeBoolean", "invokeVoid",
+    };
+    private static final Type[] PRIMITIVE_INVOKE_TYPES = {
+        Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.BOOLEAN_TYPE, Type.VOID_TYPE,
+    };
+
+    /**
+     * The odd multipliers tried to spread the hashes of the methods among the slots of
+     * <code>getIndex(String, Class[])</code>.
+     */
+    private static final int[] SLOT_MULTIPLIERS = {
+        0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F, 0x165667B1, 0xCC9E2D51, 0x1B873593, 0xE6546B65,
+    };
     
-    public FastClassEmitter(ClassVisitor v, String className, Class type) {
+    public FastClassEmitter(ClassVisitor v, String className, Class type, boolean specializedEntryPoints) {
         super(v);
 
-        Type base = Type.getType(type);
+        final Type base = Type.getType(type);
         begin_class(Constants.V1_8, Constants.ACC_PUBLIC, className, FAST_CLASS, null, Constants.SOURCE_FILE);
 
         // constructor
@@ -63,13 +88,9 @@ class FastClassEmitter extends ClassEmitter {
         e.return_value();
         e.end_method();
 
-        VisibilityPredicate vp = new VisibilityPredicate(type, false);
-        List methods = ReflectUtils.addAllMethods(type, new ArrayList());
-        CollectionUtils.filter(methods, vp);
-        CollectionUtils.filter(methods, new DuplicatesPredicate());
-        List constructors = new ArrayList(Arrays.asList(type.getDeclaredConstructors()));
-        CollectionUtils.filter(constructors, vp);
-        
+        final List methods = getMethods(type);
+        final List constructors = getConstructors(type);
+
         // getIndex(String)
         emitIndexBySignature(methods);
 
@@ -79,25 +100,42 @@ class FastClassEmitter extends ClassEmitter {
         // getIndex(Class[])
         e = begin_method(Constants.ACC_PUBLIC, CONSTRUCTOR_GET_INDEX, null);
         e.load_args();
-        List info = CollectionUtils.transform(constructors, MethodInfoTransformer.getInstance());
-        EmitUtils.constructor_switch(e, info, new GetIndexCallback(e, info));
+        EmitUtils.constructor_switch(e, constructors, new GetIndexCallback(e, constructors));
         e.end_method();
 
         // invoke(int, Object, Object[])
-        e = begin_method(Constants.ACC_PUBLIC, INVOKE, INVOCATION_TARGET_EXCEPTION_ARRAY);
-        e.load_arg(1);
-        e.checkcast(base);
-        e.load_arg(0);
-        invokeSwitchHelper(e, methods, 2, base);
-        e.end_method();
+        EmitUtils.switch_method(this, Constants.ACC_PUBLIC, INVOKE, INVOCATION_TARGET_EXCEPTION_ARRAY,
+                                0, getIntRange(methods.size()), new SwitchMethodCallback() {
+            public void processSwitch(CodeEmitter e, int[] keys) {
+                e.load_arg(1);
+                e.checkcast(base);
+                e.load_arg(0);
+                invokeSwitchHelper(e, methods, keys, 2, base);
+            }
+        });
 
         // newInstance(int, Object[])
-        e = begin_method(Constants.ACC_PUBLIC, NEW_INSTANCE, INVOCATION_TARGET_EXCEPTION_ARRAY);
-        e.new_instance(base);
-        e.dup();
-        e.load_arg(0);
-        invokeSwitchHelper(e, constructors, 1, base);
-        e.end_method();
+        EmitUtils.switch_method(this, Constants.ACC_PUBLIC, NEW_INSTANCE, INVOCATION_TARGET_EXCEPTION_ARRAY,
+                                0, getIntRange(constructors.size()), new SwitchMethodCallback() {
+            public void processSwitch(CodeEmitter e, int[] keys) {
+                e.new_instance(base);
+                e.dup();
+                e.load_arg(0);
+                invokeSwitchHelper(e, constructors, keys, 1, base);
+            }
+        });
+
+        // invoke0(int, Object)..invoke3 and newInstance0(int)..newInstance3, and the
+        // variants of invoke returning primitives
+        if (specializedEntryPoints) {
+            for (int arity = 0; arity <= MAX_SPECIALIZED_ARITY; arity++) {
+                emitSpecializedInvoke(methods, arity, "invoke" + arity, Constants.TYPE_OBJECT, base);
+                for (int i = 0; i < PRIMITIVE_INVOKE_NAMES.length; i++) {
+                    emitSpecializedInvoke(methods, arity, PRIMITIVE_INVOKE_NAMES[i], PRIMITIVE_INVOKE_TYPES[i], base);
+                }
+                emitSpecializedNewInstance(constructors, arity, base);
+            }
+        }
 
         // getMaxIndex()
         e = begin_method(Constants.ACC_PUBLIC, GET_MAX_INDEX, null);
@@ -108,65 +146,209 @@ class FastClassEmitter extends ClassEmitter {
         end_class();
     }
 
+    /**
+     * Returns the methods of the given class, as {@link MethodInfo} objects in the order of
+     * their indexes. They are read from the class files, without creating the
+     * <code>Method</code> objects.
+     */
+    static List getMethods(Class type) {
+        List methods = ClassMetadata.addAllMethods(type, new ArrayList());
+        CollectionUtils.filter(methods, new VisibilityPredicate(type, false));
+        CollectionUtils.filter(methods, new DuplicatesPredicate());
+        return methods;
+    }
+
+    /**
+     * Returns the constructors of the given class, as {@link MethodInfo} objects in the order
+     * of their indexes.
+     */
+    static List getConstructors(Class type) {
+        List constructors = new ArrayList(ClassMetadata.get(type).getDeclaredConstructors());
+        CollectionUtils.filter(constructors, new VisibilityPredicate(type, false));
+        return constructors;
+    }
+
     // TODO: support constructor indices ("<init>")
     private void emitIndexBySignature(List methods) {
-        CodeEmitter e = begin_method(Constants.ACC_PUBLIC, SIGNATURE_GET_INDEX, null);
         List signatures = CollectionUtils.transform(methods, new Transformer() {
             public Object transform(Object obj) {
-                return ReflectUtils.getSignature((Method)obj).toString();
+                return ((MethodInfo)obj).getSignature().toString();
+            }
+        });
+        EmitUtils.string_switch_method(this, Constants.ACC_PUBLIC, SIGNATURE_GET_INDEX, null,
+                                       toStringArray(signatures), new SignatureSwitchCallback(signatures) {
+            public void loadKey(CodeEmitter e) {
+                e.load_arg(0);
+                e.invoke_virtual(Constants.TYPE_OBJECT, TO_STRING);
             }
         });
-        e.load_arg(0);
-        e.invoke_virtual(Constants.TYPE_OBJECT, TO_STRING);
-        signatureSwitchHelper(e, signatures);
-        e.end_method();
     }
 
     private static final int TOO_MANY_METHODS = 100; // TODO
     private void emitIndexByClassArray(List methods) {
-        CodeEmitter e = begin_method(Constants.ACC_PUBLIC, METHOD_GET_INDEX, null);
         if (methods.size() > TOO_MANY_METHODS) {
-            // hack for big classes
-            List signatures = CollectionUtils.transform(methods, new Transformer() {
-                public Object transform(Object obj) {
-                    String s = ReflectUtils.getSignature((Method)obj).toString();
-                    return s.substring(0, s.lastIndexOf(')') + 1);
-                }
-            });
-            e.load_args();
-            e.invoke_static(FAST_CLASS, GET_SIGNATURE_WITHOUT_RETURN_TYPE);
-            signatureSwitchHelper(e, signatures);
+            emitIndexByHash(methods);
         } else {
+            CodeEmitter e = begin_method(Constants.ACC_PUBLIC, METHOD_GET_INDEX, null);
             e.load_args();
-            List info = CollectionUtils.transform(methods, MethodInfoTransformer.getInstance());
-            EmitUtils.method_switch(e, info, new GetIndexCallback(e, info));
+            EmitUtils.method_switch(e, methods, new GetIndexCallback(e, methods));
+            e.end_method();
         }
-        e.end_method();
     }
 
-    private void signatureSwitchHelper(final CodeEmitter e, final List signatures) {
-        ObjectSwitchCallback callback = new ObjectSwitchCallback() {
-            public void processCase(Object key, Label end) {
-                // TODO: remove linear indexOf
-                e.push(signatures.indexOf(key));
-                e.return_value();
+    /**
+     * Generates <code>getIndex(String, Class[])</code> for large classes as a hash table. The
+     * hash of the name and parameter types, from {@link FastClass#hashSignature}, picks a slot,
+     * and the slot compares the few methods whose hash falls in it, like the switches of smaller
+     * classes do. The multiplier giving the fewest methods in the fullest slot is chosen.
+     */
+    private void emitIndexByHash(final List methods) {
+        int[] hashes = new int[methods.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hashSignature(((MethodInfo)methods.get(i)).getSignature());
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(hashes.length - 1);
+        int shift = 32 - bits;
+        int multiplier = 0;
+        int[] slotOf = null;
+        int longest = Integer.MAX_VALUE;
+        for (int m = 0; m < SLOT_MULTIPLIERS.length && longest > 1; m++) {
+            int[] slots = new int[hashes.length];
+            int[] counts = new int[1 << bits];
+            int max = 0;
+            for (int i = 0; i < hashes.length; i++) {
+                slots[i] = (hashes[i] * SLOT_MULTIPLIERS[m]) >>> shift;
+                max = Math.max(max, ++counts[slots[i]]);
             }
-            public void processDefault() {
-                e.push(-1);
-                e.return_value();
+            if (max < longest) {
+                longest = max;
+                multiplier = SLOT_MULTIPLIERS[m];
+                slotOf = slots;
+            }
+        }
+        final Map slots = new TreeMap();
+        for (int i = 0; i < slotOf.length; i++) {
+            Integer slot = Integer.valueOf(slotOf[i]);
+            List members = (List)slots.get(slot);
+            if (members == null) {
+                slots.put(slot, members = new ArrayList());
             }
-        };
-        EmitUtils.string_switch(e,
-                                (String[])signatures.toArray(new String[signatures.size()]),
-                                Constants.SWITCH_STYLE_HASH,
-                                callback);
+            members.add(Integer.valueOf(i));
+        }
+
+        CodeEmitter e = begin_method(Constants.ACC_PUBLIC, METHOD_GET_INDEX, null);
+        e.load_this();
+        e.load_args();
+        e.invoke_static(FAST_CLASS, HASH_SIGNATURE, false);
+        e.push(multiplier);
+        e.math(CodeEmitter.MUL, Type.INT_TYPE);
+        e.push(shift);
+        e.math(CodeEmitter.USHR, Type.INT_TYPE);
+        e.load_args();
+        e.invoke_special_this(GET_INDEX_IN_SLOT);
+        e.return_value();
+        e.end_method();
+
+        EmitUtils.switch_method(this, Constants.ACC_PRIVATE | Constants.ACC_FINAL, GET_INDEX_IN_SLOT, null,
+                                0, toIntArray(new ArrayList(slots.keySet())), new SwitchMethodCallback() {
+            public void processSwitch(final CodeEmitter e, int[] keys) {
+                e.load_arg(0);
+                e.process_switch(keys, new ProcessSwitchCallback() {
+                    public void processCase(int key, Label end) {
+                        List members = (List)slots.get(Integer.valueOf(key));
+                        for (Iterator it = members.iterator(); it.hasNext();) {
+                            int index = ((Integer)it.next()).intValue();
+                            emitIndexIfMatches(e, (MethodInfo)methods.get(index), index);
+                        }
+                        e.push(-1);
+                        e.return_value();
+                    }
+                    public void processDefault() {
+                        e.push(-1);
+                        e.return_value();
+                    }
+                }, true);
+            }
+        });
     }
 
-    private static void invokeSwitchHelper(final CodeEmitter e, List members, final int arg, final Type base) {
-        final List info = CollectionUtils.transform(members, MethodInfoTransformer.getInstance());        
+    /**
+     * Returns the index if the name and the parameter types, the last two arguments, are the
+     * ones of the method. The types are compared by name.
+     */
+    private static void emitIndexIfMatches(CodeEmitter e, MethodInfo method, int index) {
+        Signature sig = method.getSignature();
+        Type[] types = sig.getArgumentTypes();
+        Label next = e.make_label();
+        e.load_arg(2);
+        e.arraylength();
+        e.push(types.length);
+        e.if_icmp(CodeEmitter.NE, next);
+        e.load_arg(1);
+        e.push(sig.getName());
+        e.invoke_virtual(Constants.TYPE_OBJECT, EQUALS);
+        e.if_jump(CodeEmitter.EQ, next);
+        for (int i = 0; i < types.length; i++) {
+            e.load_arg(2);
+            e.aaload(i);
+            e.invoke_virtual(Constants.TYPE_CLASS, GET_NAME);
+            e.push(TypeUtils.emulateClassGetName(types[i]));
+            e.invoke_virtual(Constants.TYPE_OBJECT, EQUALS);
+            e.if_jump(CodeEmitter.EQ, next);
+        }
+        e.push(index);
+        e.return_value();
+        e.mark(next);
+    }
+
+    /**
+     * Computes {@link FastClass#hashSignature} from the signature of a method.
+     */
+    private static int hashSignature(Signature sig) {
+        int hash = sig.getName().hashCode();
+        Type[] types = sig.getArgumentTypes();
+        for (int i = 0; i < types.length; i++) {
+            hash = 31 * hash + TypeUtils.emulateClassGetName(types[i]).hashCode();
+        }
+        return hash;
+    }
+
+    private static String[] toStringArray(List strings) {
+        return (String[])strings.toArray(new String[strings.size()]);
+    }
+
+    /**
+     * Switches on the signature pushed by <code>loadKey</code>, returning the index of the method.
+     */
+    private abstract static class SignatureSwitchCallback implements StringSwitchMethodCallback {
+        private final Map indexes = new HashMap();
+
+        SignatureSwitchCallback(List signatures) {
+            for (int i = signatures.size() - 1; i >= 0; i--) {
+                // the first of equal signatures wins
+                indexes.put(signatures.get(i), Integer.valueOf(i));
+            }
+        }
+
+        public void processSwitch(final CodeEmitter e, String[] strings) {
+            loadKey(e);
+            EmitUtils.string_switch(e, strings, Constants.SWITCH_STYLE_AUTO, new ObjectSwitchCallback() {
+                public void processCase(Object key, Label end) {
+                    e.push(((Integer)indexes.get(key)).intValue());
+                    e.return_value();
+                }
+                public void processDefault() {
+                    e.push(-1);
+                    e.return_value();
+                }
+            });
+        }
+    }
+
+    private static void invokeSwitchHelper(final CodeEmitter e, final List info, int[] keys, final int arg, final Type base) {
         final Label illegalArg = e.make_label();
         Block block = e.begin_block();
-        e.process_switch(getIntRange(info.size()), new ProcessSwitchCallback() {
+        e.process_switch(keys, new ProcessSwitchCallback() {
             public void processCase(int key, Label end) {
                 MethodInfo method = (MethodInfo)info.get(key);
                 Type[] types = method.getSignature().getArgumentTypes();
@@ -193,6 +375,163 @@ class FastClassEmitter extends ClassEmitter {
         e.throw_exception(ILLEGAL_ARGUMENT_EXCEPTION, "Cannot find matching method/constructor");
     }
 
+    /**
+     * Returns the return type of the entry point for methods returning the given type:
+     * <code>int</code> for the types that are returned as such, <code>double</code> for
+     * <code>float</code>, or null for the types only returned boxed.
+     */
+    private static Type getPrimitiveInvokeType(Type returnType) {
+        switch (returnType.getSort()) {
+        case Type.BYTE:
+        case Type.CHAR:
+        case Type.SHORT:
+        case Type.INT:
+            return Type.INT_TYPE;
+        case Type.FLOAT:
+            return Type.DOUBLE_TYPE;
+        case Type.LONG:
+        case Type.DOUBLE:
+        case Type.BOOLEAN:
+        case Type.VOID:
+            return returnType;
+        default:
+            return null;
+        }
+    }
+
+    private static Type[] getSpecializedArgumentTypes(int leading, int arity) {
+        Type[] types = new Type[leading + arity];
+        types[0] = Type.INT_TYPE;
+        Arrays.fill(types, 1, types.length, Constants.TYPE_OBJECT);
+        return types;
+    }
+
+    /**
+     * Generates an entry point for the methods with the given number of arguments and, unless
+     * the entry point returns <code>Object</code>, the matching return type. The other indexes
+     * are passed to the implementation in <code>FastClass</code>, which goes through
+     * <code>invoke(int, Object, Object[])</code>. Nothing is generated if no method matches.
+     */
+    private void emitSpecializedInvoke(final List methods, int arity, String name, final Type returnType, final Type base) {
+        List keys = new ArrayList();
+        for (int i = 0; i < methods.size(); i++) {
+            Signature sig = ((MethodInfo)methods.get(i)).getSignature();
+            if (sig.getArgumentTypes().length == arity &&
+                (returnType.equals(Constants.TYPE_OBJECT) || returnType.equals(getPrimitiveInvokeType(sig.getReturnType())))) {
+                keys.add(Integer.valueOf(i));
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        final Signature sig = new Signature(name, returnType, getSpecializedArgumentTypes(2, arity));
+        EmitUtils.switch_method(this, Constants.ACC_PUBLIC, sig, INVOCATION_TARGET_EXCEPTION_ARRAY,
+                                0, toIntArray(keys), new SwitchMethodCallback() {
+            public void processSwitch(CodeEmitter e, int[] keys) {
+                emitSpecializedInvokeSwitch(e, methods, keys, sig, returnType, base);
+            }
+        });
+    }
+
+    private static void emitSpecializedInvokeSwitch(final CodeEmitter e, final List methods, int[] keys,
+                                                    Signature sig, final Type returnType, final Type base) {
+        final Label fallback = e.make_label();
+        e.load_arg(1);
+        e.checkcast(base);
+        e.load_arg(0);
+        Block block = e.begin_block();
+        e.process_switch(keys, new ProcessSwitchCallback() {
+            public void processCase(int key, Label end) {
+                MethodInfo method = (MethodInfo)methods.get(key);
+                Type[] types = method.getSignature().getArgumentTypes();
+                for (int i = 0; i < types.length; i++) {
+                    e.load_arg(2 + i);
+                    e.unbox(types[i]);
+                }
+                e.invoke(method, base);
+                Type methodReturnType = method.getSignature().getReturnType();
+                if (returnType.equals(Constants.TYPE_OBJECT)) {
+                    e.box(methodReturnType);
+                } else if (methodReturnType.getSort() == Type.FLOAT) {
+                    e.cast_numeric(Type.FLOAT_TYPE, Type.DOUBLE_TYPE);
+                }
+                e.return_value();
+            }
+            public void processDefault() {
+                e.goTo(fallback);
+            }
+        });
+        block.end();
+        EmitUtils.wrap_throwable(block, INVOCATION_TARGET_EXCEPTION);
+        e.mark(fallback);
+        e.pop();
+        e.load_this();
+        e.load_args();
+        e.super_invoke(sig);
+        e.return_value();
+    }
+
+    /**
+     * Generates <code>newInstance0</code>..<code>newInstance3</code>, as {@link #emitSpecializedInvoke}.
+     */
+    private void emitSpecializedNewInstance(final List constructors, int arity, final Type base) {
+        List keys = new ArrayList();
+        for (int i = 0; i < constructors.size(); i++) {
+            if (((MethodInfo)constructors.get(i)).getSignature().getArgumentTypes().length == arity) {
+                keys.add(Integer.valueOf(i));
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        final Signature sig = new Signature("newInstance" + arity, Constants.TYPE_OBJECT, getSpecializedArgumentTypes(1, arity));
+        EmitUtils.switch_method(this, Constants.ACC_PUBLIC, sig, INVOCATION_TARGET_EXCEPTION_ARRAY,
+                                0, toIntArray(keys), new SwitchMethodCallback() {
+            public void processSwitch(CodeEmitter e, int[] keys) {
+                emitSpecializedNewInstanceSwitch(e, constructors, keys, sig, base);
+            }
+        });
+    }
+
+    private static void emitSpecializedNewInstanceSwitch(final CodeEmitter e, final List constructors, int[] keys,
+                                                         Signature sig, final Type base) {
+        final Label fallback = e.make_label();
+        e.load_arg(0);
+        Block block = e.begin_block();
+        e.process_switch(keys, new ProcessSwitchCallback() {
+            public void processCase(int key, Label end) {
+                MethodInfo constructor = (MethodInfo)constructors.get(key);
+                Type[] types = constructor.getSignature().getArgumentTypes();
+                e.new_instance(base);
+                e.dup();
+                for (int i = 0; i < types.length; i++) {
+                    e.load_arg(1 + i);
+                    e.unbox(types[i]);
+                }
+                e.invoke(constructor, base);
+                e.return_value();
+            }
+            public void processDefault() {
+                e.goTo(fallback);
+            }
+        });
+        block.end();
+        EmitUtils.wrap_throwable(block, INVOCATION_TARGET_EXCEPTION);
+        e.mark(fallback);
+        e.load_this();
+        e.load_args();
+        e.super_invoke(sig);
+        e.return_value();
+    }
+
+    private static int[] toIntArray(List integers) {
+        int[] array = new int[integers.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ((Integer)integers.get(i)).intValue();
+        }
+        return array;
+    }
+
     private static class GetIndexCallback implements ObjectSwitchCallback {
         private CodeEmitter e;
         private Map indexes = new HashMap();
@@ -33,13 +33,30 @@ public class FastConstructor extends FastMember
     }
 
     public Object newInstance() throws InvocationTargetException {
-        return fc.newInstance(index, null);
+        return fc.newInstance0(index);
     }
 
     public Object newInstance(Object[] args) throws InvocationTargetException {
         return fc.newInstance(index, args);
     }
 
+    /**
+     * Creates an instance with a constructor taking one argument, without allocating
+     * an array for the arguments.
+     * @see FastClass#newInstance0
+     */
+    public Object newInstance1(Object arg0) throws InvocationTargetException {
+        return fc.newInstance1(index, arg0);
+    }
+
+    public Object newInstance2(Object arg0, Object arg1) throws InvocationTargetException {
+        return fc.newInstance2(index, arg0, arg1);
+    }
+
+    public Object newInstance3(Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return fc.newInstance3(index, arg0, arg1, arg2);
+    }
+
     public Constructor getJavaConstructor() {
         return (Constructor)member;
     }
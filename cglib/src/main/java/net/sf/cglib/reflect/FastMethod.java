@@ -57,6 +57,121 @@ public class FastMethod extends FastMember
         return fc.invoke(index, obj, args);
     }
 
+    /**
+     * Invokes the method, which takes no argument, without allocating an array for the arguments.
+     * @see FastClass#invoke0
+     */
+    public Object invoke0(Object obj) throws InvocationTargetException {
+        return fc.invoke0(index, obj);
+    }
+
+    public Object invoke1(Object obj, Object arg0) throws InvocationTargetException {
+        return fc.invoke1(index, obj, arg0);
+    }
+
+    public Object invoke2(Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return fc.invoke2(index, obj, arg0, arg1);
+    }
+
+    public Object invoke3(Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return fc.invoke3(index, obj, arg0, arg1, arg2);
+    }
+
+    /**
+     * @see FastClass#invokeInt(int, Object)
+     */
+    public int invokeInt(Object obj) throws InvocationTargetException {
+        return fc.invokeInt(index, obj);
+    }
+
+    public int invokeInt(Object obj, Object arg0) throws InvocationTargetException {
+        return fc.invokeInt(index, obj, arg0);
+    }
+
+    public int invokeInt(Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return fc.invokeInt(index, obj, arg0, arg1);
+    }
+
+    public int invokeInt(Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return fc.invokeInt(index, obj, arg0, arg1, arg2);
+    }
+
+    /**
+     * @see FastClass#invokeLong(int, Object)
+     */
+    public long invokeLong(Object obj) throws InvocationTargetException {
+        return fc.invokeLong(index, obj);
+    }
+
+    public long invokeLong(Object obj, Object arg0) throws InvocationTargetException {
+        return fc.invokeLong(index, obj, arg0);
+    }
+
+    public long invokeLong(Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return fc.invokeLong(index, obj, arg0, arg1);
+    }
+
+    public long invokeLong(Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return fc.invokeLong(index, obj, arg0, arg1, arg2);
+    }
+
+    /**
+     * @see FastClass#invokeDouble(int, Object)
+     */
+    public double invokeDouble(Object obj) throws InvocationTargetException {
+        return fc.invokeDouble(index, obj);
+    }
+
+    public double invokeDouble(Object obj, Object arg0) throws InvocationTargetException {
+        return fc.invokeDouble(index, obj, arg0);
+    }
+
+    public double invokeDouble(Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return fc.invokeDouble(index, obj, arg0, arg1);
+    }
+
+    public double invokeDouble(Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return fc.invokeDouble(index, obj, arg0, arg1, arg2);
+    }
+
+    /**
+     * @see FastClass#invokeBoolean(int, Object)
+     */
+    public boolean invokeBoolean(Object obj) throws InvocationTargetException {
+        return fc.invokeBoolean(index, obj);
+    }
+
+    public boolean invokeBoolean(Object obj, Object arg0) throws InvocationTargetException {
+        return fc.invokeBoolean(index, obj, arg0);
+    }
+
+    public boolean invokeBoolean(Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        return fc.invokeBoolean(index, obj, arg0, arg1);
+    }
+
+    public boolean invokeBoolean(Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        return fc.invokeBoolean(index, obj, arg0, arg1, arg2);
+    }
+
+    /**
+     * @see FastClass#invokeVoid(int, Object)
+     */
+    public void invokeVoid(Object obj) throws InvocationTargetException {
+        fc.invokeVoid(index, obj);
+    }
+
+    public void invokeVoid(Object obj, Object arg0) throws InvocationTargetException {
+        fc.invokeVoid(index, obj, arg0);
+    }
+
+    public void invokeVoid(Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        fc.invokeVoid(index, obj, arg0, arg1);
+    }
+
+    public void invokeVoid(Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        fc.invokeVoid(index, obj, arg0, arg1, arg2);
+    }
+
     public Method getJavaMethod() {
         return (Method)member;
     }
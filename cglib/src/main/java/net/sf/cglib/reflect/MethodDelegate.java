@@ -187,6 +187,10 @@ abstract public class MethodDelegate {
         	return ReflectUtils.getProtectionDomain(targetClass);
         }
 
+        protected Class getContextClass() {
+            return targetClass;
+        }
+
         public MethodDelegate create() {
             setNamePrefix(targetClass.getName());
             Object key = KEY_FACTORY.newInstance(targetClass, methodName, iface);
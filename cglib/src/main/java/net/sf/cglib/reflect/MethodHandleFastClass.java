@@ -0,0 +1,662 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.reflect;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import net.sf.cglib.core.*;
+import net.sf.cglib.core.internal.ConcurrentWeakIdentityMap;
+
+/**
+ * A {@link FastClass} calling the methods and constructors of a class through a table of
+ * method handles, without generating a class for it. The members and their indexes are the
+ * ones of the generated <code>FastClass</code>. The first time a member is called through
+ * an entry point, its handle is adapted to the type of the entry point; the adapted handle is
+ * then called with <code>invokeExact</code> through the {@link MethodHandleInvoker} shared by
+ * all the classes.
+ * @see FastClass.Generator#setUseMethodHandles
+ */
+final class MethodHandleFastClass extends FastClass {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandleInvoker INVOKER = new MethodHandleInvoker.Generator().create();
+
+    /**
+     * The classes created by the generators of each loader, as the generated classes are
+     * cached. A class refers to its type, so it is kept softly, not to keep the type loaded.
+     */
+    private static final ConcurrentWeakIdentityMap<ClassLoader, ConcurrentWeakIdentityMap<Class, SoftReference<MethodHandleFastClass>>> CACHE =
+      new ConcurrentWeakIdentityMap<ClassLoader, ConcurrentWeakIdentityMap<Class, SoftReference<MethodHandleFastClass>>>();
+
+    /**
+     * The return types of the entry points taking the arguments one by one: <code>invoke0</code>,
+     * <code>invokeInt</code>, <code>invokeLong</code>, <code>invokeDouble</code>,
+     * <code>invokeBoolean</code> and <code>invokeVoid</code>.
+     */
+    private static final Class[] RETURN_TYPES = {
+        Object.class, Integer.TYPE, Long.TYPE, Double.TYPE, Boolean.TYPE, Void.TYPE,
+    };
+    private static final int OBJECT = 0;
+    private static final int INT = 1;
+    private static final int LONG = 2;
+    private static final int DOUBLE = 3;
+    private static final int BOOLEAN = 4;
+    private static final int VOID = 5;
+    private static final int MAX_ARITY = 3;
+
+    // the kinds of entry point: the one taking an array of arguments, then the others by arity and return type
+    private static final int ARRAY = 0;
+    private static final int KINDS = 1 + (MAX_ARITY + 1) * RETURN_TYPES.length;
+
+    // marks the members an entry point cannot call, which are left to the superclass
+    private static final MethodHandle NONE = MethodHandles.constant(Object.class, null);
+
+    private final MethodHandle[] methods;
+    private final Class[][] parameterTypes;
+    private final Map indexesByName = new HashMap();
+    private final Map indexesBySignature = new HashMap();
+    private final MethodHandle[] constructors;
+    private final Class[][] constructorParameterTypes;
+    private final MethodHandle[][] methodInvokers;
+    private final MethodHandle[][] constructorInvokers;
+
+    private MethodHandleFastClass(Class type) {
+        super(type);
+        List methodInfos = FastClassEmitter.getMethods(type);
+        Member[] methodMembers = resolve(type, methodInfos);
+        methods = new MethodHandle[methodMembers.length];
+        parameterTypes = new Class[methodMembers.length][];
+        for (int i = methodMembers.length - 1; i >= 0; i--) {
+            Method method = (Method)methodMembers[i];
+            methods[i] = unreflect(method);
+            parameterTypes[i] = method.getParameterTypes();
+            // the first of equal signatures wins
+            indexesBySignature.put(((MethodInfo)methodInfos.get(i)).getSignature(), Integer.valueOf(i));
+            List indexes = (List)indexesByName.get(method.getName());
+            if (indexes == null) {
+                indexesByName.put(method.getName(), indexes = new ArrayList());
+            }
+            indexes.add(0, Integer.valueOf(i));
+        }
+        Member[] constructorMembers = resolve(type, FastClassEmitter.getConstructors(type));
+        constructors = new MethodHandle[constructorMembers.length];
+        constructorParameterTypes = new Class[constructorMembers.length][];
+        for (int i = 0; i < constructorMembers.length; i++) {
+            constructors[i] = unreflect(constructorMembers[i]);
+            constructorParameterTypes[i] = ((Constructor)constructorMembers[i]).getParameterTypes();
+        }
+        methodInvokers = new MethodHandle[methods.length][];
+        constructorInvokers = new MethodHandle[constructors.length][];
+    }
+
+    static FastClass create(Class type, ClassLoader loader, boolean useCache) {
+        if (!useCache) {
+            return new MethodHandleFastClass(type);
+        }
+        ConcurrentWeakIdentityMap<Class, SoftReference<MethodHandleFastClass>> classes = CACHE.get(loader);
+        if (classes == null) {
+            classes = new ConcurrentWeakIdentityMap<Class, SoftReference<MethodHandleFastClass>>();
+            ConcurrentWeakIdentityMap<Class, SoftReference<MethodHandleFastClass>> prev = CACHE.putIfAbsent(loader, classes);
+            if (prev != null) {
+                classes = prev;
+            }
+        }
+        SoftReference<MethodHandleFastClass> ref = classes.get(type);
+        MethodHandleFastClass fc = (ref != null) ? ref.get() : null;
+        if (fc == null) {
+            fc = new MethodHandleFastClass(type);
+            classes.put(type, new SoftReference<MethodHandleFastClass>(fc));
+        }
+        return fc;
+    }
+
+    /**
+     * Returns the <code>Method</code> or <code>Constructor</code> objects of the given members
+     * of the class or of its superclasses and interfaces.
+     */
+    private static Member[] resolve(Class type, List infos) {
+        Map classes = new HashMap();
+        addClasses(type, classes);
+        Map members = new HashMap();
+        Member[] result = new Member[infos.size()];
+        for (int i = 0; i < result.length; i++) {
+            MethodInfo info = (MethodInfo)infos.get(i);
+            String className = info.getClassInfo().getType().getClassName();
+            Map declared = (Map)members.get(className);
+            if (declared == null) {
+                members.put(className, declared = getDeclaredMembers((Class)classes.get(className)));
+            }
+            result[i] = (Member)declared.get(info.getSignature());
+            if (result[i] == null) {
+                throw new IllegalStateException("Cannot find " + className + "." + info.getSignature());
+            }
+        }
+        return result;
+    }
+
+    private static void addClasses(Class type, Map classes) {
+        if (type == null || classes.containsKey(type.getName())) {
+            return;
+        }
+        classes.put(type.getName(), type);
+        addClasses(type.getSuperclass(), classes);
+        Class[] interfaces = type.getInterfaces();
+        for (int i = 0; i < interfaces.length; i++) {
+            addClasses(interfaces[i], classes);
+        }
+    }
+
+    private static Map getDeclaredMembers(Class type) {
+        Map members = new HashMap();
+        Method[] methods = type.getDeclaredMethods();
+        for (int i = 0; i < methods.length; i++) {
+            members.put(ReflectUtils.getSignature(methods[i]), methods[i]);
+        }
+        Constructor[] constructors = type.getDeclaredConstructors();
+        for (int i = 0; i < constructors.length; i++) {
+            members.put(ReflectUtils.getSignature(constructors[i]), constructors[i]);
+        }
+        return members;
+    }
+
+    /**
+     * Returns the handle of the given member, taking the object as first parameter if it is a
+     * method, static or not.
+     */
+    private static MethodHandle unreflect(Member member) {
+        if (!Modifier.isPublic(member.getModifiers()) || !Modifier.isPublic(member.getDeclaringClass().getModifiers())) {
+            ((AccessibleObject)member).setAccessible(true);
+        }
+        try {
+            if (member instanceof Constructor) {
+                return LOOKUP.unreflectConstructor((Constructor)member);
+            }
+            MethodHandle handle = LOOKUP.unreflect((Method)member);
+            if (Modifier.isStatic(member.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, new Class[]{ Object.class });
+            }
+            return handle;
+        } catch (IllegalAccessException e) {
+            throw new CodeGenerationException(e);
+        }
+    }
+
+    private static int getKind(int arity, int returnType) {
+        return 1 + arity * RETURN_TYPES.length + returnType;
+    }
+
+    /**
+     * Adapts the handle of a member to the type of the given kind of entry point, or returns
+     * {@link #NONE} if the entry point does not take its arguments or return its result.
+     * @param leading the number of parameters before the arguments, one for the object of a method
+     */
+    private static MethodHandle adapt(MethodHandle handle, int kind, int leading) {
+        MethodType type = handle.type();
+        int arity = type.parameterCount() - leading;
+        if (kind == ARRAY) {
+            return handle.asType(MethodType.genericMethodType(type.parameterCount()))
+                .asSpreader(Object[].class, arity);
+        }
+        int returnType = (kind - 1) % RETURN_TYPES.length;
+        if ((kind - 1) / RETURN_TYPES.length != arity || !returns(type.returnType(), returnType)) {
+            return NONE;
+        }
+        return handle.asType(MethodType.genericMethodType(type.parameterCount()).changeReturnType(RETURN_TYPES[returnType]));
+    }
+
+    /**
+     * Returns whether the entry points returning the given type return the results of the
+     * methods returning the given class without boxing, as the ones of the generated class do.
+     */
+    private static boolean returns(Class type, int returnType) {
+        switch (returnType) {
+        case INT:
+            return type == Integer.TYPE || type == Short.TYPE || type == Character.TYPE || type == Byte.TYPE;
+        case LONG:
+            return type == Long.TYPE;
+        case DOUBLE:
+            return type == Double.TYPE || type == Float.TYPE;
+        case BOOLEAN:
+            return type == Boolean.TYPE;
+        case VOID:
+            return type == Void.TYPE;
+        default:
+            return true;
+        }
+    }
+
+    private static MethodHandle getInvoker(MethodHandle[] handles, MethodHandle[][] invokers,
+                                           int index, int kind, int leading) {
+        if (index < 0 || index >= handles.length) {
+            throw new IllegalArgumentException("Cannot find matching method/constructor");
+        }
+        // racy, as adapting a handle twice is harmless
+        MethodHandle[] adapted = invokers[index];
+        if (adapted == null) {
+            invokers[index] = adapted = new MethodHandle[KINDS];
+        }
+        MethodHandle invoker = adapted[kind];
+        if (invoker == null) {
+            adapted[kind] = invoker = adapt(handles[index], kind, leading);
+        }
+        return invoker;
+    }
+
+    private MethodHandle getMethodInvoker(int index, int kind) {
+        return getInvoker(methods, methodInvokers, index, kind, 1);
+    }
+
+    private MethodHandle getConstructorInvoker(int index, int kind) {
+        return getInvoker(constructors, constructorInvokers, index, kind, 0);
+    }
+
+    public int getIndex(String name, Class[] parameterTypes) {
+        List indexes = (List)indexesByName.get(name);
+        if (indexes != null) {
+            for (int i = 0; i < indexes.size(); i++) {
+                int index = ((Integer)indexes.get(i)).intValue();
+                if (Arrays.equals(this.parameterTypes[index], parameterTypes)) {
+                    return index;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public int getIndex(Class[] parameterTypes) {
+        for (int i = 0; i < constructorParameterTypes.length; i++) {
+            if (Arrays.equals(constructorParameterTypes[i], parameterTypes)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getIndex(Signature sig) {
+        Integer index = (Integer)indexesBySignature.get(sig);
+        return (index != null) ? index.intValue() : -1;
+    }
+
+    public int getMaxIndex() {
+        return methods.length - 1;
+    }
+
+    public Object invoke(int index, Object obj, Object[] args) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, ARRAY);
+        try {
+            return INVOKER.invoke(invoker, obj, args);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public Object newInstance(int index, Object[] args) throws InvocationTargetException {
+        MethodHandle invoker = getConstructorInvoker(index, ARRAY);
+        try {
+            return INVOKER.newInstance(invoker, args);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public Object invoke0(int index, Object obj) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(0, OBJECT));
+        if (invoker == NONE) {
+            return super.invoke0(index, obj);
+        }
+        try {
+            return INVOKER.invoke0(invoker, obj);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public Object invoke1(int index, Object obj, Object arg0) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(1, OBJECT));
+        if (invoker == NONE) {
+            return super.invoke1(index, obj, arg0);
+        }
+        try {
+            return INVOKER.invoke1(invoker, obj, arg0);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public Object invoke2(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(2, OBJECT));
+        if (invoker == NONE) {
+            return super.invoke2(index, obj, arg0, arg1);
+        }
+        try {
+            return INVOKER.invoke2(invoker, obj, arg0, arg1);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public Object invoke3(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(3, OBJECT));
+        if (invoker == NONE) {
+            return super.invoke3(index, obj, arg0, arg1, arg2);
+        }
+        try {
+            return INVOKER.invoke3(invoker, obj, arg0, arg1, arg2);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public int invokeInt(int index, Object obj) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(0, INT));
+        if (invoker == NONE) {
+            return super.invokeInt(index, obj);
+        }
+        try {
+            return INVOKER.invokeInt(invoker, obj);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public int invokeInt(int index, Object obj, Object arg0) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(1, INT));
+        if (invoker == NONE) {
+            return super.invokeInt(index, obj, arg0);
+        }
+        try {
+            return INVOKER.invokeInt(invoker, obj, arg0);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public int invokeInt(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(2, INT));
+        if (invoker == NONE) {
+            return super.invokeInt(index, obj, arg0, arg1);
+        }
+        try {
+            return INVOKER.invokeInt(invoker, obj, arg0, arg1);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public int invokeInt(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(3, INT));
+        if (invoker == NONE) {
+            return super.invokeInt(index, obj, arg0, arg1, arg2);
+        }
+        try {
+            return INVOKER.invokeInt(invoker, obj, arg0, arg1, arg2);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public long invokeLong(int index, Object obj) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(0, LONG));
+        if (invoker == NONE) {
+            return super.invokeLong(index, obj);
+        }
+        try {
+            return INVOKER.invokeLong(invoker, obj);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public long invokeLong(int index, Object obj, Object arg0) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(1, LONG));
+        if (invoker == NONE) {
+            return super.invokeLong(index, obj, arg0);
+        }
+        try {
+            return INVOKER.invokeLong(invoker, obj, arg0);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public long invokeLong(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(2, LONG));
+        if (invoker == NONE) {
+            return super.invokeLong(index, obj, arg0, arg1);
+        }
+        try {
+            return INVOKER.invokeLong(invoker, obj, arg0, arg1);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public long invokeLong(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(3, LONG));
+        if (invoker == NONE) {
+            return super.invokeLong(index, obj, arg0, arg1, arg2);
+        }
+        try {
+            return INVOKER.invokeLong(invoker, obj, arg0, arg1, arg2);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public double invokeDouble(int index, Object obj) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(0, DOUBLE));
+        if (invoker == NONE) {
+            return super.invokeDouble(index, obj);
+        }
+        try {
+            return INVOKER.invokeDouble(invoker, obj);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public double invokeDouble(int index, Object obj, Object arg0) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(1, DOUBLE));
+        if (invoker == NONE) {
+            return super.invokeDouble(index, obj, arg0);
+        }
+        try {
+            return INVOKER.invokeDouble(invoker, obj, arg0);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public double invokeDouble(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(2, DOUBLE));
+        if (invoker == NONE) {
+            return super.invokeDouble(index, obj, arg0, arg1);
+        }
+        try {
+            return INVOKER.invokeDouble(invoker, obj, arg0, arg1);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public double invokeDouble(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(3, DOUBLE));
+        if (invoker == NONE) {
+            return super.invokeDouble(index, obj, arg0, arg1, arg2);
+        }
+        try {
+            return INVOKER.invokeDouble(invoker, obj, arg0, arg1, arg2);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public boolean invokeBoolean(int index, Object obj) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(0, BOOLEAN));
+        if (invoker == NONE) {
+            return super.invokeBoolean(index, obj);
+        }
+        try {
+            return INVOKER.invokeBoolean(invoker, obj);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public boolean invokeBoolean(int index, Object obj, Object arg0) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(1, BOOLEAN));
+        if (invoker == NONE) {
+            return super.invokeBoolean(index, obj, arg0);
+        }
+        try {
+            return INVOKER.invokeBoolean(invoker, obj, arg0);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public boolean invokeBoolean(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(2, BOOLEAN));
+        if (invoker == NONE) {
+            return super.invokeBoolean(index, obj, arg0, arg1);
+        }
+        try {
+            return INVOKER.invokeBoolean(invoker, obj, arg0, arg1);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public boolean invokeBoolean(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(3, BOOLEAN));
+        if (invoker == NONE) {
+            return super.invokeBoolean(index, obj, arg0, arg1, arg2);
+        }
+        try {
+            return INVOKER.invokeBoolean(invoker, obj, arg0, arg1, arg2);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public void invokeVoid(int index, Object obj) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(0, VOID));
+        if (invoker == NONE) {
+            super.invokeVoid(index, obj);
+            return;
+        }
+        try {
+            INVOKER.invokeVoid(invoker, obj);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public void invokeVoid(int index, Object obj, Object arg0) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(1, VOID));
+        if (invoker == NONE) {
+            super.invokeVoid(index, obj, arg0);
+            return;
+        }
+        try {
+            INVOKER.invokeVoid(invoker, obj, arg0);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public void invokeVoid(int index, Object obj, Object arg0, Object arg1) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(2, VOID));
+        if (invoker == NONE) {
+            super.invokeVoid(index, obj, arg0, arg1);
+            return;
+        }
+        try {
+            INVOKER.invokeVoid(invoker, obj, arg0, arg1);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public void invokeVoid(int index, Object obj, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        MethodHandle invoker = getMethodInvoker(index, getKind(3, VOID));
+        if (invoker == NONE) {
+            super.invokeVoid(index, obj, arg0, arg1, arg2);
+            return;
+        }
+        try {
+            INVOKER.invokeVoid(invoker, obj, arg0, arg1, arg2);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public Object newInstance0(int index) throws InvocationTargetException {
+        MethodHandle invoker = getConstructorInvoker(index, getKind(0, OBJECT));
+        if (invoker == NONE) {
+            return super.newInstance0(index);
+        }
+        try {
+            return INVOKER.newInstance0(invoker);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public Object newInstance1(int index, Object arg0) throws InvocationTargetException {
+        MethodHandle invoker = getConstructorInvoker(index, getKind(1, OBJECT));
+        if (invoker == NONE) {
+            return super.newInstance1(index, arg0);
+        }
+        try {
+            return INVOKER.newInstance1(invoker, arg0);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public Object newInstance2(int index, Object arg0, Object arg1) throws InvocationTargetException {
+        MethodHandle invoker = getConstructorInvoker(index, getKind(2, OBJECT));
+        if (invoker == NONE) {
+            return super.newInstance2(index, arg0, arg1);
+        }
+        try {
+            return INVOKER.newInstance2(invoker, arg0, arg1);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    public Object newInstance3(int index, Object arg0, Object arg1, Object arg2) throws InvocationTargetException {
+        MethodHandle invoker = getConstructorInvoker(index, getKind(3, OBJECT));
+        if (invoker == NONE) {
+            return super.newInstance3(index, arg0, arg1, arg2);
+        }
+        try {
+            return INVOKER.newInstance3(invoker, arg0, arg1, arg2);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
+    }
+}
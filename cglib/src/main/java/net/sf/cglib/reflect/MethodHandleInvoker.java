@@ -0,0 +1,135 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.reflect;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import net.sf.cglib.core.*;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Type;
+
+/**
+ * Internal class, only public for its generated subclass. Calls method handles with
+ * <code>invokeExact</code>, which the sources of cglib cannot do as they are compiled for an
+ * older language level. The subclass is generated once per class loader, and shared by the
+ * {@link FastClass} instances backed by method handles, which have no class of their own.
+ * Each method takes the handle followed by the arguments of the handle, whose type must be
+ * the type of the method without the handle.
+ */
+abstract public class MethodHandleInvoker {
+    private static final Type METHOD_HANDLE =
+      TypeUtils.parseType("java.lang.invoke.MethodHandle");
+    private static final Type METHOD_HANDLE_INVOKER =
+      TypeUtils.parseType("net.sf.cglib.reflect.MethodHandleInvoker");
+
+    protected MethodHandleInvoker() {
+    }
+
+    abstract public Object invoke(MethodHandle handle, Object obj, Object[] args) throws Throwable;
+    abstract public Object invoke0(MethodHandle handle, Object obj) throws Throwable;
+    abstract public Object invoke1(MethodHandle handle, Object obj, Object arg0) throws Throwable;
+    abstract public Object invoke2(MethodHandle handle, Object obj, Object arg0, Object arg1) throws Throwable;
+    abstract public Object invoke3(MethodHandle handle, Object obj, Object arg0, Object arg1, Object arg2) throws Throwable;
+
+    abstract public int invokeInt(MethodHandle handle, Object obj) throws Throwable;
+    abstract public int invokeInt(MethodHandle handle, Object obj, Object arg0) throws Throwable;
+    abstract public int invokeInt(MethodHandle handle, Object obj, Object arg0, Object arg1) throws Throwable;
+    abstract public int invokeInt(MethodHandle handle, Object obj, Object arg0, Object arg1, Object arg2) throws Throwable;
+
+    abstract public long invokeLong(MethodHandle handle, Object obj) throws Throwable;
+    abstract public long invokeLong(MethodHandle handle, Object obj, Object arg0) throws Throwable;
+    abstract public long invokeLong(MethodHandle handle, Object obj, Object arg0, Object arg1) throws Throwable;
+    abstract public long invokeLong(MethodHandle handle, Object obj, Object arg0, Object arg1, Object arg2) throws Throwable;
+
+    abstract public double invokeDouble(MethodHandle handle, Object obj) throws Throwable;
+    abstract public double invokeDouble(MethodHandle handle, Object obj, Object arg0) throws Throwable;
+    abstract public double invokeDouble(MethodHandle handle, Object obj, Object arg0, Object arg1) throws Throwable;
+    abstract public double invokeDouble(MethodHandle handle, Object obj, Object arg0, Object arg1, Object arg2) throws Throwable;
+
+    abstract public boolean invokeBoolean(MethodHandle handle, Object obj) throws Throwable;
+    abstract public boolean invokeBoolean(MethodHandle handle, Object obj, Object arg0) throws Throwable;
+    abstract public boolean invokeBoolean(MethodHandle handle, Object obj, Object arg0, Object arg1) throws Throwable;
+    abstract public boolean invokeBoolean(MethodHandle handle, Object obj, Object arg0, Object arg1, Object arg2) throws Throwable;
+
+    abstract public void invokeVoid(MethodHandle handle, Object obj) throws Throwable;
+    abstract public void invokeVoid(MethodHandle handle, Object obj, Object arg0) throws Throwable;
+    abstract public void invokeVoid(MethodHandle handle, Object obj, Object arg0, Object arg1) throws Throwable;
+    abstract public void invokeVoid(MethodHandle handle, Object obj, Object arg0, Object arg1, Object arg2) throws Throwable;
+
+    abstract public Object newInstance(MethodHandle handle, Object[] args) throws Throwable;
+    abstract public Object newInstance0(MethodHandle handle) throws Throwable;
+    abstract public Object newInstance1(MethodHandle handle, Object arg0) throws Throwable;
+    abstract public Object newInstance2(MethodHandle handle, Object arg0, Object arg1) throws Throwable;
+    abstract public Object newInstance3(MethodHandle handle, Object arg0, Object arg1, Object arg2) throws Throwable;
+
+    public static class Generator extends AbstractClassGenerator {
+        private static final Source SOURCE = new Source(MethodHandleInvoker.class.getName());
+
+        public Generator() {
+            super(SOURCE);
+        }
+
+        protected ClassLoader getDefaultClassLoader() {
+            return MethodHandleInvoker.class.getClassLoader();
+        }
+
+        protected Class getContextClass() {
+            return MethodHandleInvoker.class;
+        }
+
+        public MethodHandleInvoker create() {
+            setNamePrefix(MethodHandleInvoker.class.getName());
+            return (MethodHandleInvoker)super.create(MethodHandleInvoker.class.getName());
+        }
+
+        public void generateClass(ClassVisitor v) throws Exception {
+            ClassEmitter ce = new ClassEmitter(v);
+            ce.begin_class(Constants.V1_8,
+                           Constants.ACC_PUBLIC | Constants.ACC_FINAL,
+                           getClassName(),
+                           METHOD_HANDLE_INVOKER,
+                           null,
+                           Constants.SOURCE_FILE);
+            EmitUtils.null_constructor(ce);
+            Method[] methods = MethodHandleInvoker.class.getDeclaredMethods();
+            for (int i = 0; i < methods.length; i++) {
+                if (!Modifier.isAbstract(methods[i].getModifiers())) {
+                    continue;
+                }
+                MethodInfo method = ReflectUtils.getMethodInfo(methods[i]);
+                Signature sig = method.getSignature();
+                Type[] types = sig.getArgumentTypes();
+                Type[] exactTypes = new Type[types.length - 1];
+                System.arraycopy(types, 1, exactTypes, 0, exactTypes.length);
+                CodeEmitter e = EmitUtils.begin_method(ce, method, Constants.ACC_PUBLIC | Constants.ACC_FINAL);
+                e.load_args();
+                e.invoke_virtual(METHOD_HANDLE, new Signature("invokeExact", sig.getReturnType(), exactTypes));
+                e.return_value();
+                e.end_method();
+            }
+            ce.end_class();
+        }
+
+        protected Object firstInstance(Class type) {
+            return ReflectUtils.newInstance(type);
+        }
+
+        protected Object nextInstance(Object instance) {
+            return instance;
+        }
+    }
+}
@@ -131,7 +131,15 @@ public class FieldProviderTransformer extends ClassEmitterTransformer {
     }
 
     private void setByIndex(final String[] names, final int[] indexes) throws Exception {
-        final CodeEmitter e = super.begin_method(Constants.ACC_PUBLIC, PROVIDER_SET_BY_INDEX, null);
+        EmitUtils.switch_method(this, Constants.ACC_PUBLIC, PROVIDER_SET_BY_INDEX, null, 0, indexes,
+                                new SwitchMethodCallback() {
+            public void processSwitch(CodeEmitter e, int[] keys) {
+                setByIndexSwitch(e, names, keys);
+            }
+        });
+    }
+
+    private void setByIndexSwitch(final CodeEmitter e, final String[] names, int[] indexes) {
         e.load_this();
         e.load_arg(1);
         e.load_arg(0);
@@ -146,11 +154,18 @@ public class FieldProviderTransformer extends ClassEmitterTransformer {
                 e.throw_exception(ILLEGAL_ARGUMENT_EXCEPTION, "Unknown field index");         
             }
         });
-        e.end_method();
     }
 
     private void getByIndex(final String[] names, final int[] indexes) throws Exception {
-        final CodeEmitter e = super.begin_method(Constants.ACC_PUBLIC, PROVIDER_GET_BY_INDEX, null);
+        EmitUtils.switch_method(this, Constants.ACC_PUBLIC, PROVIDER_GET_BY_INDEX, null, 0, indexes,
+                                new SwitchMethodCallback() {
+            public void processSwitch(CodeEmitter e, int[] keys) {
+                getByIndexSwitch(e, names, keys);
+            }
+        });
+    }
+
+    private void getByIndexSwitch(final CodeEmitter e, final String[] names, int[] indexes) {
         e.load_this();
         e.load_arg(0);
         e.process_switch(indexes, new ProcessSwitchCallback() {
@@ -164,13 +179,23 @@ public class FieldProviderTransformer extends ClassEmitterTransformer {
                 e.throw_exception(ILLEGAL_ARGUMENT_EXCEPTION, "Unknown field index");         
             }
         });
-        e.end_method();
     }
 
     // TODO: if this is used to enhance class files SWITCH_STYLE_TRIE should be used
     // to avoid JVM hashcode implementation incompatibilities
     private void getField(String[] names) throws Exception {
-        final CodeEmitter e = begin_method(Constants.ACC_PUBLIC, PROVIDER_GET, null);
+        EmitUtils.string_switch_method(this, Constants.ACC_PUBLIC, PROVIDER_GET, null, names,
+                                       new StringSwitchMethodCallback() {
+            public void loadKey(CodeEmitter e) {
+                e.load_arg(0);
+            }
+            public void processSwitch(CodeEmitter e, String[] names) {
+                getFieldSwitch(e, names);
+            }
+        });
+    }
+
+    private void getFieldSwitch(final CodeEmitter e, String[] names) {
         e.load_this();
         e.load_arg(0);
         EmitUtils.string_switch(e, names, Constants.SWITCH_STYLE_HASH, new ObjectSwitchCallback() {
@@ -184,11 +209,21 @@ public class FieldProviderTransformer extends ClassEmitterTransformer {
                 e.throw_exception(ILLEGAL_ARGUMENT_EXCEPTION, "Unknown field name");
             }
         });
-        e.end_method();
     }
 
     private void setField(String[] names) throws Exception {
-        final CodeEmitter e = begin_method(Constants.ACC_PUBLIC, PROVIDER_SET, null);
+        EmitUtils.string_switch_method(this, Constants.ACC_PUBLIC, PROVIDER_SET, null, names,
+                                       new StringSwitchMethodCallback() {
+            public void loadKey(CodeEmitter e) {
+                e.load_arg(0);
+            }
+            public void processSwitch(CodeEmitter e, String[] names) {
+                setFieldSwitch(e, names);
+            }
+        });
+    }
+
+    private void setFieldSwitch(final CodeEmitter e, String[] names) {
         e.load_this();
         e.load_arg(1);
         e.load_arg(0);
@@ -203,6 +238,5 @@ public class FieldProviderTransformer extends ClassEmitterTransformer {
                 e.throw_exception(ILLEGAL_ARGUMENT_EXCEPTION, "Unknown field name");
             }
         });
-        e.end_method();
     }
 }
@@ -33,7 +33,7 @@ abstract public class StringSwitcher {
       (StringSwitcherKey)KeyFactory.create(StringSwitcherKey.class);
 
     interface StringSwitcherKey {
-        public Object newInstance(String[] strings, int[] ints, boolean fixedInput);
+        public Object newInstance(String[] strings, int[] ints, boolean fixedInput, int switchStyle);
     }
 
     /**
@@ -71,7 +71,8 @@ abstract public class StringSwitcher {
         private String[] strings;
         private int[] ints;
         private boolean fixedInput;
-        
+        private int switchStyle = -1;
+
         public Generator() {
             super(SOURCE);
         }
@@ -103,6 +104,17 @@ abstract public class StringSwitcher {
             this.fixedInput = fixedInput;
         }
 
+        /**
+         * Set the style of the generated switch, one of the <code>SWITCH_STYLE_</code> constants
+         * of {@link Constants}. By default {@link Constants#SWITCH_STYLE_HASHONLY} is used when
+         * the input is fixed, and {@link Constants#SWITCH_STYLE_AUTO} otherwise.
+         * @param switchStyle the switch style
+         * @see #setFixedInput
+         */
+        public void setSwitchStyle(int switchStyle) {
+            this.switchStyle = switchStyle;
+        }
+
         protected ClassLoader getDefaultClassLoader() {
             return getClass().getClassLoader();
         }
@@ -112,10 +124,17 @@ abstract public class StringSwitcher {
          */
         public StringSwitcher create() {
             setNamePrefix(StringSwitcher.class.getName());
-            Object key = KEY_FACTORY.newInstance(strings, ints, fixedInput);
+            Object key = KEY_FACTORY.newInstance(strings, ints, fixedInput, getSwitchStyle());
             return (StringSwitcher)super.create(key);
         }
 
+        private int getSwitchStyle() {
+            if (switchStyle >= 0) {
+                return switchStyle;
+            }
+            return fixedInput ? Constants.SWITCH_STYLE_HASHONLY : Constants.SWITCH_STYLE_AUTO;
+        }
+
         public void generateClass(ClassVisitor v) throws Exception {
             ClassEmitter ce = new ClassEmitter(v);
             ce.begin_class(Constants.V1_8,
@@ -128,8 +147,7 @@ abstract public class StringSwitcher {
             final CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC, INT_VALUE, null);
             e.load_arg(0);
             final List stringList = Arrays.asList(strings);
-            int style = fixedInput ? Constants.SWITCH_STYLE_HASHONLY : Constants.SWITCH_STYLE_HASH;
-            EmitUtils.string_switch(e, strings, style, new ObjectSwitchCallback() {
+            EmitUtils.string_switch(e, strings, getSwitchStyle(), new ObjectSwitchCallback() {
                 public void processCase(Object key, Label end) {
                     e.push(ints[stringList.indexOf(key)]);
                     e.return_value();
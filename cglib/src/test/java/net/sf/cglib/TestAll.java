@@ -18,6 +18,7 @@ package net.sf.cglib;
 import junit.framework.*;
 import net.sf.cglib.beans.*;
 import net.sf.cglib.core.*;
+import net.sf.cglib.core.internal.*;
 import net.sf.cglib.proxy.*;
 import net.sf.cglib.reflect.*;
 import net.sf.cglib.transform.*;
@@ -53,7 +54,9 @@ public class TestAll extends TestCase {
         suite.addTest(TestDispatcher.suite());
         suite.addTest(TestProxyRefDispatcher.suite());
         suite.addTest(TestLazyLoader.suite());
+        suite.addTest(TestSharedCallbacks.suite());
         suite.addTest(TestNoOp.suite());
+        suite.addTest(TestTypedMethodInterceptor.suite());
         suite.addTest(TestMixin.suite());
         suite.addTest(TestInterfaceMaker.suite());
 
@@ -71,9 +74,18 @@ public class TestAll extends TestCase {
         // core
         suite.addTest(TestKeyFactory.suite());
         suite.addTest(TestTinyBitSet.suite());
+        suite.addTest(TestClassMetadata.suite());
+        suite.addTest(TestBatchGenerator.suite());
+        suite.addTest(TestGenerationManifest.suite());
+        suite.addTest(TestSwitchMethod.suite());
+        suite.addTest(TestDiskCachingGeneratorStrategy.suite());
+        suite.addTest(TestFrameEmitter.suite());
+        suite.addTest(TestLoadingCache.suite());
+        suite.addTest(TestClassCache.suite());
         
         // util
         suite.addTest(TestParallelSorter.suite());
+        suite.addTest(TestStringSwitcher.suite());
 
         // transform
         suite.addTest(TestTransformingLoader.suite());
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.sf.cglib.beans.BeanCopier;
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.NoOp;
+import net.sf.cglib.reflect.FastClass;
+
+public class TestBatchGenerator extends TestCase {
+    private static final Class[] TYPES = {
+        ArrayList.class, HashMap.class, LinkedList.class, TreeMap.class, HashSet.class, Object.class,
+    };
+
+    public static class Bean {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    private static Enhancer enhancer(Class superclass, ClassLoader loader) {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(superclass);
+        e.setCallbackType(NoOp.class);
+        e.setClassLoader(loader);
+        return e;
+    }
+
+    private static FastClass.Generator fastClass(Class type, ClassLoader loader) {
+        FastClass.Generator gen = new FastClass.Generator();
+        gen.setType(type);
+        gen.setClassLoader(loader);
+        return gen;
+    }
+
+    private static BeanCopier.Generator beanCopier(ClassLoader loader) {
+        BeanCopier.Generator gen = new BeanCopier.Generator();
+        gen.setSource(Bean.class);
+        gen.setTarget(Bean.class);
+        gen.setClassLoader(loader);
+        return gen;
+    }
+
+    private ClassLoader newLoader() {
+        return new ClassLoader(getClass().getClassLoader()){};
+    }
+
+    public void testGenerate() {
+        ClassLoader loader = newLoader();
+        List generators = new ArrayList();
+        for (int i = 0; i < TYPES.length; i++) {
+            generators.add(enhancer(TYPES[i], loader));
+            generators.add(fastClass(TYPES[i], loader));
+        }
+        generators.add(beanCopier(loader));
+        BatchGenerator.Report report = new BatchGenerator().generate(generators);
+        assertEquals(report.toString(), 0, report.getFailures().size());
+        assertEquals(generators.size(), report.getResults().size());
+        assertTrue(report.getElapsedTime() > 0);
+
+        // serial calls find the classes in the cache
+        for (int i = 0; i < TYPES.length; i++) {
+            BatchGenerator.Result enhanced = (BatchGenerator.Result)report.getResults().get(2 * i);
+            assertSame(generators.get(2 * i), enhanced.getGenerator());
+            assertTrue(enhanced.getDuration() > 0);
+            assertSame(enhanced.getValue(), enhancer(TYPES[i], loader).createClass());
+            assertSame(((Class)enhanced.getValue()).getClassLoader(), loader);
+            BatchGenerator.Result fast = (BatchGenerator.Result)report.getResults().get(2 * i + 1);
+            assertSame(fast.getValue().getClass(), fastClass(TYPES[i], loader).create().getClass());
+        }
+        BatchGenerator.Result copier = (BatchGenerator.Result)report.getResults().get(generators.size() - 1);
+        assertSame(copier.getValue().getClass(), beanCopier(loader).create().getClass());
+    }
+
+    public void testSameConfiguration() throws Exception {
+        ClassLoader loader = newLoader();
+        List generators = new ArrayList();
+        for (int i = 0; i < 16; i++) {
+            generators.add(enhancer(ArrayList.class, loader));
+        }
+        List futures = new BatchGenerator().submit(generators);
+        Object type = ((Future)futures.get(0)).get();
+        for (Iterator it = futures.iterator(); it.hasNext();) {
+            assertSame(type, ((Future)it.next()).get());
+        }
+    }
+
+    public void testFailure() {
+        ClassLoader loader = newLoader();
+        List generators = new ArrayList();
+        generators.add(enhancer(String.class, loader));
+        generators.add(enhancer(ArrayList.class, loader));
+        BatchGenerator.Report report = new BatchGenerator().generate(generators);
+        List failures = report.getFailures();
+        assertEquals(1, failures.size());
+        BatchGenerator.Result failure = (BatchGenerator.Result)failures.get(0);
+        assertSame(generators.get(0), failure.getGenerator());
+        assertNull(failure.getValue());
+        assertNotNull(failure.getError());
+        assertNotNull(((BatchGenerator.Result)report.getResults().get(1)).getValue());
+    }
+
+    public void testGeneratorTwice() {
+        Enhancer e = enhancer(ArrayList.class, newLoader());
+        try {
+            new BatchGenerator().generate(Arrays.asList(new Enhancer[]{ e, e }));
+            fail("expected a generator to be used by one task only");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testEnhancerWithCallbacks() {
+        ClassLoader loader = newLoader();
+        Enhancer e = new Enhancer();
+        e.setSuperclass(ArrayList.class);
+        e.setCallbacks(new Callback[]{ NoOp.INSTANCE });
+        e.setClassLoader(loader);
+        BatchGenerator.Report report = new BatchGenerator().generate(Collections.singletonList(e));
+        assertEquals(report.toString(), 0, report.getFailures().size());
+        Class type = (Class)((BatchGenerator.Result)report.getResults().get(0)).getValue();
+        // the generator still creates instances of the class it generated
+        Object proxy = e.create();
+        assertSame(type, proxy.getClass());
+        assertSame(type, enhancer(ArrayList.class, loader).createClass());
+    }
+
+    public void testExecutor() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ClassLoader loader = newLoader();
+            List generators = new ArrayList();
+            for (int i = 0; i < TYPES.length; i++) {
+                generators.add(enhancer(TYPES[i], loader));
+            }
+            BatchGenerator.Report report = new BatchGenerator(executor).generate(generators);
+            assertEquals(report.toString(), 0, report.getFailures().size());
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public TestBatchGenerator(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestBatchGenerator.class);
+    }
+}
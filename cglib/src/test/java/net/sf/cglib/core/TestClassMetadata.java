@@ -0,0 +1,108 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.*;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.NoOp;
+import org.objectweb.asm.Type;
+
+public class TestClassMetadata extends TestCase {
+    public static abstract class Sample implements Serializable, Comparable {
+        public Sample() {
+        }
+
+        protected Sample(String name) throws IOException {
+        }
+
+        public static int parse(String s) {
+            return 0;
+        }
+
+        protected abstract long size(int[] a, List b);
+
+        synchronized void touch() throws IOException, InterruptedException {
+        }
+
+        private Object hidden() {
+            return null;
+        }
+
+        public int compareTo(Object o) {
+            return 0;
+        }
+    }
+
+    private static Map describe(List methods) {
+        Map map = new HashMap();
+        for (Iterator it = methods.iterator(); it.hasNext();) {
+            MethodInfo method = (MethodInfo)it.next();
+            map.put(method.getClassInfo().getType() + "." + method.getSignature(),
+                    method.getModifiers() + " " + Arrays.asList(method.getExceptionTypes()));
+        }
+        return map;
+    }
+
+    private static List reflect(List members) {
+        return CollectionUtils.transform(members, MethodInfoTransformer.getInstance());
+    }
+
+    private static void assertSameMethods(Class type) {
+        assertEquals(describe(reflect(ReflectUtils.addAllMethods(type, new ArrayList()))),
+                     describe(ClassMetadata.addAllMethods(type, new ArrayList())));
+        assertEquals(describe(reflect(Arrays.asList(type.getDeclaredConstructors()))),
+                     describe(ClassMetadata.get(type).getDeclaredConstructors()));
+    }
+
+    public void testMatchesReflection() {
+        assertSameMethods(Sample.class);
+        assertSameMethods(Object.class);
+        assertSameMethods(ArrayList.class);
+        assertSameMethods(Runnable.class);
+    }
+
+    public void testOrder() {
+        List methods = ClassMetadata.addAllMethods(Sample.class, new ArrayList());
+        int declared = Sample.class.getDeclaredMethods().length;
+        for (int i = 0; i < methods.size(); i++) {
+            Type owner = ((MethodInfo)methods.get(i)).getClassInfo().getType();
+            assertEquals(i < declared, owner.equals(Type.getType(Sample.class)));
+        }
+        assertSame(ClassMetadata.get(Sample.class), ClassMetadata.get(Sample.class));
+    }
+
+    public void testGeneratedClass() {
+        // no class file to read, falls back to reflection
+        assertSameMethods(Enhancer.create(ArrayList.class, NoOp.INSTANCE).getClass());
+    }
+
+    public TestClassMetadata(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestClassMetadata.class);
+    }
+}
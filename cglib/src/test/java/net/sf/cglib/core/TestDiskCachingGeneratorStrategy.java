@@ -0,0 +1,173 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import junit.framework.*;
+import net.sf.cglib.proxy.CallbackFilter;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.NoOp;
+
+public class TestDiskCachingGeneratorStrategy extends net.sf.cglib.CodeGenTestCase {
+    public static class Target {
+        public String getName() {
+            return "target";
+        }
+    }
+
+    public static class Child extends Target implements Runnable {
+        public void run() {
+        }
+    }
+
+    public static class IndexFilter implements CallbackFilter {
+        private final int index;
+
+        public IndexFilter(int index) {
+            this.index = index;
+        }
+
+        public int accept(Method method) {
+            return method.getName().equals("getName") ? index : 0;
+        }
+
+        public String toString() {
+            // same for every instance, must not be used as the cache key
+            return "IndexFilter";
+        }
+    }
+
+    private File directory;
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("cglib", "cache");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    private Target create(GeneratorStrategy strategy) {
+        return create(strategy, Target.class);
+    }
+
+    private Target create(GeneratorStrategy strategy, Class superclass) {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(superclass);
+        e.setCallback(NoOp.INSTANCE);
+        e.setStrategy(strategy);
+        // fresh loader, so that the in-memory cache does not hide the strategy
+        e.setClassLoader(new ClassLoader(Target.class.getClassLoader()) { });
+        return (Target)e.create();
+    }
+
+    public void testHitInAnotherLoader() throws Exception {
+        DiskCachingGeneratorStrategy strategy = new DiskCachingGeneratorStrategy(directory);
+        Target first = create(strategy);
+        assertEquals(0, strategy.getHitCount());
+        assertEquals(1, strategy.getMissCount());
+        assertEquals(1, directory.listFiles().length);
+
+        Target second = create(strategy);
+        assertEquals(1, strategy.getHitCount());
+        assertEquals(1, strategy.getMissCount());
+        assertEquals("target", second.getName());
+        assertEquals(first.getClass().getName(), second.getClass().getName());
+        assertNotSame(first.getClass(), second.getClass());
+    }
+
+    public void testCorruptEntryIsMiss() throws Exception {
+        DiskCachingGeneratorStrategy strategy = new DiskCachingGeneratorStrategy(directory);
+        create(strategy);
+        File entry = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(entry, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+
+        assertEquals("target", create(strategy).getName());
+        assertEquals(0, strategy.getHitCount());
+        assertEquals(2, strategy.getMissCount());
+
+        // the entry has been rewritten
+        create(strategy);
+        assertEquals(1, strategy.getHitCount());
+    }
+
+    public void testStatefulKeyIsNotStored() throws Exception {
+        DiskCachingGeneratorStrategy strategy = new DiskCachingGeneratorStrategy(directory);
+        for (int i = 0; i < 2; i++) {
+            Enhancer e = new Enhancer();
+            e.setSuperclass(Target.class);
+            e.setCallbackTypes(new Class[]{ NoOp.class, NoOp.class });
+            e.setCallbackFilter(new IndexFilter(i));
+            e.setStrategy(strategy);
+            e.setClassLoader(new ClassLoader(Target.class.getClassLoader()) { });
+            e.createClass();
+        }
+        assertEquals(0, strategy.getHitCount());
+        assertEquals(2, strategy.getMissCount());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    public void testRecordsAllSupertypes() throws Exception {
+        create(new DiskCachingGeneratorStrategy(directory), Child.class);
+        DataInputStream in = new DataInputStream(new FileInputStream(directory.listFiles()[0]));
+        Set dependencies = new HashSet();
+        try {
+            in.readInt(); // magic
+            in.readInt(); // version
+            in.readUTF(); // cglib digest
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                dependencies.add(in.readUTF());
+                in.readUTF();
+            }
+        } finally {
+            in.close();
+        }
+        assertTrue(dependencies.contains(Child.class.getName()));
+        assertTrue(dependencies.contains(Target.class.getName()));
+        assertTrue(dependencies.contains(Runnable.class.getName()));
+        assertTrue(dependencies.contains(Object.class.getName()));
+        assertTrue(dependencies.contains(Enhancer.class.getName()));
+    }
+
+    public TestDiskCachingGeneratorStrategy(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestDiskCachingGeneratorStrategy.class);
+    }
+
+    public void perform(ClassLoader loader) throws Throwable {
+    }
+}
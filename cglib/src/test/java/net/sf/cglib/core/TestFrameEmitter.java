@@ -0,0 +1,147 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.lang.reflect.Method;
+import junit.framework.*;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+
+public class TestFrameEmitter extends net.sf.cglib.CodeGenTestCase {
+    private static int counter;
+
+    private String className;
+
+    protected void setUp() {
+        className = "net.sf.cglib.core.FrameEmitterTarget" + (counter++);
+    }
+
+    private byte[] write(int flags, boolean mergeUnrelated) {
+        DebuggingClassWriter cw = new DebuggingClassWriter(flags);
+        emit(cw, mergeUnrelated);
+        return cw.toByteArray();
+    }
+
+    private void emit(ClassVisitor cv, boolean mergeUnrelated) {
+        ClassEmitter ce = new ClassEmitter(cv);
+        ce.begin_class(Constants.V1_8, Constants.ACC_PUBLIC, className, null, null, null);
+
+        // int sum(int n): for (i = 0; i < n; i++) s += i;
+        CodeEmitter e = ce.begin_method(Constants.ACC_PUBLIC | Constants.ACC_STATIC,
+                                        TypeUtils.parseSignature("int sum(int)"), null);
+        Local i = e.make_local(Type.INT_TYPE);
+        Local s = e.make_local(Type.INT_TYPE);
+        e.push(0);
+        e.store_local(i);
+        e.push(0);
+        e.store_local(s);
+        Label body = e.make_label();
+        Label test = e.make_label();
+        e.goTo(test);
+        e.mark(body);
+        e.load_local(s);
+        e.load_local(i);
+        e.math(CodeEmitter.ADD, Type.INT_TYPE);
+        e.store_local(s);
+        e.iinc(i, 1);
+        e.mark(test);
+        e.load_local(i);
+        e.load_arg(0);
+        e.if_icmp(CodeEmitter.LT, body);
+        e.load_local(s);
+        e.return_value();
+        e.end_method();
+
+        // Object pick(boolean b): return b ? "yes" : null;
+        e = ce.begin_method(Constants.ACC_PUBLIC | Constants.ACC_STATIC,
+                            TypeUtils.parseSignature("Object pick(boolean)"), null);
+        Label no = e.make_label();
+        Label end = e.make_label();
+        e.load_arg(0);
+        e.if_jump(CodeEmitter.EQ, no);
+        e.push("yes");
+        e.goTo(end);
+        e.mark(no);
+        if (mergeUnrelated) {
+            e.push(1);
+            e.box(Type.INT_TYPE);
+        } else {
+            e.aconst_null();
+        }
+        e.mark(end);
+        e.return_value();
+        e.end_method();
+
+        ce.end_class();
+    }
+
+    public void testFramesMatchAsm() throws Exception {
+        byte[] emitted = write(DebuggingClassWriter.EMIT_FRAMES, false);
+        byte[] computed = write(ClassWriter.COMPUTE_FRAMES, false);
+        assertNull(FrameEmitter.compareFrames(computed, emitted));
+
+        Class c = ReflectUtils.defineClass(className, emitted, new ClassLoader(getClass().getClassLoader()) { });
+        Method sum = c.getMethod("sum", new Class[]{ Integer.TYPE });
+        assertEquals(new Integer(45), sum.invoke(null, new Object[]{ new Integer(10) }));
+        Method pick = c.getMethod("pick", new Class[]{ Boolean.TYPE });
+        assertEquals("yes", pick.invoke(null, new Object[]{ Boolean.TRUE }));
+        assertNull(pick.invoke(null, new Object[]{ Boolean.FALSE }));
+    }
+
+    public void testUnrelatedTypesAreUnsupported() throws Exception {
+        try {
+            write(DebuggingClassWriter.EMIT_FRAMES, true);
+            fail("expected UnsupportedCodeException");
+        } catch (FrameEmitter.UnsupportedCodeException e) {
+            // expected, the frame would need the common super class of String and Integer
+        }
+        // the class can still be written by ASM
+        write(ClassWriter.COMPUTE_FRAMES, true);
+    }
+
+    public void testUnsupportedCodeIsGeneratedOnce() throws Exception {
+        final int[] calls = new int[1];
+        byte[] b = DefaultGeneratorStrategy.INSTANCE.generate(new ClassGenerator() {
+            public void generateClass(ClassVisitor v) {
+                calls[0]++;
+                emit(v, true);
+            }
+        });
+        assertEquals(1, calls[0]);
+        Class c = ReflectUtils.defineClass(className, b, new ClassLoader(getClass().getClassLoader()) { });
+        Method sum = c.getMethod("sum", new Class[]{ Integer.TYPE });
+        assertEquals(new Integer(45), sum.invoke(null, new Object[]{ new Integer(10) }));
+        Method pick = c.getMethod("pick", new Class[]{ Boolean.TYPE });
+        assertEquals(new Integer(1), pick.invoke(null, new Object[]{ Boolean.FALSE }));
+    }
+
+    public TestFrameEmitter(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestFrameEmitter.class);
+    }
+
+    public void perform(ClassLoader loader) throws Throwable {
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.io.Serializable;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.Future;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.sf.cglib.beans.BeanCopier;
+import net.sf.cglib.proxy.CallbackFilter;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.FixedValue;
+import net.sf.cglib.proxy.NoOp;
+import net.sf.cglib.reflect.FastClass;
+
+public class TestGenerationManifest extends TestCase {
+    public static class Loader extends ClassLoader {
+        public Loader() {
+            super(TestGenerationManifest.class.getClassLoader());
+        }
+    }
+
+    public static class SizeFilter implements CallbackFilter {
+        public int accept(Method method) {
+            return method.getName().equals("size") ? 1 : 0;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof SizeFilter;
+        }
+
+        public int hashCode() {
+            return 1;
+        }
+    }
+
+    public static class Bean {
+        private int value;
+
+        public int getValue() {
+            return value;
+        }
+
+        public void setValue(int value) {
+            this.value = value;
+        }
+    }
+
+    private static Enhancer enhancer(ClassLoader loader) {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(ArrayList.class);
+        e.setInterfaces(new Class[]{ Serializable.class });
+        e.setCallbackFilter(new SizeFilter());
+        e.setCallbackTypes(new Class[]{ NoOp.class, FixedValue.class });
+        e.setUseFactory(false);
+        e.setSerialVersionUID(new Long(42));
+        e.setClassLoader(loader);
+        return e;
+    }
+
+    private static FastClass.Generator fastClass(ClassLoader loader) {
+        FastClass.Generator gen = new FastClass.Generator();
+        gen.setType(LinkedList.class);
+        gen.setSpecializedEntryPoints(true);
+        gen.setClassLoader(loader);
+        return gen;
+    }
+
+    private static BeanCopier.Generator beanCopier(ClassLoader loader) {
+        BeanCopier.Generator gen = new BeanCopier.Generator();
+        gen.setSource(Bean.class);
+        gen.setTarget(Bean.class);
+        gen.setUseConverter(true);
+        gen.setClassLoader(loader);
+        return gen;
+    }
+
+    private static GenerationManifest record(ClassLoader loader) {
+        GenerationManifest manifest = new GenerationManifest();
+        AbstractClassGenerator.setRecordingManifest(manifest);
+        try {
+            enhancer(loader).createClass();
+            fastClass(loader).create();
+            beanCopier(loader).create();
+            // an anonymous filter cannot be created again
+            Enhancer e = new Enhancer();
+            e.setSuperclass(HashMap.class);
+            e.setCallbackFilter(new CallbackFilter() {
+                public int accept(Method method) {
+                    return 0;
+                }
+            });
+            e.setCallbackType(NoOp.class);
+            e.setClassLoader(loader);
+            e.createClass();
+        } finally {
+            AbstractClassGenerator.setRecordingManifest(null);
+        }
+        return manifest;
+    }
+
+    public void testRecord() {
+        List entries = record(new Loader()).getEntries();
+        assertEquals(entries.toString(), 3, entries.size());
+        assertEquals(Enhancer.class.getName() + " loader=" + Loader.class.getName() +
+                     " superclass=java.util.ArrayList interfaces=java.io.Serializable callbackFilter=" +
+                     SizeFilter.class.getName() + " callbackTypes=" + NoOp.class.getName() + "," +
+                     FixedValue.class.getName() + " useFactory=false serialVersionUID=42",
+                     entries.get(0));
+        assertEquals(FastClass.Generator.class.getName() + " loader=" + Loader.class.getName() +
+                     " type=java.util.LinkedList specialized=true",
+                     entries.get(1));
+    }
+
+    public void testReplay() throws Exception {
+        StringWriter out = new StringWriter();
+        record(new Loader()).write(out);
+        GenerationManifest manifest = GenerationManifest.read(new StringReader(out.toString()));
+        assertEquals(3, manifest.size());
+
+        // only the entries of the same kind of loader
+        assertTrue(manifest.replay(new ClassLoader(getClass().getClassLoader()){}).isEmpty());
+
+        ClassLoader loader = new Loader();
+        List futures = manifest.replay(loader);
+        assertEquals(3, futures.size());
+        assertSame(((Future)futures.get(0)).get(), enhancer(loader).createClass());
+        assertSame(((Future)futures.get(1)).get().getClass(), fastClass(loader).create().getClass());
+        assertSame(((Future)futures.get(2)).get().getClass(), beanCopier(loader).create().getClass());
+    }
+
+    public void testMissingClass() throws Exception {
+        GenerationManifest manifest = GenerationManifest.read(new StringReader(
+            "# cglib generation manifest\n" +
+            FastClass.Generator.class.getName() + " loader=" + Loader.class.getName() + " type=com.example.Missing\n"));
+        assertEquals(1, manifest.size());
+        assertTrue(manifest.replay(new Loader()).isEmpty());
+    }
+
+    public TestGenerationManifest(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestGenerationManifest.class);
+    }
+}
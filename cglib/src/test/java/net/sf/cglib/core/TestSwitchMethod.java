@@ -0,0 +1,265 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.sf.cglib.beans.BeanGenerator;
+import net.sf.cglib.beans.BeanMap;
+import net.sf.cglib.reflect.FastClass;
+import net.sf.cglib.transform.TransformingClassGenerator;
+import net.sf.cglib.transform.impl.FieldProvider;
+import net.sf.cglib.transform.impl.FieldProviderTransformer;
+
+/**
+ * Checks that the switches over the members of large classes are split into methods
+ * no larger than the <code>cglib.maxMethodSize</code> system property, 8000 bytes by default.
+ */
+public class TestSwitchMethod extends TestCase {
+    private static final int MAX_METHOD_SIZE = Integer.getInteger("cglib.maxMethodSize", 8000).intValue();
+    private static final int PROPERTIES = 500;
+    private static final Class[] TYPES = { String.class, Integer.TYPE, Long.TYPE, Object.class };
+
+    private static class RecordingStrategy extends DefaultGeneratorStrategy {
+        final List classes = new ArrayList();
+        private final boolean provideFields;
+
+        RecordingStrategy(boolean provideFields) {
+            this.provideFields = provideFields;
+        }
+
+        protected ClassGenerator transform(ClassGenerator cg) throws Exception {
+            return provideFields ? new TransformingClassGenerator(cg, new FieldProviderTransformer()) : cg;
+        }
+
+        protected byte[] transform(byte[] b) {
+            classes.add(b);
+            return b;
+        }
+    }
+
+    private static Class largeBean(String prefix, GeneratorStrategy strategy) {
+        BeanGenerator gen = new BeanGenerator();
+        for (int i = 0; i < PROPERTIES; i++) {
+            gen.addProperty(prefix + i, TYPES[i % TYPES.length]);
+        }
+        if (strategy != null) {
+            gen.setStrategy(strategy);
+            gen.setUseCache(false);
+        }
+        return (Class)gen.createClass();
+    }
+
+    private static Object value(int i) {
+        switch (i % TYPES.length) {
+        case 0: return "v" + i;
+        case 1: return new Integer(i);
+        case 2: return new Long(i);
+        default: return new StringBuffer("o" + i);
+        }
+    }
+
+    public void testFastClass() throws Throwable {
+        Class type = largeBean("fast", null);
+        RecordingStrategy strategy = new RecordingStrategy(false);
+        FastClass.Generator gen = new FastClass.Generator();
+        gen.setType(type);
+        gen.setStrategy(strategy);
+        gen.setUseCache(false);
+        gen.setSpecializedEntryPoints(true);
+        FastClass fc = gen.create();
+        assertMethodSizes(strategy, "invoke");
+
+        Object bean = type.newInstance();
+        for (int i = 0; i < PROPERTIES; i++) {
+            String suffix = Character.toUpperCase(("fast" + i).charAt(0)) + ("fast" + i).substring(1);
+            Class[] parameterTypes = { TYPES[i % TYPES.length] };
+            fc.invoke("set" + suffix, parameterTypes, bean, new Object[]{ value(i) });
+            assertEquals(value(i).toString(), String.valueOf(fc.invoke("get" + suffix, new Class[0], bean, new Object[0])));
+            assertEquals(value(i).toString(), String.valueOf(fc.invoke0(fc.getIndex("get" + suffix, new Class[0]), bean)));
+        }
+        assertNotNull(fc.newInstance());
+        try {
+            fc.invoke(-1, bean, new Object[0]);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            fc.invoke(fc.getMaxIndex() + 1, bean, new Object[0]);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testBeanMap() throws Exception {
+        Class type = largeBean("map", null);
+        RecordingStrategy strategy = new RecordingStrategy(false);
+        BeanMap.Generator gen = new BeanMap.Generator();
+        gen.setBeanClass(type);
+        gen.setStrategy(strategy);
+        gen.setUseCache(false);
+        BeanMap map = gen.create();
+        assertMethodSizes(strategy, "get");
+
+        map.setBean(type.newInstance());
+        for (int i = 0; i < PROPERTIES; i++) {
+            assertEquals(TYPES[i % TYPES.length], map.getPropertyType("map" + i));
+            map.put("map" + i, value(i));
+            assertEquals(value(i).toString(), String.valueOf(map.get("map" + i)));
+        }
+        assertNull(map.get("missing"));
+        assertNull(map.getPropertyType("missing"));
+    }
+
+    public void testFieldProvider() throws Exception {
+        RecordingStrategy strategy = new RecordingStrategy(true);
+        Class type = largeBean("field", strategy);
+        assertMethodSizes(strategy, "getField");
+
+        FieldProvider provider = (FieldProvider)type.newInstance();
+        String[] names = provider.getFieldNames();
+        assertEquals(PROPERTIES, names.length);
+        for (int i = 0; i < names.length; i++) {
+            int kind = Arrays.asList(TYPES).indexOf(provider.getFieldTypes()[i]);
+            Object value = value(kind);
+            provider.setField(names[i], value);
+            assertEquals(value, provider.getField(i));
+            Object other = value(kind + TYPES.length);
+            provider.setField(i, other);
+            assertEquals(other, provider.getField(names[i]));
+        }
+        try {
+            provider.getField("missing");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Fails if a method of the recorded classes has more code than the budget, or if the
+     * given method was not split.
+     */
+    private static void assertMethodSizes(RecordingStrategy strategy, String split) throws IOException {
+        assertFalse(strategy.classes.isEmpty());
+        for (Iterator it = strategy.classes.iterator(); it.hasNext();) {
+            Map sizes = getCodeLengths((byte[])it.next());
+            for (Iterator entries = sizes.entrySet().iterator(); entries.hasNext();) {
+                Map.Entry entry = (Map.Entry)entries.next();
+                String name = (String)entry.getKey();
+                if (name.equals(Constants.STATIC_NAME) || name.startsWith("CGLIB$STATICHOOK")) {
+                    // run once, the size does not matter
+                    continue;
+                }
+                int size = ((Integer)entry.getValue()).intValue();
+                assertTrue(name + " has " + size + " bytes of code", size <= MAX_METHOD_SIZE);
+            }
+            assertTrue(sizes.keySet().toString(), sizes.containsKey("CGLIB$" + split + "$0"));
+        }
+    }
+
+    /**
+     * Reads the length of the code of each method from a class file, by name. Overloaded
+     * methods are reported under the same name.
+     */
+    private static Map getCodeLengths(byte[] b) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+        in.readInt(); // magic
+        in.readInt(); // version
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1:
+                utf8[i] = in.readUTF();
+                break;
+            case 5:
+            case 6:
+                in.skipBytes(8);
+                i++;
+                break;
+            case 7:
+            case 8:
+            case 16:
+            case 19:
+            case 20:
+                in.skipBytes(2);
+                break;
+            case 15:
+                in.skipBytes(3);
+                break;
+            default:
+                in.skipBytes(4);
+            }
+        }
+        in.skipBytes(6); // access, this and super classes
+        in.skipBytes(2 * in.readUnsignedShort());
+        skipMembers(in);
+        Map sizes = new HashMap();
+        int methods = in.readUnsignedShort();
+        for (int i = 0; i < methods; i++) {
+            in.skipBytes(2);
+            String name = utf8[in.readUnsignedShort()];
+            in.skipBytes(2);
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String attribute = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if (attribute.equals("Code")) {
+                    in.skipBytes(4); // max stack and locals
+                    Integer size = new Integer(in.readInt());
+                    Integer previous = (Integer)sizes.get(name);
+                    if (previous == null || previous.intValue() < size.intValue()) {
+                        sizes.put(name, size);
+                    }
+                    in.skipBytes(length - 8);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+        }
+        return sizes;
+    }
+
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int members = in.readUnsignedShort();
+        for (int i = 0; i < members; i++) {
+            in.skipBytes(6);
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                in.skipBytes(2);
+                in.skipBytes(in.readInt());
+            }
+        }
+    }
+
+    public TestSwitchMethod(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestSwitchMethod.class);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core.internal;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class TestClassCache extends TestCase {
+    private final Map counts = new HashMap();
+
+    private final ClassCache<Object> cache = new ClassCache<Object>(new Function<Class, Object>() {
+        public Object apply(Class type) {
+            synchronized (counts) {
+                Integer count = (Integer)counts.get(type);
+                counts.put(type, new Integer(count == null ? 1 : count.intValue() + 1));
+            }
+            return new Object();
+        }
+    });
+
+    private int count(Class type) {
+        synchronized (counts) {
+            Integer count = (Integer)counts.get(type);
+            return count == null ? 0 : count.intValue();
+        }
+    }
+
+    public void testClassOfCglibLoader() {
+        Object value = cache.get(TestClassCache.class);
+        assertSame(value, cache.get(TestClassCache.class));
+        assertEquals(1, count(TestClassCache.class));
+    }
+
+    public void testClassOfJdk() {
+        Object value = cache.get(String.class);
+        assertSame(value, cache.get(String.class));
+        assertEquals(1, count(String.class));
+    }
+
+    public void testClassOfUnrelatedLoader() throws Exception {
+        URL location = TestClassCache.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader unrelated = new URLClassLoader(new URL[]{ location }, null);
+        Class type = unrelated.loadClass(Target.class.getName());
+        assertNotSame(Target.class, type);
+        Object value = cache.get(type);
+        assertSame(value, cache.get(type));
+        assertNotSame(value, cache.get(Target.class));
+    }
+
+    public static class Target {
+    }
+
+    public TestClassCache(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestClassCache.class);
+    }
+}
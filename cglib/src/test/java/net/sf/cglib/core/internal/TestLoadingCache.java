@@ -0,0 +1,135 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.core.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.sf.cglib.core.CacheStats;
+
+public class TestLoadingCache extends TestCase {
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final Function<Integer, String> loader = new Function<Integer, String>() {
+        public String apply(Integer key) {
+            loads.incrementAndGet();
+            return "value" + key;
+        }
+    };
+
+    private LoadingCache<Integer, Integer, String> newCache(int maximumSize) {
+        return new LoadingCache<Integer, Integer, String>(LoadingCache.<Integer>identity(), loader, maximumSize);
+    }
+
+    public void testStats() {
+        LoadingCache<Integer, Integer, String> cache = newCache(0);
+        assertEquals("value1", cache.get(1));
+        assertEquals("value1", cache.get(1));
+        assertEquals("value2", cache.get(2));
+        CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(2, stats.getLoadCount());
+        assertEquals(0, stats.getEvictionCount());
+    }
+
+    public void testUnboundedKeepsEverything() {
+        LoadingCache<Integer, Integer, String> cache = newCache(0);
+        for (int i = 0; i < 100; i++) {
+            cache.get(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            cache.get(i);
+        }
+        assertEquals(100, loads.get());
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        LoadingCache<Integer, Integer, String> cache = newCache(2);
+        cache.get(1);
+        cache.get(2);
+        cache.get(1);
+        cache.get(3); // evicts 2, since 1 has been read since it was loaded
+        assertEquals(1, cache.getStats().getEvictionCount());
+        assertEquals(3, loads.get());
+        assertEquals("value1", cache.get(1));
+        assertEquals(3, loads.get());
+        assertEquals("value2", cache.get(2));
+        assertEquals(4, loads.get());
+        assertTrue(cache.map.size() <= 2);
+    }
+
+    public void testKeepsEntriesThatAreNotEvictable() {
+        LoadingCache<Integer, Integer, String> cache =
+                new LoadingCache<Integer, Integer, String>(LoadingCache.<Integer>identity(), loader, 2) {
+                    protected boolean isEvictable(Integer key, String value) {
+                        return key.intValue() % 2 == 0;
+                    }
+                };
+        for (int i = 0; i < 10; i++) {
+            cache.get(i);
+        }
+        assertEquals(3, cache.getStats().getEvictionCount());
+        for (int i = 1; i < 10; i += 2) {
+            cache.get(i);
+        }
+        assertEquals(10, loads.get());
+        assertEquals(7, cache.map.size());
+        String value = cache.get(1);
+        cache.remove(1, value);
+        assertEquals("value1", cache.get(1));
+        assertEquals(11, loads.get());
+    }
+
+    public void testRemoveFromBoundedCache() {
+        LoadingCache<Integer, Integer, String> cache = newCache(2);
+        String value = cache.get(1);
+        cache.remove(1, value);
+        assertEquals("value1", cache.get(1));
+        assertEquals(2, loads.get());
+    }
+
+    public void testFailedLoad() {
+        LoadingCache<Integer, Integer, String> cache = new LoadingCache<Integer, Integer, String>(
+                LoadingCache.<Integer>identity(),
+                new Function<Integer, String>() {
+                    public String apply(Integer key) {
+                        throw new IllegalArgumentException("key " + key);
+                    }
+                });
+        try {
+            cache.get(1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(0, cache.getStats().getLoadCount());
+        assertEquals(1, cache.getStats().getLoadExceptionCount());
+    }
+
+    public TestLoadingCache(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestLoadingCache.class);
+    }
+}
@@ -28,6 +28,7 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import junit.framework.Test;
@@ -35,7 +36,10 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import net.sf.cglib.CodeGenTestCase;
 import net.sf.cglib.core.AbstractClassGenerator;
+import net.sf.cglib.core.CacheStats;
 import net.sf.cglib.core.DefaultNamingPolicy;
+import net.sf.cglib.core.GenerationEvent;
+import net.sf.cglib.core.GenerationListener;
 import net.sf.cglib.core.NamingPolicy;
 import net.sf.cglib.core.Predicate;
 import net.sf.cglib.core.ReflectUtils;
@@ -726,6 +730,172 @@ public class TestEnhancer extends CodeGenTestCase {
       assertEquals("Class name should match the one returned by NamingPolicy", desiredClassName, proxied.getName());
     }
 
+    public void testConstantNamingPolicyWithoutCache() throws Throwable {
+      ClassLoader loader = new ClassLoader(this.getClass().getClassLoader()){};
+      NamingPolicy constant = new NamingPolicy() {
+        public String getClassName(String prefix, String source, Object key, Predicate names) {
+          return "net.sf.cglib.empty.Object$$43";
+        }
+      };
+      Class[] classes = new Class[2];
+      for (int i = 0; i < classes.length; i++) {
+        Enhancer e = new Enhancer();
+        e.setCallback(NoOp.INSTANCE);
+        e.setClassLoader(loader);
+        e.setNamingPolicy(constant);
+        e.setUseCache(false);
+        e.setAttemptLoad(true);
+        classes[i] = e.create().getClass();
+      }
+      assertSame("the second generator should load the existing class", classes[0], classes[1]);
+
+      Enhancer e = new Enhancer();
+      e.setCallback(NoOp.INSTANCE);
+      e.setClassLoader(loader);
+      e.setNamingPolicy(constant);
+      e.setUseCache(false);
+      try {
+        e.create();
+        fail("the name is taken and the class may not be loaded");
+      } catch (IllegalStateException expected) {
+      }
+    }
+
+    public void testCacheStats() throws Throwable {
+      ClassLoader loader = new ClassLoader(this.getClass().getClassLoader()){};
+      CacheStats stats = AbstractClassGenerator.getCacheStats(Enhancer.class);
+      long hits = stats.getHitCount();
+      long loads = stats.getLoadCount();
+      enhance(Source.class, null, NoOp.INSTANCE, loader);
+      assertEquals(loads + 1, stats.getLoadCount());
+      enhance(Source.class, null, NoOp.INSTANCE, loader);
+      assertEquals(loads + 1, stats.getLoadCount());
+      assertTrue(stats.getHitCount() > hits);
+    }
+
+    public void testGenerationListener() throws Throwable {
+      ClassLoader loader = new ClassLoader(this.getClass().getClassLoader()){};
+      final List events = new ArrayList();
+      GenerationListener listener = new GenerationListener() {
+          public void onEvent(GenerationEvent event) {
+              if (event.getGeneratorType().equals(Enhancer.class.getName())) {
+                  synchronized (events) {
+                      events.add(event);
+                  }
+              }
+          }
+      };
+      AbstractClassGenerator.addGenerationListener(listener);
+      try {
+        Object proxy = enhance(Source.class, null, NoOp.INSTANCE, loader);
+        enhance(Source.class, null, NoOp.INSTANCE, loader);
+        String name = proxy.getClass().getName();
+        List types = new ArrayList();
+        int byteSize = -1;
+        for (Iterator it = events.iterator(); it.hasNext();) {
+          GenerationEvent event = (GenerationEvent)it.next();
+          types.add(event.getTypeName());
+          assertSame(loader, event.getClassLoader());
+          assertTrue(event.getDuration() >= 0);
+          if (event.getType() != GenerationEvent.CACHE_HIT) {
+            assertEquals(name, event.getClassName());
+          }
+          if (event.getType() == GenerationEvent.TO_BYTE_ARRAY) {
+            byteSize = event.getByteSize();
+          }
+          if (event.getType() == GenerationEvent.DEFINE_CLASS) {
+            assertEquals(byteSize, event.getByteSize());
+          }
+        }
+        assertTrue(byteSize > 0);
+        assertEquals(Arrays.asList(new String[]{
+            "RESERVE_NAME", "GENERATE_CLASS", "TO_BYTE_ARRAY", "DEFINE_CLASS", "INITIALIZE_CLASS",
+            "CACHE_MISS", "CACHE_HIT",
+        }), types);
+      } finally {
+        AbstractClassGenerator.removeGenerationListener(listener);
+      }
+      events.clear();
+      enhance(Source.class, null, NoOp.INSTANCE, loader);
+      assertTrue(events.isEmpty());
+    }
+
+    public void testFlightRecorderEvents() throws Throwable {
+      try {
+        Class.forName("jdk.jfr.Recording");
+      } catch (ClassNotFoundException e) {
+        return;
+      }
+      ClassLoader loader = new ClassLoader(this.getClass().getClassLoader()){};
+      java.io.File file = java.io.File.createTempFile("cglib", ".jfr");
+      jdk.jfr.Recording recording = new jdk.jfr.Recording();
+      try {
+        recording.enable("net.sf.cglib.ClassGeneration");
+        recording.start();
+        enhance(Source.class, null, NoOp.INSTANCE, loader);
+        recording.stop();
+        recording.dump(file.toPath());
+        List steps = new ArrayList();
+        List events = jdk.jfr.consumer.RecordingFile.readAllEvents(file.toPath());
+        for (Iterator it = events.iterator(); it.hasNext();) {
+          jdk.jfr.consumer.RecordedEvent event = (jdk.jfr.consumer.RecordedEvent)it.next();
+          if (Enhancer.class.getName().equals(event.getString("generator"))) {
+            steps.add(event.getString("step"));
+          }
+        }
+        assertTrue(steps.toString(), steps.contains("DEFINE_CLASS"));
+        assertTrue(steps.toString(), steps.contains("CACHE_MISS"));
+      } finally {
+        recording.close();
+        file.delete();
+      }
+    }
+
+    public void testConcurrentGenerationInOneLoader() throws Throwable {
+      final ClassLoader loader = new ClassLoader(this.getClass().getClassLoader()){};
+      final int threads = 8;
+      final int perThread = 8;
+      final Class[] classes = new Class[threads * perThread];
+      final Throwable[] failure = new Throwable[1];
+      final java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; t++) {
+        final int offset = t * perThread;
+        workers[t] = new Thread() {
+          public void run() {
+            try {
+              start.await();
+              for (int i = offset; i < offset + perThread; i++) {
+                Enhancer e = new Enhancer();
+                e.setSerialVersionUID(new Long(i));
+                e.setCallback(NoOp.INSTANCE);
+                e.setClassLoader(loader);
+                classes[i] = e.create().getClass();
+              }
+            } catch (Throwable ex) {
+              synchronized (failure) {
+                failure[0] = ex;
+              }
+            }
+          }
+        };
+        workers[t].start();
+      }
+      start.countDown();
+      for (int t = 0; t < threads; t++) {
+        workers[t].join();
+      }
+      if (failure[0] != null) {
+        throw failure[0];
+      }
+      java.util.Set names = new java.util.HashSet();
+      for (int i = 0; i < classes.length; i++) {
+        assertSame(loader, classes[i].getClassLoader());
+        names.add(classes[i].getName());
+      }
+      assertEquals("every generated class should get a distinct name", classes.length, names.size());
+    }
+
     public static Object enhance(Class cls, Class interfaces[], Callback callback, ClassLoader loader) {
         Enhancer e = new Enhancer();
         e.setSuperclass(cls);
@@ -1059,7 +1229,360 @@ public class TestEnhancer extends CodeGenTestCase {
         e.setInterceptDuringConstruction(false);
         assertEquals("foo", ((ConstructorCall)e.create()).x);
     }
-    
+
+    public static class InjectTarget {
+        private String x;
+        public InjectTarget() {
+            this("none");
+        }
+        public InjectTarget(String prefix) {
+            x = prefix + toString();
+        }
+        public String toString() {
+            return "foo";
+        }
+    }
+
+    public static class InjectConflict {
+        public InjectConflict() {
+        }
+        public InjectConflict(Callback[] callbacks) {
+        }
+    }
+
+    public void testInjectCallbacks() throws Exception {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(InjectTarget.class);
+        e.setCallback(new FixedValue() {
+            public Object loadObject() {
+                return "bar";
+            }
+        });
+        e.setInjectCallbacks(true);
+        InjectTarget obj = (InjectTarget)e.create(new Class[]{ String.class }, new Object[]{ "a" });
+        assertEquals("abar", obj.x);
+        assertNotNull(obj.getClass().getConstructor(new Class[]{ String.class, Callback[].class }));
+        assertThreadLocalCallbacks(obj.getClass());
+
+        Callback[] callbacks = new Callback[]{ new FixedValue() {
+            public Object loadObject() {
+                return "baz";
+            }
+        }};
+        Factory factory = (Factory)obj;
+        assertEquals("nonebaz", ((InjectTarget)factory.newInstance(callbacks)).x);
+        assertEquals("nonebaz", ((InjectTarget)factory.newInstance(callbacks[0])).x);
+        assertEquals("bbaz", ((InjectTarget)factory.newInstance(new Class[]{ String.class }, new Object[]{ "b" }, callbacks)).x);
+        assertThreadLocalCallbacks(obj.getClass());
+
+        e = new Enhancer();
+        e.setSuperclass(InjectConflict.class);
+        e.setCallback(NoOp.INSTANCE);
+        e.setInjectCallbacks(true);
+        try {
+            e.create();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testCompile() throws Exception {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(ConstructorCall.class);
+        e.setCallback(new FixedValue() {
+            public Object loadObject() {
+                return "first";
+            }
+        });
+        CompiledEnhancer compiled = e.compile();
+
+        ConstructorCall obj = (ConstructorCall)compiled.newInstance(new Callback[]{ new FixedValue() {
+            public Object loadObject() {
+                return "bar";
+            }
+        }});
+        assertSame(compiled.getProxyClass(), obj.getClass());
+        assertEquals("bar", obj.x);
+        assertEquals("bar", obj.toString());
+        assertThreadLocalCallbacks(obj.getClass());
+
+        e = new Enhancer();
+        e.setSuperclass(ConstructorCall.class);
+        e.setCallback(NoOp.INSTANCE);
+        e.setUseFactory(false);
+        try {
+            e.compile();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public static class InvokerTarget {
+        public long add(int a, long b) {
+            return a + b;
+        }
+
+        public String name(String prefix) {
+            return prefix + "target";
+        }
+
+        public void fail() throws IOException {
+            throw new IOException("fail");
+        }
+    }
+
+    public void testMethodInvokers() throws Throwable {
+        final List proxies = new ArrayList();
+        Enhancer e = new Enhancer();
+        e.setSuperclass(InvokerTarget.class);
+        e.setCallback(new MethodInterceptor() {
+            public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+                proxies.add(proxy);
+                return proxy.invokeSuper(obj, args);
+            }
+        });
+        e.setUseMethodInvokers(true);
+        InvokerTarget obj = (InvokerTarget)e.create();
+        assertEquals(5L, obj.add(2, 3L));
+        assertEquals("atarget", obj.name("a"));
+        try {
+            obj.fail();
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+
+        MethodProxy add = (MethodProxy)proxies.get(0);
+        assertEquals(Long.valueOf(7), add.invokeSuper(obj, new Object[]{ Integer.valueOf(3), Long.valueOf(4) }));
+        assertEquals(Long.valueOf(9), add.invoke(new InvokerTarget(), new Object[]{ Integer.valueOf(4), Long.valueOf(5) }));
+        assertTrue(add.getSuperIndex() >= 0);
+    }
+
+    private static MethodProxy findAdd(Class type) {
+        return MethodProxy.find(type, new net.sf.cglib.core.Signature("add", "(IJ)J"));
+    }
+
+    public void testInitializeMethodProxies() throws Exception {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(InvokerTarget.class);
+        e.setCallbackType(MethodInterceptor.class);
+        e.setUseCache(false);
+        e.setInitializeMethodProxies(true);
+        Class type = e.createClass();
+        assertTrue(findAdd(type).isInitialized());
+
+        final List tasks = new ArrayList();
+        e = new Enhancer();
+        e.setSuperclass(InvokerTarget.class);
+        e.setCallbackType(MethodInterceptor.class);
+        e.setUseCache(false);
+        e.setUseMethodInvokers(true);
+        e.setInitializeMethodProxies(true);
+        e.setMethodProxyExecutor(new java.util.concurrent.Executor() {
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        type = e.createClass();
+        assertEquals(1, tasks.size());
+        assertFalse(findAdd(type).isInitialized());
+        ((Runnable)tasks.get(0)).run();
+        assertTrue(findAdd(type).isInitialized());
+    }
+
+    public void testInitializeMethodProxiesInBulk() throws Exception {
+        Class[] types = new Class[2];
+        for (int i = 0; i < types.length; i++) {
+            Enhancer e = new Enhancer();
+            e.setSuperclass(InvokerTarget.class);
+            e.setCallbackType(MethodInterceptor.class);
+            e.setUseCache(false);
+            e.setUseMethodInvokers(i == 1);
+            types[i] = e.createClass();
+            assertFalse(findAdd(types[i]).isInitialized());
+        }
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(2);
+        try {
+            MethodProxy.initialize(types, executor);
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < types.length; i++) {
+            assertTrue(findAdd(types[i]).isInitialized());
+        }
+        MethodProxy.initialize(Object.class);
+    }
+
+    public void testLazyMethodResolution() throws Throwable {
+        final List methods = new ArrayList();
+        Enhancer e = new Enhancer();
+        e.setSuperclass(InvokerTarget.class);
+        e.setCallback(new MethodInterceptor() {
+            public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+                methods.add(method);
+                return proxy.invokeSuper(obj, args);
+            }
+        });
+        e.setUseCache(false);
+        e.setLazyMethodResolution(true);
+        e.setUseMethodInvokers(true);
+        InvokerTarget obj = (InvokerTarget)e.create();
+        Field addProxy = null;
+        Field[] fields = obj.getClass().getDeclaredFields();
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getName().startsWith("CGLIB$add$") && fields[i].getName().endsWith("$Proxy")) {
+                addProxy = fields[i];
+            }
+        }
+        addProxy.setAccessible(true);
+        assertNull(addProxy.get(null));
+
+        assertEquals(5L, obj.add(2, 3L));
+        assertEquals(InvokerTarget.class.getMethod("add", new Class[]{ Integer.TYPE, Long.TYPE }), methods.get(0));
+        MethodProxy add = (MethodProxy)addProxy.get(null);
+        assertNotNull(add);
+        assertEquals(6L, obj.add(3, 3L));
+        assertSame(add, findAdd(obj.getClass()));
+
+        MethodProxy name = MethodProxy.find(obj.getClass(), new net.sf.cglib.core.Signature("name", "(Ljava/lang/String;)Ljava/lang/String;"));
+        assertEquals("name", name.getSignature().getName());
+        assertEquals("atarget", obj.name("a"));
+    }
+
+    public void testInitializeWithLazyMethodResolution() throws Throwable {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(InvokerTarget.class);
+        e.setCallbackType(MethodInterceptor.class);
+        e.setUseCache(false);
+        e.setLazyMethodResolution(true);
+        Class type = e.createClass();
+        MethodProxy.initialize(type);
+        Field[] fields = type.getDeclaredFields();
+        int proxies = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getType() == MethodProxy.class) {
+                fields[i].setAccessible(true);
+                MethodProxy proxy = (MethodProxy)fields[i].get(null);
+                assertNotNull(fields[i].getName(), proxy);
+                assertTrue(proxy.isInitialized());
+                proxies++;
+            }
+        }
+        assertTrue(proxies > 0);
+    }
+
+    private static FixedValue fixedValue(final Object value) {
+        return new FixedValue() {
+            public Object loadObject() {
+                return value;
+            }
+        };
+    }
+
+    public void testInvokeDynamic() throws Throwable {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(InvokerTarget.class);
+        e.setCallbacks(new Callback[]{
+            fixedValue("fixed"),
+            new MethodInterceptor() {
+                public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+                    return proxy.invokeSuper(obj, args);
+                }
+            },
+            new Dispatcher() {
+                public Object loadObject() {
+                    return new InvokerTarget();
+                }
+            },
+        });
+        e.setCallbackFilter(new CallbackFilter() {
+            public int accept(Method method) {
+                if (method.getName().equals("name")) {
+                    return 0;
+                } else if (method.getName().equals("add")) {
+                    return 1;
+                }
+                return 2;
+            }
+        });
+        e.setUseInvokeDynamic(true);
+        InvokerTarget obj = (InvokerTarget)e.create();
+        assertEquals("fixed", obj.name("a"));
+        assertEquals(5L, obj.add(2, 3L));
+        try {
+            obj.fail();
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+
+        // relinks for each new callback, then falls back to an interface call
+        Factory factory = (Factory)obj;
+        for (int i = 0; i < 10; i++) {
+            factory.setCallback(0, fixedValue("fixed" + i));
+            assertEquals("fixed" + i, obj.name("a"));
+            assertEquals("fixed" + i, obj.name("b"));
+        }
+        Callback[] callbacks = factory.getCallbacks();
+        callbacks[0] = fixedValue("other");
+        Object other = factory.newInstance(callbacks);
+        assertEquals("other", ((InvokerTarget)other).name("a"));
+        assertEquals("fixed9", obj.name("a"));
+    }
+
+    static class CountingFilter implements CallbackFilter {
+        int calls;
+
+        public int accept(Method method) {
+            calls++;
+            return method.getName().equals("name") ? 1 : 0;
+        }
+    }
+
+    static class PureCountingFilter extends CountingFilter implements PureCallbackFilter {
+    }
+
+    private static Class createInvokerTarget(CallbackFilter filter, Class[] callbackTypes) {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(InvokerTarget.class);
+        e.setCallbackFilter(filter);
+        e.setCallbackTypes(callbackTypes);
+        e.setUseCache(false);
+        return e.createClass();
+    }
+
+    public void testPureCallbackFilter() throws Exception {
+        Class[] interceptors = { MethodInterceptor.class, FixedValue.class };
+        Class[] noOps = { NoOp.class, FixedValue.class };
+
+        PureCountingFilter pure = new PureCountingFilter();
+        createInvokerTarget(pure, interceptors);
+        int calls = pure.calls;
+        assertTrue(calls > 0);
+        Class type = createInvokerTarget(pure, noOps);
+        assertEquals("the results are memoized", calls, pure.calls);
+
+        CountingFilter filter = new CountingFilter();
+        createInvokerTarget(filter, interceptors);
+        calls = filter.calls;
+        createInvokerTarget(filter, noOps);
+        assertTrue(filter.calls > calls);
+
+        Enhancer.registerCallbacks(type, new Callback[]{ NoOp.INSTANCE, fixedValue("fixed") });
+        InvokerTarget obj = (InvokerTarget)type.newInstance();
+        assertEquals("fixed", obj.name("a"));
+        assertEquals(5L, obj.add(2, 3L));
+    }
+
+    public void testAllMethodsAreShared() {
+        List first = ReflectUtils.addAllMethods(InvokerTarget.class, new ArrayList());
+        List second = ReflectUtils.addAllMethods(InvokerTarget.class, new ArrayList());
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertSame(first.get(i), second.get(i));
+        }
+        List declared = Arrays.asList(InvokerTarget.class.getDeclaredMethods());
+        assertEquals(declared, first.subList(0, declared.size()));
+    }
+
     
     
    void assertThreadLocalCallbacks(Class cls)throws Exception{
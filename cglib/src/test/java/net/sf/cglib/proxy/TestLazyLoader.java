@@ -18,6 +18,8 @@ package net.sf.cglib.proxy;
 import net.sf.cglib.CodeGenTestCase;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.*;
 
 public class TestLazyLoader extends CodeGenTestCase  {
@@ -32,6 +34,69 @@ public class TestLazyLoader extends CodeGenTestCase  {
         assertTrue("foo".equals(obj.toString()));
     }
 
+    public void testSteadyStateIsNotSynchronized() throws Exception {
+        Object obj = Enhancer.create(Object.class, new LazyLoader() {
+            public Object loadObject() {
+                return "foo";
+            }
+        });
+        Method load = obj.getClass().getDeclaredMethod("CGLIB$LOAD_PRIVATE_0", new Class[0]);
+        assertFalse(Modifier.isSynchronized(load.getModifiers()));
+        Field delegate = obj.getClass().getDeclaredField("CGLIB$LAZY_LOADER_0");
+        assertTrue(Modifier.isVolatile(delegate.getModifiers()));
+    }
+
+    /**
+     * Races threads on the first call of fresh proxies: each proxy must call
+     * loadObject exactly once, and every thread must see the loaded object.
+     */
+    public void testConcurrentLoad() throws Throwable {
+        final int threads = 4;
+        final int rounds = 200;
+        final AtomicInteger loads = new AtomicInteger();
+        final Factory factory = (Factory)Enhancer.create(Object.class, new LazyLoader() {
+            public Object loadObject() {
+                return "foo";
+            }
+        });
+        final Object[] proxies = new Object[rounds];
+        for (int i = 0; i < rounds; i++) {
+            final int round = i;
+            proxies[i] = factory.newInstance(new LazyLoader() {
+                public Object loadObject() {
+                    loads.incrementAndGet();
+                    return "foo" + round;
+                }
+            });
+        }
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final List failures = Collections.synchronizedList(new ArrayList());
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < rounds; i++) {
+                            barrier.await();
+                            String value = proxies[i].toString();
+                            if (!value.equals("foo" + i)) {
+                                failures.add("round " + i + " saw " + value);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+        }
+        assertEquals(Collections.EMPTY_LIST, failures);
+        assertEquals(rounds, loads.get());
+    }
+
     public TestLazyLoader(String testName) {
         super(testName);
     }
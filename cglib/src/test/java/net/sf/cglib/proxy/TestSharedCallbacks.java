@@ -0,0 +1,188 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.proxy;
+
+import net.sf.cglib.CodeGenTestCase;
+import net.sf.cglib.core.ReflectUtils;
+import java.lang.reflect.*;
+import java.util.Arrays;
+import junit.framework.*;
+
+public class TestSharedCallbacks extends CodeGenTestCase {
+    private static final int CALLBACKS = 8;
+
+    public static class Entity {
+        public int m0() { return 0; }
+        public int m1() { return 1; }
+        public int m2() { return 2; }
+        public int m3() { return 3; }
+        public int m4() { return 4; }
+        public int m5() { return 5; }
+        public int m6() { return 6; }
+        public int m7() { return 7; }
+    }
+
+    private static final CallbackFilter BY_NAME = new CallbackFilter() {
+        public int accept(Method method) {
+            String name = method.getName();
+            if (name.length() == 2 && name.charAt(0) == 'm') {
+                return name.charAt(1) - '0';
+            }
+            return 0;
+        }
+    };
+
+    private static Callback[] fixedValues(final int offset) {
+        Callback[] callbacks = new Callback[CALLBACKS];
+        for (int i = 0; i < CALLBACKS; i++) {
+            final int value = offset + i;
+            callbacks[i] = new FixedValue() {
+                public Object loadObject() {
+                    return new Integer(value);
+                }
+            };
+        }
+        return callbacks;
+    }
+
+    private static Enhancer enhancer(boolean shareCallbacks) {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(Entity.class);
+        e.setCallbackFilter(BY_NAME);
+        e.setCallbackTypes(new Class[]{
+            FixedValue.class, FixedValue.class, FixedValue.class, FixedValue.class,
+            FixedValue.class, FixedValue.class, FixedValue.class, FixedValue.class,
+        });
+        e.setShareCallbacks(shareCallbacks);
+        return e;
+    }
+
+    private static void assertCalls(int offset, Entity entity) {
+        assertEquals(offset, entity.m0());
+        assertEquals(offset + 3, entity.m3());
+        assertEquals(offset + 7, entity.m7());
+    }
+
+    public void testSharedCallbacks() throws Exception {
+        Class type = enhancer(true).createClass();
+        assertEquals(Callback[].class, type.getDeclaredField("CGLIB$CALLBACKS").getType());
+        try {
+            type.getDeclaredField("CGLIB$CALLBACK_0");
+            fail("expected one field for all the callbacks");
+        } catch (NoSuchFieldException expected) {
+        }
+
+        Callback[] callbacks = fixedValues(10);
+        Factory factory = (Factory)newInstance(type, callbacks);
+        Entity a = (Entity)factory;
+        Entity b = (Entity)factory.newInstance(callbacks);
+        assertCalls(10, a);
+        assertCalls(10, b);
+        assertSame(callbacks[3], factory.getCallback(3));
+        assertNull(factory.getCallback(CALLBACKS));
+
+        Callback[] copy = factory.getCallbacks();
+        assertNotSame(callbacks, copy);
+        assertEquals(Arrays.asList(callbacks), Arrays.asList(copy));
+
+        // copy on write leaves the other instances and the array alone
+        Callback replacement = fixedValues(100)[3];
+        factory.setCallback(3, replacement);
+        assertEquals(103, a.m3());
+        assertEquals(13, b.m3());
+        assertSame(callbacks[3], ((Factory)b).getCallback(3));
+
+        ((Factory)b).setCallbacks(fixedValues(20));
+        assertCalls(20, b);
+        try {
+            ((Factory)b).setCallbacks(new Callback[]{ NoOp.INSTANCE });
+            fail("expected the array to be checked");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    public void testStaticCallbacks() throws Exception {
+        Class type = enhancer(true).createClass();
+        Factory unbound = (Factory)type.newInstance();
+        assertNull(unbound.getCallback(5));
+        Enhancer.registerStaticCallbacks(type, fixedValues(30));
+        try {
+            Entity bound = (Entity)type.newInstance();
+            assertCalls(30, bound);
+            // bound to no callbacks when created
+            assertNull(unbound.getCallback(5));
+        } finally {
+            Enhancer.registerStaticCallbacks(type, null);
+        }
+    }
+
+    public void testInjectedCallbacks() {
+        Enhancer e = enhancer(true);
+        e.setInjectCallbacks(true);
+        Factory factory = (Factory)newInstance(e.createClass(), fixedValues(40));
+        assertCalls(40, (Entity)factory);
+        assertCalls(50, (Entity)factory.newInstance(fixedValues(50)));
+    }
+
+    private static Object newInstance(Class type, Callback[] callbacks) {
+        Enhancer.registerCallbacks(type, callbacks);
+        try {
+            return ReflectUtils.newInstance(type);
+        } finally {
+            Enhancer.registerCallbacks(type, null);
+        }
+    }
+
+    /**
+     * Shared callbacks replace the fields of the callbacks with one field for all of them.
+     * The bytes allocated per instance are compared by SharedCallbacksBenchmark in cglib-jmh.
+     */
+    public void testInstanceFields() {
+        int fields = countInstanceFields(enhancer(false).createClass());
+        int shared = countInstanceFields(enhancer(true).createClass());
+        // one array instead of a field per callback and the flag telling whether they are bound
+        assertEquals(CALLBACKS + 1 - 1, fields - shared);
+    }
+
+    private static int countInstanceFields(Class type) {
+        int count = 0;
+        Field[] fields = type.getDeclaredFields();
+        for (int i = 0; i < fields.length; i++) {
+            if (!Modifier.isStatic(fields[i].getModifiers())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public TestSharedCallbacks(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestSharedCallbacks.class);
+    }
+
+    public void perform(ClassLoader loader) throws Throwable {
+    }
+
+    public void testFailOnMemoryLeak() throws Throwable {
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.proxy;
+
+import net.sf.cglib.CodeGenTestCase;
+import junit.framework.*;
+
+public class TestTypedMethodInterceptor extends CodeGenTestCase {
+    public static class Bean {
+        private int value;
+
+        public int getValue() {
+            return value;
+        }
+
+        public void setValue(int value) {
+            this.value = value;
+        }
+
+        public String concat(boolean z, byte b, char c, short s, int i, long j, float f, double d, String str) {
+            return "" + z + b + c + s + i + j + f + d + str;
+        }
+
+        public double half(double d) {
+            return d / 2;
+        }
+
+        public char next(char c) {
+            return (char)(c + 1);
+        }
+    }
+
+    public static abstract class Abstract {
+        public abstract long size();
+    }
+
+    private static final TypedMethodInterceptor PASS = new TypedMethodInterceptor() {
+        public void intercept(TypedInvocation invocation) throws Throwable {
+            invocation.invokeSuper();
+        }
+    };
+
+    private static Object create(Class type, TypedMethodInterceptor interceptor) {
+        return Enhancer.create(type, interceptor);
+    }
+
+    public void testInvokeSuper() {
+        Bean bean = (Bean)create(Bean.class, PASS);
+        bean.setValue(42);
+        assertEquals(42, bean.getValue());
+        assertEquals("true2x3456.08.0s",
+                     bean.concat(true, (byte)2, 'x', (short)3, 4, 5L, 6.0f, 8.0, "s"));
+        assertEquals(1.25, bean.half(2.5), 0);
+        assertEquals('b', bean.next('a'));
+    }
+
+    public void testArguments() {
+        final Object[] seen = new Object[9];
+        Bean bean = (Bean)create(Bean.class, new TypedMethodInterceptor() {
+            public void intercept(TypedInvocation invocation) throws Throwable {
+                if (invocation.getMethod().getName().equals("concat")) {
+                    seen[0] = Boolean.valueOf(invocation.getBoolean(0));
+                    seen[1] = new Integer(invocation.getInt(1));
+                    seen[2] = new Integer(invocation.getInt(2));
+                    seen[3] = new Integer(invocation.getInt(3));
+                    seen[4] = new Integer(invocation.getInt(4));
+                    seen[5] = new Long(invocation.getLong(5));
+                    seen[6] = new Float(invocation.getFloat(6));
+                    seen[7] = new Double(invocation.getDouble(7));
+                    seen[8] = invocation.getObject(8);
+                    invocation.setInt(4, 40);
+                    invocation.setDouble(7, -1.5);
+                    invocation.setObject(8, "t");
+                }
+                invocation.invokeSuper();
+            }
+        });
+        assertEquals("false-1y-34057.0-1.5t",
+                     bean.concat(false, (byte)-1, 'y', (short)-3, 4, 5L, 7.0f, 8.0, "s"));
+        assertEquals(Boolean.FALSE, seen[0]);
+        assertEquals(new Integer(-1), seen[1]);
+        assertEquals(new Integer('y'), seen[2]);
+        assertEquals(new Integer(-3), seen[3]);
+        assertEquals(new Integer(4), seen[4]);
+        assertEquals(new Long(5), seen[5]);
+        assertEquals(new Float(7.0f), seen[6]);
+        assertEquals(new Double(8.0), seen[7]);
+        assertEquals("s", seen[8]);
+    }
+
+    public void testReturnValue() {
+        Bean bean = (Bean)create(Bean.class, new TypedMethodInterceptor() {
+            public void intercept(TypedInvocation invocation) throws Throwable {
+                String name = invocation.getMethod().getName();
+                if (name.equals("getValue")) {
+                    invocation.setReturnInt(7);
+                } else if (name.equals("half")) {
+                    invocation.invokeSuper();
+                    invocation.setReturnDouble(invocation.getReturnDouble() + 1);
+                } else if (name.equals("next")) {
+                    invocation.setReturnInt('z');
+                }
+                // not calling invokeSuper returns zero or null
+            }
+        });
+        assertEquals(7, bean.getValue());
+        assertEquals(2.0, bean.half(2), 0);
+        assertEquals('z', bean.next('a'));
+        assertNull(bean.concat(true, (byte)0, 'a', (short)0, 0, 0, 0, 0, null));
+        assertEquals(0, bean.hashCode());
+    }
+
+    public void testAbstract() {
+        Abstract obj = (Abstract)create(Abstract.class, new TypedMethodInterceptor() {
+            public void intercept(TypedInvocation invocation) throws Throwable {
+                if (invocation.getMethod().getName().equals("size")) {
+                    invocation.setReturnLong(Long.MAX_VALUE);
+                } else {
+                    invocation.invokeSuper();
+                }
+            }
+        });
+        assertEquals(Long.MAX_VALUE, obj.size());
+        try {
+            ((Abstract)create(Abstract.class, PASS)).size();
+            fail("expected AbstractMethodError");
+        } catch (AbstractMethodError expected) {
+        }
+    }
+
+    public void testMixedCallbacks() {
+        Enhancer e = new Enhancer();
+        e.setSuperclass(Bean.class);
+        e.setCallbacks(new Callback[]{ NoOp.INSTANCE, new TypedMethodInterceptor() {
+            public void intercept(TypedInvocation invocation) throws Throwable {
+                invocation.setReturnInt(-1);
+            }
+        }});
+        e.setCallbackFilter(new CallbackFilter() {
+            public int accept(java.lang.reflect.Method method) {
+                return method.getName().equals("getValue") ? 1 : 0;
+            }
+        });
+        Bean bean = (Bean)e.create();
+        bean.setValue(3);
+        assertEquals(-1, bean.getValue());
+        assertEquals('b', bean.next('a'));
+    }
+
+    public TestTypedMethodInterceptor(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestTypedMethodInterceptor.class);
+    }
+
+    public void perform(ClassLoader loader) throws Throwable {
+    }
+
+    public void testFailOnMemoryLeak() throws Throwable {
+    }
+}
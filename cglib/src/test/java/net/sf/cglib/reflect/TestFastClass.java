@@ -20,6 +20,11 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.sf.cglib.core.ReflectUtils;
+import net.sf.cglib.core.Signature;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -50,6 +55,204 @@ public class TestFastClass extends net.sf.cglib.CodeGenTestCase {
         }
     }
 
+    public void testHiddenClass() throws Throwable {
+        FastClass.Generator gen = new FastClass.Generator();
+        gen.setType(ThrowsSomething.class);
+        gen.setHiddenClass(true);
+        gen.setUseCache(false);
+        FastClass fc = gen.create();
+        assertTrue(fc.newInstance() instanceof ThrowsSomething);
+        if (ReflectUtils.isHiddenClassSupported()) {
+            Method isHidden = Class.class.getMethod("isHidden");
+            assertEquals(Boolean.TRUE, isHidden.invoke(fc.getClass()));
+        }
+    }
+
+    public static class Calculator {
+        private long total;
+
+        public Calculator() {
+        }
+
+        public Calculator(long total) {
+            this.total = total;
+        }
+
+        public Calculator(String a, int b, Long c) {
+            this.total = Long.parseLong(a) + b + c.longValue();
+        }
+
+        public long getTotal() { return total; }
+        public int add(int a) { total += a; return (int)total; }
+        public char first(String s, int i) { return s.charAt(i); }
+        public float half(float a) { return a / 2; }
+        public double sum(double a, double b, double c) { return a + b + c; }
+        public boolean isZero() { return total == 0; }
+        public void reset() { total = 0; }
+        public String concat(String a, String b) { return a + b; }
+        public int many(int a, int b, int c, int d) { return a + b + c + d; }
+        public void fail(String message) throws IOException { throw new IOException(message); }
+    }
+
+    private static FastClass createSpecialized(Class type) {
+        FastClass.Generator gen = new FastClass.Generator();
+        gen.setType(type);
+        gen.setSpecializedEntryPoints(true);
+        return gen.create();
+    }
+
+    public void testSpecializedInvoke() throws Throwable {
+        FastClass fc = createSpecialized(Calculator.class);
+        assertNotSame(fc.getClass(), FastClass.create(Calculator.class).getClass());
+        fc.getClass().getDeclaredMethod("invoke2", new Class[]{ Integer.TYPE, Object.class, Object.class, Object.class });
+        assertSpecializedInvoke(fc);
+    }
+
+    public void testSpecializedInvokeNotGenerated() throws Throwable {
+        FastClass fc = FastClass.create(Calculator.class);
+        try {
+            fc.getClass().getDeclaredMethod("invoke2", new Class[]{ Integer.TYPE, Object.class, Object.class, Object.class });
+            fail("expected the entry points to be generated on request only");
+        } catch (NoSuchMethodException expected) {
+        }
+        // the calls still work, through invoke(int, Object, Object[])
+        assertSpecializedInvoke(fc);
+    }
+
+    private static void assertSpecializedInvoke(FastClass fc) throws Throwable {
+        Calculator c = (Calculator)fc.newInstance1(fc.getIndex(new Class[]{ Long.TYPE }), new Long(40));
+        int getTotal = fc.getIndex("getTotal", new Class[0]);
+        int add = fc.getIndex("add", new Class[]{ Integer.TYPE });
+        int first = fc.getIndex("first", new Class[]{ String.class, Integer.TYPE });
+        int half = fc.getIndex("half", new Class[]{ Float.TYPE });
+        int sum = fc.getIndex("sum", new Class[]{ Double.TYPE, Double.TYPE, Double.TYPE });
+        int isZero = fc.getIndex("isZero", new Class[0]);
+        int reset = fc.getIndex("reset", new Class[0]);
+        int concat = fc.getIndex("concat", new Class[]{ String.class, String.class });
+
+        assertEquals(new Long(40), fc.invoke0(getTotal, c));
+        assertEquals(40L, fc.invokeLong(getTotal, c));
+        assertEquals(42, fc.invokeInt(add, c, new Integer(2)));
+        assertEquals(new Integer(43), fc.invoke1(add, c, new Integer(1)));
+        assertEquals('b', fc.invokeInt(first, c, "abc", new Integer(1)));
+        assertEquals(1.5, fc.invokeDouble(half, c, new Float(3)), 0);
+        assertEquals(6.0, fc.invokeDouble(sum, c, new Double(1), new Double(2), new Double(3)), 0);
+        assertEquals(new Double(6), fc.invoke3(sum, c, new Double(1), new Double(2), new Double(3)));
+        assertEquals("ab", fc.invoke2(concat, c, "a", "b"));
+        assertFalse(fc.invokeBoolean(isZero, c));
+        fc.invokeVoid(reset, c);
+        assertTrue(fc.invokeBoolean(isZero, c));
+
+        // the other combinations go through invoke(int, Object, Object[])
+        assertEquals(3, fc.invokeLong(add, c, new Integer(3)));
+        assertEquals(3.0, fc.invokeDouble(getTotal, c), 0);
+        fc.invokeVoid(concat, c, "a", "b");
+        assertEquals(new Long(3), fc.invoke(getTotal, c, new Object[0]));
+        try {
+            fc.invokeInt(concat, c, "a", "b");
+            fail("expected a String not to be returned as an int");
+        } catch (IllegalArgumentException expected) {
+        }
+        int many = fc.getIndex("many", new Class[]{ Integer.TYPE, Integer.TYPE, Integer.TYPE, Integer.TYPE });
+        assertEquals(new Integer(10), fc.invoke(many, c, new Object[]{ new Integer(1), new Integer(2), new Integer(3), new Integer(4) }));
+
+        try {
+            fc.invokeVoid(fc.getIndex("fail", new Class[]{ String.class }), c, "boom");
+            fail("expected exception");
+        } catch (InvocationTargetException e) {
+            assertEquals("boom", e.getTargetException().getMessage());
+        }
+    }
+
+    public void testSpecializedFastMembers() throws Throwable {
+        FastClass fc = createSpecialized(Calculator.class);
+        Calculator c = (Calculator)fc.getConstructor(new Class[]{ String.class, Integer.TYPE, Long.class })
+            .newInstance3("1", new Integer(2), new Long(3));
+        assertEquals(6, c.getTotal());
+        assertEquals(0, ((Calculator)fc.getConstructor(new Class[0]).newInstance()).getTotal());
+        assertEquals(8, fc.getMethod("add", new Class[]{ Integer.TYPE }).invokeInt(c, new Integer(2)));
+        assertEquals(8L, fc.getMethod("getTotal", new Class[0]).invokeLong(c));
+        assertEquals("xy", fc.getMethod("concat", new Class[]{ String.class, String.class }).invoke2(c, "x", "y"));
+        fc.getMethod("reset", new Class[0]).invokeVoid(c);
+        assertTrue(fc.getMethod("isZero", new Class[0]).invokeBoolean(c));
+    }
+
+    private static FastClass createWithMethodHandles(Class type) {
+        FastClass.Generator gen = new FastClass.Generator();
+        gen.setType(type);
+        gen.setUseMethodHandles(true);
+        return gen.create();
+    }
+
+    public void testMethodHandles() throws Throwable {
+        FastClass fc = createWithMethodHandles(Calculator.class);
+        assertEquals(MethodHandleFastClass.class, fc.getClass());
+        assertSame(fc, createWithMethodHandles(Calculator.class));
+        assertSpecializedInvoke(fc);
+
+        Calculator c = (Calculator)fc.newInstance(fc.getIndex(new Class[]{ String.class, Integer.TYPE, Long.class }),
+                                                  new Object[]{ "1", new Integer(2), new Long(3) });
+        assertEquals(6, c.getTotal());
+        assertEquals(new Long(6), fc.getMethod("getTotal", new Class[0]).invoke(c, new Object[0]));
+        assertEquals(-1, fc.getIndex("add", new Class[]{ Long.TYPE }));
+        try {
+            fc.invoke(fc.getMaxIndex() + 1, c, new Object[0]);
+            fail("expected exception");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            fc.invoke("fail", new Class[]{ String.class }, c, new Object[]{ "boom" });
+            fail("expected exception");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getTargetException() instanceof IOException);
+        }
+    }
+
+    private static FastClass createWithMethodHandles(Class type, ClassLoader loader) {
+        FastClass.Generator gen = new FastClass.Generator();
+        gen.setType(type);
+        gen.setClassLoader(loader);
+        gen.setUseMethodHandles(true);
+        return gen.create();
+    }
+
+    public void testMethodHandlesCachedPerLoader() throws Throwable {
+        // cached with the loader of the generator, not with the class of the JDK
+        ClassLoader loader = new ClassLoader(getClass().getClassLoader()){};
+        FastClass fc = createWithMethodHandles(ArrayList.class, loader);
+        assertSame(fc, createWithMethodHandles(ArrayList.class, loader));
+        assertNotSame(fc, createWithMethodHandles(ArrayList.class, new ClassLoader(getClass().getClassLoader()){}));
+        assertEquals(new Integer(0), fc.invoke("size", new Class[0], new ArrayList(), new Object[0]));
+    }
+
+    public void testMethodHandlesIndexes() throws Throwable {
+        FastClass generated = FastClass.create(MemberSwitchBean.class);
+        FastClass fc = createWithMethodHandles(MemberSwitchBean.class);
+        assertEquals(generated.getMaxIndex(), fc.getMaxIndex());
+        Method[] methods = MemberSwitchBean.class.getMethods();
+        for (int i = 0; i < methods.length; i++) {
+            Signature sig = ReflectUtils.getSignature(methods[i]);
+            assertEquals(methods[i].toString(), generated.getIndex(sig), fc.getIndex(sig));
+            assertEquals(methods[i].toString(),
+                         generated.getIndex(methods[i].getName(), methods[i].getParameterTypes()),
+                         fc.getIndex(methods[i].getName(), methods[i].getParameterTypes()));
+        }
+        Constructor[] constructors = MemberSwitchBean.class.getConstructors();
+        for (int i = 0; i < constructors.length; i++) {
+            Class[] types = constructors[i].getParameterTypes();
+            assertEquals(generated.getIndex(types), fc.getIndex(types));
+        }
+
+        MemberSwitchBean bean = (MemberSwitchBean)fc.newInstance();
+        assertEquals(new Integer(10), fc.invoke("staticMethod", new Class[0], null, null));
+        Method pkg = MemberSwitchBean.class.getDeclaredMethod("pkg", (Class[])null);
+        assertEquals(new Integer(9), fc.getMethod(pkg).invoke(bean, null));
+        assertEquals("dill", createWithMethodHandles(Child.class).invoke("getHerb", new Class[0], new Child(), new Object[0]));
+        Method foo = HasProtectedMethod.class.getDeclaredMethod("foo");
+        assertEquals(new Integer(2), createWithMethodHandles(HasProtectedMethod.class).getMethod(foo)
+                     .invoke(new HasProtectedMethod(), new Object[0]));
+    }
+
     public static class Child extends net.sf.cglib.reflect.sub.Parent { }
 
     public void testSuperclass() throws Throwable {
@@ -585,6 +788,21 @@ public class TestFastClass extends net.sf.cglib.CodeGenTestCase {
         FastClass.Generator gen = new FastClass.Generator();
         gen.setType(ReallyBigClass.class);
         FastClass fc = gen.create();
+
+        Method[] methods = ReallyBigClass.class.getDeclaredMethods();
+        Set indexes = new HashSet();
+        for (int i = 0; i < methods.length; i++) {
+            int index = fc.getIndex(methods[i].getName(), methods[i].getParameterTypes());
+            assertEquals(methods[i].toString(), fc.getIndex(ReflectUtils.getSignature(methods[i])), index);
+            assertTrue(index >= 0);
+            assertTrue(indexes.add(Integer.valueOf(index)));
+        }
+        assertEquals(fc.getIndex(new Signature("toString", "()Ljava/lang/String;")),
+                     fc.getIndex("toString", new Class[0]));
+        assertEquals(-1, fc.getIndex("method1", new Class[]{ Integer.TYPE, Short.TYPE, Double.TYPE }));
+        assertEquals(-1, fc.getIndex("method1", new Class[]{ Integer.TYPE, Short.TYPE }));
+        assertEquals(-1, fc.getIndex("method0", new Class[]{ Integer.TYPE, Short.TYPE, Float.TYPE }));
+        assertEquals(-1, fc.getIndex("method1", new Class[0]));
     }
 
     public void testGetMethod() throws Exception {
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2003 The Apache Software Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.cglib.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import net.sf.cglib.CodeGenTestCase;
+import net.sf.cglib.core.Constants;
+
+public class TestStringSwitcher extends CodeGenTestCase {
+    private static final int[] STYLES = {
+        Constants.SWITCH_STYLE_TRIE,
+        Constants.SWITCH_STYLE_HASH,
+        Constants.SWITCH_STYLE_PERFECT_HASH,
+        Constants.SWITCH_STYLE_AUTO,
+    };
+
+    private static final String[] UNKNOWN = {
+        "", "a", "ab", "abc", "abcd", "ab\u0000", "getFoo ", "getFo", "getFoO", "\u0000", "BB", "Aa",
+    };
+
+    private static StringSwitcher create(String[] strings, int style) {
+        int[] ints = new int[strings.length];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = i * 10;
+        }
+        StringSwitcher.Generator gen = new StringSwitcher.Generator();
+        gen.setStrings(strings);
+        gen.setInts(ints);
+        gen.setSwitchStyle(style);
+        return gen.create();
+    }
+
+    private static void assertSwitch(String[] strings) {
+        assertSwitch(strings, 0);
+    }
+
+    private static void assertSwitch(String[] strings, int firstStyle) {
+        for (int s = firstStyle; s < STYLES.length; s++) {
+            StringSwitcher switcher = create(strings, STYLES[s]);
+            List list = new ArrayList();
+            for (int i = 0; i < strings.length; i++) {
+                list.add(strings[i]);
+                // a copy, with no cached hash code
+                assertEquals(i * 10, switcher.intValue(new String(strings[i].toCharArray())));
+            }
+            for (int i = 0; i < UNKNOWN.length; i++) {
+                if (!list.contains(UNKNOWN[i])) {
+                    assertEquals("style " + STYLES[s] + ", key " + UNKNOWN[i],
+                                 -1, switcher.intValue(UNKNOWN[i]));
+                }
+            }
+        }
+    }
+
+    public void testSingleKey() {
+        assertSwitch(new String[]{ "abc" });
+    }
+
+    public void testEmptyKey() {
+        // not supported by the trie
+        assertSwitch(new String[]{ "", "a", "ab" }, 1);
+    }
+
+    public void testSameLength() {
+        assertSwitch(new String[]{ "getFoo", "getBar", "setFoo", "setBar", "isFoo", "isBar" });
+    }
+
+    public void testNullCharacters() {
+        // a null character reads as a missing one, yet the lengths differ
+        assertSwitch(new String[]{ "ab", "ab\u0000", "ab\u0000\u0000", "\u0000" });
+    }
+
+    public void testSameHashCode() {
+        assertSwitch(new String[]{ "Aa", "BB", "AaAa", "BBBB", "AaBB", "BBAa" });
+    }
+
+    public void testManyKeys() {
+        String[] strings = new String[300];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = "property" + Integer.toString(i * 7919, 36);
+        }
+        assertSwitch(strings);
+    }
+
+    public void testFixedInput() {
+        String[] strings = { "alpha", "beta", "gamma" };
+        StringSwitcher switcher = StringSwitcher.create(strings, new int[]{ 1, 2, 3 }, true);
+        assertEquals(1, switcher.intValue("alpha"));
+        assertEquals(3, switcher.intValue("gamma"));
+    }
+
+    public TestStringSwitcher(String testName) {
+        super(testName);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestStringSwitcher.class);
+    }
+
+    public void perform(ClassLoader loader) throws Throwable {
+    }
+
+    public void testFailOnMemoryLeak() throws Throwable {
+    }
+}